@@ -0,0 +1,362 @@
+package com.corti.files;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.corti.files.checksum.CheckSum;
+import com.corti.files.checksum.MerkleTree;
+
+/**
+ * Re-reads the files in a saved snapshot (a file written by SerializeOrDeserializeFileAttributes) and
+ *   checks they still have the checksum the snapshot has, it's for finding bitrot without getting in
+ *   the way of everything else using the disks.
+ * Usage:
+ *   CheckSumScrubber checkSumScrubber = new CheckSumScrubber(snapshotPath, checkpointPath);
+ *   checkSumScrubber.setBytesPerSecond(50L * 1024 * 1024);
+ *   checkSumScrubber.setReadsPerSecond(200);
+ *   try (Stream<CheckSumScrubber.Mismatch> mismatches = checkSumScrubber.scrub()) {
+ *     mismatches.forEach(mismatch -> System.out.println(mismatch));
+ *   }
+ * The files are read a chunk at a time (setReadSize, default 256KB, it's made smaller when the byte
+ *   budget is low) and each read waits on two token buckets, one for bytes/sec and one for reads/sec
+ *   (opening a file counts as a read); the buckets only hold 100ms worth so there are no bursts after
+ *   a quiet spell, the reads are spread out evenly.  0 is no limit (the default for both).
+ * The stream is lazy, files are only read as you take mismatches from it.  The position (the row in
+ *   the snapshot) is saved to the checkpoint file every setCheckpointIntervalMillis (default 10s), at
+ *   the end and when the stream is closed; scrub() starts from there, it's back to the start once a
+ *   whole pass is done.  The checkpoint is written to a temp file and moved over the old one so a
+ *   crash can't leave half of one.  A checkpoint for a different (or rewritten) snapshot is ignored.
+ * What's reported:
+ *   CHECKSUM ---- same size and modified time but a different checksum, that's bitrot; for a Merkle
+ *                   checksum (see MerkleTree) the bad byte ranges are in the Mismatch
+ *   MODIFIED ---- the size or modified time changed, it isn't read (it was changed on purpose)
+ *   MISSING ----- the file's gone
+ *   UNREADABLE -- it couldn't be read
+ * Directories and files without a checksum in the snapshot are skipped.
+ */
+public class CheckSumScrubber {
+  private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final int MIN_READ_SIZE = 4096;
+
+  private final Path snapshotPath;
+  private final Path checkpointPath;
+  private long bytesPerSecond;
+  private double readsPerSecond;
+  private int readSize = 256 * 1024;
+  private long checkpointIntervalMillis = 10000;
+
+  private FileAttributesTable fileAttributesTable;
+  private RateLimiter byteLimiter;
+  private RateLimiter readLimiter;
+  private ByteBuffer buffer;
+  private int nextRow;
+  private long lastCheckpoint;
+
+  private long filesChecked;
+  private long bytesRead;
+  private long mismatches;
+
+  public enum Reason { CHECKSUM, MODIFIED, MISSING, UNREADABLE }
+
+  public CheckSumScrubber(Path snapshotPath, Path checkpointPath) {
+    this.snapshotPath   = snapshotPath;
+    this.checkpointPath = checkpointPath;
+  }
+
+  // The budgets, 0 (or less) is no limit
+  public void setBytesPerSecond(long bytesPerSecond) {
+    this.bytesPerSecond = Math.max(0, bytesPerSecond);
+  }
+
+  public void setReadsPerSecond(double readsPerSecond) {
+    this.readsPerSecond = Math.max(0, readsPerSecond);
+  }
+
+  public void setReadSize(int readSize) {
+    this.readSize = Math.max(MIN_READ_SIZE, readSize);
+  }
+
+  public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+    this.checkpointIntervalMillis = Math.max(0, checkpointIntervalMillis);
+  }
+
+  public long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+  public double getReadsPerSecond() {
+    return readsPerSecond;
+  }
+  public int getReadSize() {
+    return readSize;
+  }
+
+  // Row in the snapshot that's checked next
+  public int getPosition() {
+    return nextRow;
+  }
+
+  // Stats since the scrubber was created
+  public long getFilesChecked() {
+    return filesChecked;
+  }
+  public long getBytesRead() {
+    return bytesRead;
+  }
+  public long getMismatches() {
+    return mismatches;
+  }
+
+  // Scrub from the checkpoint to the end of the snapshot, the mismatches come back as they're found
+  public Stream<Mismatch> scrub() throws IOException {
+    if (fileAttributesTable == null) {
+      if (Files.isRegularFile(snapshotPath) == false) throw new NoSuchFileException(snapshotPath.toString());
+      fileAttributesTable = SerializeOrDeserializeFileAttributes.deserializeFileAttributesTable(snapshotPath);
+    }
+    nextRow = readCheckpoint();
+    lastCheckpoint = System.currentTimeMillis();
+    byteLimiter = (bytesPerSecond > 0 ? new RateLimiter(bytesPerSecond) : null);
+    readLimiter = (readsPerSecond > 0 ? new RateLimiter(readsPerSecond) : null);
+    int chunkSize = (bytesPerSecond > 0 ? (int) Math.max(MIN_READ_SIZE, Math.min(readSize, bytesPerSecond / 10)) : readSize);
+    if (buffer == null || buffer.capacity() != chunkSize) buffer = ByteBuffer.allocateDirect(chunkSize);
+
+    Spliterator<Mismatch> spliterator = new Spliterators.AbstractSpliterator<Mismatch>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+      @Override
+      public boolean tryAdvance(Consumer<? super Mismatch> action) {
+        while (nextRow < fileAttributesTable.size() && Thread.currentThread().isInterrupted() == false) {
+          Mismatch mismatch = check(fileAttributesTable.get(nextRow));
+          if (mismatch != null) {
+            mismatches++;
+            action.accept(mismatch);
+          }
+          nextRow++;
+          if (System.currentTimeMillis() - lastCheckpoint >= checkpointIntervalMillis) writeCheckpoint(nextRow);
+          if (mismatch != null) return true;
+        }
+        if (nextRow >= fileAttributesTable.size()) writeCheckpoint(0);  // Pass is done, next one starts over
+        return false;
+      }
+    };
+    return StreamSupport.stream(spliterator, false).onClose(() -> {
+      if (nextRow < fileAttributesTable.size()) writeCheckpoint(nextRow);
+    });
+  }
+
+  // Check one file, null if it's fine (or there's nothing to check)
+  private Mismatch check(FileAttributes fileAttributes) {
+    String expected = fileAttributes.getCheckSumValueIfSet();
+    if (fileAttributes.isRegularFile() == false || expected == null || fileAttributes.getPath() == null) return null;
+    String algorithm = fileAttributes.getChecksumAlgorithm();
+    MerkleTree merkleTree = fileAttributes.getMerkleTree();
+    if (MerkleTree.isMerkleAlgorithm(algorithm) && merkleTree == null) return null;  // No blocks to check against
+
+    Path path = fileAttributes.getPath();
+    try {
+      acquire(readLimiter, 1);  // The stat and open
+      BasicFileAttributes basicFileAttributes = Files.readAttributes(path, BasicFileAttributes.class);
+      if (basicFileAttributes.size() != fileAttributes.getSizeInBytes() ||
+          basicFileAttributes.lastModifiedTime().toMillis() != fileAttributes.getLastModifiedTime().toMillis()) {
+        return new Mismatch(fileAttributes, Reason.MODIFIED, null, null);
+      }
+      filesChecked++;
+      try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+        if (merkleTree != null) {
+          List<MerkleTree.ByteRange> badRanges = checkBlocks(fileChannel, merkleTree);
+          return (badRanges.isEmpty() ? null : new Mismatch(fileAttributes, Reason.CHECKSUM, null, badRanges));
+        }
+        MessageDigest messageDigest = CheckSum.getMessageDigest(algorithm);
+        read(fileChannel, 0, fileAttributes.getSizeInBytes(), messageDigest);
+        byte[] digest = messageDigest.digest();
+        byte[] expectedDigest = fileAttributes.getCheckSumBytes();
+        boolean same = (expectedDigest != null ? Arrays.equals(expectedDigest, digest) : expected.equals(CheckSum.toHex(digest)));
+        return (same ? null : new Mismatch(fileAttributes, Reason.CHECKSUM, CheckSum.toHex(digest), null));
+      }
+    } catch (NoSuchFileException e) {
+      return new Mismatch(fileAttributes, Reason.MISSING, null, null);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (Exception e) {
+      System.out.println("Scrub raised error on:" + path.toString() );
+      return new Mismatch(fileAttributes, Reason.UNREADABLE, null, null);
+    }
+  }
+
+  // Hash each block and compare it to the tree's, returns the blocks that differ (adjacent ones merged)
+  private List<MerkleTree.ByteRange> checkBlocks(FileChannel fileChannel, MerkleTree merkleTree) throws Exception {
+    List<MerkleTree.ByteRange> badRanges = new ArrayList<MerkleTree.ByteRange>();
+    long blockSize = merkleTree.getBlockSize();
+    for (int block = 0; block < merkleTree.getNumberOfBlocks(); block++) {
+      long start = block * blockSize;
+      long end   = Math.min(merkleTree.getSize(), start + blockSize);
+      MessageDigest messageDigest = merkleTree.newBlockDigest();
+      read(fileChannel, start, end, messageDigest);
+      if (Arrays.equals(messageDigest.digest(), merkleTree.getBlockDigest(block))) continue;
+
+      int last = badRanges.size() - 1;
+      if (last >= 0 && badRanges.get(last).getEnd() == start)
+        badRanges.set(last, new MerkleTree.ByteRange(badRanges.get(last).getStart(), end));
+      else
+        badRanges.add(new MerkleTree.ByteRange(start, end));
+    }
+    return badRanges;
+  }
+
+  // Feed position up to end of the file to the digest, a chunk at a time within the budgets
+  private void read(FileChannel fileChannel, long position, long end, MessageDigest messageDigest) throws IOException, InterruptedException {
+    while (position < end) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      acquire(byteLimiter, buffer.remaining());
+      acquire(readLimiter, 1);
+      int count = fileChannel.read(buffer, position);
+      if (count < 0) break;  // File got shorter, the checksum won't match
+      position  += count;
+      bytesRead += count;
+      buffer.flip();
+      messageDigest.update(buffer);
+    }
+  }
+
+  private static void acquire(RateLimiter rateLimiter, long permits) throws InterruptedException {
+    if (rateLimiter != null) rateLimiter.acquire(permits);
+  }
+
+  // The row to start at, 0 if there's no checkpoint or it's for another snapshot
+  private int readCheckpoint() throws IOException {
+    if (Files.exists(checkpointPath) == false) return 0;
+    Properties properties = new Properties();
+    try (InputStream inputStream = Files.newInputStream(checkpointPath)) {
+      properties.load(inputStream);
+    }
+    if (getSnapshotId().equals(properties.getProperty("snapshot")) == false) return 0;
+    try {
+      int row = Integer.parseInt(properties.getProperty("nextRow", "0"));
+      return (row >= 0 && row < fileAttributesTable.size() ? row : 0);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  // Write the checkpoint to a temp file and move it over the old one
+  private void writeCheckpoint(int row) {
+    Properties properties = new Properties();
+    properties.setProperty("snapshot", getSnapshotId());
+    properties.setProperty("nextRow", Integer.toString(row));
+    Path tempPath = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+    try {
+      try (FileChannel fileChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                      StandardOpenOption.TRUNCATE_EXISTING);
+           OutputStream outputStream = Channels.newOutputStream(fileChannel)) {
+        properties.store(outputStream, "CheckSumScrubber checkpoint");
+        outputStream.flush();
+        fileChannel.force(true);
+      }
+      try {
+        Files.move(tempPath, checkpointPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempPath, checkpointPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      System.out.println("Checkpoint raised error on:" + checkpointPath.toString() );
+    }
+    lastCheckpoint = System.currentTimeMillis();
+  }
+
+  // Which snapshot the checkpoint is for, a rewritten snapshot gets a new id
+  private String getSnapshotId() {
+    try {
+      BasicFileAttributes basicFileAttributes = Files.readAttributes(snapshotPath, BasicFileAttributes.class);
+      return snapshotPath.toAbsolutePath().normalize() + "," + basicFileAttributes.size() + "," +
+             basicFileAttributes.lastModifiedTime().toMillis();
+    } catch (IOException e) {
+      return snapshotPath.toAbsolutePath().normalize().toString();
+    }
+  }
+
+  // ========================= R a t e L i m i t e r =========================
+
+  // Token bucket; it only holds BURST_NANOS worth of permits so an idle stretch doesn't let the next
+  //   reads go all at once.  A request bigger than what's in the bucket goes into debt and waits it
+  //   off, so the rate is right for any size of request.
+  static final class RateLimiter {
+    private final double permitsPerNano;
+    private final double maxPermits;
+    private double permits;
+    private long lastRefill = System.nanoTime();
+
+    RateLimiter(double permitsPerSecond) {
+      this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+      this.maxPermits     = Math.max(1, permitsPerNano * BURST_NANOS);
+    }
+
+    void acquire(long requested) throws InterruptedException {
+      long now = System.nanoTime();
+      permits    = Math.min(maxPermits, permits + (now - lastRefill) * permitsPerNano);
+      lastRefill = now;
+      permits   -= requested;
+      if (permits < 0) TimeUnit.NANOSECONDS.sleep((long) (-permits / permitsPerNano));
+    }
+  }
+
+  // ========================= M i s m a t c h =========================
+
+  // A file that didn't check out
+  public static final class Mismatch {
+    private final FileAttributes fileAttributes;
+    private final Reason reason;
+    private final String actualCheckSum;
+    private final List<MerkleTree.ByteRange> badRanges;
+
+    Mismatch(FileAttributes fileAttributes, Reason reason, String actualCheckSum, List<MerkleTree.ByteRange> badRanges) {
+      this.fileAttributes = fileAttributes;
+      this.reason         = reason;
+      this.actualCheckSum = actualCheckSum;
+      this.badRanges      = (badRanges == null ? Collections.<MerkleTree.ByteRange>emptyList() : badRanges);
+    }
+
+    public FileAttributes getFileAttributes() {  // From the snapshot
+      return fileAttributes;
+    }
+    public Reason getReason() {
+      return reason;
+    }
+    public String getExpectedCheckSum() {
+      return fileAttributes.getCheckSumValueIfSet();
+    }
+    public String getActualCheckSum() {          // Only for CHECKSUM and not for a Merkle checksum
+      return actualCheckSum;
+    }
+    public List<MerkleTree.ByteRange> getBadRanges() {  // For a Merkle checksum, otherwise empty
+      return badRanges;
+    }
+
+    @Override
+    public String toString() {
+      return reason + "," + fileAttributes.getAbsolutePath() + "," + getExpectedCheckSum() + "," +
+             (actualCheckSum == null ? "" : actualCheckSum) + (badRanges.isEmpty() ? "" : "," + badRanges);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+package com.corti.files;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Computes the checksums for a batch of FileAttributes on a pool of threads, instead of each one
+ *   being done when getCheckSumValue() is first called (that's one file at a time on one thread).
+ * Usage:
+ *   try (CheckSumService checkSumService = new CheckSumService()) {
+ *     checkSumService.setMaxOpenFilesPerFileSystem(2);   // i.e. for spinning disks
+ *     checkSumService.computeCheckSums(fileAttributesList);
+ *   }
+ * There are separate limits for the cpu and the disks:
+ *   setThreads(int) ----------------- threads doing the hashing, default is the number of cores
+ *   setMaxOpenFiles(int) ------------ files being read at the same time, default no more than threads
+ *   setMaxOpenFilesPerFileSystem(int) files being read at the same time on one file system (device),
+ *                                       default no limit; 1 or 2 keeps a spinning disk from seeking
+ *                                       between files while the other devices keep the cores busy
+ * The files for each file system go on their own queue and only that many workers take from it.
+ * setAlgorithms("SHA-256", "MD5") computes more than one checksum for each file, it's still read once
+ *   (see FileAttributes.computeCheckSumValues); by default it's just each file's getChecksumAlgorithm().
+ * Only regular files that don't have a checksum yet are done (a CheckSumCache is used if one's set);
+ *   the checksum is set on the FileAttributes as soon as it's computed (the consumer passed to
+ *   computeCheckSums is called then, from the worker thread).  A file that can't be read is reported
+ *   and left without a checksum.  Set the limits before the first call, the pool is created then.
+ */
+public class CheckSumService implements AutoCloseable {
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int maxOpenFiles = Integer.MAX_VALUE;
+  private int maxOpenFilesPerFileSystem = Integer.MAX_VALUE;
+  private String[] algorithms;  // Null is each file's getChecksumAlgorithm()
+  private ExecutorService executorService;
+  private Semaphore openFiles;
+
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  public void setMaxOpenFiles(int maxOpenFiles) {
+    this.maxOpenFiles = Math.max(1, maxOpenFiles);
+  }
+
+  public void setMaxOpenFilesPerFileSystem(int maxOpenFilesPerFileSystem) {
+    this.maxOpenFilesPerFileSystem = Math.max(1, maxOpenFilesPerFileSystem);
+  }
+
+  public void setAlgorithms(String... algorithms) {
+    if (algorithms.length == 0) throw new IllegalArgumentException("At least one algorithm is needed");
+    this.algorithms = algorithms.clone();
+  }
+
+  public String[] getAlgorithms() {
+    return (algorithms == null ? null : algorithms.clone());
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public int getMaxOpenFiles() {
+    return maxOpenFiles;
+  }
+
+  public int getMaxOpenFilesPerFileSystem() {
+    return maxOpenFilesPerFileSystem;
+  }
+
+  // Compute the missing checksums, returns when they're all done; the number computed is returned
+  public long computeCheckSums(Collection<? extends FileAttributes> fileAttributesList) throws InterruptedException {
+    return computeCheckSums(fileAttributesList, null);
+  }
+
+  // Same as above, onComplete (if not null) gets each FileAttributes after it's checksum is set; it's
+  //   called on the worker threads so it has to be thread safe
+  public long computeCheckSums(Collection<? extends FileAttributes> fileAttributesList,
+                               Consumer<? super FileAttributes> onComplete) throws InterruptedException {
+    // Group the files that need a checksum by file system
+    Map<Object, Queue<FileAttributes>> queuesByFileSystem = new LinkedHashMap<Object, Queue<FileAttributes>>();
+    for (FileAttributes fileAttributes : fileAttributesList) {
+      if (needsCheckSum(fileAttributes) == false) continue;
+      Object fileSystemId = getFileSystemId(fileAttributes);
+      Queue<FileAttributes> queue = queuesByFileSystem.get(fileSystemId);
+      if (queue == null) {
+        queue = new ConcurrentLinkedQueue<FileAttributes>();
+        queuesByFileSystem.put(fileSystemId, queue);
+      }
+      queue.add(fileAttributes);
+    }
+    if (queuesByFileSystem.isEmpty()) return 0;
+
+    // Workers for each file system, each one takes files off it's queue until it's empty
+    List<Runnable> workers = new ArrayList<Runnable>();
+    AtomicLong numberComputed = new AtomicLong(0);
+    for (Queue<FileAttributes> queue : queuesByFileSystem.values()) {
+      int numberOfWorkers = Math.min(Math.min(maxOpenFilesPerFileSystem, threads), queue.size());
+      for (int i = 0; i < numberOfWorkers; i++) {
+        workers.add(() -> drainQueue(queue, onComplete, numberComputed));
+      }
+    }
+
+    ExecutorService executor = getExecutorService();
+    CountDownLatch workersDone = new CountDownLatch(workers.size());
+    for (Runnable worker : workers) {
+      executor.execute(() -> {
+        try {
+          worker.run();
+        } finally {
+          workersDone.countDown();
+        }
+      });
+    }
+    workersDone.await();
+    return numberComputed.get();
+  }
+
+  private void drainQueue(Queue<FileAttributes> queue, Consumer<? super FileAttributes> onComplete, AtomicLong numberComputed) {
+    FileAttributes fileAttributes;
+    while ((fileAttributes = queue.poll()) != null) {
+      if (Thread.currentThread().isInterrupted()) return;
+      if (computeCheckSum(fileAttributes)) {
+        numberComputed.incrementAndGet();
+        if (onComplete != null) onComplete.accept(fileAttributes);
+      }
+    }
+  }
+
+  // Hash the file (holding one of the open file permits while we do), returns false if it failed
+  private boolean computeCheckSum(FileAttributes fileAttributes) {
+    Path path = fileAttributes.getPath();
+    boolean acquired = false;
+    try {
+      openFiles.acquire();
+      acquired = true;
+      if (algorithms == null) {
+        fileAttributes.setCheckSumBytes(fileAttributes.computeCheckSumBytes());
+      }
+      else {
+        fileAttributes.computeCheckSumValues(algorithms);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      System.out.println("CheckSum raised error on:" + path.toString() );
+    } finally {
+      if (acquired) openFiles.release();
+    }
+    return false;
+  }
+
+  private boolean needsCheckSum(FileAttributes fileAttributes) {
+    if (fileAttributes.isRegularFile() == false || fileAttributes.getPath() == null) return false;
+    if (algorithms == null) return fileAttributes.isCheckSumSet() == false;
+    for (String algorithm : algorithms) {
+      if (fileAttributes.getCheckSumValueIfSet(algorithm) == null) return true;
+    }
+    return false;
+  }
+
+  // The device, we already have it for unix files; otherwise ask FileStoreCache
+  private static Object getFileSystemId(FileAttributes fileAttributes) {
+    if (fileAttributes instanceof UnixFileAttributes && ((UnixFileAttributes) fileAttributes).getDevice() != -1) {
+      return Long.valueOf(((UnixFileAttributes) fileAttributes).getDevice());
+    }
+    try {
+      return FileStoreCache.getFileSystemId(fileAttributes.getPath());
+    } catch (Exception e) {
+      return fileAttributes.getPath().toAbsolutePath().getRoot();  // Let the read report it
+    }
+  }
+
+  private synchronized ExecutorService getExecutorService() {
+    if (executorService == null) {
+      executorService = ScanExecutors.newPlatformThreadExecutor("checksum", threads);
+      openFiles       = new Semaphore(Math.min(maxOpenFiles, threads));
+    }
+    return executorService;
+  }
+
+  // Stop the threads
+  @Override
+  public synchronized void close() {
+    if (executorService != null) {
+      executorService.shutdownNow();
+      executorService = null;
+    }
+  }
+}
@@ -1,10 +1,15 @@
 package com.corti.files;
 
+import java.util.List;
+
+import com.corti.files.checksum.MerkleTree;
+
 // Simple class for a pair of numbers
 public class CompareAttributes {
   public int a;
   public int b;  
   public ComparisonType deltaType;
+  public List<MerkleTree.ByteRange> changedRanges;  // Set for a checksum change when both files have block hashes
   CompareAttributes(int a, int b, ComparisonType compType) {
     this.a = a;
     this.b = b;
@@ -12,12 +12,14 @@ import java.time.Duration;
 import java.time.Instant;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import com.corti.files.checksum.MerkleTree;
 import com.corti.javalogger.LoggerUtils;
 
 public class CompareFileAttributesInSerializedFiles {
@@ -42,10 +44,11 @@ public class CompareFileAttributesInSerializedFiles {
     logger.info("Starting deserialization");    
     getElapsedTimeInMilliseconds(true);
     
+    // Tables keep the attributes in columns, the lists are views over them
     List<FileAttributes> firstFileAttributesList =
-      (ArrayList<FileAttributes>) SerializeOrDeserializeFileAttributes.deserializeFileAttributesList(firstPath);
+      SerializeOrDeserializeFileAttributes.deserializeFileAttributesTable(firstPath).asList();
     List<FileAttributes> secondFileAttributesList =
-      (ArrayList<FileAttributes>) SerializeOrDeserializeFileAttributes.deserializeFileAttributesList(secondPath);
+      SerializeOrDeserializeFileAttributes.deserializeFileAttributesTable(secondPath).asList();
 
     // Define lists for results
     List<Integer> inFirstNotSecond = new ArrayList<Integer>(2000);
@@ -79,7 +82,8 @@ public class CompareFileAttributesInSerializedFiles {
                      + "," + firstFileAttributesList.get(compareAttributes.a).getSizeInBytes()
                      + "," + firstFileAttributesList.get(compareAttributes.a).getLastModifiedTime().toString()
                      + "," + secondFileAttributesList.get(compareAttributes.b).getSizeInBytes()
-                     + "," + secondFileAttributesList.get(compareAttributes.b).getLastModifiedTime().toString());
+                     + "," + secondFileAttributesList.get(compareAttributes.b).getLastModifiedTime().toString()
+                     + "," + formatRanges(compareAttributes.changedRanges));
         writer.newLine();
       }
     }
@@ -126,7 +130,11 @@ public class CompareFileAttributesInSerializedFiles {
           ComparisonType compType = fileAttributesDiffer(sourceList.get(i), targetList.get(thePos.intValue()));
           if (compType != ComparisonType.MATCH) {
             // Add record to array, we put index positions from source and target FileAttribute arrays
-            listOfRecordsChanged.add(new CompareAttributes(i, thePos.intValue(), compType));
+            CompareAttributes compareAttributes = new CompareAttributes(i, thePos.intValue(), compType);
+            if (compType == ComparisonType.CHECKSUM) {
+              compareAttributes.changedRanges = getChangedRanges(sourceList.get(i), targetList.get(thePos.intValue()));
+            }
+            listOfRecordsChanged.add(compareAttributes);
           }          
         }
       }
@@ -149,7 +157,7 @@ public class CompareFileAttributesInSerializedFiles {
     System.out.println("Writing missing files to: " + fileNameToOutput);
     try (BufferedWriter writer = Files.newBufferedWriter(path)) {
       for (Integer thePos : missingRecords) {
-        writer.write(fattr.get(thePos.intValue()).absolutePath
+        writer.write(fattr.get(thePos.intValue()).getAbsolutePath()
                      + "," + fattr.get(thePos.intValue()).getFileExtension());
         writer.newLine();
       }
@@ -160,13 +168,7 @@ public class CompareFileAttributesInSerializedFiles {
   
   // Compare two file attributes, return a ComparisonType enum with the result
   private ComparisonType fileAttributesDiffer(FileAttributes fa1, FileAttributes fa2) {  
-    // Treat nulls like empty string
-    String checkSum1 = fa1.getCheckSumValue();
-    String checkSum2 = fa2.getCheckSumValue();
-    if (checkSum1 == null) checkSum1 = "";
-    if (checkSum2 == null) checkSum2 = "";
-    
-    if (checkSum1.compareTo(checkSum2) != 0) return ComparisonType.CHECKSUM;
+    if (checkSumsMatch(fa1, fa2) == false) return ComparisonType.CHECKSUM;
     
     // Only compare to seconds (some os's have filetime down to milliseconds and some don't,
     //   need least common denominator).
@@ -179,6 +181,59 @@ public class CompareFileAttributesInSerializedFiles {
     return ComparisonType.MATCH;
   }
       
+  // Compare the checksums, the digest bytes when both have them (no hex strings are made), otherwise
+  //   the strings with nulls treated like empty string
+  private static boolean checkSumsMatch(FileAttributes fa1, FileAttributes fa2) {
+    String algorithm = getCommonChecksumAlgorithm(fa1, fa2);
+    if (algorithm.equals(fa1.getChecksumAlgorithm()) && algorithm.equals(fa2.getChecksumAlgorithm())) {
+      byte[] digest1 = fa1.getCheckSumDigest();
+      byte[] digest2 = fa2.getCheckSumDigest();
+      if (digest1 != null && digest2 != null) return Arrays.equals(digest1, digest2);
+    }
+    String checkSum1 = fa1.getCheckSumValue(algorithm);
+    String checkSum2 = fa2.getCheckSumValue(algorithm);
+    if (checkSum1 == null) checkSum1 = "";
+    if (checkSum2 == null) checkSum2 = "";
+    return checkSum1.equals(checkSum2);
+  }
+
+  // The byte ranges that changed when both files have block hashes (a Merkle checksum algorithm) for
+  //   their checksum, otherwise null
+  static List<MerkleTree.ByteRange> getChangedRanges(FileAttributes fa1, FileAttributes fa2) {
+    MerkleTree merkleTree1 = fa1.getMerkleTree();
+    MerkleTree merkleTree2 = fa2.getMerkleTree();
+    if (merkleTree1 == null || merkleTree2 == null) return null;
+    if (merkleTree1.getAlgorithmName().equals(merkleTree2.getAlgorithmName()) == false) return null;
+    // The trees have to be for the checksums we have (they're dropped when the algorithm changes)
+    if (Arrays.equals(merkleTree1.getRoot(), fa1.getCheckSumBytesIfSet()) == false ||
+        Arrays.equals(merkleTree2.getRoot(), fa2.getCheckSumBytesIfSet()) == false) return null;
+    return merkleTree1.getChangedRanges(merkleTree2);
+  }
+
+  // Ranges as start-end;start-end... (empty when we don't know them)
+  private static String formatRanges(List<MerkleTree.ByteRange> ranges) {
+    if (ranges == null) return "";
+    StringBuilder sb = new StringBuilder();
+    for (MerkleTree.ByteRange range : ranges) {
+      if (sb.length() > 0) sb.append(';');
+      sb.append(range.toString());
+    }
+    return sb.toString();
+  }
+
+  // The algorithm to compare the checksums with, normally both files used the same one; if not and
+  //   one of them has a checksum for the other's algorithm we use that.  Checksums from different
+  //   algorithms never match so we don't compare them, it's an IllegalStateException
+  static String getCommonChecksumAlgorithm(FileAttributes fa1, FileAttributes fa2) {
+    String algorithm1 = fa1.getChecksumAlgorithm();
+    String algorithm2 = fa2.getChecksumAlgorithm();
+    if (algorithm1.equals(algorithm2)) return algorithm1;
+    if (fa2.getCheckSumValueIfSet(algorithm1) != null) return algorithm1;
+    if (fa1.getCheckSumValueIfSet(algorithm2) != null) return algorithm2;
+    throw new IllegalStateException("Can't compare checksums made with different algorithms (" + algorithm1 + 
+                                    " and " + algorithm2 + "), file: " + fa1.getPathFromBaseAsUnix());
+  }
+
   private long getElapsedTimeInMilliseconds(boolean startIt) {
     if (startIt || startInstant == null) {
       startInstant = Instant.now(); 
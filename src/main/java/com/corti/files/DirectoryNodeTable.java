@@ -0,0 +1,150 @@
+package com.corti.files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table of directories stored as a tree, each directory is a node with the id of it's parent node and
+ *   it's own name, so "/home/dev/src/" is the node "src/" under the node for "/home/dev/".  The
+ *   leading part of a path is only kept once no matter how many directories are under it, and the
+ *   names themselves are interned (every "src/" or "main/" is the same string).  The full path is
+ *   built when getPath(id) is called.
+ * Usage:
+ *   int id = directoryNodeTable.getId("/home/dev/src/");   // Adds it (and it's parents) if needed
+ *   String path = directoryNodeTable.getPath(id);          // "/home/dev/src/"
+ * The path is split after a '/' or '\' (so paths from windows work), a trailing separator stays with
+ *   the name; getPath(getId(path)) is always the path passed in.  Null is id -1.
+ * The last path looked up and the last path built are remembered, that's what happens when the files
+ *   in a directory are added one after another.  Not thread safe when adding.
+ */
+public class DirectoryNodeTable {
+  public static final int NO_NODE = -1;
+
+  private int size;
+  private int[] parentIds = new int[256];
+  private int[] nameIds   = new int[256];
+
+  private final List<String> names = new ArrayList<String>();
+  private final Map<String, Integer> nameIdMap = new HashMap<String, Integer>();
+  private final Map<Long, Integer> nodeIdMap = new HashMap<Long, Integer>();  // parent and name -> node
+
+  private String lastLookupPath;
+  private int lastLookupId = NO_NODE;
+  private volatile BuiltPath lastBuilt;  // One object so readers on other threads see id and path together
+
+  // Return the id for the path, the path and it's parents are added if they aren't here
+  public int getId(String path) {
+    if (path == null) return NO_NODE;
+    if (path.equals(lastLookupPath)) return lastLookupId;
+
+    int id = getId(path, path.length());
+    lastLookupPath = path;
+    lastLookupId   = id;
+    return id;
+  }
+
+  // Id for the first 'length' chars of the path
+  private int getId(String path, int length) {
+    int splitAt = getSplitPosition(path, length);
+    int parentId = (splitAt == 0 ? NO_NODE : getId(path, splitAt));
+    int nameId = getNameId(path.substring(splitAt, length));
+
+    Long key = Long.valueOf(((long) parentId << 32) | (nameId & 0xffffffffL));
+    Integer id = nodeIdMap.get(key);
+    if (id == null) {
+      id = Integer.valueOf(addNode(parentId, nameId));
+      nodeIdMap.put(key, id);
+    }
+    return id.intValue();
+  }
+
+  // Where the name starts, it's after the last separator that isn't at the end
+  private static int getSplitPosition(String path, int length) {
+    for (int i = length - 2; i >= 0; i--) {
+      char theChar = path.charAt(i);
+      if (theChar == '/' || theChar == '\\') return i + 1;
+    }
+    return 0;
+  }
+
+  private int getNameId(String name) {
+    Integer nameId = nameIdMap.get(name);
+    if (nameId == null) {
+      nameId = Integer.valueOf(names.size());
+      names.add(name);
+      nameIdMap.put(name, nameId);
+    }
+    return nameId.intValue();
+  }
+
+  private int addNode(int parentId, int nameId) {
+    if (size == parentIds.length) {
+      parentIds = Arrays.copyOf(parentIds, size + (size >> 1));
+      nameIds   = Arrays.copyOf(nameIds, parentIds.length);
+    }
+    parentIds[size] = parentId;
+    nameIds[size]   = nameId;
+    return size++;
+  }
+
+  // Build the full path for the node
+  public String getPath(int id) {
+    if (id == NO_NODE) return null;
+    checkId(id);
+    BuiltPath builtPath = lastBuilt;
+    if (builtPath != null && builtPath.id == id) return builtPath.path;
+
+    StringBuilder sb = new StringBuilder(64);
+    appendPath(sb, id);
+    builtPath = new BuiltPath(id, sb.toString());
+    lastBuilt = builtPath;
+    return builtPath.path;
+  }
+
+  // Append the path for the node to the StringBuilder
+  public void appendPath(StringBuilder sb, int id) {
+    checkId(id);
+    int parentId = parentIds[id];
+    if (parentId != NO_NODE) appendPath(sb, parentId);
+    sb.append(names.get(nameIds[id]));
+  }
+
+  // Parent node id, NO_NODE for a root
+  public int getParentId(int id) {
+    checkId(id);
+    return parentIds[id];
+  }
+
+  // The node's own name ("src/" for "/home/dev/src/")
+  public String getName(int id) {
+    checkId(id);
+    return names.get(nameIds[id]);
+  }
+
+  // Number of nodes (every directory and parent directory added)
+  public int size() {
+    return size;
+  }
+
+  // Number of distinct names
+  public int getNameCount() {
+    return names.size();
+  }
+
+  private void checkId(int id) {
+    if (id < 0 || id >= size) throw new IndexOutOfBoundsException("Node: " + id + ", size: " + size);
+  }
+
+  private static class BuiltPath {
+    final int id;
+    final String path;
+
+    BuiltPath(int id, String path) {
+      this.id   = id;
+      this.path = path;
+    }
+  }
+}
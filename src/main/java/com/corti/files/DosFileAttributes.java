@@ -1,17 +1,23 @@
 package com.corti.files;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
- * Class represents a DOS file.
+ * Class represents a DOS file.  The dos attributes (read only, system...) are read the first time one
+ * of them is asked for, unless the caller passed them in; they're read before we're serialized.
  */
 public class DosFileAttributes extends FileAttributes {
+  private static final long serialVersionUID = -3147709325659970871L;
   private boolean readOnlyFile;
   private boolean systemFile;
   private boolean hiddenFile;
   private boolean archiveFlag;
+  private transient volatile boolean dosAttributesPending;  // True until the dos view is read
   
   // Constructors, either with string version of filename or a path; the default is really for 
   // deserialization (json; setters should be called when that happens)
@@ -25,58 +31,112 @@ public class DosFileAttributes extends FileAttributes {
     init();    
   }
   
+  // Attributes already read by the caller, on windows the directory listing gives us the dos
+  //   attributes so there's no need to read them again
+  public DosFileAttributes(Path path, BasicFileAttributes basicFileAttributes) throws Exception {
+    super(path, basicFileAttributes);
+    if (basicFileAttributes instanceof java.nio.file.attribute.DosFileAttributes) {
+      setDosAttributes((java.nio.file.attribute.DosFileAttributes) basicFileAttributes);
+    }
+    else {
+      init();
+    }
+  }
+  
   public DosFileAttributes() throws Exception {
     super();
     init();
   }  
   
-  // Initialization of local vars
-  private void init() throws IOException {
-    if (path != null) {
-      java.nio.file.attribute.DosFileAttributes dosFileAttributes = Files.readAttributes(path,  java.nio.file.attribute.DosFileAttributes.class);
-      readOnlyFile = dosFileAttributes.isReadOnly();
-      systemFile   = dosFileAttributes.isSystem();
-      hiddenFile   = dosFileAttributes.isHidden();
-      archiveFlag  = dosFileAttributes.isArchive();
+  // Initialization of local vars, the dos view isn't read until it's needed (see loadDosAttributes)
+  private void init() {
+    dosAttributesPending = (path != null);
+  }
+  
+  private void setDosAttributes(java.nio.file.attribute.DosFileAttributes dosFileAttributes) {
+    readOnlyFile = dosFileAttributes.isReadOnly();
+    systemFile   = dosFileAttributes.isSystem();
+    hiddenFile   = dosFileAttributes.isHidden();
+    archiveFlag  = dosFileAttributes.isArchive();
+  }
+  
+  // Read the dos view if we haven't yet
+  private synchronized void loadDosAttributes() {
+    if (dosAttributesPending == false) return;
+    try {
+      setDosAttributes(Files.readAttributes(path, java.nio.file.attribute.DosFileAttributes.class));
+    } catch (IOException e) {
+      e.printStackTrace();
     }
+    dosAttributesPending = false;
+  }
+  
+  @Override
+  protected void loadLazyAttributes() {
+    if (dosAttributesPending) loadDosAttributes();
+  }
+
+  // The dos flags go after the common attributes in a record (see FileAttributesRecordWriter)
+  @Override
+  protected void writeRecord(DataOutput dataOutput) throws IOException {
+    super.writeRecord(dataOutput);
+    dataOutput.writeByte((isReadOnlyFile() ? 1 : 0) | (isSystemFile() ? 2 : 0) | (isHiddenFile() ? 4 : 0) | (isArchiveFlag() ? 8 : 0));
+  }
+
+  @Override
+  protected void readRecord(DataInput dataInput) throws IOException {
+    super.readRecord(dataInput);
+    int flags    = dataInput.readUnsignedByte();
+    readOnlyFile = (flags & 1) != 0;
+    systemFile   = (flags & 2) != 0;
+    hiddenFile   = (flags & 4) != 0;
+    archiveFlag  = (flags & 8) != 0;
   }
   
   public boolean isReadOnlyFile() {
+    if (dosAttributesPending) loadDosAttributes();
     return readOnlyFile;
   }
 
   public boolean isSystemFile() {
+    if (dosAttributesPending) loadDosAttributes();
     return systemFile;
   }
 
   public boolean isHiddenFile() {
+    if (dosAttributesPending) loadDosAttributes();
     return hiddenFile;
   }
 
   public boolean isArchiveFlag() {
+    if (dosAttributesPending) loadDosAttributes();
     return archiveFlag;
   }
 
   public void setReadOnlyFile(boolean readOnlyFile) {
+    loadLazyAttributes();  // So it isn't overwritten later
     this.readOnlyFile = readOnlyFile;
   }
 
   public void setSystemFile(boolean systemFile) {
+    loadLazyAttributes();
     this.systemFile = systemFile;
   }
 
   public void setHiddenFile(boolean hiddenFile) {
+    loadLazyAttributes();
     this.hiddenFile = hiddenFile;
   }
 
   public void setArchiveFlag(boolean archiveFlag) {
+    loadLazyAttributes();
     this.archiveFlag = archiveFlag;
   }
 
   @Override
   public String toString() {
-    return super.toString() + " DosFileAttributes [readOnlyFile=" + readOnlyFile + ", systemFile="
-        + systemFile + ", hiddenFile=" + hiddenFile + ", archiveFlag="
-        + archiveFlag + "]";
+    return super.toString() + " DosFileAttributes [readOnlyFile=" + isReadOnlyFile() + ", systemFile="
+        + isSystemFile() + ", hiddenFile=" + isHiddenFile() + ", archiveFlag="
+        + isArchiveFlag() + "]";
   }
  }
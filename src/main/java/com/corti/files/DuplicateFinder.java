@@ -0,0 +1,309 @@
+package com.corti.files;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.corti.files.checksum.CheckSum;
+
+/**
+ * Finds files with the same contents while reading as little of them as possible, the files are
+ *   narrowed down in three steps:
+ *   1) size ------------ only files with the same size can be the same, nothing is read
+ *   2) head and tail --- the first and last setPartialHashBytes() (default 64KB) of the files left are
+ *                          hashed (XXH64) and the ones that don't match are dropped; this is
+ *                          skipped for small files (it'd read all of them anyway) and for sizes where
+ *                          every file already has a checksum
+ *   3) full checksum --- the files still left get their checksum (FileAttributes.getCheckSumValue(),
+ *                          computed with a CheckSumService so it's in parallel and a CheckSumCache is
+ *                          used if there is one); the files with the same checksum are the duplicates
+ * The hashes are grouped by their digest bytes, no hex strings are made.
+ * Usage:
+ *   try (DuplicateFinder duplicateFinder = new DuplicateFinder()) {
+ *     for (List<FileAttributes> duplicates : duplicateFinder.findDuplicates(fileAttributesList)) {
+ *       ...
+ *     }
+ *   }
+ * The groups come back biggest files first, each group has at least two files.  Only regular files
+ *   of at least setMinSize() bytes (default 1, every empty file is the same) are looked at.  Files
+ *   that can't be read are left out.  The checksums computed in step 3 stay set on the FileAttributes.
+ * getBytesRead() etc. tell you how much work each step saved.
+ */
+public class DuplicateFinder implements AutoCloseable {
+  private static final String PARTIAL_HASH_ALGORITHM = CheckSum.XXH64;
+
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int maxOpenFilesPerFileSystem = Integer.MAX_VALUE;
+  private int partialHashBytes = 64 * 1024;
+  private long minSize = 1;
+  private ExecutorService executorService;
+  private CheckSumService checkSumService;
+
+  private final AtomicLong bytesRead = new AtomicLong(0);
+  private long totalBytes;
+  private int filesAfterSize;
+  private int filesAfterPartialHash;
+
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  // See CheckSumService.setMaxOpenFilesPerFileSystem, it's used for the full checksums
+  public void setMaxOpenFilesPerFileSystem(int maxOpenFilesPerFileSystem) {
+    this.maxOpenFilesPerFileSystem = Math.max(1, maxOpenFilesPerFileSystem);
+  }
+
+  // Bytes hashed from the start of the file and again from the end in step 2
+  public void setPartialHashBytes(int partialHashBytes) {
+    this.partialHashBytes = Math.max(1, partialHashBytes);
+  }
+
+  public void setMinSize(long minSize) {
+    this.minSize = Math.max(0, minSize);
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public int getPartialHashBytes() {
+    return partialHashBytes;
+  }
+
+  public long getMinSize() {
+    return minSize;
+  }
+
+  // Stats for the last findDuplicates() call
+  public long getTotalBytes() {         // Size of all the files looked at
+    return totalBytes;
+  }
+  public long getBytesRead() {          // Bytes hashed (a CheckSumCache hit counts, a checksum we had doesn't)
+    return bytesRead.get();
+  }
+  public int getFilesAfterSize() {      // Files that had the same size as another one
+    return filesAfterSize;
+  }
+  public int getFilesAfterPartialHash() {  // Files that needed a full checksum
+    return filesAfterPartialHash;
+  }
+
+  // Return the groups of files that have the same contents
+  public List<List<FileAttributes>> findDuplicates(Collection<? extends FileAttributes> fileAttributesList) throws InterruptedException {
+    bytesRead.set(0);
+    totalBytes = 0;
+
+    // 1) Size
+    Map<Long, List<FileAttributes>> bySize = new HashMap<Long, List<FileAttributes>>();
+    for (FileAttributes fileAttributes : fileAttributesList) {
+      if (fileAttributes.isRegularFile() == false || fileAttributes.getPath() == null) continue;
+      long size = fileAttributes.getSizeInBytes();
+      if (size < minSize) continue;
+      totalBytes += size;
+      List<FileAttributes> sameSize = bySize.get(size);
+      if (sameSize == null) {
+        sameSize = new ArrayList<FileAttributes>(2);
+        bySize.put(size, sameSize);
+      }
+      sameSize.add(fileAttributes);
+    }
+    List<List<FileAttributes>> candidates = keepGroups(bySize.values());
+    filesAfterSize = countFiles(candidates);
+
+    // 2) Head and tail, for the groups that need it
+    List<FileAttributes> toPartialHash = new ArrayList<FileAttributes>();
+    List<List<FileAttributes>> afterPartialHash = new ArrayList<List<FileAttributes>>();
+    for (List<FileAttributes> sameSize : candidates) {
+      if (sameSize.get(0).getSizeInBytes() <= 2L * partialHashBytes || allHaveCheckSums(sameSize)) {
+        afterPartialHash.add(sameSize);
+      }
+      else {
+        toPartialHash.addAll(sameSize);
+      }
+    }
+    Map<FileAttributes, byte[]> partialHashes = computePartialHashes(toPartialHash);
+    Map<GroupKey, List<FileAttributes>> byPartialHash = new LinkedHashMap<GroupKey, List<FileAttributes>>();
+    for (FileAttributes fileAttributes : toPartialHash) {
+      byte[] partialHash = partialHashes.get(fileAttributes);
+      if (partialHash == null) continue;  // Couldn't read it
+      addToGroup(byPartialHash, new GroupKey(fileAttributes.getSizeInBytes(), PARTIAL_HASH_ALGORITHM, partialHash), fileAttributes);
+    }
+    afterPartialHash.addAll(keepGroups(byPartialHash.values()));
+    filesAfterPartialHash = countFiles(afterPartialHash);
+
+    // 3) Full checksum
+    List<FileAttributes> toCheckSum = new ArrayList<FileAttributes>();
+    for (List<FileAttributes> group : afterPartialHash) {
+      for (FileAttributes fileAttributes : group) {
+        if (fileAttributes.isCheckSumSet() == false) {
+          toCheckSum.add(fileAttributes);
+          bytesRead.addAndGet(fileAttributes.getSizeInBytes());
+        }
+      }
+    }
+    getCheckSumService().computeCheckSums(toCheckSum);
+
+    Map<GroupKey, List<FileAttributes>> byCheckSum = new LinkedHashMap<GroupKey, List<FileAttributes>>();
+    for (List<FileAttributes> group : afterPartialHash) {
+      for (FileAttributes fileAttributes : group) {
+        GroupKey key = getCheckSumKey(fileAttributes);
+        if (key == null) continue;  // Couldn't read it
+        addToGroup(byCheckSum, key, fileAttributes);
+      }
+    }
+    List<List<FileAttributes>> duplicates = keepGroups(byCheckSum.values());
+    Collections.sort(duplicates, new Comparator<List<FileAttributes>>() {
+      @Override
+      public int compare(List<FileAttributes> group1, List<FileAttributes> group2) {
+        return Long.compare(group2.get(0).getSizeInBytes(), group1.get(0).getSizeInBytes());
+      }
+    });
+    return duplicates;
+  }
+
+  // Hash the head and tail of the files on the pool, returns file -> digest (files we couldn't
+  //   read aren't in it)
+  private Map<FileAttributes, byte[]> computePartialHashes(List<FileAttributes> files) throws InterruptedException {
+    Map<FileAttributes, byte[]> partialHashes = new ConcurrentHashMap<FileAttributes, byte[]>();
+    if (files.isEmpty()) return partialHashes;
+
+    Queue<FileAttributes> queue = new ConcurrentLinkedQueue<FileAttributes>(files);
+    int numberOfWorkers = Math.min(threads, files.size());
+    CountDownLatch workersDone = new CountDownLatch(numberOfWorkers);
+    ExecutorService executor = getExecutorService();
+    for (int i = 0; i < numberOfWorkers; i++) {
+      executor.execute(() -> {
+        try {
+          FileAttributes fileAttributes;
+          while ((fileAttributes = queue.poll()) != null && Thread.currentThread().isInterrupted() == false) {
+            Path path = fileAttributes.getPath();
+            try {
+              partialHashes.put(fileAttributes, CheckSum.computeHeadAndTailDigest(path, PARTIAL_HASH_ALGORITHM, partialHashBytes));
+              bytesRead.addAndGet(Math.min(fileAttributes.getSizeInBytes(), 2L * partialHashBytes));
+            } catch (Exception e) {
+              System.out.println("Partial hash raised error on:" + path.toString() );
+            }
+          }
+        } finally {
+          workersDone.countDown();
+        }
+      });
+    }
+    workersDone.await();
+    return partialHashes;
+  }
+
+  private static boolean allHaveCheckSums(List<FileAttributes> files) {
+    String algorithm = files.get(0).getChecksumAlgorithm();
+    for (FileAttributes fileAttributes : files) {
+      if (fileAttributes.isCheckSumSet() == false || algorithm.equals(fileAttributes.getChecksumAlgorithm()) == false) return false;
+    }
+    return true;
+  }
+
+  // Key for the file's full checksum, null if it doesn't have one; a checksum that isn't hex (someone
+  //   set it) is keyed by it's characters with a different algorithm name so it can't match a digest
+  private static GroupKey getCheckSumKey(FileAttributes fileAttributes) {
+    String algorithm = fileAttributes.getChecksumAlgorithm();
+    byte[] digest = fileAttributes.getCheckSumBytesIfSet();
+    if (digest != null) return new GroupKey(fileAttributes.getSizeInBytes(), algorithm, digest);
+    String checkSum = fileAttributes.getCheckSumValueIfSet();
+    if (checkSum == null) return null;
+    return new GroupKey(fileAttributes.getSizeInBytes(), algorithm + " text", checkSum.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void addToGroup(Map<GroupKey, List<FileAttributes>> groups, GroupKey key, FileAttributes fileAttributes) {
+    List<FileAttributes> group = groups.get(key);
+    if (group == null) {
+      group = new ArrayList<FileAttributes>(2);
+      groups.put(key, group);
+    }
+    group.add(fileAttributes);
+  }
+
+  // The groups with more than one file
+  private static List<List<FileAttributes>> keepGroups(Collection<List<FileAttributes>> groups) {
+    List<List<FileAttributes>> kept = new ArrayList<List<FileAttributes>>();
+    for (List<FileAttributes> group : groups) {
+      if (group.size() > 1) kept.add(group);
+    }
+    return kept;
+  }
+
+  private static int countFiles(List<List<FileAttributes>> groups) {
+    int count = 0;
+    for (List<FileAttributes> group : groups) {
+      count += group.size();
+    }
+    return count;
+  }
+
+  // Size, algorithm and digest of a file, files with equal keys have the same contents
+  private static final class GroupKey {
+    private final long size;
+    private final String algorithm;
+    private final byte[] digest;
+    private final int hashCode;
+
+    GroupKey(long size, String algorithm, byte[] digest) {
+      this.size      = size;
+      this.algorithm = algorithm;
+      this.digest    = digest;
+      this.hashCode  = 31 * (31 * Long.hashCode(size) + algorithm.hashCode()) + Arrays.hashCode(digest);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (obj instanceof GroupKey == false) return false;
+      GroupKey other = (GroupKey) obj;
+      return size == other.size && algorithm.equals(other.algorithm) && Arrays.equals(digest, other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private synchronized ExecutorService getExecutorService() {
+    if (executorService == null) executorService = ScanExecutors.newPlatformThreadExecutor("duplicates", threads);
+    return executorService;
+  }
+
+  private synchronized CheckSumService getCheckSumService() {
+    if (checkSumService == null) {
+      checkSumService = new CheckSumService();
+      checkSumService.setThreads(threads);
+      checkSumService.setMaxOpenFilesPerFileSystem(maxOpenFilesPerFileSystem);
+    }
+    return checkSumService;
+  }
+
+  // Stop the threads
+  @Override
+  public synchronized void close() {
+    if (executorService != null) {
+      executorService.shutdownNow();
+      executorService = null;
+    }
+    if (checkSumService != null) {
+      checkSumService.close();
+      checkSumService = null;
+    }
+  }
+}
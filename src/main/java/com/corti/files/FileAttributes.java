@@ -1,4 +1,7 @@
 package com.corti.files;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -9,12 +12,20 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import com.corti.files.checksum.CheckSum;
+import com.corti.files.checksum.CheckSumCache;
+import com.corti.files.checksum.MerkleTree;
 
 /**
  * This is an abstract class with common 'file attributes', it is subclassed
@@ -23,6 +34,20 @@ import com.corti.files.checksum.CheckSum;
  * is used to identify how the object was created; this is needed because the
  * certain attributes may not apply for deserialized objects (i.e. file path).
  * We won't deserialize the 'instantiationMethod' but it is serialized.
+ * The absolute path, parent path and extension aren't worked out until they're first asked for
+ * (most jobs only want the size and times); the serialized form is the same as before.
+ * Checksums for other algorithms (i.e. MD5 for older consumers) can be kept too, see
+ * getCheckSumValue(algorithm) and computeCheckSumValues(algorithms...), the file is read once for
+ * all of them.  They're written after the other fields only when there are some.
+ * The main checksum (getCheckSumValue()) is SHA-256 unless setChecksumAlgorithm() picks another one
+ * (i.e. CheckSum.XXH64 when it's just for change detection), the algorithm is serialized with it
+ * when it isn't SHA-256.
+ * The main checksum is kept as the digest bytes (getCheckSumBytes()), the hex string is only made
+ * when getCheckSumValue() is called (i.e. for output); a value that isn't lowercase hex is kept as
+ * the string.  The serialized form still has the hex so older files and readers are fine.
+ * With a Merkle algorithm (see MerkleTree.getAlgorithmName) the checksum is the Merkle root, the
+ * blocks of the file are hashed in parallel and the tree is kept (getMerkleTree()) so two snapshots
+ * can tell which byte ranges changed; the tree is serialized after the other checksums.
  * Note: This is using routines in my JsonUtils project to help with 
  * serialization; that project is using Jackson (atow).
  *  
@@ -31,12 +56,15 @@ import com.corti.files.checksum.CheckSum;
  */
 @JsonIgnoreProperties(value={ "instantiationMethod" }, allowGetters=true)
 public abstract class FileAttributes implements Serializable {
+  // Pinned to the value the compiler generated before any were declared so old .ser files still load
+  private static final long serialVersionUID = -1949672130365519310L;
+  
   // These statics are used to represent how the object was instantiated; when instantiated
   //   from DEFAULT it's probably from deserialization so the path could reflect 
   private static final int DEFAULT = 0;
   private static final int FROMFILENAMEANDPATH = 1;
   private static final int FROMPATH = 2;
-  private static final int FROMJAVASERIALIZATION = 3;
+  static final int FROMJAVASERIALIZATION = 3;   // FileAttributesTable rows report this too
   
   protected static final String CHECKSUMALGORITHM = "SHA-256";
   private int instantiationMethod;
@@ -66,9 +94,17 @@ public abstract class FileAttributes implements Serializable {
   protected boolean isSymbolicLink;
   protected boolean isOther;
   protected long sizeInBytes;
-  protected String checkSumValue;
+  protected String checkSumValue;                // Only when the checksum isn't hex, see checkSumBytes
 
   protected String exceptionMessage;
+  protected transient Map<String, String> otherCheckSumValues;  // Algorithm -> checksum, null when none
+  protected transient String checkSumAlgorithm;                 // For checkSumValue, null is CHECKSUMALGORITHM
+  protected transient byte[] checkSumBytes;                     // Digest for checkSumAlgorithm, null when none
+  protected transient MerkleTree merkleTree;                    // Block hashes, null unless it's a Merkle algorithm
+  
+  private transient volatile boolean pathsPending; // True until absolutePath... are worked out
+  private transient boolean canonicalPathNeeded;   // Ask the os for the path (it's a link)
+  private transient String realParentPath;         // Real path of the directory it was listed from, see setRealParentPath
   
   // This one is really for deserialization; that's the only time objects should be
   // instantiated without knowing path or filename
@@ -90,13 +126,36 @@ public abstract class FileAttributes implements Serializable {
     init();
   }
   
-  private void init() {    
+  // Used by the walkers, they've already read the attributes for the path (the directory listing
+  //   gives us them) so we don't stat the file again.  The absolute path is still the canonical
+  //   one (links in the parent directories resolved), if the walker passes the real path of the
+  //   directory it listed (setRealParentPath) that's used rather than asking the os for each file.
+  FileAttributes(Path path, BasicFileAttributes basicFileAttributes) {
+    this.path                = path;
+    this.instantiationMethod = FROMPATH;
+    init(basicFileAttributes);
+  }
+  
+  FileAttributes(String fileNameAndPath, BasicFileAttributes basicFileAttributes) {
+    this.path                = Paths.get(fileNameAndPath);
+    this.instantiationMethod = FROMFILENAMEANDPATH;
+    init(basicFileAttributes);
+  }
+  
+  private void init() {
+    init(null);
+  }
+  
+  private void init(BasicFileAttributes basicFileAttributes) {    
     this.className = this.getClass().getName();
     this.exceptionMessage = "";
     this.checkSumValue = null;
+    this.checkSumBytes = null;
     if (this.path != null) {
       try {
-        BasicFileAttributes basicFileAttributes = Files.readAttributes(this.path, BasicFileAttributes.class);    
+        boolean attributesSupplied = (basicFileAttributes != null);
+        if (attributesSupplied == false)
+          basicFileAttributes = Files.readAttributes(this.path, BasicFileAttributes.class);    
         
         this.creationTime     = basicFileAttributes.creationTime();
         this.lastAccessTime   = basicFileAttributes.lastAccessTime();
@@ -109,22 +168,62 @@ public abstract class FileAttributes implements Serializable {
         
         // We will set checkSumValue in getter (lazy instantiation) done for performance
         //   since only need to set if we need it :)
-        
-        this.absolutePath = path.toFile().getCanonicalPath();       // This is a 'clean' absolute path
-        this.absoluteParentPath = (new File(absolutePath)).getParent(); // Get 'files' parent and put on separator if needed
-        if (this.absoluteParentPath.charAt(this.absoluteParentPath.length() - 1) != File.separatorChar) {
-          this.absoluteParentPath += File.separator;
-        } 
-        
-        this.fileExtension = "";
-        if (this.isDirectory == false) 
-          this.fileExtension = getFileExtension(path);        
+        // Same goes for absolutePath, absoluteParentPath and fileExtension, see resolvePaths()
+        this.canonicalPathNeeded = (attributesSupplied == false || isLink(basicFileAttributes));
+        this.pathsPending        = true;
       } catch (Exception e) {
         exceptionMessage = e.getMessage();
       }      
     }
   }
 
+  // Work out the absolute path, parent path and file extension, done the first time one of them
+  //   (or the exception message) is asked for
+  private synchronized void resolvePaths() {
+    if (pathsPending == false) return;
+    try {
+      if (canonicalPathNeeded || realParentPath == null || path.getFileName() == null)
+        this.absolutePath = path.toFile().getCanonicalPath();     // This is a 'clean' absolute path
+      else
+        this.absolutePath = new File(realParentPath, path.getFileName().toString()).getPath();
+      this.absoluteParentPath = (new File(absolutePath)).getParent(); // Get 'files' parent and put on separator if needed
+      if (this.absoluteParentPath.charAt(this.absoluteParentPath.length() - 1) != File.separatorChar) {
+        this.absoluteParentPath += File.separator;
+      } 
+      
+      this.fileExtension = "";
+      if (this.isDirectory == false) 
+        this.fileExtension = getFileExtension(path);        
+    } catch (Exception e) {
+      exceptionMessage = e.getMessage();
+    }
+    pathsPending = false;
+  }
+
+  // The walkers call this with the real path (toRealPath()) of the directory the entry was listed
+  //   from, worked out once per directory; then the canonical path is that plus the file name unless
+  //   the entry itself is a link.  Has to be called before the paths are asked for
+  void setRealParentPath(String realParentPath) {
+    this.realParentPath = realParentPath;
+  }
+
+  // New (empty) FileAttributes of the named class, the name comes out of a file so the class is only
+  //   initialized and instantiated once we know it's a FileAttributes (ClassCastException if it isn't)
+  static FileAttributes newInstance(String className) throws ReflectiveOperationException {
+    Class<?> theClass = Class.forName(className, false, FileAttributes.class.getClassLoader());
+    if (FileAttributes.class.isAssignableFrom(theClass) == false) {
+      throw new ClassCastException(className + " isn't a FileAttributes");
+    }
+    return theClass.asSubclass(FileAttributes.class).getDeclaredConstructor().newInstance();
+  }
+
+  // Return true if the attributes are for a link (or for the target of one), then the canonical path
+  //   is the target's path
+  private static boolean isLink(BasicFileAttributes basicFileAttributes) {
+    if (basicFileAttributes.isSymbolicLink()) return true;
+    return (basicFileAttributes instanceof UnixAttributes) && ((UnixAttributes) basicFileAttributes).isFollowedLink();
+  }
+
   public String getFileExtension(Path path) {
     String rtnValue = "";
     String theName = path.getFileName().toString();
@@ -136,29 +235,32 @@ public abstract class FileAttributes implements Serializable {
   
   // All the getters
   public String getChecksumAlgorithm() {
-    return CHECKSUMALGORITHM;
+    return (checkSumAlgorithm == null ? CHECKSUMALGORITHM : checkSumAlgorithm);
   }   
   public Path getPath() {
     return path;
   }
   public String getFileName() {
-    return path.getFileName().toString();
+    return getPath().getFileName().toString();
   }
   public String getPathRoot() {
-    Path root = path.getRoot();
+    Path root = getPath().getRoot();
     return root != null ? root.toString() : null;
   }
   public String getPathParent() {
-    Path parent = path.getParent();
+    Path parent = getPath().getParent();
     return parent != null ? parent.toString() : null;
   }
   public String getAbsolutePath() {
+    if (pathsPending) resolvePaths();
     return absolutePath;
   }   
   public String getAbsoluteParentPath() {
+    if (pathsPending) resolvePaths();
     return absoluteParentPath;
   }
   public String getFileExtension() {
+    if (pathsPending) resolvePaths();
     return fileExtension;
   }
   public FileTime getCreationTime() {
@@ -186,39 +288,149 @@ public abstract class FileAttributes implements Serializable {
     return sizeInBytes;
   }
   
-  // Lazy instantiation of the checksum value
+  // Lazy instantiation of the checksum value, the hex is made from the digest bytes each time it's
+  //   asked for (comparisons should use getCheckSumBytes())
   public String getCheckSumValue() {
-    if (checkSumValue == null && path != null && this.isRegularFile) { 
+    byte[] digest = getCheckSumDigest();
+    return (digest != null ? CheckSum.toHex(digest) : checkSumValue);
+  }
+
+  // The digest bytes (a copy), computed if we don't have them; null if there's no checksum or the
+  //   value we were given isn't hex
+  @JsonIgnore
+  public byte[] getCheckSumBytes() {
+    byte[] digest = getCheckSumDigest();
+    return (digest == null ? null : digest.clone());
+  }
+
+  // Same as above without the copy, for the classes in the package that only read it
+  byte[] getCheckSumDigest() {
+    if (checkSumBytes == null && checkSumValue == null && path != null && this.isRegularFile) { 
       try {
-        this.checkSumValue = CheckSum.getFileCheckSumValue(path, CHECKSUMALGORITHM);
+        this.checkSumBytes = computeCheckSumBytes();
       }
       catch (Exception e) {
         System.out.println("CheckSum raised error on:" + path.toString() );
       }
     }
-    return checkSumValue;
+    return checkSumBytes;
+  }
+  
+  // Read the file and return it's digest, files that haven't changed come from the CheckSumCache if
+  //   one's set (see CheckSumCache.setDefault); for a Merkle algorithm it's the root and the tree is
+  //   kept (setMerkleTree), those aren't cached.  These use getPath(), FileAttributesTable rows don't
+  //   have the field
+  byte[] computeCheckSumBytes() throws Exception {
+    String algorithm = getChecksumAlgorithm();
+    if (MerkleTree.isMerkleAlgorithm(algorithm)) {
+      MerkleTree computedMerkleTree = MerkleTree.compute(getPath(), algorithm);
+      setMerkleTree(computedMerkleTree);
+      return computedMerkleTree.getRoot();
+    }
+    return CheckSum.getFileDigest(getPath(), algorithm, getCheckSumCacheKey(algorithm));
+  }
+
+  // The block hashes when the checksum algorithm is a Merkle one and the checksum's been worked out
+  @JsonIgnore
+  public MerkleTree getMerkleTree() {
+    return merkleTree;
+  }
+  
+  // Key for the CheckSumCache from the attributes we have; UnixFileAttributes adds the device and inode
+  protected CheckSumCache.Key getCheckSumCacheKey(String algorithm) {
+    return CheckSumCache.Key.of(-1, -1, getPath(), getSizeInBytes(), getLastModifiedTime(), algorithm);
+  }
+  
+  // The checksum if we have it, unlike getCheckSumValue() it isn't calculated
+  String getCheckSumValueIfSet() {
+    return (checkSumBytes != null ? CheckSum.toHex(checkSumBytes) : checkSumValue);
+  }
+
+  // Same as above for the digest bytes (not a copy)
+  byte[] getCheckSumBytesIfSet() {
+    return checkSumBytes;
+  }
+
+  // True if we have the checksum, no hex is made to find out
+  boolean isCheckSumSet() {
+    return (checkSumBytes != null || checkSumValue != null);
+  }
+
+  // Checksum for the algorithm (i.e. "MD5", getChecksumAlgorithm() is the same as getCheckSumValue()),
+  //   it's calculated if we don't have it
+  public String getCheckSumValue(String algorithm) {
+    if (getChecksumAlgorithm().equals(algorithm)) return getCheckSumValue();
+    String value = getCheckSumValueIfSet(algorithm);
+    if (value == null && path != null && this.isRegularFile) {
+      try {
+        computeCheckSumValues(algorithm);
+        value = getCheckSumValueIfSet(algorithm);
+      }
+      catch (Exception e) {
+        System.out.println("CheckSum raised error on:" + path.toString() );
+      }
+    }
+    return value;
+  }
+
+  // Same as above but it isn't calculated
+  synchronized String getCheckSumValueIfSet(String algorithm) {
+    if (getChecksumAlgorithm().equals(algorithm)) return getCheckSumValueIfSet();
+    return (otherCheckSumValues == null ? null : otherCheckSumValues.get(algorithm));
+  }
+
+  // Work out the checksums we don't have yet for the algorithms, the file's read once for all of
+  //   them (files that haven't changed come from the CheckSumCache if one's set)
+  public void computeCheckSumValues(String... algorithms) throws Exception {
+    List<String> missing = new ArrayList<String>();
+    for (String algorithm : algorithms) {
+      if (getCheckSumValueIfSet(algorithm) == null && missing.contains(algorithm) == false) missing.add(algorithm);
+    }
+    if (missing.isEmpty()) return;
+
+    Map<String, byte[]> digests = CheckSum.getFileDigests(getPath(), getCheckSumCacheKey(missing.get(0)),
+                                                          missing.toArray(new String[missing.size()]));
+    String checkSumAlgorithm = getChecksumAlgorithm();
+    for (Map.Entry<String, byte[]> entry : digests.entrySet()) {
+      if (checkSumAlgorithm.equals(entry.getKey()))
+        setCheckSumBytes(entry.getValue());
+      else
+        setCheckSumValue(entry.getKey(), CheckSum.toHex(entry.getValue()));
+    }
+  }
+
+  // The checksums for algorithms other than getChecksumAlgorithm(), algorithm -> checksum
+  public synchronized Map<String, String> getOtherCheckSumValues() {
+    if (otherCheckSumValues == null) return Collections.emptyMap();
+    return Collections.unmodifiableMap(new LinkedHashMap<String, String>(otherCheckSumValues));
   }
   public int getInstantiationMethod() {
     return instantiationMethod;
   }
+  
+  // FileAttributesTable uses this so the objects it builds look deserialized
+  void setInstantiationMethod(int instantiationMethod) {
+    this.instantiationMethod = instantiationMethod;
+  }
   public String getClassName() {
     return className;
   }
   public String getExceptionMessage() {
+    if (pathsPending) resolvePaths();
     return exceptionMessage;
   }
 
   // return boolean if an exception was raised with this object
   public boolean hasException() {
-    return (exceptionMessage.length() > 0);
+    return (getExceptionMessage().length() > 0);
   }
   public String getStartingBasePath() {
     return startingBasePath;
   }
   
   public String getPathFromBaseAsUnix() {
-    String rtnString = absolutePath.replace('\\', '/');
-    String strtString = startingBasePath.replace('\\','/');
+    String rtnString = getAbsolutePath().replace('\\', '/');
+    String strtString = getStartingBasePath().replace('\\','/');
     
     int theLen = strtString.length();
     if (theLen > 0 && theLen < rtnString.length()) {
@@ -259,16 +471,62 @@ public abstract class FileAttributes implements Serializable {
   public void setSizeInBytes(long sizeInBytes) {
     this.sizeInBytes = sizeInBytes;
   }
+  // Hex is kept as the digest bytes, anything else as is
   public void setCheckSumValue(String checkSumValue) {
-    this.checkSumValue = checkSumValue;
+    byte[] digest = (checkSumValue == null ? null : CheckSum.fromHex(checkSumValue));
+    this.checkSumBytes = digest;
+    this.checkSumValue = (digest == null ? checkSumValue : null);
   }  
+  // Set the digest for getChecksumAlgorithm(), the array is kept (it isn't copied)
+  public void setCheckSumBytes(byte[] checkSumBytes) {
+    this.checkSumBytes = checkSumBytes;
+    this.checkSumValue = null;
+  }
+  // Set the checksum for the algorithm, null removes it
+  public synchronized void setCheckSumValue(String algorithm, String checkSumValue) {
+    if (getChecksumAlgorithm().equals(algorithm)) {
+      setCheckSumValue(checkSumValue);
+    }
+    else if (checkSumValue != null) {
+      if (otherCheckSumValues == null) otherCheckSumValues = new LinkedHashMap<String, String>();
+      otherCheckSumValues.put(algorithm, checkSumValue);
+    }
+    else if (otherCheckSumValues != null) {
+      otherCheckSumValues.remove(algorithm);
+      if (otherCheckSumValues.isEmpty()) otherCheckSumValues = null;
+    }
+  }
+  // Change the algorithm getCheckSumValue() is for, the checksum we had for the old algorithm is kept
+  //   with the other checksums (and if we had one for the new algorithm it becomes the main one)
+  public synchronized void setChecksumAlgorithm(String algorithm) {
+    String oldAlgorithm = getChecksumAlgorithm();
+    if (oldAlgorithm.equals(algorithm)) return;
+    String oldCheckSumValue = getCheckSumValueIfSet();
+    String newCheckSumValue = getCheckSumValueIfSet(algorithm);
+    setCheckSumValue(algorithm, null);
+    checkSumAlgorithm = (CHECKSUMALGORITHM.equals(algorithm) ? null : algorithm);
+    if (merkleTree != null && merkleTree.getAlgorithmName().equals(algorithm) == false) merkleTree = null;
+    setCheckSumValue(newCheckSumValue);
+    if (oldCheckSumValue != null) setCheckSumValue(oldAlgorithm, oldCheckSumValue);
+  }
+  public void setMerkleTree(MerkleTree merkleTree) {
+    this.merkleTree = merkleTree;
+  }
+  public void setOtherCheckSumValues(Map<String, String> otherCheckSumValues) {
+    for (Map.Entry<String, String> entry : otherCheckSumValues.entrySet()) {
+      setCheckSumValue(entry.getKey(), entry.getValue());
+    }
+  }
   public void setAbsolutePath(String absolutePath) {
+    if (pathsPending) resolvePaths();  // So it isn't overwritten later
     this.absolutePath = absolutePath;
   }
   public void setAbsoluteParentPath(String absoluteParentPath) {
+    if (pathsPending) resolvePaths();
     this.absoluteParentPath = absoluteParentPath;
   }
   public void setFileExtension(String fileExtension) {
+    if (pathsPending) resolvePaths();
     this.fileExtension = fileExtension;
   }
   public void setStartingBasePath(String startingBasePath) {
@@ -277,26 +535,26 @@ public abstract class FileAttributes implements Serializable {
   
   @Override
   public String toString() {
-    return "FileAttributes [instantiationMethod=" + instantiationMethod
-        + ", path=" + path 
+    return "FileAttributes [instantiationMethod=" + getInstantiationMethod()
+        + ", path=" + getPath() 
         + ", getFileName()=" + getFileName() 
         + ", getPathRoot()=" + getPathRoot() 
         + ", getPathParent()=" + getPathParent() 
-        + ", absolutePath=" + absolutePath
-        + ", absoluteParentPath=" + absoluteParentPath
-        + ", startingBasePath=" + startingBasePath
+        + ", absolutePath=" + getAbsolutePath()
+        + ", absoluteParentPath=" + getAbsoluteParentPath()
+        + ", startingBasePath=" + getStartingBasePath()
         + ", getPathFromBaseAsUnix()=" + getPathFromBaseAsUnix()
-        + ", fileExtension=" + fileExtension
-        + ", creationTime=" + creationTime
-        + ", lastAccessTime=" + lastAccessTime 
-        + ", lastModifiedTime=" + lastModifiedTime 
-        + ", isDirectory=" + isDirectory 
-        + ", isRegularFile=" + isRegularFile 
-        + ", isSymbolicLink=" + isSymbolicLink 
-        + ", isOther=" + isOther 
-        + ", sizeInBytes=" + sizeInBytes 
+        + ", fileExtension=" + getFileExtension()
+        + ", creationTime=" + getCreationTime()
+        + ", lastAccessTime=" + getLastAccessTime() 
+        + ", lastModifiedTime=" + getLastModifiedTime() 
+        + ", isDirectory=" + isDirectory() 
+        + ", isRegularFile=" + isRegularFile() 
+        + ", isSymbolicLink=" + isSymbolicLink() 
+        + ", isOther=" + isOther() 
+        + ", sizeInBytes=" + getSizeInBytes() 
         + ", checkSumValue=" + getCheckSumValue() 
-        + ", exceptionMessage=" + exceptionMessage + "]";
+        + ", exceptionMessage=" + getExceptionMessage() + "]";
   }
 
   // Deserialize object  
@@ -316,9 +574,39 @@ public abstract class FileAttributes implements Serializable {
     isSymbolicLink      = objectInputStream.readBoolean();
     isOther             = objectInputStream.readBoolean();
     sizeInBytes         = objectInputStream.readLong();
-    checkSumValue       = objectInputStream.readUTF();
+    String checkSum     = objectInputStream.readUTF();
     exceptionMessage    = objectInputStream.readUTF();
-    if (checkSumValue.length() == 0) checkSumValue = null;  // Set back to null if applicable
+    setCheckSumValue(checkSum.length() == 0 ? null : checkSum);  // Set back to null if applicable
+
+    // Checksums for other algorithms than the algorithm for checkSumValue, they're only there if the
+    //   object had other checksums or wasn't SHA-256 (older files never do); then the algorithm and
+    //   the Merkle tree if there's one
+    int numberOfOtherCheckSums;
+    try {
+      numberOfOtherCheckSums = objectInputStream.readInt();
+    }
+    catch (EOFException e) {
+      return;
+    }
+    Map<String, String> others = new LinkedHashMap<String, String>();
+    for (int i = 0; i < numberOfOtherCheckSums; i++) {
+      others.put(objectInputStream.readUTF(), objectInputStream.readUTF());
+    }
+    if (others.isEmpty() == false) otherCheckSumValues = others;
+    try {
+      String algorithm  = objectInputStream.readUTF();
+      checkSumAlgorithm = (CHECKSUMALGORITHM.equals(algorithm) ? null : algorithm);
+    }
+    catch (EOFException e) {
+      checkSumAlgorithm = null;  // CHECKSUMALGORITHM
+      return;
+    }
+    try {
+      merkleTree = MerkleTree.readFrom(objectInputStream);
+    }
+    catch (EOFException e) {
+      merkleTree = null;
+    }
   }
 
   // Serialize object
@@ -327,9 +615,9 @@ public abstract class FileAttributes implements Serializable {
     objectOutputStream.writeUTF(className);
     objectOutputStream.writeUTF(path.toString());
     objectOutputStream.writeUTF(startingBasePath);
-    objectOutputStream.writeUTF(absolutePath);
-    objectOutputStream.writeUTF(absoluteParentPath);
-    objectOutputStream.writeUTF(fileExtension);
+    objectOutputStream.writeUTF(getAbsolutePath());
+    objectOutputStream.writeUTF(getAbsoluteParentPath());
+    objectOutputStream.writeUTF(getFileExtension());
     objectOutputStream.writeLong(creationTime.toMillis());
     objectOutputStream.writeLong(lastAccessTime.toMillis());
     objectOutputStream.writeLong(lastModifiedTime.toMillis());
@@ -338,7 +626,143 @@ public abstract class FileAttributes implements Serializable {
     objectOutputStream.writeBoolean(isSymbolicLink);
     objectOutputStream.writeBoolean(isOther);
     objectOutputStream.writeLong(sizeInBytes);
-    objectOutputStream.writeUTF((getCheckSumValue()==null ? "" : getCheckSumValue()));
-    objectOutputStream.writeUTF(exceptionMessage); 
+    String checkSum = getCheckSumValue();
+    objectOutputStream.writeUTF((checkSum==null ? "" : checkSum));
+    objectOutputStream.writeUTF(getExceptionMessage()); 
+    Map<String, String> others = getOtherCheckSumValues();
+    String algorithm = getChecksumAlgorithm();
+    MerkleTree theMerkleTree = getMerkleTree();
+    boolean writeAlgorithm = (CHECKSUMALGORITHM.equals(algorithm) == false || theMerkleTree != null);
+    if (others.isEmpty() == false || writeAlgorithm) {             // Left off when there's nothing, so
+      objectOutputStream.writeInt(others.size());                  //   the bytes are the same as before
+      for (Map.Entry<String, String> entry : others.entrySet()) {
+        objectOutputStream.writeUTF(entry.getKey());
+        objectOutputStream.writeUTF(entry.getValue());
+      }
+      if (writeAlgorithm) objectOutputStream.writeUTF(algorithm);
+      if (theMerkleTree != null) theMerkleTree.writeTo(objectOutputStream);  // The tree follows the algorithm
+    }
+    loadLazyAttributes();
+  }
+
+  // The flags byte at the start of a record
+  private static final int RECORD_DIRECTORY      = 1;
+  private static final int RECORD_REGULAR_FILE   = 2;
+  private static final int RECORD_SYMBOLIC_LINK  = 4;
+  private static final int RECORD_OTHER          = 8;
+  private static final int RECORD_PATH_ABSOLUTE  = 16;  // Path is the absolute path, it isn't written twice
+  private static final int RECORD_HAS_EXCEPTION  = 32;
+  private static final long RECORD_NO_TIME = Long.MIN_VALUE;
+
+  // Write the attributes as a record for FileAttributesRecordWriter, readRecord() reads it back;
+  //   subclasses write their attributes after ours.  The getters are used so the lazy attributes are
+  //   worked out (and the checksum if we don't have it, same as writeObject)
+  protected void writeRecord(DataOutput dataOutput) throws IOException {
+    String theAbsolutePath = getAbsolutePath();
+    String pathString      = (getPath() == null ? null : getPath().toString());
+    String theException    = getExceptionMessage();
+    int flags = (isDirectory() ? RECORD_DIRECTORY : 0) | (isRegularFile() ? RECORD_REGULAR_FILE : 0) |
+                (isSymbolicLink() ? RECORD_SYMBOLIC_LINK : 0) | (isOther() ? RECORD_OTHER : 0);
+    if (pathString != null && pathString.equals(theAbsolutePath)) flags |= RECORD_PATH_ABSOLUTE;
+    if (theException != null && theException.length() > 0) flags |= RECORD_HAS_EXCEPTION;
+    dataOutput.writeByte(flags);
+    writeNullableUTF(dataOutput, theAbsolutePath);
+    if ((flags & RECORD_PATH_ABSOLUTE) == 0) writeNullableUTF(dataOutput, pathString);
+    writeNullableUTF(dataOutput, getStartingBasePath());
+    writeNullableUTF(dataOutput, getAbsoluteParentPath());
+    writeNullableUTF(dataOutput, getFileExtension());
+    dataOutput.writeLong(getCreationTime() == null ? RECORD_NO_TIME : getCreationTime().toMillis());
+    dataOutput.writeLong(getLastAccessTime() == null ? RECORD_NO_TIME : getLastAccessTime().toMillis());
+    dataOutput.writeLong(getLastModifiedTime() == null ? RECORD_NO_TIME : getLastModifiedTime().toMillis());
+    dataOutput.writeLong(getSizeInBytes());
+
+    dataOutput.writeUTF(getChecksumAlgorithm());
+    byte[] digest = getCheckSumDigest();
+    String checkSum = (digest == null ? getCheckSumValueIfSet() : null);
+    if (digest != null) {
+      dataOutput.writeByte(1);
+      dataOutput.writeByte(digest.length);
+      dataOutput.write(digest);
+    }
+    else if (checkSum != null) {
+      dataOutput.writeByte(2);
+      dataOutput.writeUTF(checkSum);
+    }
+    else {
+      dataOutput.writeByte(0);
+    }
+    Map<String, String> others = getOtherCheckSumValues();
+    dataOutput.writeInt(others.size());
+    for (Map.Entry<String, String> entry : others.entrySet()) {
+      dataOutput.writeUTF(entry.getKey());
+      dataOutput.writeUTF(entry.getValue());
+    }
+    MerkleTree theMerkleTree = getMerkleTree();
+    dataOutput.writeBoolean(theMerkleTree != null);
+    if (theMerkleTree != null) theMerkleTree.writeTo(dataOutput);
+    if ((flags & RECORD_HAS_EXCEPTION) != 0) dataOutput.writeUTF(theException);
+  }
+
+  // Read what writeRecord() wrote, the object was just created with the no argument constructor
+  protected void readRecord(DataInput dataInput) throws IOException {
+    instantiationMethod = FROMJAVASERIALIZATION;
+    className           = getClass().getName();
+    int flags           = dataInput.readUnsignedByte();
+    absolutePath        = readNullableUTF(dataInput);
+    String pathString   = ((flags & RECORD_PATH_ABSOLUTE) != 0 ? absolutePath : readNullableUTF(dataInput));
+    path                = (pathString == null ? null : Paths.get(pathString));
+    startingBasePath    = readNullableUTF(dataInput);
+    absoluteParentPath  = readNullableUTF(dataInput);
+    fileExtension       = readNullableUTF(dataInput);
+    creationTime        = readTime(dataInput);
+    lastAccessTime      = readTime(dataInput);
+    lastModifiedTime    = readTime(dataInput);
+    sizeInBytes         = dataInput.readLong();
+    isDirectory         = (flags & RECORD_DIRECTORY) != 0;
+    isRegularFile       = (flags & RECORD_REGULAR_FILE) != 0;
+    isSymbolicLink      = (flags & RECORD_SYMBOLIC_LINK) != 0;
+    isOther             = (flags & RECORD_OTHER) != 0;
+
+    String algorithm  = dataInput.readUTF();
+    checkSumAlgorithm = (CHECKSUMALGORITHM.equals(algorithm) ? null : algorithm);
+    int checkSumType  = dataInput.readUnsignedByte();
+    if (checkSumType == 1) {
+      byte[] digest = new byte[dataInput.readUnsignedByte()];
+      dataInput.readFully(digest);
+      setCheckSumBytes(digest);
+    }
+    else if (checkSumType == 2) {
+      setCheckSumValue(dataInput.readUTF());
+    }
+    int numberOfOtherCheckSums = dataInput.readInt();
+    for (int i = 0; i < numberOfOtherCheckSums; i++) {
+      setCheckSumValue(dataInput.readUTF(), dataInput.readUTF());
+    }
+    merkleTree       = (dataInput.readBoolean() ? MerkleTree.readFrom(dataInput) : null);
+    exceptionMessage = ((flags & RECORD_HAS_EXCEPTION) != 0 ? dataInput.readUTF() : "");
+  }
+
+  private static void writeNullableUTF(DataOutput dataOutput, String value) throws IOException {
+    dataOutput.writeBoolean(value != null);
+    if (value != null) dataOutput.writeUTF(value);
+  }
+
+  private static String readNullableUTF(DataInput dataInput) throws IOException {
+    return (dataInput.readBoolean() ? dataInput.readUTF() : null);
+  }
+
+  private static FileTime readTime(DataInput dataInput) throws IOException {
+    long millis = dataInput.readLong();
+    return (millis == RECORD_NO_TIME ? null : FileTime.fromMillis(millis));
+  }
+
+  // What's written for us, FileAttributesTable rows give a standalone copy
+  FileAttributes getWritable() {
+    return this;
+  }
+
+  // Called when we're serialized, subclasses that read some of their attributes when they're
+  //   first asked for override this to read them (their fields are written after ours)
+  protected void loadLazyAttributes() {
   }  
 }
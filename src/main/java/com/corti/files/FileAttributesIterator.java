@@ -0,0 +1,186 @@
+package com.corti.files;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterator that walks a directory tree (breadth first) and returns the FileAttributes for
+ * each file as it's found; you get one of these from GetFileOrDirectoriesCommon.iterateFileAttributes
+ * (or the stream methods).  The only things held in memory are the directories we still need to
+ * list (the frontier) and the directory currently being read.
+ * The filters/limits come from the GetFileOrDirectoriesCommon object that created it:
+ * - exclude matchers: directories that match aren't walked, files that match are skipped
+ * - include matchers: applied to files only (a directory could have files we want way below it),
+ *     directories where no include could match anything below them aren't listed
+ * - maxDepth: directories deeper than this (relative to the starting path) aren't listed
+ * - stayOnFileSystem: directories on another file system than the starting path aren't listed
+ * - num2Process: stop once we've returned this many files
+ * Close it (or the stream) if you stop reading before the end, that closes the open directory.
+ */
+public class FileAttributesIterator implements Iterator<FileAttributes>, Closeable {
+  private final GetFileOrDirectoriesCommon common;
+  private final String startingAbsolutePath;
+  private final int startingNameCount;
+  private final int maxDepth;
+  private final Deque<FrontierDirectory> directoryFrontier;
+  private final Object startingFileSystemId;
+  private DirectoryStream<Path> currentStream;
+  private Iterator<Path> currentEntries;
+  private Class<? extends BasicFileAttributes> attributesClass;
+  private String realDirectory;  // Real path of the directory being listed
+  private FileAttributes nextEntry;
+  private int numReturned;
+  private boolean isClosed;
+
+  // A directory waiting to be listed, with the attributes read when we found it (null for the
+  //   starting path); their device saves a stat to find it's file system
+  private static class FrontierDirectory {
+    final Path path;
+    final BasicFileAttributes attributes;
+
+    FrontierDirectory(Path path, BasicFileAttributes attributes) {
+      this.path       = path;
+      this.attributes = attributes;
+    }
+  }
+
+  FileAttributesIterator(GetFileOrDirectoriesCommon common, Path startingPath, Path baseDirectoryPath, int maxDepth) {
+    this.common               = common;
+    this.startingAbsolutePath = baseDirectoryPath.toAbsolutePath().toString();
+    this.startingNameCount    = startingPath.getNameCount();
+    this.maxDepth             = maxDepth;
+    this.directoryFrontier    = new ArrayDeque<FrontierDirectory>();
+    this.directoryFrontier.add(new FrontierDirectory(startingPath, null));
+    this.startingFileSystemId = common.getStartingFileSystemId(startingPath);
+    this.numReturned          = 0;
+    this.isClosed             = false;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextEntry == null) advance();
+    return nextEntry != null;
+  }
+
+  @Override
+  public FileAttributes next() {
+    if (hasNext() == false) throw new NoSuchElementException();
+    FileAttributes rtnValue = nextEntry;
+    nextEntry = null;
+    numReturned++;
+    return rtnValue;
+  }
+
+  // Return this as a stream, closing the stream closes the iterator
+  public Stream<FileAttributes> stream() {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                        .onClose(this::close);
+  }
+
+  @Override
+  public void close() {
+    closeCurrentStream();
+    directoryFrontier.clear();
+    isClosed = true;
+  }
+
+  // Move to the next file we want, leaves nextEntry null when there aren't any more
+  private void advance() {
+    while (nextEntry == null && isClosed == false) {
+      if (common.num2Process > 0 && numReturned >= common.num2Process) {
+        close();
+      }
+      else if (currentEntries != null && hasMoreEntries()) {
+        Path entry = currentEntries.next();
+        BasicFileAttributes basicFileAttributes = readAttributes(entry);
+        if (basicFileAttributes == null) {
+          continue;
+        }
+        else if (basicFileAttributes.isDirectory()) {
+          if (isWithinMaxDepth(entry) && common.isPathExcluded(entry) == false)
+            directoryFrontier.add(new FrontierDirectory(entry, basicFileAttributes));
+        }
+        else if (common.isFileWanted(entry)) {
+          try {
+            nextEntry = common.getFileAttributesForPath(entry, basicFileAttributes, startingAbsolutePath, realDirectory);
+            if (common.debugIt) System.out.println("fileAttributes: " + nextEntry.toString());
+          } catch (Exception e) {
+            System.out.println("Exception raised with " + entry.toString());
+            e.printStackTrace();
+          }
+        }
+      }
+      else {
+        closeCurrentStream();
+        if (directoryFrontier.isEmpty()) {
+          close();
+        }
+        else {
+          FrontierDirectory frontierDirectory = directoryFrontier.poll();
+          Path directory = frontierDirectory.path;
+          if (common.couldIncludeBelow(directory) == false) continue;  // No file below it is wanted
+          if (common.isOtherFileSystem(directory, frontierDirectory.attributes, startingFileSystemId)) continue;
+          try {
+            attributesClass = common.getAttributesClass(directory, frontierDirectory.attributes);
+            realDirectory   = common.getRealPath(directory);
+            currentStream   = Files.newDirectoryStream(directory);
+            currentEntries  = currentStream.iterator();
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        }
+      }
+    }
+  }
+
+  // Read the attributes of the entry (one call), these are reused when we build the FileAttributes
+  private BasicFileAttributes readAttributes(Path entry) {
+    try {
+      return common.readEntryAttributes(entry, attributesClass, true);
+    } catch (IOException e) {
+      System.out.println("Exception raised with " + entry.toString());
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  // Wrapper on currentEntries.hasNext(), the directory iterator wraps io errors in an unchecked exception
+  private boolean hasMoreEntries() {
+    try {
+      return currentEntries.hasNext();
+    } catch (DirectoryIteratorException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  // Check that the directory isn't deeper than maxDepth (relative to the starting path)
+  private boolean isWithinMaxDepth(Path entry) {
+    return (maxDepth == -1 || maxDepth >= (entry.getNameCount() - startingNameCount));
+  }
+
+  private void closeCurrentStream() {
+    if (currentStream != null) {
+      try {
+        currentStream.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    currentStream  = null;
+    currentEntries = null;
+  }
+}
@@ -0,0 +1,209 @@
+package com.corti.files;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.corti.files.compress.BlockCompressedInputStream;
+
+/**
+ * Reads the records written by FileAttributesRecordWriter, one FileAttributes at a time; only the
+ * record being read is in memory (the buffer for it is reused).
+ * If the file ends without the end marker (the writer didn't finish) the records up to the last whole
+ * one are returned, a message is printed and isComplete() is false.
+ * Usage:
+ *   try (FileAttributesRecordReader reader = new FileAttributesRecordReader(inputPath)) {
+ *     while (reader.hasNext()) { FileAttributes fileAttributes = reader.next(); ... }
+ *   }
+ * or stream() (close the stream).  isRecordFile(path) tells you if a file is one of ours rather than
+ * a serialized list.  A block compressed file is decompressed as it's read.
+ */
+public class FileAttributesRecordReader implements Iterator<FileAttributes>, Closeable {
+  private final DataInputStream inputStream;
+  private final RecordInputStream recordInputStream;
+  private final DataInputStream recordInput;
+  private final short version;
+  private byte[] recordBytes;
+  private FileAttributes nextEntry;
+  private long recordsRead;
+  private boolean isComplete;
+  private boolean isClosed;
+
+  // The file can be block compressed (see BlockCompressedOutputStream)
+  public FileAttributesRecordReader(Path inputPath) throws IOException {
+    this(BlockCompressedInputStream.open(inputPath));
+  }
+
+  // The stream is closed when we are
+  public FileAttributesRecordReader(InputStream inputStream) throws IOException {
+    this.inputStream = new DataInputStream(new BufferedInputStream(inputStream, 64 * 1024));
+    try {
+      if (this.inputStream.readInt() != FileAttributesRecordWriter.MAGIC) throw new IOException("Not a FileAttributes record file");
+      this.version = this.inputStream.readShort();
+      if (version < 1 || version > FileAttributesRecordWriter.VERSION) throw new IOException("Record file version " + version + " isn't supported");
+    } catch (IOException e) {
+      this.inputStream.close();
+      throw e;
+    }
+    this.recordBytes       = new byte[1024];
+    this.recordInputStream = new RecordInputStream();
+    this.recordInput       = new DataInputStream(recordInputStream);
+  }
+
+  // True if the file starts with our magic number (once it's decompressed)
+  public static boolean isRecordFile(Path path) {
+    try (InputStream inputStream = BlockCompressedInputStream.open(path)) {
+      return isRecordStream(inputStream);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  // Same as above for a stream that supports mark, it's left where it was
+  public static boolean isRecordStream(InputStream inputStream) throws IOException {
+    inputStream.mark(4);
+    try {
+      int magic = 0;
+      for (int i = 0; i < 4; i++) {
+        int b = inputStream.read();
+        if (b < 0) return false;
+        magic = (magic << 8) | b;
+      }
+      return magic == FileAttributesRecordWriter.MAGIC;
+    } finally {
+      inputStream.reset();
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextEntry == null && isClosed == false) {
+      try {
+        nextEntry = readRecord();
+      } catch (IOException e) {
+        close();
+        throw new UncheckedIOException(e);
+      }
+    }
+    return nextEntry != null;
+  }
+
+  @Override
+  public FileAttributes next() {
+    if (hasNext() == false) throw new NoSuchElementException();
+    FileAttributes fileAttributes = nextEntry;
+    nextEntry = null;
+    return fileAttributes;
+  }
+
+  public Stream<FileAttributes> stream() {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                        .onClose(this::close);
+  }
+
+  public long getRecordsRead() {
+    return recordsRead;
+  }
+
+  public short getVersion() {
+    return version;
+  }
+
+  // True once we've read the end marker
+  public boolean isComplete() {
+    return isComplete;
+  }
+
+  @Override
+  public void close() {
+    if (isClosed) return;
+    isClosed = true;
+    try {
+      inputStream.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  // Read the next record, null at the end
+  private FileAttributes readRecord() throws IOException {
+    int length;
+    try {
+      length = inputStream.readInt();
+      if (length == FileAttributesRecordWriter.END_OF_RECORDS) {
+        isComplete = true;
+        close();
+        return null;
+      }
+      if (length < 1) throw new IOException("Bad record length " + length + " after record " + recordsRead);
+      if (length > recordBytes.length) recordBytes = new byte[Math.max(length, recordBytes.length * 2)];
+      inputStream.readFully(recordBytes, 0, length);
+    } catch (EOFException e) {
+      System.out.println("Record file ended after record " + recordsRead + " without the end marker, it's incomplete");
+      close();
+      return null;
+    }
+    recordInputStream.reset(recordBytes, length);
+    FileAttributes fileAttributes;
+    try {
+      fileAttributes = readAttributes(recordInput);  // Anything after what it reads is newer attributes, skipped
+    } catch (IOException e) {
+      throw new IOException("Can't read record " + recordsRead, e);
+    }
+    recordsRead++;
+    return fileAttributes;
+  }
+
+  // Read what FileAttributesRecordWriter.writeAttributes wrote
+  static FileAttributes readAttributes(DataInput dataInput) throws IOException {
+    FileAttributes fileAttributes;
+    int recordType = dataInput.readUnsignedByte();
+    try {
+      if (recordType == FileAttributesRecordWriter.UNIX_RECORD) {
+        fileAttributes = new UnixFileAttributes();
+      }
+      else if (recordType == FileAttributesRecordWriter.DOS_RECORD) {
+        fileAttributes = new DosFileAttributes();
+      }
+      else if (recordType == FileAttributesRecordWriter.CLASS_RECORD) {
+        fileAttributes = FileAttributes.newInstance(dataInput.readUTF());  // Only if it's a FileAttributes
+      }
+      else {
+        throw new IOException("Unknown record type " + recordType);
+      }
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Can't create the FileAttributes", e);
+    }
+    fileAttributes.readRecord(dataInput);
+    return fileAttributes;
+  }
+
+  // ByteArrayInputStream we can point at the record buffer again for each record
+  private static class RecordInputStream extends ByteArrayInputStream {
+    RecordInputStream() {
+      super(new byte[0]);
+    }
+
+    void reset(byte[] bytes, int length) {
+      this.buf   = bytes;
+      this.pos   = 0;
+      this.count = length;
+      this.mark  = 0;
+    }
+  }
+}
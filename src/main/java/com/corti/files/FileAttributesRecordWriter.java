@@ -0,0 +1,120 @@
+package com.corti.files;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import com.corti.files.compress.BlockCompressedOutputStream;
+import com.corti.files.compress.Codec;
+
+/**
+ * Writes FileAttributes to a snapshot file one record at a time, FileAttributesRecordReader reads
+ * them back.  Unlike serializing the whole list (SerializeOrDeserializeFileAttributes.serializeFileAttributesList)
+ * nothing is held onto after it's written, so a scan can write as it goes; it's also a lot smaller and
+ * faster than java serialization since there's no class descriptors or back references.
+ * The file is:
+ *   int MAGIC, short VERSION
+ *   records: int length, then length bytes (the record type and the attributes, see FileAttributes.writeRecord)
+ *   int END_OF_RECORDS
+ * A reader skips record bytes it doesn't know about, so attributes can be added to the end of a record
+ * without bumping the version.  If there's no END_OF_RECORDS the writer didn't finish (it crashed...).
+ * Usage:
+ *   try (FileAttributesRecordWriter writer = new FileAttributesRecordWriter(outputPath)) {
+ *     new PipelinedFileScanner(...).scan(writer);   // It's a Consumer, or call write(fileAttributes)
+ *   }
+ * The checksums are worked out when a record is written if they haven't been already, same as writeObject.
+ */
+public class FileAttributesRecordWriter implements Consumer<FileAttributes>, Closeable {
+  static final int MAGIC            = 0x46415252;  // "FARR"
+  static final short VERSION        = 1;
+  static final int END_OF_RECORDS   = -1;
+  static final byte UNIX_RECORD     = 'U';
+  static final byte DOS_RECORD      = 'D';
+  static final byte CLASS_RECORD    = 'C';  // Any other class, the class name follows
+
+  private final DataOutputStream outputStream;
+  private final ByteArrayOutputStream recordBuffer;
+  private final DataOutputStream recordOutput;
+  private long recordsWritten;
+  private boolean isClosed;
+
+  public FileAttributesRecordWriter(Path outputPath) throws IOException {
+    this(Files.newOutputStream(outputPath));
+  }
+
+  // Block compressed file (see BlockCompressedOutputStream), level is for Codec.DEFLATE
+  public FileAttributesRecordWriter(Path outputPath, Codec codec, int level) throws IOException {
+    this(BlockCompressedOutputStream.create(outputPath, codec, level));
+  }
+
+  // The stream is closed when we are
+  public FileAttributesRecordWriter(OutputStream outputStream) throws IOException {
+    this.outputStream = new DataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024));
+    this.recordBuffer = new ByteArrayOutputStream(512);
+    this.recordOutput = new DataOutputStream(recordBuffer);
+    this.outputStream.writeInt(MAGIC);
+    this.outputStream.writeShort(VERSION);
+  }
+
+  // Write one record, it's safe to call from more than one thread (the scanner's sink can be)
+  public synchronized void write(FileAttributes fileAttributes) throws IOException {
+    if (isClosed) throw new IOException("Writer is closed");
+    recordBuffer.reset();
+    writeAttributes(recordOutput, fileAttributes);
+    recordOutput.flush();
+    outputStream.writeInt(recordBuffer.size());
+    recordBuffer.writeTo(outputStream);
+    recordsWritten++;
+  }
+
+  // The record type then the attributes, IndexedSnapshotWriter writes its records with this too
+  static void writeAttributes(DataOutput dataOutput, FileAttributes fileAttributes) throws IOException {
+    FileAttributes writable = fileAttributes.getWritable();
+    if (writable.getClass() == UnixFileAttributes.class) {
+      dataOutput.writeByte(UNIX_RECORD);
+    }
+    else if (writable.getClass() == DosFileAttributes.class) {
+      dataOutput.writeByte(DOS_RECORD);
+    }
+    else {
+      dataOutput.writeByte(CLASS_RECORD);
+      dataOutput.writeUTF(writable.getClass().getName());
+    }
+    writable.writeRecord(dataOutput);
+  }
+
+  // Consumer version of write() so we can be the sink for a scan
+  @Override
+  public void accept(FileAttributes fileAttributes) {
+    try {
+      write(fileAttributes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public synchronized long getRecordsWritten() {
+    return recordsWritten;
+  }
+
+  // Writes the end marker
+  @Override
+  public synchronized void close() throws IOException {
+    if (isClosed) return;
+    isClosed = true;
+    try {
+      outputStream.writeInt(END_OF_RECORDS);
+      outputStream.flush();
+    } finally {
+      outputStream.close();
+    }
+  }
+}
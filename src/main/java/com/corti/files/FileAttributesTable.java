@@ -0,0 +1,857 @@
+package com.corti.files;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.corti.files.checksum.CheckSum;
+import com.corti.files.checksum.MerkleTree;
+
+/**
+ * Column store for a large number of FileAttributes (i.e. a serialized file with millions of entries),
+ *   a List<FileAttributes> costs hundreds of bytes a file (all the strings, three FileTime's...).
+ *   Here each attribute is a column:
+ * - size and the three times are long[], the times are in milliseconds (that's what's serialized)
+ * - the flags (directory, regular file, link, other and the dos flags) are bits in a BitSet
+ * - the parent directory is a node in a DirectoryNodeTable (parent node plus name, so the leading
+ *     part of the paths isn't repeated), the absolute path is only built when it's asked for
+ * - extension, starting base path and class name are dictionary encoded, each distinct value is kept
+ *     once and the rows have it's id
+ * - the file names (the absolute path after the parent directory) are utf-8 bytes in one byte[]
+ * - checksums are kept as the digest bytes rather than the hex string, a column for each algorithm;
+ *     the row has the id of it's getChecksumAlgorithm(), the other columns are it's
+ *     getOtherCheckSumValues()
+ * The odd values (a path that isn't the absolute path, exception messages, a checksum that isn't hex,
+ *   Merkle trees) are kept in maps by row, there shouldn't be many of them.
+ * get(row) returns a FileAttributes that reads from the table (nothing is copied), asList() has all
+ *   the rows so code written for a List<FileAttributes> (i.e. CompareFileAttributesInSerializedFiles)
+ *   can use the table as is.  The rows are read only except for setStartingBasePath(),
+ *   setCheckSumValue() (either one), setCheckSumBytes(), setMerkleTree() and setChecksumAlgorithm(), those
+ *   update the table; getCheckSumValue() doesn't calculate a missing checksum.
+ * materialize(row) builds a real Unix/DosFileAttributes from a row, that's what's written when a row
+ *   or asList() is serialized, so serializing asList() gives the same file as the original list.
+ *   SerializeOrDeserializeFileAttributes.deserializeFileAttributesTable reads a serialized file
+ *   straight into a table.
+ * Adding rows isn't thread safe, reading from different threads is fine once it's built; the
+ *   setters are synchronized so i.e. CheckSumService can fill in checksums from it's threads.
+ */
+public class FileAttributesTable {
+  // The bits for a row, row * FLAG_COUNT + the flag is the bit in flags
+  private static final int DIRECTORY         = 0;
+  private static final int REGULAR_FILE      = 1;
+  private static final int SYMBOLIC_LINK     = 2;
+  private static final int OTHER             = 3;
+  private static final int READ_ONLY         = 4;
+  private static final int SYSTEM            = 5;
+  private static final int HIDDEN            = 6;
+  private static final int ARCHIVE           = 7;
+  private static final int ODD_ABSOLUTE_PATH = 8;   // Absolute path is in otherAbsolutePaths
+  private static final int ODD_PATH          = 9;   // Path isn't the absolute path, it's in otherPaths
+  private static final int HAS_EXCEPTION     = 10;  // Message is in exceptionMessages
+  private static final int FLAG_COUNT        = 11;
+
+  private static final long NO_TIME = Long.MIN_VALUE;  // FileTime was null
+
+  private int size;
+  private long[] sizes;
+  private long[] creationTimes;
+  private long[] lastAccessTimes;
+  private long[] lastModifiedTimes;
+  private int[] parentIds;
+  private int[] extensionIds;
+  private int[] startingBasePathIds;
+  private byte[] classNameIds;
+  private byte[] checkSumAlgorithmIds;
+  private int[] nameOffsets;   // Name for a row is names[nameOffsets[row]] to names[nameOffsets[row+1]]
+  private byte[] names;
+  private final Map<String, DigestColumn> digestColumns = new LinkedHashMap<String, DigestColumn>();  // By algorithm
+  private final BitSet flags = new BitSet();
+
+  private final DirectoryNodeTable parents   = new DirectoryNodeTable();
+  private final Dictionary extensions        = new Dictionary();
+  private final Dictionary startingBasePaths = new Dictionary();
+  private final Dictionary classNames        = new Dictionary();
+  private final Dictionary checkSumAlgorithms = new Dictionary();
+
+  private final Map<Integer, String> otherPaths         = new HashMap<Integer, String>();
+  private final Map<Integer, String> otherAbsolutePaths = new HashMap<Integer, String>();
+  private final Map<Integer, String> exceptionMessages  = new HashMap<Integer, String>();
+  private final Map<Integer, MerkleTree> merkleTrees    = new HashMap<Integer, MerkleTree>();
+
+  public FileAttributesTable() {
+    this(1024);
+  }
+
+  public FileAttributesTable(int initialCapacity) {
+    initialCapacity     = Math.max(initialCapacity, 16);
+    sizes               = new long[initialCapacity];
+    creationTimes       = new long[initialCapacity];
+    lastAccessTimes     = new long[initialCapacity];
+    lastModifiedTimes   = new long[initialCapacity];
+    parentIds           = new int[initialCapacity];
+    extensionIds        = new int[initialCapacity];
+    startingBasePathIds = new int[initialCapacity];
+    classNameIds        = new byte[initialCapacity];
+    checkSumAlgorithmIds = new byte[initialCapacity];
+    nameOffsets         = new int[initialCapacity + 1];
+    names               = new byte[initialCapacity * 16];
+  }
+
+  // Add the file attributes to the table, returns the row it's in
+  public int add(FileAttributes fileAttributes) {
+    ensureCapacity(size + 1);
+    int row = size;
+
+    sizes[row]             = fileAttributes.getSizeInBytes();
+    creationTimes[row]     = toMillis(fileAttributes.getCreationTime());
+    lastAccessTimes[row]   = toMillis(fileAttributes.getLastAccessTime());
+    lastModifiedTimes[row] = toMillis(fileAttributes.getLastModifiedTime());
+    extensionIds[row]        = extensions.getId(fileAttributes.getFileExtension());
+    startingBasePathIds[row] = startingBasePaths.getId(fileAttributes.getStartingBasePath());
+    int classNameId = classNames.getId(fileAttributes.getClassName());
+    if (classNameId > Byte.MAX_VALUE) throw new IllegalStateException("Too many classes in table");
+    classNameIds[row] = (byte) classNameId;
+
+    setFlag(row, DIRECTORY, fileAttributes.isDirectory());
+    setFlag(row, REGULAR_FILE, fileAttributes.isRegularFile());
+    setFlag(row, SYMBOLIC_LINK, fileAttributes.isSymbolicLink());
+    setFlag(row, OTHER, fileAttributes.isOther());
+    if (fileAttributes instanceof DosFileAttributes) {
+      DosFileAttributes dosFileAttributes = (DosFileAttributes) fileAttributes;
+      setFlag(row, READ_ONLY, dosFileAttributes.isReadOnlyFile());
+      setFlag(row, SYSTEM, dosFileAttributes.isSystemFile());
+      setFlag(row, HIDDEN, dosFileAttributes.isHiddenFile());
+      setFlag(row, ARCHIVE, dosFileAttributes.isArchiveFlag());
+    }
+    else if (fileAttributes instanceof Row) {
+      Row other = (Row) fileAttributes;
+      setFlag(row, READ_ONLY, other.getTable().isReadOnlyFile(other.row));
+      setFlag(row, SYSTEM, other.getTable().isSystemFile(other.row));
+      setFlag(row, HIDDEN, other.getTable().isHiddenFile(other.row));
+      setFlag(row, ARCHIVE, other.getTable().isArchiveFlag(other.row));
+    }
+
+    // The name is what's left of the absolute path after the parent, if the absolute path doesn't
+    //   start with the parent we keep all of it
+    String absolutePath = fileAttributes.getAbsolutePath();
+    String absoluteParentPath = fileAttributes.getAbsoluteParentPath();
+    parentIds[row] = parents.getId(absoluteParentPath);
+    String name = "";
+    if (absolutePath != null && absoluteParentPath != null && absolutePath.startsWith(absoluteParentPath)) {
+      name = absolutePath.substring(absoluteParentPath.length());
+    }
+    else {
+      otherAbsolutePaths.put(row, absolutePath);
+      setFlag(row, ODD_ABSOLUTE_PATH, true);
+    }
+    addName(row, name);
+
+    Path path = fileAttributes.getPath();
+    String pathString = (path == null ? null : path.toString());
+    if (pathString == null || pathString.equals(absolutePath) == false) {
+      otherPaths.put(row, pathString);
+      setFlag(row, ODD_PATH, true);
+    }
+
+    String exceptionMessage = fileAttributes.getExceptionMessage();
+    if (exceptionMessage == null || exceptionMessage.length() > 0) {
+      exceptionMessages.put(row, exceptionMessage);
+      setFlag(row, HAS_EXCEPTION, true);
+    }
+
+    size++;
+    setChecksumAlgorithm(row, fileAttributes.getChecksumAlgorithm());
+    byte[] checkSumBytes = fileAttributes.getCheckSumBytesIfSet();
+    if (checkSumBytes != null)
+      setCheckSumBytes(row, checkSumBytes);
+    else
+      setCheckSumValue(row, fileAttributes.getCheckSumValueIfSet());
+    for (Map.Entry<String, String> entry : fileAttributes.getOtherCheckSumValues().entrySet()) {
+      setCheckSumValue(row, entry.getKey(), entry.getValue());
+    }
+    if (fileAttributes.getMerkleTree() != null) merkleTrees.put(row, fileAttributes.getMerkleTree());
+    return row;
+  }
+
+  public void addAll(Iterable<? extends FileAttributes> fileAttributesList) {
+    for (FileAttributes fileAttributes : fileAttributesList) {
+      add(fileAttributes);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // Flyweight FileAttributes for the row, it reads from the table
+  public FileAttributes get(int row) {
+    checkRow(row);
+    return new Row(row);
+  }
+
+  // All the rows as a list, serializing it writes an ArrayList of Unix/DosFileAttributes
+  public List<FileAttributes> asList() {
+    return new ListView();
+  }
+
+  // Build a standalone Unix/DosFileAttributes (whatever the row was) from the row
+  public FileAttributes materialize(int row) {
+    checkRow(row);
+    FileAttributes fileAttributes;
+    try {
+      fileAttributes = FileAttributes.newInstance(getClassName(row));
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalStateException("Can't create " + getClassName(row) + " for row " + row, e);
+    }
+    fileAttributes.setInstantiationMethod(FileAttributes.FROMJAVASERIALIZATION);
+    String pathString = getPathString(row);
+    fileAttributes.path               = (pathString == null ? null : Paths.get(pathString));
+    fileAttributes.startingBasePath   = getStartingBasePath(row);
+    fileAttributes.absolutePath       = getAbsolutePath(row);
+    fileAttributes.absoluteParentPath = getAbsoluteParentPath(row);
+    fileAttributes.fileExtension      = getFileExtension(row);
+    fileAttributes.creationTime       = toFileTime(creationTimes[row]);
+    fileAttributes.lastAccessTime     = toFileTime(lastAccessTimes[row]);
+    fileAttributes.lastModifiedTime   = toFileTime(lastModifiedTimes[row]);
+    fileAttributes.isDirectory        = isDirectory(row);
+    fileAttributes.isRegularFile      = isRegularFile(row);
+    fileAttributes.isSymbolicLink     = isSymbolicLink(row);
+    fileAttributes.isOther            = isOther(row);
+    fileAttributes.sizeInBytes        = sizes[row];
+    fileAttributes.exceptionMessage   = getExceptionMessage(row);
+    fileAttributes.setChecksumAlgorithm(getChecksumAlgorithm(row));
+    byte[] checkSumBytes = getCheckSumBytes(row);
+    if (checkSumBytes != null)
+      fileAttributes.setCheckSumBytes(checkSumBytes);
+    else
+      fileAttributes.setCheckSumValue(getCheckSumValue(row));
+    fileAttributes.setOtherCheckSumValues(getOtherCheckSumValues(row));
+    fileAttributes.setMerkleTree(getMerkleTree(row));
+    if (fileAttributes instanceof DosFileAttributes) {
+      DosFileAttributes dosFileAttributes = (DosFileAttributes) fileAttributes;
+      dosFileAttributes.setReadOnlyFile(isReadOnlyFile(row));
+      dosFileAttributes.setSystemFile(isSystemFile(row));
+      dosFileAttributes.setHiddenFile(isHiddenFile(row));
+      dosFileAttributes.setArchiveFlag(isArchiveFlag(row));
+    }
+    return fileAttributes;
+  }
+
+  // Give back the space we grew into but didn't use (i.e. after the table's loaded)
+  public void trimToSize() {
+    int capacity = Math.max(size, 16);
+    if (capacity == sizes.length) return;
+    resize(capacity);
+    names = Arrays.copyOf(names, Math.max(nameOffsets[size], 16));
+  }
+
+  // -----------------------------------------------------------------------------
+  // Column getters, these don't need a Row object
+  public long getSizeInBytes(int row) {
+    checkRow(row);
+    return sizes[row];
+  }
+
+  // Times are in milliseconds, Long.MIN_VALUE when there's no time
+  public long getCreationMillis(int row) {
+    checkRow(row);
+    return creationTimes[row];
+  }
+
+  public long getLastAccessMillis(int row) {
+    checkRow(row);
+    return lastAccessTimes[row];
+  }
+
+  public long getLastModifiedMillis(int row) {
+    checkRow(row);
+    return lastModifiedTimes[row];
+  }
+
+  public boolean isDirectory(int row) {
+    return getFlag(row, DIRECTORY);
+  }
+
+  public boolean isRegularFile(int row) {
+    return getFlag(row, REGULAR_FILE);
+  }
+
+  public boolean isSymbolicLink(int row) {
+    return getFlag(row, SYMBOLIC_LINK);
+  }
+
+  public boolean isOther(int row) {
+    return getFlag(row, OTHER);
+  }
+
+  public boolean isReadOnlyFile(int row) {
+    return getFlag(row, READ_ONLY);
+  }
+
+  public boolean isSystemFile(int row) {
+    return getFlag(row, SYSTEM);
+  }
+
+  public boolean isHiddenFile(int row) {
+    return getFlag(row, HIDDEN);
+  }
+
+  public boolean isArchiveFlag(int row) {
+    return getFlag(row, ARCHIVE);
+  }
+
+  public String getAbsolutePath(int row) {
+    if (getFlag(row, ODD_ABSOLUTE_PATH)) return otherAbsolutePaths.get(row);
+    if (parentIds[row] == DirectoryNodeTable.NO_NODE) return getName(row);
+    StringBuilder sb = new StringBuilder(128);
+    parents.appendPath(sb, parentIds[row]);
+    appendName(sb, row);
+    return sb.toString();
+  }
+
+  public String getAbsoluteParentPath(int row) {
+    checkRow(row);
+    return parents.getPath(parentIds[row]);
+  }
+
+  // Node in getDirectoryNodes() for the row's parent directory, DirectoryNodeTable.NO_NODE if none
+  public int getParentNodeId(int row) {
+    checkRow(row);
+    return parentIds[row];
+  }
+
+  // The parent directories of the rows
+  public DirectoryNodeTable getDirectoryNodes() {
+    return parents;
+  }
+
+  // The path the FileAttributes was created with (it's usually the absolute path)
+  public String getPathString(int row) {
+    if (getFlag(row, ODD_PATH)) return otherPaths.get(row);
+    return getAbsolutePath(row);
+  }
+
+  public String getFileExtension(int row) {
+    checkRow(row);
+    return extensions.get(extensionIds[row]);
+  }
+
+  public String getStartingBasePath(int row) {
+    checkRow(row);
+    return startingBasePaths.get(startingBasePathIds[row]);
+  }
+
+  public synchronized void setStartingBasePath(int row, String startingBasePath) {
+    checkRow(row);
+    startingBasePathIds[row] = startingBasePaths.getId(startingBasePath);
+  }
+
+  public String getClassName(int row) {
+    checkRow(row);
+    return classNames.get(classNameIds[row]);
+  }
+
+  public String getExceptionMessage(int row) {
+    if (getFlag(row, HAS_EXCEPTION)) return exceptionMessages.get(row);
+    return "";
+  }
+
+  // The algorithm getCheckSumValue(row) is for
+  public String getChecksumAlgorithm(int row) {
+    checkRow(row);
+    return checkSumAlgorithms.get(checkSumAlgorithmIds[row]);
+  }
+
+  // Change the row's algorithm, the checksums don't move (they're by algorithm)
+  public synchronized void setChecksumAlgorithm(int row, String algorithm) {
+    checkRow(row);
+    int algorithmId = checkSumAlgorithms.getId(algorithm);
+    if (algorithmId < 0 || algorithmId > Byte.MAX_VALUE) throw new IllegalArgumentException("Bad or too many checksum algorithms: " + algorithm);
+    checkSumAlgorithmIds[row] = (byte) algorithmId;
+    MerkleTree merkleTree = merkleTrees.get(row);
+    if (merkleTree != null && merkleTree.getAlgorithmName().equals(algorithm) == false) merkleTrees.remove(row);
+  }
+
+  // The row's block hashes, null unless it's checksum algorithm is a Merkle one
+  public synchronized MerkleTree getMerkleTree(int row) {
+    checkRow(row);
+    return merkleTrees.get(row);
+  }
+
+  public synchronized void setMerkleTree(int row, MerkleTree merkleTree) {
+    checkRow(row);
+    if (merkleTree == null)
+      merkleTrees.remove(row);
+    else
+      merkleTrees.put(row, merkleTree);
+  }
+
+  // Checksum as a hex string, null if there isn't one
+  public String getCheckSumValue(int row) {
+    return getCheckSumValue(row, getChecksumAlgorithm(row));
+  }
+
+  // The digest bytes, null if there isn't a checksum or it isn't hex
+  public synchronized byte[] getCheckSumBytes(int row) {
+    DigestColumn digestColumn = digestColumns.get(getChecksumAlgorithm(row));
+    return (digestColumn == null ? null : digestColumn.getBytes(row));
+  }
+
+  // Set the checksum (hex string, null for none), the row's digest bytes are updated
+  public void setCheckSumValue(int row, String checkSumValue) {
+    setCheckSumValue(row, getChecksumAlgorithm(row), checkSumValue);
+  }
+
+  // Set the digest bytes (null for none) for the row's algorithm
+  public synchronized void setCheckSumBytes(int row, byte[] checkSumBytes) {
+    checkRow(row);
+    String algorithm = getChecksumAlgorithm(row);
+    DigestColumn digestColumn = digestColumns.get(algorithm);
+    if (digestColumn == null) {
+      if (checkSumBytes == null) return;
+      digestColumn = new DigestColumn();
+      digestColumns.put(algorithm, digestColumn);
+    }
+    digestColumn.setBytes(row, checkSumBytes, sizes.length);
+  }
+
+  // Same as above for any algorithm (see FileAttributes.getCheckSumValue(algorithm))
+  public synchronized String getCheckSumValue(int row, String algorithm) {
+    checkRow(row);
+    DigestColumn digestColumn = digestColumns.get(algorithm);
+    return (digestColumn == null ? null : digestColumn.get(row));
+  }
+
+  public synchronized void setCheckSumValue(int row, String algorithm, String checkSumValue) {
+    checkRow(row);
+    DigestColumn digestColumn = digestColumns.get(algorithm);
+    if (digestColumn == null) {
+      if (checkSumValue == null) return;
+      digestColumn = new DigestColumn();
+      digestColumns.put(algorithm, digestColumn);
+    }
+    digestColumn.set(row, checkSumValue, sizes.length);
+  }
+
+  // The row's checksums for the algorithms other than it's getChecksumAlgorithm(row)
+  public synchronized Map<String, String> getOtherCheckSumValues(int row) {
+    String checkSumAlgorithm = getChecksumAlgorithm(row);
+    if (digestColumns.size() < 2) return Collections.emptyMap();
+    Map<String, String> values = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, DigestColumn> entry : digestColumns.entrySet()) {
+      if (entry.getKey().equals(checkSumAlgorithm)) continue;
+      String value = entry.getValue().get(row);
+      if (value != null) values.put(entry.getKey(), value);
+    }
+    return values;
+  }
+
+  // -----------------------------------------------------------------------------
+  // Helpers
+  private void checkRow(int row) {
+    if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+  }
+
+  private boolean getFlag(int row, int flag) {
+    checkRow(row);
+    return flags.get(row * FLAG_COUNT + flag);
+  }
+
+  private void setFlag(int row, int flag, boolean value) {
+    flags.set(row * FLAG_COUNT + flag, value);
+  }
+
+  private String getName(int row) {
+    int start = nameOffsets[row];
+    return new String(names, start, nameOffsets[row + 1] - start, StandardCharsets.UTF_8);
+  }
+
+  // Append the name, names are almost always ascii so skip making a String for those
+  private void appendName(StringBuilder sb, int row) {
+    int start = nameOffsets[row];
+    int end   = nameOffsets[row + 1];
+    for (int i = start; i < end; i++) {
+      if (names[i] < 0) {
+        sb.setLength(sb.length() - (i - start));
+        sb.append(getName(row));
+        return;
+      }
+      sb.append((char) names[i]);
+    }
+  }
+
+  private void addName(int row, String name) {
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    int start = nameOffsets[row];
+    long end = (long) start + nameBytes.length;
+    if (end > Integer.MAX_VALUE - 8) throw new IllegalStateException("Too many file names for table");
+    if (end > names.length) {
+      names = Arrays.copyOf(names, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(end, names.length + (names.length >> 1))));
+    }
+    System.arraycopy(nameBytes, 0, names, start, nameBytes.length);
+    nameOffsets[row + 1] = (int) end;
+  }
+
+  private static long toMillis(FileTime fileTime) {
+    return (fileTime == null ? NO_TIME : fileTime.toMillis());
+  }
+
+  private static FileTime toFileTime(long millis) {
+    return (millis == NO_TIME ? null : FileTime.fromMillis(millis));
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= sizes.length) return;
+    resize((int) Math.min(Integer.MAX_VALUE - 8, Math.max(capacity, sizes.length + ((long) sizes.length >> 1))));
+  }
+
+  private void resize(int capacity) {
+    sizes               = Arrays.copyOf(sizes, capacity);
+    creationTimes       = Arrays.copyOf(creationTimes, capacity);
+    lastAccessTimes     = Arrays.copyOf(lastAccessTimes, capacity);
+    lastModifiedTimes   = Arrays.copyOf(lastModifiedTimes, capacity);
+    parentIds           = Arrays.copyOf(parentIds, capacity);
+    extensionIds        = Arrays.copyOf(extensionIds, capacity);
+    startingBasePathIds = Arrays.copyOf(startingBasePathIds, capacity);
+    classNameIds        = Arrays.copyOf(classNameIds, capacity);
+    checkSumAlgorithmIds = Arrays.copyOf(checkSumAlgorithmIds, capacity);
+    nameOffsets         = Arrays.copyOf(nameOffsets, capacity + 1);
+    for (DigestColumn digestColumn : digestColumns.values()) {
+      digestColumn.resize(capacity);
+    }
+  }
+
+  // Checksums for one algorithm, the digest bytes are 'length' bytes a row; a checksum that isn't
+  //   lowercase hex of that length is kept as is in oddValues
+  private static class DigestColumn {
+    private byte[] digests = new byte[0];
+    private int length = -1;  // Set by the first hex checksum added
+    private final BitSet present = new BitSet();
+    private final Map<Integer, String> oddValues = new HashMap<Integer, String>();
+
+    String get(int row) {
+      if (oddValues.isEmpty() == false && oddValues.containsKey(row)) return oddValues.get(row);
+      if (present.get(row) == false) return null;
+      return CheckSum.toHex(digests, row * length, length);
+    }
+
+    byte[] getBytes(int row) {
+      if (present.get(row) == false) return null;
+      int offset = row * length;
+      return Arrays.copyOfRange(digests, offset, offset + length);
+    }
+
+    // capacity is the number of rows the table has room for
+    void set(int row, String value, int capacity) {
+      present.clear(row);
+      oddValues.remove(row);
+      if (value == null) return;
+
+      if (length < 0 && value.length() > 0 && value.length() % 2 == 0) {
+        length  = value.length() / 2;
+        digests = new byte[capacity * length];
+      }
+      if (length > 0 && value.length() == length * 2 && CheckSum.parseHex(value, digests, row * length)) {
+        present.set(row);
+      }
+      else {
+        oddValues.put(row, value);
+      }
+    }
+
+    // Same as above with the digest bytes, there's no hex to parse
+    void setBytes(int row, byte[] digest, int capacity) {
+      present.clear(row);
+      oddValues.remove(row);
+      if (digest == null) return;
+
+      if (length < 0 && digest.length > 0) {
+        length  = digest.length;
+        digests = new byte[capacity * length];
+      }
+      if (digest.length == length) {
+        System.arraycopy(digest, 0, digests, row * length, length);
+        present.set(row);
+      }
+      else {
+        oddValues.put(row, CheckSum.toHex(digest));
+      }
+    }
+
+    void resize(int capacity) {
+      if (length > 0) digests = Arrays.copyOf(digests, capacity * length);
+    }
+  }
+
+  // Strings that repeat (directories, extensions...); each value is kept once and the rows have
+  //   it's id, null is -1
+  private static class Dictionary {
+    private final List<String> values = new ArrayList<String>();
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    int getId(String value) {
+      if (value == null) return -1;
+      Integer id = ids.get(value);
+      if (id == null) {
+        id = Integer.valueOf(values.size());
+        values.add(value);
+        ids.put(value, id);
+      }
+      return id.intValue();
+    }
+
+    String get(int id) {
+      return (id < 0 ? null : values.get(id));
+    }
+  }
+
+  // FileAttributes for a row, the getters read the table; rows look like deserialized objects
+  private class Row extends FileAttributes {
+    private static final long serialVersionUID = 1L;
+    private final int row;
+
+    Row(int row) {
+      super();
+      this.row = row;
+    }
+
+    FileAttributesTable getTable() {
+      return FileAttributesTable.this;
+    }
+
+    @Override
+    public Path getPath() {
+      String pathString = getPathString(row);
+      return (pathString == null ? null : Paths.get(pathString));
+    }
+    @Override
+    public String getAbsolutePath() {
+      return FileAttributesTable.this.getAbsolutePath(row);
+    }
+    @Override
+    public String getAbsoluteParentPath() {
+      return FileAttributesTable.this.getAbsoluteParentPath(row);
+    }
+    @Override
+    public String getFileExtension() {
+      return FileAttributesTable.this.getFileExtension(row);
+    }
+    @Override
+    public FileTime getCreationTime() {
+      return toFileTime(creationTimes[row]);
+    }
+    @Override
+    public FileTime getLastAccessTime() {
+      return toFileTime(lastAccessTimes[row]);
+    }
+    @Override
+    public FileTime getLastModifiedTime() {
+      return toFileTime(lastModifiedTimes[row]);
+    }
+    @Override
+    public boolean isDirectory() {
+      return FileAttributesTable.this.isDirectory(row);
+    }
+    @Override
+    public boolean isRegularFile() {
+      return FileAttributesTable.this.isRegularFile(row);
+    }
+    @Override
+    public boolean isSymbolicLink() {
+      return FileAttributesTable.this.isSymbolicLink(row);
+    }
+    @Override
+    public boolean isOther() {
+      return FileAttributesTable.this.isOther(row);
+    }
+    @Override
+    public long getSizeInBytes() {
+      return sizes[row];
+    }
+    @Override
+    public String getCheckSumValue() {
+      return FileAttributesTable.this.getCheckSumValue(row);
+    }
+    @Override
+    String getCheckSumValueIfSet() {
+      return FileAttributesTable.this.getCheckSumValue(row);
+    }
+    @Override
+    public byte[] getCheckSumBytes() {
+      return FileAttributesTable.this.getCheckSumBytes(row);
+    }
+    @Override
+    byte[] getCheckSumBytesIfSet() {
+      return FileAttributesTable.this.getCheckSumBytes(row);
+    }
+    @Override
+    byte[] getCheckSumDigest() {
+      return FileAttributesTable.this.getCheckSumBytes(row);
+    }
+    @Override
+    boolean isCheckSumSet() {
+      return FileAttributesTable.this.getCheckSumValue(row) != null;
+    }
+    @Override
+    public String getCheckSumValue(String algorithm) {
+      return FileAttributesTable.this.getCheckSumValue(row, algorithm);
+    }
+    @Override
+    String getCheckSumValueIfSet(String algorithm) {
+      return FileAttributesTable.this.getCheckSumValue(row, algorithm);
+    }
+    @Override
+    public Map<String, String> getOtherCheckSumValues() {
+      return Collections.unmodifiableMap(FileAttributesTable.this.getOtherCheckSumValues(row));
+    }
+    @Override
+    public String getChecksumAlgorithm() {
+      return FileAttributesTable.this.getChecksumAlgorithm(row);
+    }
+    @Override
+    public MerkleTree getMerkleTree() {
+      return FileAttributesTable.this.getMerkleTree(row);
+    }
+    @Override
+    public int getInstantiationMethod() {
+      return FROMJAVASERIALIZATION;
+    }
+    @Override
+    public String getClassName() {
+      return FileAttributesTable.this.getClassName(row);
+    }
+    @Override
+    public String getExceptionMessage() {
+      return FileAttributesTable.this.getExceptionMessage(row);
+    }
+    @Override
+    public String getStartingBasePath() {
+      return FileAttributesTable.this.getStartingBasePath(row);
+    }
+
+    // These update the table, the other setters aren't supported
+    @Override
+    public void setStartingBasePath(String startingBasePath) {
+      FileAttributesTable.this.setStartingBasePath(row, startingBasePath);
+    }
+    @Override
+    public void setCheckSumValue(String checkSumValue) {
+      FileAttributesTable.this.setCheckSumValue(row, checkSumValue);
+    }
+    @Override
+    public void setCheckSumValue(String algorithm, String checkSumValue) {
+      FileAttributesTable.this.setCheckSumValue(row, algorithm, checkSumValue);
+    }
+    @Override
+    public void setCheckSumBytes(byte[] checkSumBytes) {
+      FileAttributesTable.this.setCheckSumBytes(row, checkSumBytes);
+    }
+    @Override
+    public void setMerkleTree(MerkleTree merkleTree) {
+      FileAttributesTable.this.setMerkleTree(row, merkleTree);
+    }
+    @Override
+    public void setChecksumAlgorithm(String algorithm) {
+      FileAttributesTable.this.setChecksumAlgorithm(row, algorithm);
+    }
+    @Override
+    public void setPath(Path path) {
+      throw readOnly();
+    }
+    @Override
+    public void setCreationTime(FileTime creationTime) {
+      throw readOnly();
+    }
+    @Override
+    public void setLastAccessTime(FileTime lastAccessTime) {
+      throw readOnly();
+    }
+    @Override
+    public void setLastModifiedTime(FileTime lastModifiedTime) {
+      throw readOnly();
+    }
+    @Override
+    public void setDirectory(boolean isDirectory) {
+      throw readOnly();
+    }
+    @Override
+    public void setRegularFile(boolean isRegularFile) {
+      throw readOnly();
+    }
+    @Override
+    public void setSymbolicLink(boolean isSymbolicLink) {
+      throw readOnly();
+    }
+    @Override
+    public void setOther(boolean isOther) {
+      throw readOnly();
+    }
+    @Override
+    public void setSizeInBytes(long sizeInBytes) {
+      throw readOnly();
+    }
+    @Override
+    public void setAbsolutePath(String absolutePath) {
+      throw readOnly();
+    }
+    @Override
+    public void setAbsoluteParentPath(String absoluteParentPath) {
+      throw readOnly();
+    }
+    @Override
+    public void setFileExtension(String fileExtension) {
+      throw readOnly();
+    }
+
+    private UnsupportedOperationException readOnly() {
+      return new UnsupportedOperationException("FileAttributesTable rows are read only");
+    }
+
+    // We're written as the real object
+    private Object writeReplace() throws ObjectStreamException {
+      return materialize(row);
+    }
+
+    @Override
+    FileAttributes getWritable() {
+      return materialize(row);
+    }
+  }
+
+  // The rows as a list, get() makes a new Row each call
+  private class ListView extends AbstractList<FileAttributes> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public FileAttributes get(int index) {
+      return FileAttributesTable.this.get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    // Written as an ArrayList of Unix/DosFileAttributes, same as serializing a List<FileAttributes>
+    private Object writeReplace() throws ObjectStreamException {
+      ArrayList<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>(size);
+      for (int row = 0; row < size; row++) {
+        fileAttributesList.add(materialize(row));
+      }
+      return fileAttributesList;
+    }
+  }
+}
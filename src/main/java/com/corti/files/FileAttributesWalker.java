@@ -0,0 +1,125 @@
+package com.corti.files;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Walks a directory tree and creates the FileAttributes for each file, it's the one stop version
+ *   of running GetDirectoriesFromPath and then GetFileAttributesForDirectory for each directory.
+ * It works like Files.walkFileTree; each entry in a directory has it's attributes read once (the
+ *   posix attributes on unix, on windows they come along with the directory listing) and those are
+ *   used to decide if it's a directory and to build the FileAttributes object, so we don't stat each
+ *   file several times.  The starting directory is resolved to it's real path once and links aren't
+ *   followed, so every directory's path is real and we don't need to ask the os for the canonical
+ *   path of every file.  Like walkFileTree symbolic links aren't followed; a link shows up as a file
+ *   with isSymbolicLink() true.
+ * The usual GetFileOrDirectoriesCommon methods apply:
+ * - setPaths2Exclude...: directories that match aren't walked, files that match are skipped
+ * - setPaths2Include...: applied to files, directories none of them could match below aren't walked
+ * - setMaxDepth(int): 0 is only the files in the starting directory
+ * - setStayOnFileSystem(boolean): don't walk into directories on other file systems (like find -xdev)
+ * - setNum2Process(int): the walk stops once we have this many files
+ * Call getFilesAttributes() to get a list back or walk(consumer) to have each one handed to you as it's
+ *   found.
+ */
+public class FileAttributesWalker extends GetFileOrDirectoriesCommon {
+  private Path startingPath;       // Where the walk starts
+  private Path baseDirectoryPath;  // The base directory, stripped off in FileAttributes.getPathFromBaseAsUnix
+  private int numFound;
+  private Object startingFileSystemId;
+
+  // ========================= C o n s t r u c t o r s =========================
+  public FileAttributesWalker(String startingPathName) {
+    this(Paths.get(startingPathName));
+  }
+
+  public FileAttributesWalker(Path startingPath) {
+    this(startingPath, startingPath);
+  }
+
+  public FileAttributesWalker(Path startingPath, Path baseDirectoryPath) {
+    super();
+    this.startingPath      = startingPath;
+    this.baseDirectoryPath = baseDirectoryPath;
+  }
+
+  // ========================= P r o c e s s i n g =========================
+
+  // Walk the tree and return the list of file attributes
+  public List<FileAttributes> getFilesAttributes() throws IOException {
+    List<FileAttributes> fileAttributeList = new ArrayList<FileAttributes>(500);
+    walk(fileAttributeList::add);
+    return fileAttributeList;
+  }
+
+  // Walk the tree, each FileAttributes is passed to the consumer as it's created
+  public void walk(Consumer<? super FileAttributes> consumer) throws IOException {
+    Path realStartingPath       = startingPath.toRealPath();
+    String startingAbsolutePath = baseDirectoryPath.toRealPath().toString();
+    if (debugIt) System.out.println("walk() starting at: " + realStartingPath);
+
+    numFound = 0;
+    startingFileSystemId = getStartingFileSystemId(realStartingPath);
+    walkDirectory(realStartingPath, null, 0, startingAbsolutePath, consumer);
+
+    if (debugIt) System.out.println("walk() done, number entries: " + numFound);
+  }
+
+  // Process one directory, the subdirectories are walked after we're done with this one so we
+  //   only have one directory open at a time; returns false when we've hit num2Process.
+  //   directoryAttributes are the ones read when it was listed (null for the starting directory)
+  private boolean walkDirectory(Path directory, BasicFileAttributes directoryAttributes, int depth,
+                                String startingAbsolutePath, Consumer<? super FileAttributes> consumer) {
+    if (couldIncludeBelow(directory) == false) return true;  // None of the includes can match below it
+    if (isOtherFileSystem(directory, directoryAttributes, startingFileSystemId)) return true;
+    Map<Path, BasicFileAttributes> subDirectories = new LinkedHashMap<Path, BasicFileAttributes>();
+    String realDirectory = directory.toString();  // We start at the real path and don't follow links
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      Class<? extends BasicFileAttributes> attributesClass = getAttributesClass(directory, directoryAttributes);
+      for (Path entry : stream) {
+        BasicFileAttributes basicFileAttributes;
+        try {
+          basicFileAttributes = readEntryAttributes(entry, attributesClass, false);
+        } catch (IOException e) {
+          System.out.println("Exception raised with " + entry.toString());
+          e.printStackTrace();
+          continue;
+        }
+
+        if (basicFileAttributes.isDirectory()) {
+          if ((maxDepth == -1 || depth < maxDepth) && isPathExcluded(entry) == false)
+            subDirectories.put(entry, basicFileAttributes);
+        }
+        else if (isFileWanted(entry)) {
+          try {
+            FileAttributes fileAttributes = getFileAttributesForPath(entry, basicFileAttributes, startingAbsolutePath, realDirectory);
+            if (debugIt) System.out.println("fileAttributes: " + fileAttributes.toString());
+            consumer.accept(fileAttributes);
+            numFound++;
+            if (num2Process > 0 && numFound >= num2Process) return false;
+          } catch (Exception e) {
+            System.out.println("Exception raised with " + entry.toString());
+            e.printStackTrace();
+          }
+        }
+      }
+    } catch (IOException | DirectoryIteratorException e) {
+      e.printStackTrace();
+    }
+
+    for (Map.Entry<Path, BasicFileAttributes> subDirectory : subDirectories.entrySet()) {
+      if (walkDirectory(subDirectory.getKey(), subDirectory.getValue(), depth + 1, startingAbsolutePath, consumer) == false) return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,105 @@
+package com.corti.files;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the one thing we ask the FileStore for: does it support the posix attribute view (that's
+ *   how we pick UnixFileAttributes or DosFileAttributes).  Files.getFileStore is expensive (on linux it
+ *   reads the mount table each call) so we only call it once per file system (device).
+ * - supportsPosix(path): the answer for the file passed in, it's remembered for the directory the
+ *     file is in (the last MAX_DIRECTORIES directories) and for the device
+ * - supportsPosixInDirectory(directory): same thing for the files in a directory, pass the file system
+ *     id too when you have it (i.e. the device from a "unix:" read) and it isn't asked for again
+ * - getFileSystemId(path): id of the file system the path is on; it's the device ("unix:dev") where
+ *     we have it, otherwise the root of the path (i.e. the drive on windows).  The walkers use this
+ *     for GetFileOrDirectoriesCommon.setStayOnFileSystem (like find -xdev)
+ * Everything's static so all the classes share the one cache, methods are thread safe.
+ */
+public class FileStoreCache {
+  private static final int MAX_DIRECTORIES = 4096;
+
+  // Directory -> supports posix, least recently used directory is dropped when it's full
+  private static final Map<Path, Boolean> directoryCache = new LinkedHashMap<Path, Boolean>(256, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, Boolean> eldest) {
+      return size() > MAX_DIRECTORIES;
+    }
+  };
+
+  // File system id -> supports posix; there aren't many of these so it isn't bounded
+  private static final Map<Object, Boolean> fileSystemCache = new HashMap<Object, Boolean>();
+
+  private static volatile boolean unixViewSupported = true;  // Set false first time "unix:dev" fails
+
+  private FileStoreCache() { }
+
+  // Return true if the file store the path is on supports the posix attribute view
+  public static boolean supportsPosix(Path path) throws IOException {
+    Path directory = path.toAbsolutePath().getParent();
+    if (directory == null) directory = path.toAbsolutePath();  // It's the root
+    return supportsPosixInDirectory(directory);
+  }
+
+  // Same as above for the files in the directory passed in (the directory is what we cache on)
+  public static boolean supportsPosixInDirectory(Path directory) throws IOException {
+    return supportsPosixInDirectory(directory, null);
+  }
+
+  // Same as above when the caller already knows the id of the file system the directory is on
+  //   (see getFileSystemId), null and we ask for it
+  public static boolean supportsPosixInDirectory(Path directory, Object fileSystemId) throws IOException {
+    directory = directory.toAbsolutePath();
+    synchronized (directoryCache) {
+      Boolean cached = directoryCache.get(directory);
+      if (cached != null) return cached.booleanValue();
+    }
+
+    if (fileSystemId == null) fileSystemId = getFileSystemId(directory);
+    Boolean supportsPosix;
+    synchronized (fileSystemCache) {
+      supportsPosix = fileSystemCache.get(fileSystemId);
+    }
+    if (supportsPosix == null) {
+      supportsPosix = Boolean.valueOf(Files.getFileStore(directory).supportsFileAttributeView(PosixFileAttributeView.class));
+      synchronized (fileSystemCache) {
+        fileSystemCache.put(fileSystemId, supportsPosix);
+      }
+    }
+
+    synchronized (directoryCache) {
+      directoryCache.put(directory, supportsPosix);
+    }
+    return supportsPosix.booleanValue();
+  }
+
+  // Return the id of the file system the path is on, the device number when the os gives it to us
+  //   otherwise the root of the path.  Links are followed (same as Files.getFileStore)
+  public static Object getFileSystemId(Path path) throws IOException {
+    if (unixViewSupported) {
+      try {
+        return Files.getAttribute(path, "unix:dev");
+      } catch (UnsupportedOperationException | IllegalArgumentException e) {
+        unixViewSupported = false;
+      }
+    }
+    return path.toAbsolutePath().getRoot();
+  }
+
+  // Empty the cache, i.e. if something was mounted/unmounted
+  public static void clear() {
+    synchronized (directoryCache) {
+      directoryCache.clear();
+    }
+    synchronized (fileSystemCache) {
+      fileSystemCache.clear();
+    }
+  }
+}
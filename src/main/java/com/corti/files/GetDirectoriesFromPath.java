@@ -5,16 +5,28 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 /**
  * This class Gets the directories for a given path, you can instantiate and give it the starting path
  *   or call 'setStartingPath(pathName)'; other methods of interest:
  * - setNum2Process(int): limit the number of files you want this to look at 
  * - setMaxDepth(int): max number of directories to go below original 1, 0 if only want original directory
+ * - setStayOnFileSystem(boolean): pass 'true' to not go into directories on another file system (like
+ *     find -xdev), the mount point directory is returned but not searched
+ * - setParallelWalk(boolean): pass 'true' to walk the tree with a fork/join pool (one task per directory), 
+ *     setParallelism(int) sets the number of threads (default is number of processors).  You get the same 
+ *     directories as the sequential walk but they're ordered by depth and then name
  * - setDebugFlag(boolean): pass 'true' if you want to see output to the console, also, the directories that
  *     are skipped will be written to 'skippyList.$$$' so you can check that out after a run
  * - runIt(): call this when you want to have the program start searching for files (made separate so you could
@@ -35,7 +47,8 @@ import java.util.List;
  *     setGroupPaths2Exclude(String groupPathName) - exclude paths related to group name, currently only
  *       has 'eclipse' but more may be added
  * Include directories:
- * - Similar to above, the method names are similar to above so read more on them
+ * - Similar to above, the method names are similar to above so read more on them; subtrees that
+ *     none of the include globs could match anything in aren't walked at all
  *   clearPaths2Include() - clear filter
  *   setPaths2Include(String path2Include) - add path
  *   setPaths2IncludeFromProperty(String propertyFileName, string propertyName, string delimiter)
@@ -43,14 +56,20 @@ import java.util.List;
  * 
  *  Methods to get results:
  *  
+ * - streamFileAttributes(): returns a Stream<FileAttributes> of the files (not directories) below the starting
+ *     path, the tree is walked as you consume the stream so nothing is built up in memory; the excludes prune
+ *     directories, the includes are applied to the files and num2Process limits the number of files returned
  * - getNumberOfEntries(): returns the number of files
  * - getFiles(): returns the files (List<Path>)
  * - writeEntriesToFile(String outputFileName): writes files to file name given, returns true if success
  */
 public class GetDirectoriesFromPath extends GetFileOrDirectoriesCommon {
   private Path startingPath = null;
-  private int maxDepth = -1;  // Max level to go
   private int startingNameCount;
+  private boolean parallelWalk = false;  // Use fork/join to walk the directories
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+  private AtomicInteger numWanted;       // Parallel walk, number of directories wanted so far
+  private Object startingFileSystemId;   // When staying on one file system, the one we started on
   
   // ========================= C o n s t r u c t o r s ========================= 
   public GetDirectoriesFromPath() {    
@@ -75,58 +94,51 @@ public class GetDirectoriesFromPath extends GetFileOrDirectoriesCommon {
     this.startingPath = Paths.get(startingPathName);    
   }
 
-  // Set the max depth to go, 0 is at the starting path
-  public void setMaxDepth(int maxDepth) {
-    this.maxDepth = maxDepth;
+  // Walk the directories in parallel (fork/join), default is false
+  public void setParallelWalk(boolean parallelWalk) {
+    this.parallelWalk = parallelWalk;
   }
   
-  public int getMaxDepth() {
-    return maxDepth;
+  public boolean getParallelWalk() {
+    return parallelWalk;
+  }
+  
+  // Number of threads used when walking in parallel, defaults to number of processors
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
   }
   
   // ========================= P r o c e s s i n g =========================
   
-  // Get all the files from the path passed in, will recurse depth
+  // Get all the files from the path passed in, will recurse depth.  The includes are checked as we
+  //   go (a directory we don't want could still have ones below it we do, so we still search it
+  //   unless couldIncludeBelow says nothing under it can match) which lets us stop as soon as we
+  //   have num2Process directories
   private void addPathsFromPath(List<Path> pathList) {    
-    List<Path> tempList = new ArrayList<Path>(pathList);  // Working list, easier cause of needed filtering 
+    List<Path> tempList = new ArrayList<Path>(pathList);  // Working list, the directories to search 
     List<Path> skipList = new ArrayList<Path>(500);
-    Path path2Compare;
-    boolean skipIt = false;
-    int pathNameCount;
-    int maxDepth = getMaxDepth();
     startingNameCount = startingPath.getNameCount();  // Get starting level (# directories)
-    for (int idx = 0; idx < tempList.size(); idx++) {
+    
+    pathList.clear();
+    for (Path aPath : tempList) {
+      addIfIncluded(aPath, pathList, skipList);
+    }
+    
+    for (int idx = 0; idx < tempList.size() && isQuotaReached(pathList.size()) == false; idx++) {
+      if (couldIncludeBelow(tempList.get(idx)) == false) continue;  // Nothing below it we'd want
+      if (isOtherFileSystem(tempList.get(idx), startingFileSystemId)) continue;  // Mount point
       try (DirectoryStream<Path> stream = Files.newDirectoryStream(tempList.get(idx))) {
         for (Path entry : stream) {
-          if (Files.isDirectory(entry)) {
-            pathNameCount = entry.getNameCount();  // Get number of levels in this path
-            if (maxDepth == -1 || maxDepth >= (pathNameCount - startingNameCount)) { 
+          if (Files.isDirectory(entry) && isWithinMaxDepth(entry)) {
+            if (isPathExcluded(entry)) { // Don't want it, if in debug mode write it to
+                                         // skippy :)
+              skipList.add(entry);
+            } else { // Good directory add it to the list
+              tempList.add(entry);
               if (debugIt)
-                System.out.println("addPathsFromPath: " + entry.toString() +
-                                   " level: " + (pathNameCount - startingNameCount));
-
-              path2Compare = entry.toAbsolutePath();
-              if (pathMatcherIgnoreCase)
-                path2Compare = Paths
-                    .get(entry.toAbsolutePath().toString().toLowerCase());
-
-              skipIt = false;
-              // See if in list to exclude
-              for (PathMatcher pathMatcher : pathMatchers2Exclude) {
-                if (pathMatcher.matches(path2Compare) == true) {
-                  skipIt = true;
-                  break; // don't need to look at more
-                }
-              }
-
-              if (skipIt) { // Don't want it, if in debug mode write it to
-                            // skippy :)
-                skipList.add(entry);
-              } else { // Good directory add it to the list
-                tempList.add(entry);
-                if (debugIt)
-                  System.out.println("Path: " + entry + " good will search it");
-              }
+                System.out.println("Path: " + entry + " good will search it");
+              addIfIncluded(entry, pathList, skipList);
+              if (isQuotaReached(pathList.size())) break;
             }
           }
         }
@@ -134,32 +146,95 @@ public class GetDirectoriesFromPath extends GetFileOrDirectoriesCommon {
         e.printStackTrace();
       }
     }
-      
+
+    if (debugIt && skipList.size() > 0) {
+      writeEntriesToFile(skipList, skippyOutputFile);
+    }
+  }
+  
+  // Add the path to pathList if there aren't any includes or it matches one, otherwise it's skipped
+  private void addIfIncluded(Path aPath, List<Path> pathList, List<Path> skipList) {
+    if (pathMatchers2Include.size() == 0 || isPathIncluded(aPath)) {
+      pathList.add(aPath);
+    } else {
+      skipList.add(aPath);
+    }
+  }
+  
+  // Return true if we have num2Process entries (never true when there's no limit)
+  private boolean isQuotaReached(int numberOfEntries) {
+    return (num2Process > 0 && numberOfEntries >= num2Process);
+  }
+  
+  // Parallel version of addPathsFromPath, each directory is listed by it's own fork/join task
+  //   (see DirectoryWalkTask below) so idle workers steal subtrees from busy ones.  The 
+  //   directories come back in whatever order the tasks finished, we sort them by depth and
+  //   then name so the results are repeatable (the set is the same as the sequential walk).
+  //   When there's a limit (num2Process) the tasks share a counter of the directories we want and
+  //   stop listing once it's reached; which directories make the cut depends on which tasks
+  //   got there first, so it's not necessarily the same ones the sequential walk returns
+  private void addPathsFromPathParallel(List<Path> pathList) {
+    Queue<Path> foundQueue = new ConcurrentLinkedQueue<Path>();
+    Queue<Path> skipQueue  = new ConcurrentLinkedQueue<Path>();
+    startingNameCount = startingPath.getNameCount();  // Get starting level (# directories)
+    numWanted         = new AtomicInteger(0);
+    for (Path aPath : pathList) {
+      if (pathMatchers2Include.size() == 0 || isPathIncluded(aPath)) numWanted.incrementAndGet();
+    }
+    
+    ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+    try {
+      List<DirectoryWalkTask> rootTasks = new ArrayList<DirectoryWalkTask>(pathList.size());
+      for (Path aPath : pathList) {
+        rootTasks.add(new DirectoryWalkTask(aPath, foundQueue, skipQueue));
+      }
+      for (DirectoryWalkTask rootTask : rootTasks) {
+        forkJoinPool.invoke(rootTask);
+      }
+    } finally {
+      forkJoinPool.shutdown();
+    }
+    
+    List<Path> tempList = new ArrayList<Path>(pathList.size() + foundQueue.size());
+    tempList.addAll(pathList);
+    List<Path> children = new ArrayList<Path>(foundQueue);
+    Collections.sort(children, Comparator.comparingInt(Path::getNameCount)
+                                         .thenComparing(Comparator.naturalOrder()));
+    tempList.addAll(children);
+    
+    List<Path> skipList = new ArrayList<Path>(skipQueue);
+    filterIncludes(tempList, pathList, skipList);
     
-    // tempList has the directories from the original list, and their children, clear out
-    // pathList, we'll rebuild it here
+    if (debugIt && skipList.size() > 0) {
+      writeEntriesToFile(skipList, skippyOutputFile);
+    }
+  }
+  
+  // Check that the entry isn't deeper than maxDepth (relative to the starting path)
+  private boolean isWithinMaxDepth(Path entry) {
+    int pathNameCount = entry.getNameCount();  // Get number of levels in this path
+    if (maxDepth == -1 || maxDepth >= (pathNameCount - startingNameCount)) { 
+      if (debugIt)
+        System.out.println("addPathsFromPath: " + entry.toString() +
+                           " level: " + (pathNameCount - startingNameCount));
+      return true;
+    }
+    return false;
+  }
+  
+  // tempList has the directories from the original list, and their children, clear out
+  //   pathList, we'll rebuild it here
+  private void filterIncludes(List<Path> tempList, List<Path> pathList, List<Path> skipList) {
     pathList.clear();
     
     // We have all the directories... we couldn't filter out the include list above cause 
     //   the path could be one that's nested several layers deep, so we'll filter them out here
     if (pathMatchers2Include.size() > 0) {
       for (Path aPath : tempList) {
-        skipIt = true;
-        
-        path2Compare = aPath.toAbsolutePath();
-        if (pathMatcherIgnoreCase) 
-          path2Compare = Paths.get(aPath.toAbsolutePath().toString().toLowerCase());
-          
-        for (PathMatcher pathMatcher : pathMatchers2Include) {
-          if (pathMatcher.matches(path2Compare) == true) {
-            skipIt = false;
-            break;
-          }
-        }
-        if (skipIt) { // Don't want this path
-          skipList.add(aPath);
-        } else { // Want this one, add to pathList
+        if (isPathIncluded(aPath)) { // Want this one, add to pathList
           pathList.add(aPath);
+        } else { // Don't want this path
+          skipList.add(aPath);
         }
       }
     } else {
@@ -172,10 +247,6 @@ public class GetDirectoriesFromPath extends GetFileOrDirectoriesCommon {
         pathList.add(tempPath);
       }
     } 
-
-    if (debugIt && skipList.size() > 0) {
-      writeEntriesToFile(skipList, skippyOutputFile);
-    }
   }
   
   // Main routine, this gets directories (using helper - addPathsFromPath
@@ -186,9 +257,14 @@ public class GetDirectoriesFromPath extends GetFileOrDirectoriesCommon {
       if (debugIt) System.out.println("startingAbsolutePath: " + startingAbsolutePath);
      
       fileList.add(startingPath);
-      addPathsFromPath(fileList);
+      startingFileSystemId = getStartingFileSystemId(startingPath);
+      if (parallelWalk) 
+        addPathsFromPathParallel(fileList);
+      else
+        addPathsFromPath(fileList);
 
-      // If it has more data than we want to process then trim list to size we want
+      // The walk stops once it has num2Process directories but the last directory listed (or the
+      //   parallel tasks) can go a little over, trim list to size we want
       if (num2Process > 0 && fileList.size() > num2Process)
         fileList = fileList.subList(0, num2Process);
       
@@ -198,4 +274,52 @@ public class GetDirectoriesFromPath extends GetFileOrDirectoriesCommon {
       writeLock.unlock();
     }
   }
-}
\ No newline at end of file
+  
+  // Stream the file attributes for all the files under the starting path, files are read as the
+  //   stream is consumed (see GetFileOrDirectoriesCommon.streamFileAttributes)
+  public Stream<FileAttributes> streamFileAttributes() {
+    return streamFileAttributes(startingPath, startingPath);
+  }
+  
+  // Fork/join task, lists one directory; each subdirectory we want gets added to foundQueue
+  //   and gets a task of it's own
+  private class DirectoryWalkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Path directory;
+    private final Queue<Path> foundQueue;
+    private final Queue<Path> skipQueue;
+    
+    DirectoryWalkTask(Path directory, Queue<Path> foundQueue, Queue<Path> skipQueue) {
+      this.directory  = directory;
+      this.foundQueue = foundQueue;
+      this.skipQueue  = skipQueue;
+    }
+    
+    @Override
+    protected void compute() {
+      List<DirectoryWalkTask> subTasks = new ArrayList<DirectoryWalkTask>();
+      if (isQuotaReached(numWanted.get()) || couldIncludeBelow(directory) == false) return;
+      if (isOtherFileSystem(directory, startingFileSystemId)) return;
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path entry : stream) {
+          if (Files.isDirectory(entry) && isWithinMaxDepth(entry)) {
+            if (isPathExcluded(entry)) {
+              skipQueue.add(entry);
+            } else {
+              foundQueue.add(entry);
+              subTasks.add(new DirectoryWalkTask(entry, foundQueue, skipQueue));
+              if (debugIt)
+                System.out.println("Path: " + entry + " good will search it");
+              if (num2Process > 0 && (pathMatchers2Include.size() == 0 || isPathIncluded(entry))) {
+                if (isQuotaReached(numWanted.incrementAndGet())) break;
+              }
+            }
+          }
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      invokeAll(subTasks);
+    }
+  }
+}
\ No newline at end of file
@@ -4,15 +4,15 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
-import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttributeView;
 import java.util.ArrayList;
 import java.util.List;
-import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.stream.Stream;
 
 public class GetFileAttributesForDirectory extends GetFileOrDirectoriesCommon {
   private List<FileAttributes> fileAttributeList;
+  private List<BasicFileAttributes> basicAttributesList; // Attributes read while listing (same order as fileList)
   private Path directoryPath2Pull;  // The directory path we're getting files from
   private Path baseDirectoryPath;   // The base directory, we use this for stripping of the
                                     //   starting path when calling FileAttributes.getPathFromBaseAsUnix
@@ -38,24 +38,15 @@ public class GetFileAttributesForDirectory extends GetFileOrDirectoriesCommon {
     //   then method above would return TestIO/src/test.java
     //--------------------------------------------------------------------------------------------
     String startingAbsolutePath = baseDirectoryPath.toAbsolutePath().toString();
-    addPathsFromPath(directoryPath2Pull, fileList);
+    basicAttributesList = new ArrayList<BasicFileAttributes>(500);
+    addPathsFromPath(directoryPath2Pull, fileList, basicAttributesList);
+    String realDirectory = getRealPath(directoryPath2Pull);
     
-    // If it has more data than we want to process then trim list to size we want
-    if (num2Process > 0 && fileList.size() > num2Process)  
-      fileList = fileList.subList(0, num2Process);
-  
       // Process each file in the list 
-    for (Path thePath : fileList) {
+    for (int idx = 0; idx < fileList.size(); idx++) {
+      Path thePath = fileList.get(idx);
       try {         
-        FileStore fs = Files.getFileStore(thePath);
-        FileAttributes fileAttributes;
-        if (fs.supportsFileAttributeView(PosixFileAttributeView.class)) {
-          fileAttributes = new UnixFileAttributes(thePath);
-        }
-        else {
-          fileAttributes = new DosFileAttributes(thePath);
-        }
-        fileAttributes.setStartingBasePath(startingAbsolutePath);
+        FileAttributes fileAttributes = getFileAttributesForPath(thePath, basicAttributesList.get(idx), startingAbsolutePath, realDirectory);
         fileAttributeList.add(fileAttributes);
         if (debugIt) System.out.println("fileAttributes: " + fileAttributes.toString());
       } catch (Exception e) {
@@ -66,57 +57,38 @@ public class GetFileAttributesForDirectory extends GetFileOrDirectoriesCommon {
     return fileAttributeList;
   }
       
-  // Get all the files for the path passed in, we don't recurse down
-  private void addPathsFromPath(Path _dirPath, List<Path> pathList) {
+  // Stream version of getFilesAttributes, the files are read as the stream is consumed
+  public Stream<FileAttributes> streamFilesAttributes() {
+    return new FileAttributesIterator(this, directoryPath2Pull, baseDirectoryPath, 0).stream();
+  }
+      
+  // Get all the files for the path passed in, we don't recurse down; the attributes for each file
+  //   are read once here (they tell us if it's a directory) and reused when we build FileAttributes.
+  //   We stop reading the directory once we have num2Process files
+  private void addPathsFromPath(Path _dirPath, List<Path> pathList, List<BasicFileAttributes> attributesList) {
     List<Path> skipList = new ArrayList<Path>(500);
-    Path path2Compare;
-    List<PathMatcher> pathMatchers2Check;
-    int isGood;
     try (DirectoryStream<Path> stream = Files.newDirectoryStream(_dirPath)) {
+      Class<? extends BasicFileAttributes> attributesClass = getAttributesClass(_dirPath);
       for (Path entry : stream) {
-        if (Files.isDirectory(entry) == false) {
-          path2Compare = entry.toAbsolutePath();
-          if (pathMatcherIgnoreCase) 
-            path2Compare = Paths.get(entry.toAbsolutePath().toString().toLowerCase());
-
+        if (num2Process > 0 && pathList.size() >= num2Process) break;
+        BasicFileAttributes basicFileAttributes;
+        try {
+          basicFileAttributes = readEntryAttributes(entry, attributesClass, true);
+        } catch (IOException e) {
+          System.out.println("Exception raised with " + entry.toString());
+          e.printStackTrace();
+          continue;
+        }
+        if (basicFileAttributes.isDirectory() == false) {
           if (debugIt) System.out.println("In addPathsFromPath() file: " + entry.toString());
                  
-          // Check both path matchers
-          int loopCnt = 0;
-          isGood = -2; // Flag, if weWant file by default
-          while (loopCnt < 2) {
-            loopCnt++;
-            if (loopCnt == 1)
-              pathMatchers2Check = getPaths2Include();
-            else
-              pathMatchers2Check = getPaths2Exclude();
-
-            if (pathMatchers2Check.size() > 0) {
-              isGood = -1;
-              for (PathMatcher pathMatcher : pathMatchers2Check) {
-                if (pathMatcher.matches(entry)) {
-                  if (loopCnt == 1) { // match an include it's good
-                    isGood = 1;
-                    break;
-                  } else { // It matches an exclude, it's bad
-                    isGood = 0;
-                    break;
-                  }
-                }
-              }
-              // If checking includes and didn't match any then we can exit
-              if (loopCnt == 1 && isGood != 1) {
-                isGood = 0;  
-                loopCnt = 3; 
-              } 
-            } // end of if check that patchMatchers2Check.size() > 0
-          } // end of while loop
-                        
-          if (isGood == 0) {  // Don't want it, if in debug mode write it to skippy :)
+          // Has to match an include (if there are any) and not match an exclude
+          if (isFileWanted(entry) == false) {  // Don't want it, if in debug mode write it to skippy :)
             skipList.add(entry);
           }
           else { // Matched or no pathMatchers defined or didn't match an exclude
             pathList.add(entry);
+            attributesList.add(basicFileAttributes);
           }
         }                
       }
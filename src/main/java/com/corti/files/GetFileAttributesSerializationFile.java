@@ -33,7 +33,6 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import java.nio.file.attribute.PosixFileAttributeView;
 import java.nio.file.attribute.FileOwnerAttributeView;
 
 public class GetFileAttributesSerializationFile {
@@ -73,6 +72,7 @@ public class GetFileAttributesSerializationFile {
     pathsToIgnore.add(fileSystem.getPathMatcher("glob:**/workspace/.recommenders*"));
     
     Path serializationPath = Paths.get(args.length > 1 ? args[1] : "FileAttributesSerialized.ser" );
+    String checkSumAlgorithm = (args.length > 2 ? args[2] : null);  // i.e. XXH64, default is SHA-256
     
     // Define base path and set 'startingAbsolutePath'; that's important... for lookup purposes
     //   to compare to other machines we only want to search from the path we start with
@@ -86,10 +86,6 @@ public class GetFileAttributesSerializationFile {
      
     addPathsFromPath(basePath, fileList, pathsToIgnore);
     
-    // If it has more data than we want to process then trim list to size we want
-    if (num2Process > 0 && fileList.size() > num2Process)  
-      fileList = fileList.subList(0, num2Process);
-  
     logger.info("Size of fileList is: " + fileList.size());    
         
     // Set starting timer
@@ -98,15 +94,15 @@ public class GetFileAttributesSerializationFile {
     // Process each file in the list 
     for (Path thePath : fileList) {
       try {         
-        FileStore fs = Files.getFileStore(thePath);
         FileAttributes fileAttributes;
-        if (fs.supportsFileAttributeView(PosixFileAttributeView.class)) {
+        if (FileStoreCache.supportsPosix(thePath)) {  // Cached, getFileStore per file is slow
           fileAttributes = new UnixFileAttributes(thePath);
         }
         else {
           fileAttributes = new DosFileAttributes(thePath);
         }
         fileAttributes.setStartingBasePath(startingAbsolutePath);
+        if (checkSumAlgorithm != null) fileAttributes.setChecksumAlgorithm(checkSumAlgorithm);
         fileAttributeList.add(fileAttributes);
         if (DEBUGIT) System.out.println("fileAttributes: " + fileAttributes.toString());
       } catch (Exception e) {
@@ -129,6 +125,7 @@ public class GetFileAttributesSerializationFile {
     boolean skipIt;
     try (DirectoryStream<Path> stream = Files.newDirectoryStream(_dirPath)) {
       for (Path entry : stream) {
+        if (num2Process > 0 && pathList.size() >= num2Process) return;  // Have all we want
         if (Files.isDirectory(entry)) {
           skipIt = false;
           for (PathMatcher pathMatcher: paths2Ignore) {
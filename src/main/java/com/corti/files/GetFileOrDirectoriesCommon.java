@@ -5,9 +5,12 @@ import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
@@ -25,10 +28,17 @@ public class GetFileOrDirectoriesCommon {
 
   protected boolean debugIt = false;
   protected int num2Process = -1;
+  protected int maxDepth = -1;                       // Max level to go (-1 no limit)
+  protected boolean stayOnFileSystem = false;        // Don't walk into other file systems (mount points)
+  protected String checkSumAlgorithm = null;         // For the FileAttributes we create, null is their default
   private String outputName = null;
   protected boolean pathMatcherIgnoreCase = false;   // Handles case sensitive matches
   protected List<PathMatcher> pathMatchers2Exclude;  // Matcher for things to exclude
   protected List<PathMatcher> pathMatchers2Include;  // Matcher for includes
+  protected List<String> patterns2Exclude;           // The patterns behind the matchers above, they're
+  protected List<String> patterns2Include;           //   compiled into one GlobSetMatcher for each list
+  private volatile GlobSetMatcher excludeMatcher;    // Built when first needed, null'd when lists change
+  private volatile GlobSetMatcher includeMatcher;
   protected final ReentrantReadWriteLock rwLock;    
   protected final Lock readLock;
   protected final Lock writeLock;
@@ -49,6 +59,8 @@ public class GetFileOrDirectoriesCommon {
 
     pathMatchers2Exclude = new ArrayList<PathMatcher>(10);
     pathMatchers2Include = new ArrayList<PathMatcher>(10);  
+    patterns2Exclude     = new ArrayList<String>(10);
+    patterns2Include     = new ArrayList<String>(10);
   }
 
   public List<Path> getFiles() {    
@@ -60,6 +72,14 @@ public class GetFileOrDirectoriesCommon {
     }
   }
 
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public boolean getStayOnFileSystem() {
+    return stayOnFileSystem;
+  }
+
   public boolean getPathMatcherIgnoreCase() {
     return pathMatcherIgnoreCase;
   }
@@ -96,6 +116,8 @@ public class GetFileOrDirectoriesCommon {
     writeLock.lock();
     try {
       pathMatchers2Exclude.clear();
+      patterns2Exclude.clear();
+      excludeMatcher = null;
     } finally {
       writeLock.unlock();      
     }
@@ -105,6 +127,8 @@ public class GetFileOrDirectoriesCommon {
     writeLock.lock();
     try {
       pathMatchers2Include.clear();
+      patterns2Include.clear();
+      includeMatcher = null;
     } finally {
       writeLock.unlock();      
     }
@@ -125,6 +149,28 @@ public class GetFileOrDirectoriesCommon {
     }
   }
 
+  // Set the max depth to go, 0 is at the starting path
+  public void setMaxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  // Pass true to only walk the file system the starting path is on (like find -xdev); the mount
+  //   points themselves are still returned, we just don't list what's in them.  Handy when scanning
+  //   / so we don't end up in /proc or a slow network mount
+  public void setStayOnFileSystem(boolean stayOnFileSystem) {
+    this.stayOnFileSystem = stayOnFileSystem;
+  }
+
+  // Algorithm for the checksums of the files this scan creates (i.e. CheckSum.XXH64 when it's just to
+  //   see what changed), null leaves it at FileAttributes' default (SHA-256); it's saved with them
+  public void setChecksumAlgorithm(String checkSumAlgorithm) {
+    this.checkSumAlgorithm = checkSumAlgorithm;
+  }
+
+  public String getChecksumAlgorithm() {
+    return checkSumAlgorithm;
+  }
+
   public void setNum2Process(int num2Process) {
     this.num2Process = num2Process;
   }
@@ -136,9 +182,13 @@ public class GetFileOrDirectoriesCommon {
     try {
       if (isInclude) {
         pathMatchers2Include.add(fileSystem.getPathMatcher(path2Exclude));
+        patterns2Include.add(path2Exclude);
+        includeMatcher = null;
       }
       else {
         pathMatchers2Exclude.add(fileSystem.getPathMatcher(path2Exclude));
+        patterns2Exclude.add(path2Exclude);
+        excludeMatcher = null;
       }
     } finally {
       writeLock.unlock();      
@@ -147,6 +197,8 @@ public class GetFileOrDirectoriesCommon {
 
   public void setPathMatcherIgnoreCase(boolean ignoreCase) {
     pathMatcherIgnoreCase = ignoreCase;
+    includeMatcher = null;
+    excludeMatcher = null;
   }
 
   public void setPaths2Exclude(String path2Exclude) {
@@ -188,6 +240,213 @@ public class GetFileOrDirectoriesCommon {
     this.skippyOutputFile = skippyOutputFile;
   }
 
+  // Return an iterator over the file attributes of the files below startingPath, nothing is read
+  //   until you call hasNext()/next() so the only thing held in memory is the list of directories
+  //   still to be listed.  The excludes prune directories (and skip files), the includes are applied
+  //   to files only, maxDepth and num2Process are honored.  Close the iterator if you don't read
+  //   it to the end (the directory being read is held open).
+  public FileAttributesIterator iterateFileAttributes(Path startingPath, Path baseDirectoryPath) {
+    return new FileAttributesIterator(this, startingPath, baseDirectoryPath, maxDepth);
+  }
+
+  // Same as above but as a stream, close the stream (try with resources) if you don't consume it all
+  public Stream<FileAttributes> streamFileAttributes(Path startingPath, Path baseDirectoryPath) {
+    return iterateFileAttributes(startingPath, baseDirectoryPath).stream();
+  }
+
+  // Create the FileAttributes object for the path, the subclass depends on the file store (posix or dos)
+  protected FileAttributes getFileAttributesForPath(Path thePath, String startingAbsolutePath) throws Exception {
+    FileAttributes fileAttributes;
+    if (FileStoreCache.supportsPosix(thePath)) {
+      fileAttributes = new UnixFileAttributes(thePath);
+    }
+    else {
+      fileAttributes = new DosFileAttributes(thePath);
+    }
+    fileAttributes.setStartingBasePath(startingAbsolutePath);
+    if (checkSumAlgorithm != null) fileAttributes.setChecksumAlgorithm(checkSumAlgorithm);
+    return fileAttributes;
+  }
+
+  // Same as above but we already have the attributes for the path (the walkers read them when listing 
+  //   the directory) so we don't go back to the file system.  If the attributes aren't posix or dos ones 
+  //   we fall back to the method above
+  protected FileAttributes getFileAttributesForPath(Path thePath, BasicFileAttributes basicFileAttributes, 
+                                                    String startingAbsolutePath) throws Exception {
+    FileAttributes fileAttributes;
+    if (basicFileAttributes instanceof PosixFileAttributes) {
+      fileAttributes = new UnixFileAttributes(thePath, basicFileAttributes);
+    }
+    else if (basicFileAttributes instanceof java.nio.file.attribute.DosFileAttributes) {
+      fileAttributes = new DosFileAttributes(thePath, basicFileAttributes);
+    }
+    else {
+      return getFileAttributesForPath(thePath, startingAbsolutePath);
+    }
+    fileAttributes.setStartingBasePath(startingAbsolutePath);
+    if (checkSumAlgorithm != null) fileAttributes.setChecksumAlgorithm(checkSumAlgorithm);
+    return fileAttributes;
+  }
+
+  // Same as above, realParentPath is the real path of the directory the path was listed from (see
+  //   getRealPath()); the absolute path is built from it instead of asking the os for each file's
+  //   canonical path
+  protected FileAttributes getFileAttributesForPath(Path thePath, BasicFileAttributes basicFileAttributes,
+                                                    String startingAbsolutePath, String realParentPath) throws Exception {
+    FileAttributes fileAttributes = getFileAttributesForPath(thePath, basicFileAttributes, startingAbsolutePath);
+    fileAttributes.setRealParentPath(realParentPath);
+    return fileAttributes;
+  }
+
+  // The real path of a directory we're listing (links resolved), done once per directory.  Null if
+  //   it can't be worked out, then each file's canonical path is asked for
+  protected String getRealPath(Path directory) {
+    try {
+      return directory.toRealPath().toString();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  // Return the attributes class to read for entries in the directory passed in; reading the posix
+  //   attributes gets everything UnixFileAttributes needs in one call, on windows the basic attributes
+  //   are really dos attributes (and come from the directory listing)
+  protected Class<? extends BasicFileAttributes> getAttributesClass(Path directory) throws IOException {
+    return getAttributesClass(directory, null);
+  }
+
+  // Same as above, directoryAttributes are the attributes the walker read for the directory (null
+  //   if it didn't); when they have the device we don't stat the directory to find it's file system
+  protected Class<? extends BasicFileAttributes> getAttributesClass(Path directory, BasicFileAttributes directoryAttributes) throws IOException {
+    if (FileStoreCache.supportsPosixInDirectory(directory, getFileSystemId(directoryAttributes)))
+      return PosixFileAttributes.class;
+    return BasicFileAttributes.class;
+  }
+
+  // Read the attributes for an entry found while listing a directory, attributesClass comes from
+  //   getAttributesClass.  For posix it's the one bulk "unix:" read (see UnixAttributes) so
+  //   UnixFileAttributes gets everything (inode, device...) without going back to the file system.
+  //   When following links we only read twice for a link (the link and then it's target)
+  protected BasicFileAttributes readEntryAttributes(Path entry, Class<? extends BasicFileAttributes> attributesClass,
+                                                    boolean followLinks) throws IOException {
+    if (attributesClass == PosixFileAttributes.class) 
+      return (followLinks ? UnixAttributes.readFollowingLinks(entry) : UnixAttributes.read(entry, LinkOption.NOFOLLOW_LINKS));
+    if (followLinks) 
+      return Files.readAttributes(entry, attributesClass);
+    return Files.readAttributes(entry, attributesClass, LinkOption.NOFOLLOW_LINKS);
+  }
+
+  // Return the id of the file system the walk starts on, null when we're not staying on one file system
+  //   (or can't tell); pass it to isOtherFileSystem
+  protected Object getStartingFileSystemId(Path startingPath) {
+    if (stayOnFileSystem == false) return null;
+    try {
+      return FileStoreCache.getFileSystemId(startingPath);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  // True if the directory is on a different file system than the one the walk started on, the
+  //   walkers don't list these (always false when setStayOnFileSystem wasn't set)
+  protected boolean isOtherFileSystem(Path directory, Object startingFileSystemId) {
+    return isOtherFileSystem(directory, null, startingFileSystemId);
+  }
+
+  // Same as above with the attributes the walker read for the directory (null if it didn't), the
+  //   device is taken from them when they have it so there's no extra stat
+  protected boolean isOtherFileSystem(Path directory, BasicFileAttributes directoryAttributes, Object startingFileSystemId) {
+    if (startingFileSystemId == null) return false;
+    try {
+      Object fileSystemId = getFileSystemId(directoryAttributes);
+      if (fileSystemId == null) fileSystemId = FileStoreCache.getFileSystemId(directory);
+      return startingFileSystemId.equals(fileSystemId) == false;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  // The file system id (same as FileStoreCache.getFileSystemId) from attributes read with the "unix:"
+  //   view, null when they don't have the device
+  private static Object getFileSystemId(BasicFileAttributes attributes) {
+    if (attributes instanceof UnixAttributes && ((UnixAttributes) attributes).getDevice() != -1)
+      return Long.valueOf(((UnixAttributes) attributes).getDevice());
+    return null;
+  }
+
+  // Files must match an include (if there are any) and not match an exclude
+  protected boolean isFileWanted(Path entry) {
+    if (pathMatchers2Include.size() > 0 && isPathIncluded(entry) == false) return false;
+    return isPathExcluded(entry) == false;
+  }
+
+  // Return the path that should be handed to the path matchers, it's the absolute path and
+  //   when we're ignoring case it's lowercased (the patterns were lowercased when added)
+  protected Path getPath2Compare(Path entry) {
+    Path path2Compare = entry.toAbsolutePath();
+    if (pathMatcherIgnoreCase) 
+      path2Compare = Paths.get(path2Compare.toString().toLowerCase());
+    return path2Compare;
+  }
+
+  // Return true if the path matches any of the exclude matchers
+  protected boolean isPathExcluded(Path entry) {
+    if (pathMatchers2Exclude.size() == 0) return false;
+    GlobSetMatcher globSetMatcher = excludeMatcher;
+    if (globSetMatcher == null || globSetMatcher.size() != pathMatchers2Exclude.size()) {
+      globSetMatcher = excludeMatcher = buildGlobSetMatcher(pathMatchers2Exclude, patterns2Exclude);
+      if (globSetMatcher == null) return matchesAnyPathMatcher(pathMatchers2Exclude, entry);
+    }
+    return globSetMatcher.matches(entry.toAbsolutePath());
+  }
+
+  // Return true if the path matches any of the include matchers (false if there are none)
+  protected boolean isPathIncluded(Path entry) {
+    if (pathMatchers2Include.size() == 0) return false;
+    GlobSetMatcher globSetMatcher = includeMatcher;
+    if (globSetMatcher == null || globSetMatcher.size() != pathMatchers2Include.size()) {
+      globSetMatcher = includeMatcher = buildGlobSetMatcher(pathMatchers2Include, patterns2Include);
+      if (globSetMatcher == null) return matchesAnyPathMatcher(pathMatchers2Include, entry);
+    }
+    return globSetMatcher.matches(entry.toAbsolutePath());
+  }
+
+  // Return false when none of the includes could match a path below the directory, the walkers use
+  //   this to skip the whole subtree (i.e. with glob:/data/projects/*/src/** there's no reason to go
+  //   into /data/other).  True when there are no includes or we can't tell (regex patterns)
+  protected boolean couldIncludeBelow(Path directory) {
+    if (pathMatchers2Include.size() == 0) return true;
+    GlobSetMatcher globSetMatcher = includeMatcher;
+    if (globSetMatcher == null || globSetMatcher.size() != pathMatchers2Include.size()) {
+      globSetMatcher = includeMatcher = buildGlobSetMatcher(pathMatchers2Include, patterns2Include);
+      if (globSetMatcher == null) return true;
+    }
+    return globSetMatcher.couldMatchBelow(directory.toAbsolutePath().toString());
+  }
+
+  // Compile the patterns into one matcher (see GlobSetMatcher), that way a path is checked against
+  //   all of them in one pass and there's no lowercased copy made when ignoring case.  Returns null
+  //   if the matcher list has entries we don't have the pattern for (i.e. someone added to the list
+  //   returned by getPaths2Exclude()), then the caller goes through the matchers one at a time.
+  //   No lock here; runIt() holds the write lock while the parallel walk's threads call us
+  private GlobSetMatcher buildGlobSetMatcher(List<PathMatcher> pathMatchers, List<String> patterns) {
+    if (pathMatchers.size() != patterns.size()) return null;
+    return new GlobSetMatcher(patterns, pathMatcherIgnoreCase, fileSystem.getSeparator().charAt(0));
+  }
+
+  // Check the path against each matcher in the list
+  private boolean matchesAnyPathMatcher(List<PathMatcher> pathMatchers, Path entry) {
+    if (pathMatchers.size() == 0) return false;
+    Path path2Compare = getPath2Compare(entry);
+    for (PathMatcher pathMatcher : pathMatchers) {
+      if (pathMatcher.matches(path2Compare) == true) 
+        return true;
+    }
+    return false;
+  }
+
   public boolean writeEntriesToFile(List<Path> list2Output, String outputName) {
     readLock.lock();
     try {
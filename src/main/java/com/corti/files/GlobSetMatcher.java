@@ -0,0 +1,531 @@
+package com.corti.files;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a path against a whole set of patterns in one pass; it's what GetFileOrDirectoriesCommon
+ *   uses for the include/exclude lists instead of asking each PathMatcher in turn.
+ * The "glob:" patterns (same syntax as FileSystem.getPathMatcher, i.e. *, **, ?, [a-z], [!a], {a,b}
+ *   and \ to escape) are all compiled into one automaton (an nfa); when matching we walk the characters
+ *   of the path once and follow every pattern at the same time.  The sets of nfa states we see are
+ *   turned into dfa states as they're needed and remembered (per thread), so after warming up each
+ *   character is one array lookup no matter how many patterns there are.
+ * When ignoreCase is true each character of the path is lowercased as we go (the patterns are
+ *   lowercased when compiled) so there's no lowercased copy of the path made.
+ * couldMatchBelow(directory) tells a walker if anything under a directory could match, so with an
+ *   include like glob:/data/{one,two}/src/** only the directories leading to a src are listed.
+ * "regex:" patterns can't go into the automaton, they're checked one at a time after it.
+ */
+public class GlobSetMatcher {
+  // Nfa state types
+  private static final int CHAR    = 0;  // Matches one specific character
+  private static final int ANY     = 1;  // Any character except the separator (? and *)
+  private static final int ANY_ALL = 2;  // Any character (**)
+  private static final int CLASS   = 3;  // Character class, never matches the separator
+  private static final int SPLIT   = 4;  // No character, goes to out1 and out2 (out2 can be -1)
+  private static final int MATCH   = 5;  // End of a pattern
+
+  private static final int MAX_DFA_STATES = 10000;  // Per thread, cache is dropped if it gets bigger
+  private static final int UNKNOWN        = -1;
+  private static final int DEAD           = 0;      // Dfa state with no nfa states, can't match
+
+  private final boolean ignoreCase;
+  private final char separatorChar;
+  private final List<Pattern> regexPatterns;
+  private final ThreadLocal<Dfa> dfaForThread;
+
+  // The nfa, built in the constructor and not changed after
+  private int[] stateType;
+  private char[] stateChar;
+  private int[] stateOut1;
+  private int[] stateOut2;
+  private CharClass[] stateClass;
+  private int numberOfStates;
+  private int startState;
+  private int numberOfGlobs;
+
+  // Patterns are in the format FileSystem.getPathMatcher takes (syntax:pattern)
+  public GlobSetMatcher(List<String> syntaxAndPatterns, boolean ignoreCase, char separatorChar) {
+    this.ignoreCase    = ignoreCase;
+    this.separatorChar = separatorChar;
+    this.regexPatterns = new ArrayList<Pattern>();
+    this.dfaForThread  = ThreadLocal.withInitial(Dfa::new);
+
+    stateType  = new int[64];
+    stateChar  = new char[64];
+    stateOut1  = new int[64];
+    stateOut2  = new int[64];
+    stateClass = new CharClass[64];
+    startState = -1;
+    int matchState = addState(MATCH, -1, -1);
+
+    for (String syntaxAndPattern : syntaxAndPatterns) {
+      int pos = syntaxAndPattern.indexOf(':');
+      if (pos <= 0) throw new IllegalArgumentException("Pattern needs syntax: " + syntaxAndPattern);
+      String syntax  = syntaxAndPattern.substring(0, pos);
+      String pattern = syntaxAndPattern.substring(pos + 1);
+      if (syntax.equalsIgnoreCase("glob")) {
+        GlobParser parser = new GlobParser(ignoreCase ? pattern.toLowerCase() : pattern);
+        Fragment fragment = parser.parse();
+        patch(fragment, matchState);
+        // Every pattern hangs off a chain of splits from the start state
+        startState = (startState == -1 ? fragment.start : addState(SPLIT, fragment.start, startState));
+        numberOfGlobs++;
+      }
+      else if (syntax.equalsIgnoreCase("regex")) {
+        regexPatterns.add(Pattern.compile(pattern, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0));
+      }
+      else {
+        throw new IllegalArgumentException("Syntax '" + syntax + "' not recognized");
+      }
+    }
+  }
+
+  // Number of patterns in the set
+  public int size() {
+    return numberOfGlobs + regexPatterns.size();
+  }
+
+  public boolean matches(Path path) {
+    return matches(path.toString());
+  }
+
+  // True if any of the patterns matches the whole string
+  public boolean matches(CharSequence pathString) {
+    if (startState != -1 && dfaForThread.get().matches(pathString)) return true;
+    for (Pattern regexPattern : regexPatterns) {
+      if (regexPattern.matcher(pathString).matches()) return true;
+    }
+    return false;
+  }
+
+  // True if a path below the directory (i.e. directory/anything) could match one of the patterns,
+  //   a walk can skip the directory's subtree when this is false.  We run the directory and a
+  //   separator through the dfa and see if any pattern is still alive.  We can't tell for regex
+  //   patterns so we always say true if there are any
+  public boolean couldMatchBelow(CharSequence directoryPath) {
+    if (regexPatterns.size() > 0) return true;
+    if (startState == -1) return false;
+    return dfaForThread.get().isAliveBelow(directoryPath);
+  }
+
+  // ========================= N f a   c o n s t r u c t i o n =========================
+
+  private int addState(int type, int out1, int out2) {
+    if (numberOfStates == stateType.length) {
+      int newLength = stateType.length * 2;
+      stateType  = Arrays.copyOf(stateType, newLength);
+      stateChar  = Arrays.copyOf(stateChar, newLength);
+      stateOut1  = Arrays.copyOf(stateOut1, newLength);
+      stateOut2  = Arrays.copyOf(stateOut2, newLength);
+      stateClass = Arrays.copyOf(stateClass, newLength);
+    }
+    stateType[numberOfStates] = type;
+    stateOut1[numberOfStates] = out1;
+    stateOut2[numberOfStates] = out2;
+    return numberOfStates++;
+  }
+
+  // Point all the loose ends of the fragment at the state passed in
+  private void patch(Fragment fragment, int target) {
+    for (int i = 0; i < fragment.numberOfOuts; i++) {
+      int out = fragment.outs[i];
+      if ((out & 1) == 0) stateOut1[out >> 1] = target;
+      else                stateOut2[out >> 1] = target;
+    }
+  }
+
+  // Piece of the nfa; start state and the loose ends (state * 2 + 0 for out1, + 1 for out2) that
+  //   get patched to whatever follows it
+  private static class Fragment {
+    int start;
+    int[] outs = new int[2];
+    int numberOfOuts;
+
+    Fragment(int start) {
+      this.start = start;
+    }
+
+    void addOut(int out) {
+      if (numberOfOuts == outs.length) outs = Arrays.copyOf(outs, outs.length * 2);
+      outs[numberOfOuts++] = out;
+    }
+
+    void addOuts(Fragment other) {
+      for (int i = 0; i < other.numberOfOuts; i++) addOut(other.outs[i]);
+    }
+  }
+
+  // Recursive descent parser for one glob, builds the fragments as it goes (thompson construction)
+  private class GlobParser {
+    private final String glob;
+    private int pos;
+    private int braceDepth;
+
+    GlobParser(String glob) {
+      this.glob = glob;
+    }
+
+    Fragment parse() {
+      Fragment fragment = parseSequence();
+      if (pos < glob.length()) throw error("Unexpected character");
+      return fragment;
+    }
+
+    // Items one after the other, stops at the end or (inside braces) at ',' or '}'
+    private Fragment parseSequence() {
+      Fragment sequence = null;
+      while (pos < glob.length()) {
+        char c = glob.charAt(pos);
+        if (braceDepth > 0 && (c == ',' || c == '}')) break;
+        Fragment item = parseItem();
+        if (sequence == null) {
+          sequence = item;
+        }
+        else {
+          patch(sequence, item.start);
+          sequence.numberOfOuts = 0;
+          sequence.addOuts(item);
+        }
+      }
+      if (sequence == null) {  // Empty, e.g. the second part of {a,}
+        sequence = new Fragment(addState(SPLIT, -1, -1));
+        sequence.addOut(sequence.start * 2);
+      }
+      return sequence;
+    }
+
+    private Fragment parseItem() {
+      char c = glob.charAt(pos++);
+      switch (c) {
+      case '*':
+        if (pos < glob.length() && glob.charAt(pos) == '*') {
+          pos++;
+          return loop(ANY_ALL);
+        }
+        return loop(ANY);
+      case '?':
+        return single(addState(ANY, -1, -1));
+      case '[':
+        return parseClass();
+      case '{':
+        return parseGroup();
+      case '\\':
+        if (pos >= glob.length()) throw error("No character to escape");
+        return literal(glob.charAt(pos++));
+      case '/':
+        return literal(separatorChar);
+      default:
+        return literal(c);
+      }
+    }
+
+    private Fragment literal(char c) {
+      int state = addState(CHAR, -1, -1);
+      stateChar[state] = c;
+      return single(state);
+    }
+
+    private Fragment single(int state) {
+      Fragment fragment = new Fragment(state);
+      fragment.addOut(state * 2);
+      return fragment;
+    }
+
+    // Zero or more of the consuming state type: split -> (consume -> back to split) or leave
+    private Fragment loop(int type) {
+      int split   = addState(SPLIT, -1, -1);
+      int consume = addState(type, split, -1);
+      stateOut1[split] = consume;
+      Fragment fragment = new Fragment(split);
+      fragment.addOut(split * 2 + 1);
+      return fragment;
+    }
+
+    // {a,b,c} - each alternative is a sequence, they hang off a chain of splits
+    private Fragment parseGroup() {
+      if (braceDepth > 0) throw error("Cannot nest groups");
+      braceDepth++;
+      List<Fragment> alternatives = new ArrayList<Fragment>();
+      while (true) {
+        alternatives.add(parseSequence());
+        if (pos >= glob.length()) throw error("Missing '}'");
+        char c = glob.charAt(pos++);
+        if (c == '}') break;
+      }
+      braceDepth--;
+
+      Fragment group = alternatives.get(alternatives.size() - 1);
+      int start = group.start;
+      Fragment combined = new Fragment(start);
+      combined.addOuts(group);
+      for (int i = alternatives.size() - 2; i >= 0; i--) {
+        start = addState(SPLIT, alternatives.get(i).start, start);
+        combined.addOuts(alternatives.get(i));
+      }
+      combined.start = start;
+      return combined;
+    }
+
+    // [abc] [a-z] [!a-c], same rules as the jdk's glob:  only '!' negates (a leading '^' is just a
+    //   character), '\\' isn't an escape in a class, the first ']' ends it and a '-' has to follow a
+    //   character to make a range unless it's first (or after the '!') or last
+    private Fragment parseClass() {
+      CharClass charClass = new CharClass();
+      if (pos < glob.length() && glob.charAt(pos) == '^') {
+        charClass.addRange('^', '^');
+        pos++;
+      }
+      else {
+        if (pos < glob.length() && glob.charAt(pos) == '!') {
+          charClass.negate = true;
+          pos++;
+        }
+        if (pos < glob.length() && glob.charAt(pos) == '-') {
+          charClass.addRange('-', '-');
+          pos++;
+        }
+      }
+      boolean hasRangeStart = false;
+      boolean closed = false;
+      char last = 0;
+      while (pos < glob.length() && closed == false) {
+        char c = glob.charAt(pos++);
+        if (c == ']') {
+          closed = true;
+        }
+        else if (c == '/') {
+          throw error("Explicit 'name separator' in class");
+        }
+        else if (c == '-') {
+          if (hasRangeStart == false) throw error("Invalid range");
+          if (pos < glob.length() && glob.charAt(pos) == ']') {  // Trailing '-' is a character
+            charClass.addRange('-', '-');
+          }
+          else if (pos < glob.length()) {
+            char high = glob.charAt(pos++);
+            if (high < last) throw error("Invalid range");
+            charClass.addRange(last, high);
+            hasRangeStart = false;
+          }
+        }
+        else {
+          charClass.addRange(c, c);
+          hasRangeStart = true;
+          last = c;
+        }
+      }
+      if (closed == false) throw error("Missing ']'");
+      if (charClass.numberOfRanges == 0) throw error("Empty class");
+      int state = addState(CLASS, -1, -1);
+      stateClass[state] = charClass;
+      return single(state);
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " near index " + pos + " in glob: " + glob);
+    }
+  }
+
+  // Ranges of characters for [...]
+  private static class CharClass {
+    char[] lows  = new char[4];
+    char[] highs = new char[4];
+    int numberOfRanges;
+    boolean negate;
+
+    void addRange(char low, char high) {
+      if (numberOfRanges == lows.length) {
+        lows  = Arrays.copyOf(lows, lows.length * 2);
+        highs = Arrays.copyOf(highs, highs.length * 2);
+      }
+      lows[numberOfRanges]  = low;
+      highs[numberOfRanges] = high;
+      numberOfRanges++;
+    }
+
+    boolean matches(char c) {
+      boolean found = false;
+      for (int i = 0; i < numberOfRanges && found == false; i++) {
+        found = (c >= lows[i] && c <= highs[i]);
+      }
+      return found != negate;
+    }
+  }
+
+  // ========================= D f a   ( p e r   t h r e a d ) =========================
+
+  // Does nfa state consume the character
+  private boolean consumes(int state, char c) {
+    switch (stateType[state]) {
+    case CHAR:    return stateChar[state] == c;
+    case ANY:     return c != separatorChar;
+    case ANY_ALL: return true;
+    case CLASS:   return c != separatorChar && stateClass[state].matches(c);
+    default:      return false;
+    }
+  }
+
+  // Dfa states are sets of nfa states (sorted int[]), built the first time we need them.  Transitions
+  //   for ascii characters are kept in a table, others in a map
+  private class Dfa {
+    private final List<int[]> stateSets = new ArrayList<int[]>();
+    private final Map<NfaStateSet, Integer> stateIds = new HashMap<NfaStateSet, Integer>();
+    private final List<int[]> asciiTransitions = new ArrayList<int[]>();
+    private final Map<Long, Integer> otherTransitions = new HashMap<Long, Integer>();
+    private boolean[] accepting = new boolean[16];
+    private int startDfaState;
+
+    // Scratch space for building state sets
+    private int[] stack         = new int[numberOfStates + 2];
+    private final int[] marks   = new int[numberOfStates];
+    private final int[] members = new int[numberOfStates];
+    private int generation;
+
+    Dfa() {
+      reset();
+    }
+
+    private void reset() {
+      stateSets.clear();
+      stateIds.clear();
+      asciiTransitions.clear();
+      otherTransitions.clear();
+      addDfaState(new int[0]);  // DEAD
+      generation++;
+      int[] startSet = Arrays.copyOf(members, addClosure(startState, 0));
+      Arrays.sort(startSet);
+      startDfaState = getDfaState(startSet);
+    }
+
+    boolean matches(CharSequence pathString) {
+      int dfaState = run(pathString);  // Can grow accepting, so run it first
+      return accepting[dfaState];
+    }
+
+    // Any pattern still alive after the directory and a separator (root already ends in one)
+    boolean isAliveBelow(CharSequence directoryPath) {
+      int dfaState = run(directoryPath);
+      int length   = directoryPath.length();
+      if (dfaState != DEAD && (length == 0 || directoryPath.charAt(length - 1) != separatorChar))
+        dfaState = transition(dfaState, separatorChar);
+      return dfaState != DEAD;
+    }
+
+    // Run the string through the dfa, returns the state we end up in (stops early if it's DEAD)
+    private int run(CharSequence pathString) {
+      int dfaState = startDfaState;
+      int length   = pathString.length();
+      for (int i = 0; i < length && dfaState != DEAD; i++) {
+        char c = pathString.charAt(i);
+        if (ignoreCase) c = Character.toLowerCase(c);
+        dfaState = transition(dfaState, c);
+      }
+      return dfaState;
+    }
+
+    private int transition(int dfaState, char c) {
+      if (c < 128) {
+        int next = asciiTransitions.get(dfaState)[c];
+        return (next == UNKNOWN ? addTransition(dfaState, c) : next);
+      }
+      Integer cached = otherTransitions.get(Long.valueOf(((long) dfaState << 16) | c));
+      return (cached == null ? addTransition(dfaState, c) : cached.intValue());
+    }
+
+    // Build the transition from dfaState on c and remember it.  If the cache has gotten too big
+    //   it's thrown away and we carry on from the state we're going to
+    private int addTransition(int dfaState, char c) {
+      int next = step(dfaState, c);
+      if (stateSets.size() > MAX_DFA_STATES) {
+        int[] nextSet = stateSets.get(next);
+        reset();
+        return getDfaState(nextSet);
+      }
+      if (c < 128) asciiTransitions.get(dfaState)[c] = next;
+      else         otherTransitions.put(Long.valueOf(((long) dfaState << 16) | c), Integer.valueOf(next));
+      return next;
+    }
+
+    // Work out the dfa state we go to from dfaState on character c
+    private int step(int dfaState, char c) {
+      int[] fromSet = stateSets.get(dfaState);
+      generation++;
+      int count = 0;
+      for (int nfaState : fromSet) {
+        if (consumes(nfaState, c)) count = addClosure(stateOut1[nfaState], count);
+      }
+      int[] toSet = Arrays.copyOf(members, count);
+      Arrays.sort(toSet);
+      return getDfaState(toSet);
+    }
+
+    // Add the state and everything reachable through splits to members
+    private int addClosure(int nfaState, int count) {
+      int stackSize = 0;
+      stack[stackSize++] = nfaState;
+      while (stackSize > 0) {
+        int state = stack[--stackSize];
+        if (state < 0 || marks[state] == generation) continue;
+        marks[state] = generation;
+        if (stateType[state] == SPLIT) {
+          if (stackSize + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2 + 2);
+          stack[stackSize++] = stateOut2[state];
+          stack[stackSize++] = stateOut1[state];
+        }
+        else {
+          members[count++] = state;
+        }
+      }
+      return count;
+    }
+
+    private int getDfaState(int[] nfaStates) {
+      Integer existing = stateIds.get(new NfaStateSet(nfaStates));
+      if (existing != null) return existing.intValue();
+      return addDfaState(nfaStates);
+    }
+
+    private int addDfaState(int[] nfaStates) {
+      int id = stateSets.size();
+      stateSets.add(nfaStates);
+      stateIds.put(new NfaStateSet(nfaStates), Integer.valueOf(id));
+      int[] transitions = new int[128];
+      Arrays.fill(transitions, UNKNOWN);
+      asciiTransitions.add(transitions);
+      if (id >= accepting.length) accepting = Arrays.copyOf(accepting, accepting.length * 2);
+      accepting[id] = false;
+      for (int nfaState : nfaStates) {
+        if (stateType[nfaState] == MATCH) accepting[id] = true;
+      }
+      return id;
+    }
+  }
+
+  // Map key for a sorted set of nfa states
+  private static class NfaStateSet {
+    private final int[] states;
+    private final int hashCode;
+
+    NfaStateSet(int[] states) {
+      this.states   = states;
+      this.hashCode = Arrays.hashCode(states);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return (other instanceof NfaStateSet) && Arrays.equals(states, ((NfaStateSet) other).states);
+    }
+  }
+}
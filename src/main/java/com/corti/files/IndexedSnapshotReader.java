@@ -0,0 +1,300 @@
+package com.corti.files;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+import com.corti.files.compress.Codec;
+
+/**
+ * Reads a snapshot written by IndexedSnapshotWriter without loading it.  Opening it reads the footer,
+ * a lookup binary searches the index table on disk for the block the key would be in and reads that
+ * block; the index entries it looks at are cached (the first few probes are the same for every lookup)
+ * and so is the last block read.  getBytesRead() tells you how much of the file was actually read.
+ * Keys are the path relative to the starting base path, unix style (see IndexedSnapshotWriter.getKey).
+ * Usage:
+ *   try (IndexedSnapshotReader reader = new IndexedSnapshotReader(snapshotPath)) {
+ *     FileAttributes fileAttributes = reader.get("x/y/z");     // null if it isn't there
+ *     List<FileAttributes> underY   = reader.getDirectory("x/y"); // x/y and everything below it
+ *   }
+ * stream() gives all of them in key order.  The methods are synchronized, one FileChannel is shared.
+ */
+public class IndexedSnapshotReader implements Closeable {
+  private static final int MAX_CACHED_INDEX_ENTRIES = 4096;
+
+  private final FileChannel fileChannel;
+  private final long indexTableOffset;
+  private final int numberOfBlocks;
+  private final long numberOfRecords;
+  private final Map<Integer, IndexEntry> indexCache = new LinkedHashMap<Integer, IndexEntry>(64, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, IndexEntry> eldest) {
+      return size() > MAX_CACHED_INDEX_ENTRIES;
+    }
+  };
+  private int cachedBlockNumber = -1;
+  private byte[] cachedBlock;
+  private long bytesRead;
+
+  public IndexedSnapshotReader(Path inputPath) throws IOException {
+    this.fileChannel = FileChannel.open(inputPath, StandardOpenOption.READ);
+    try {
+      long size = fileChannel.size();
+      if (size < 6 + IndexedSnapshotWriter.FOOTER_LENGTH) throw new IOException("Too short to be an indexed snapshot: " + inputPath);
+      ByteBuffer header = read(0, 6);
+      if (header.getInt() != IndexedSnapshotWriter.MAGIC) throw new IOException("Not an indexed snapshot: " + inputPath);
+      short version = header.getShort();
+      if (version != IndexedSnapshotWriter.VERSION) throw new IOException("Indexed snapshot version " + version + " isn't supported");
+      ByteBuffer footer = read(size - IndexedSnapshotWriter.FOOTER_LENGTH, IndexedSnapshotWriter.FOOTER_LENGTH);
+      this.indexTableOffset = footer.getLong();
+      this.numberOfBlocks   = footer.getInt();
+      this.numberOfRecords  = footer.getLong();
+      if (footer.getInt() != IndexedSnapshotWriter.MAGIC || indexTableOffset + 8L * numberOfBlocks != size - IndexedSnapshotWriter.FOOTER_LENGTH) {
+        throw new IOException("Indexed snapshot has no footer, the writer didn't finish: " + inputPath);
+      }
+    } catch (IOException e) {
+      fileChannel.close();
+      throw e;
+    }
+  }
+
+  // True if the file starts with the indexed snapshot magic number
+  public static boolean isIndexedSnapshot(Path path) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer magic = ByteBuffer.allocate(4);
+      while (magic.hasRemaining() && channel.read(magic) >= 0) { }
+      return magic.hasRemaining() == false && magic.getInt(0) == IndexedSnapshotWriter.MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  public long getNumberOfRecords() {
+    return numberOfRecords;
+  }
+
+  public int getNumberOfBlocks() {
+    return numberOfBlocks;
+  }
+
+  // Bytes read from the file so far (cached index entries and blocks aren't counted again)
+  public synchronized long getBytesRead() {
+    return bytesRead;
+  }
+
+  // The FileAttributes for the key, null if it isn't in the snapshot
+  public synchronized FileAttributes get(String key) throws IOException {
+    Cursor cursor = seek(key);
+    while (cursor != null && cursor.next()) {
+      int compare = cursor.key.compareTo(key);
+      if (compare == 0) return cursor.readAttributes();
+      if (compare > 0) break;
+    }
+    return null;
+  }
+
+  // The directory and everything below it (in key order), an empty string is the whole snapshot
+  public synchronized List<FileAttributes> getDirectory(String directory) throws IOException {
+    List<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>();
+    while (directory.endsWith("/")) directory = directory.substring(0, directory.length() - 1);
+    String prefix = (directory.length() == 0 ? "" : directory + "/");
+    FileAttributes directoryAttributes = (directory.length() == 0 ? null : get(directory));
+    if (directoryAttributes != null) fileAttributesList.add(directoryAttributes);
+    Cursor cursor = seek(prefix);
+    while (cursor != null && cursor.next()) {
+      if (cursor.key.startsWith(prefix)) {
+        fileAttributesList.add(cursor.readAttributes());
+      }
+      else if (cursor.key.compareTo(prefix) > 0) {
+        break;
+      }
+    }
+    return fileAttributesList;
+  }
+
+  // All the records in key order, a block at a time
+  public Stream<FileAttributes> stream() {
+    Iterator<FileAttributes> iterator = new Iterator<FileAttributes>() {
+      private Cursor cursor = (numberOfBlocks == 0 ? null : new Cursor(0));
+      private FileAttributes nextEntry;
+
+      @Override
+      public boolean hasNext() {
+        if (nextEntry == null && cursor != null) {
+          synchronized (IndexedSnapshotReader.this) {
+            try {
+              if (cursor.next()) nextEntry = cursor.readAttributes();
+              else cursor = null;
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+        }
+        return nextEntry != null;
+      }
+
+      @Override
+      public FileAttributes next() {
+        if (hasNext() == false) throw new NoSuchElementException();
+        FileAttributes fileAttributes = nextEntry;
+        nextEntry = null;
+        return fileAttributes;
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliterator(iterator, numberOfRecords, Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    fileChannel.close();
+  }
+
+  // Cursor positioned before the first entry of the block the key would be in, null if there aren't any blocks
+  private Cursor seek(String key) throws IOException {
+    if (numberOfBlocks == 0) return null;
+    int low  = 0;
+    int high = numberOfBlocks - 1;
+    while (low < high) {  // Last block whose first key is <= key
+      int middle = (low + high + 1) >>> 1;
+      if (getIndexEntry(middle).firstKey.compareTo(key) <= 0) low = middle;
+      else high = middle - 1;
+    }
+    return new Cursor(low);
+  }
+
+  private IndexEntry getIndexEntry(int blockNumber) throws IOException {
+    IndexEntry indexEntry = indexCache.get(blockNumber);
+    if (indexEntry == null) {
+      long entryOffset   = read(indexTableOffset + 8L * blockNumber, 8).getLong();
+      ByteBuffer header  = read(entryOffset, 16);
+      long blockOffset   = header.getLong();
+      int blockLength    = header.getInt();
+      int keyLength      = header.getInt();
+      ByteBuffer keyBytes = read(entryOffset + 16, keyLength);
+      indexEntry = new IndexEntry(blockOffset, blockLength, new String(keyBytes.array(), 0, keyLength, StandardCharsets.UTF_8));
+      indexCache.put(blockNumber, indexEntry);
+    }
+    return indexEntry;
+  }
+
+  // The uncompressed entries of a block
+  private byte[] getBlock(int blockNumber) throws IOException {
+    if (blockNumber == cachedBlockNumber) return cachedBlock;
+    IndexEntry indexEntry = getIndexEntry(blockNumber);
+    ByteBuffer stored  = read(indexEntry.blockOffset, indexEntry.blockLength);
+    Codec codec;
+    try {
+      codec = Codec.forId(stored.get());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Block " + blockNumber + ": " + e.getMessage());
+    }
+    int length         = stored.getInt();
+    int storedLength   = stored.getInt();
+    int crc32          = stored.getInt();
+    if (storedLength != indexEntry.blockLength - 13 || length < 0) throw new IOException("Bad header for block " + blockNumber);
+    byte[] block = new byte[length];
+    codec.decompress(Arrays.copyOfRange(stored.array(), 13, 13 + storedLength), storedLength, block, length);
+    CRC32 blockCrc32 = new CRC32();
+    blockCrc32.update(block, 0, length);
+    if ((int) blockCrc32.getValue() != crc32) throw new IOException("Checksum doesn't match for block " + blockNumber);
+    cachedBlockNumber = blockNumber;
+    cachedBlock       = block;
+    return block;
+  }
+
+  private ByteBuffer read(long position, int length) throws IOException {
+    ByteBuffer byteBuffer = ByteBuffer.allocate(length);
+    while (byteBuffer.hasRemaining()) {
+      if (fileChannel.read(byteBuffer, position + byteBuffer.position()) < 0) throw new EOFException("Indexed snapshot ended early");
+    }
+    bytesRead += length;
+    byteBuffer.flip();
+    return byteBuffer;
+  }
+
+  private static int readVarInt(byte[] bytes, int[] position) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      if (position[0] >= bytes.length) throw new IOException("Block ends in the middle of an entry");
+      int b = bytes[position[0]++] & 0xFF;
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return value;
+    }
+    throw new IOException("Bad varint in block");
+  }
+
+  // Walks the entries from the start of a block, on into the next blocks
+  private final class Cursor {
+    private int blockNumber;
+    private byte[] block;
+    private final int[] position = new int[1];
+    private byte[] keyBytes = new byte[256];
+    private int recordOffset;
+    private int recordLength;
+    String key;
+
+    Cursor(int blockNumber) {
+      this.blockNumber = blockNumber;
+    }
+
+    // Move to the next entry, false at the end of the snapshot
+    boolean next() throws IOException {
+      if (block == null) block = getBlock(blockNumber);
+      while (position[0] == block.length) {
+        if (blockNumber + 1 >= numberOfBlocks) return false;
+        block       = getBlock(++blockNumber);
+        position[0] = 0;
+      }
+      int shared = readVarInt(block, position);
+      int rest   = readVarInt(block, position);
+      if (shared + rest > keyBytes.length) keyBytes = Arrays.copyOf(keyBytes, Math.max(shared + rest, keyBytes.length * 2));
+      if (rest > block.length - position[0]) throw new IOException("Block " + blockNumber + " ends in the middle of a key");
+      System.arraycopy(block, position[0], keyBytes, shared, rest);
+      position[0] += rest;
+      key          = new String(keyBytes, 0, shared + rest, StandardCharsets.UTF_8);
+      recordLength = readVarInt(block, position);
+      recordOffset = position[0];
+      if (recordLength > block.length - recordOffset) throw new IOException("Block " + blockNumber + " ends in the middle of a record");
+      position[0] += recordLength;
+      return true;
+    }
+
+    FileAttributes readAttributes() throws IOException {
+      return FileAttributesRecordReader.readAttributes(new DataInputStream(new ByteArrayInputStream(block, recordOffset, recordLength)));
+    }
+  }
+
+  private static final class IndexEntry {
+    final long blockOffset;
+    final int blockLength;
+    final String firstKey;
+
+    IndexEntry(long blockOffset, int blockLength, String firstKey) {
+      this.blockOffset = blockOffset;
+      this.blockLength = blockLength;
+      this.firstKey    = firstKey;
+    }
+  }
+}
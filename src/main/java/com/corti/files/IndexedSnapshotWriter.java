@@ -0,0 +1,214 @@
+package com.corti.files;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.corti.files.compress.Codec;
+
+/**
+ * Writes a snapshot sorted by the path relative to the starting base path (getPathFromBaseAsUnix, the
+ * key), IndexedSnapshotReader can then find one path or everything under a directory by reading the
+ * index entries it needs and a block or two, not the whole file.
+ * The file is:
+ *   int MAGIC, short VERSION
+ *   blocks (about blockSize bytes of entries each, before compression):
+ *     byte codec id, int uncompressed length, int stored length, int crc32 of the uncompressed bytes, the bytes
+ *     an entry is: varint bytes shared with the previous key, varint rest of the key length, the rest
+ *     of the key (utf-8), varint record length, the record (see FileAttributesRecordWriter.writeAttributes);
+ *     the first entry of a block has the whole key so a block can be read on its own
+ *   index entries, one per block: long block offset, int block length, int key length, first key in the block (utf-8)
+ *   index table: long offset of each index entry, 8 bytes each so the reader can binary search it on disk
+ *   footer: long index table offset, int number of blocks, long number of records, int MAGIC
+ * Entries have to be written in key order (String.compareTo), write() throws IllegalArgumentException
+ * if one is out of order; write(list, path, codec, level) sorts them for you.
+ * Usage:
+ *   IndexedSnapshotWriter.write(fileAttributesList, outputPath, Codec.LZ4, 0);
+ */
+public class IndexedSnapshotWriter implements Closeable {
+  static final int MAGIC              = 0x46415349;  // "FASI"
+  static final short VERSION          = 1;
+  static final int FOOTER_LENGTH      = 24;
+  public static final int DEFAULT_BLOCK_SIZE = 32 * 1024;
+
+  private final DataOutputStream outputStream;
+  private final Codec codec;
+  private final int level;
+  private final ByteArrayOutputStream blockBuffer;
+  private final DataOutputStream blockOutput;
+  private final ByteArrayOutputStream recordBuffer;
+  private final DataOutputStream recordOutput;
+  private final List<String> firstKeys     = new ArrayList<String>();
+  private final List<long[]> blockPositions = new ArrayList<long[]>();  // Offset, length
+  private int blockSize = DEFAULT_BLOCK_SIZE;
+  private byte[] previousKey = new byte[0];
+  private String previousKeyString;
+  private boolean blockIsEmpty = true;
+  private long position;
+  private long numberOfRecords;
+  private boolean isClosed;
+
+  public IndexedSnapshotWriter(Path outputPath) throws IOException {
+    this(outputPath, Codec.NONE, 0);
+  }
+
+  // The blocks are compressed with the codec, level is for Codec.DEFLATE
+  public IndexedSnapshotWriter(Path outputPath, Codec codec, int level) throws IOException {
+    this.outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(outputPath), 64 * 1024));
+    this.codec        = codec;
+    this.level        = level;
+    this.blockBuffer  = new ByteArrayOutputStream(DEFAULT_BLOCK_SIZE + 4096);
+    this.blockOutput  = new DataOutputStream(blockBuffer);
+    this.recordBuffer = new ByteArrayOutputStream(512);
+    this.recordOutput = new DataOutputStream(recordBuffer);
+    outputStream.writeInt(MAGIC);
+    outputStream.writeShort(VERSION);
+    position = 6;
+  }
+
+  // Sort the list by key and write it, returns the number of records
+  public static long write(List<FileAttributes> fileAttributesList, Path outputPath, Codec codec, int level) throws IOException {
+    final String[] keys = new String[fileAttributesList.size()];
+    Integer[] order = new Integer[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i]  = getKey(fileAttributesList.get(i));
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return keys[a].compareTo(keys[b]);
+      }
+    });
+    try (IndexedSnapshotWriter writer = new IndexedSnapshotWriter(outputPath, codec, level)) {
+      for (Integer i : order) writer.write(fileAttributesList.get(i), keys[i]);
+      return writer.getNumberOfRecords();
+    }
+  }
+
+  // The key a FileAttributes is stored under, the absolute path (unix style) if there's no base path
+  public static String getKey(FileAttributes fileAttributes) {
+    if (fileAttributes.getStartingBasePath() == null) return fileAttributes.getAbsolutePath().replace('\\', '/');
+    return fileAttributes.getPathFromBaseAsUnix();
+  }
+
+  // Roughly how many bytes of entries go in a block (before compression); smaller blocks mean
+  //   less to read for a lookup but a bigger index.  Set it before writing anything
+  public void setBlockSize(int blockSize) {
+    if (numberOfRecords > 0) throw new IllegalStateException("Block size has to be set before writing");
+    this.blockSize = Math.max(1024, blockSize);
+  }
+
+  public void write(FileAttributes fileAttributes) throws IOException {
+    write(fileAttributes, getKey(fileAttributes));
+  }
+
+  private void write(FileAttributes fileAttributes, String key) throws IOException {
+    if (isClosed) throw new IOException("Writer is closed");
+    if (previousKeyString != null && previousKeyString.compareTo(key) > 0) {
+      throw new IllegalArgumentException("Key " + key + " is out of order, it comes before " + previousKeyString);
+    }
+    recordBuffer.reset();
+    FileAttributesRecordWriter.writeAttributes(recordOutput, fileAttributes);
+    recordOutput.flush();
+
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int shared = 0;
+    if (blockIsEmpty) {
+      firstKeys.add(key);
+      blockIsEmpty = false;
+    }
+    else {
+      int maxShared = Math.min(previousKey.length, keyBytes.length);
+      while (shared < maxShared && previousKey[shared] == keyBytes[shared]) shared++;
+    }
+    writeVarInt(blockOutput, shared);
+    writeVarInt(blockOutput, keyBytes.length - shared);
+    blockOutput.write(keyBytes, shared, keyBytes.length - shared);
+    writeVarInt(blockOutput, recordBuffer.size());
+    recordBuffer.writeTo(blockOutput);
+    previousKey       = keyBytes;
+    previousKeyString = key;
+    numberOfRecords++;
+    if (blockBuffer.size() >= blockSize) flushBlock();
+  }
+
+  public long getNumberOfRecords() {
+    return numberOfRecords;
+  }
+
+  public int getNumberOfBlocks() {
+    return blockPositions.size() + (blockIsEmpty ? 0 : 1);
+  }
+
+  // Writes the last block, the index and the footer
+  @Override
+  public void close() throws IOException {
+    if (isClosed) return;
+    isClosed = true;
+    try {
+      if (blockIsEmpty == false) flushBlock();
+      long[] entryOffsets = new long[blockPositions.size()];
+      for (int i = 0; i < entryOffsets.length; i++) {
+        entryOffsets[i] = position;
+        outputStream.writeLong(blockPositions.get(i)[0]);
+        outputStream.writeInt((int) blockPositions.get(i)[1]);
+        byte[] keyBytes = firstKeys.get(i).getBytes(StandardCharsets.UTF_8);
+        outputStream.writeInt(keyBytes.length);
+        outputStream.write(keyBytes);
+        position += 16 + keyBytes.length;
+      }
+      long indexTableOffset = position;
+      for (long entryOffset : entryOffsets) outputStream.writeLong(entryOffset);
+      outputStream.writeLong(indexTableOffset);
+      outputStream.writeInt(entryOffsets.length);
+      outputStream.writeLong(numberOfRecords);
+      outputStream.writeInt(MAGIC);
+      outputStream.flush();
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  private void flushBlock() throws IOException {
+    blockOutput.flush();
+    byte[] block = blockBuffer.toByteArray();
+    CRC32 crc32 = new CRC32();
+    crc32.update(block, 0, block.length);
+    byte[] compressed = new byte[Codec.maxCompressedLength(block.length)];
+    int compressedLength = codec.compress(block, block.length, compressed, level);
+    Codec blockCodec = codec;
+    if (compressedLength < 0 || compressedLength >= block.length) {
+      blockCodec       = Codec.NONE;  // Didn't get smaller
+      compressed       = block;
+      compressedLength = block.length;
+    }
+    outputStream.writeByte(blockCodec.getId());
+    outputStream.writeInt(block.length);
+    outputStream.writeInt(compressedLength);
+    outputStream.writeInt((int) crc32.getValue());
+    outputStream.write(compressed, 0, compressedLength);
+    blockPositions.add(new long[] { position, 13 + compressedLength });
+    position += 13 + compressedLength;
+    blockBuffer.reset();
+    blockIsEmpty = true;
+  }
+
+  static void writeVarInt(DataOutputStream dataOutput, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      dataOutput.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    dataOutput.writeByte(value);
+  }
+}
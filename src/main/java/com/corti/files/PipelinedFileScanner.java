@@ -0,0 +1,304 @@
+package com.corti.files;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Recursive scanner that runs directory listing, attribute reading, checksums (optional) and
+ *   your sink at the same time; the stages are connected by bounded queues and each stage has
+ *   it's own number of threads.  So while one thread is waiting on the disk for a directory
+ *   listing another can be building FileAttributes, another hashing and the sink (i.e.
+ *   serialization) gets them as they come out.
+ * Stages:
+ *   listing ---- lists directories, reads each entry's attributes once (like FileAttributesWalker) and
+ *                  queues the subdirectories back to itself, files go to the next stage
+ *                  setListingThreads(int)
+ *   attributes - builds the FileAttributes objects from the path and attributes
+ *                  setAttributeThreads(int)
+ *   checksum --- computes the checksum (FileAttributes.getCheckSumValue()), only runs when
+ *                  setCheckSumThreads(int) is > 0 (default 0)
+ *   sink ------- the Consumer you pass to scan(), it's called on the thread that called scan() so
+ *                  it doesn't need to be thread safe
+ * setUseVirtualThreads(boolean) runs the workers on virtual threads when the jar is run on java 21+
+ *   (see ScanExecutors), that's the mode to use on high latency file systems.
+ * setQueueCapacity(int) sets the size of the queues between stages (the directories waiting to be
+ *   listed aren't bounded, a listing thread can't wait on itself).
+ * The usual GetFileOrDirectoriesCommon filters/limits apply (excludes prune directories, includes are
+ *   for files and prune subtrees they can't match, maxDepth, stayOnFileSystem and num2Process); when
+ *   num2Process is reached the listing stops.  The order files get to the sink isn't predictable.
+ * If a worker hits an unexpected exception (i.e. a SecurityException listing a directory) the listing
+ *   stops, what's already queued is drained to the sink and then scan() throws that exception.
+ */
+public class PipelinedFileScanner extends GetFileOrDirectoriesCommon {
+  private Path startingPath;       // Where the scan starts
+  private Path baseDirectoryPath;  // The base directory, stripped off in FileAttributes.getPathFromBaseAsUnix
+  private int listingThreads   = 2;
+  private int attributeThreads = 2;
+  private int checkSumThreads  = 0;
+  private int queueCapacity    = 10000;
+  private boolean useVirtualThreads = false;
+
+  // ========================= C o n s t r u c t o r s =========================
+  public PipelinedFileScanner(String startingPathName) {
+    this(Paths.get(startingPathName));
+  }
+
+  public PipelinedFileScanner(Path startingPath) {
+    this(startingPath, startingPath);
+  }
+
+  public PipelinedFileScanner(Path startingPath, Path baseDirectoryPath) {
+    super();
+    this.startingPath      = startingPath;
+    this.baseDirectoryPath = baseDirectoryPath;
+  }
+
+  // ========================= S e t t e r s =========================
+  public void setListingThreads(int listingThreads) {
+    this.listingThreads = Math.max(1, listingThreads);
+  }
+
+  public void setAttributeThreads(int attributeThreads) {
+    this.attributeThreads = Math.max(1, attributeThreads);
+  }
+
+  // 0 means don't compute checksums
+  public void setCheckSumThreads(int checkSumThreads) {
+    this.checkSumThreads = Math.max(0, checkSumThreads);
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = Math.max(1, queueCapacity);
+  }
+
+  // Run the workers on virtual threads (java 21+, see ScanExecutors); the blocking directory and
+  //   attribute calls are then cheap to have lots of in flight so you can set the listing and 
+  //   attribute threads in the hundreds or thousands for nfs/smb mounts
+  public void setUseVirtualThreads(boolean useVirtualThreads) {
+    this.useVirtualThreads = useVirtualThreads;
+  }
+
+  // ========================= P r o c e s s i n g =========================
+
+  // Run the scan, each FileAttributes is handed to the sink; returns the number of files passed to it
+  public long scan(Consumer<? super FileAttributes> sink) throws IOException, InterruptedException {
+    Path realStartingPath = startingPath.toRealPath();
+    ScanRun scanRun       = new ScanRun(realStartingPath, baseDirectoryPath.toRealPath().toString());
+    return scanRun.run(sink);
+  }
+
+  // Create the executor for a stage; one thread per worker, they're virtual threads when
+  //   setUseVirtualThreads(true) was called and we're on java 21+ (see ScanExecutors)
+  protected ExecutorService newStageExecutor(String stageName, int numberOfThreads) {
+    if (useVirtualThreads) 
+      return ScanExecutors.newVirtualThreadExecutor("scanner-" + stageName);
+    return ScanExecutors.newPlatformThreadExecutor("scanner-" + stageName, numberOfThreads);
+  }
+
+  // What's passed between the stages; the END marker tells a worker there's nothing more coming
+  private static class ScanItem {
+    static final ScanItem END = new ScanItem(null, null, 0, null);
+    final Path path;
+    final BasicFileAttributes basicFileAttributes;
+    final int depth;
+    final String realParentPath;  // Real path of the directory it was listed from
+    FileAttributes fileAttributes;
+
+    ScanItem(Path path, BasicFileAttributes basicFileAttributes, int depth, String realParentPath) {
+      this.path                = path;
+      this.basicFileAttributes = basicFileAttributes;
+      this.depth               = depth;
+      this.realParentPath      = realParentPath;
+    }
+  }
+
+  // State for one call to scan()
+  private class ScanRun {
+    private final String startingAbsolutePath;
+    private final Object startingFileSystemId;
+    private final BlockingQueue<ScanItem> directoryQueue  = new LinkedBlockingQueue<ScanItem>();
+    private final BlockingQueue<ScanItem> attributeQueue  = new ArrayBlockingQueue<ScanItem>(queueCapacity);
+    private final BlockingQueue<ScanItem> checkSumQueue   = new ArrayBlockingQueue<ScanItem>(queueCapacity);
+    private final BlockingQueue<ScanItem> sinkQueue       = new ArrayBlockingQueue<ScanItem>(queueCapacity);
+    private final AtomicInteger pendingDirectories        = new AtomicInteger(0);
+    private final AtomicInteger listingWorkersRunning     = new AtomicInteger(listingThreads);
+    private final AtomicInteger attributeWorkersRunning   = new AtomicInteger(attributeThreads);
+    private final AtomicInteger checkSumWorkersRunning    = new AtomicInteger(checkSumThreads);
+    private final AtomicLong numFilesFound                = new AtomicLong(0);
+    private final AtomicBoolean quotaReached              = new AtomicBoolean(false);
+    private final AtomicReference<Throwable> failure      = new AtomicReference<Throwable>();
+
+    ScanRun(Path realStartingPath, String startingAbsolutePath) {
+      this.startingAbsolutePath = startingAbsolutePath;
+      this.startingFileSystemId = getStartingFileSystemId(realStartingPath);
+      pendingDirectories.incrementAndGet();
+      directoryQueue.add(new ScanItem(realStartingPath, null, 0, null));
+    }
+
+    long run(Consumer<? super FileAttributes> sink) throws IOException, InterruptedException {
+      ExecutorService listingExecutor   = newStageExecutor("listing", listingThreads);
+      ExecutorService attributeExecutor = newStageExecutor("attributes", attributeThreads);
+      ExecutorService checkSumExecutor  = (checkSumThreads > 0 ? newStageExecutor("checksum", checkSumThreads) : null);
+      long numSunk = 0;
+      try {
+        for (int i = 0; i < listingThreads; i++) listingExecutor.execute(this::listingWorker);
+        for (int i = 0; i < attributeThreads; i++) attributeExecutor.execute(this::attributeWorker);
+        for (int i = 0; i < checkSumThreads; i++) checkSumExecutor.execute(this::checkSumWorker);
+
+        // The sink runs right here
+        ScanItem scanItem;
+        while ((scanItem = sinkQueue.take()) != ScanItem.END) {
+          sink.accept(scanItem.fileAttributes);
+          numSunk++;
+        }
+      } finally {
+        listingExecutor.shutdownNow();
+        attributeExecutor.shutdownNow();
+        if (checkSumExecutor != null) checkSumExecutor.shutdownNow();
+      }
+      Throwable firstFailure = failure.get();
+      if (firstFailure instanceof RuntimeException) throw (RuntimeException) firstFailure;
+      if (firstFailure instanceof Error) throw (Error) firstFailure;
+      if (firstFailure != null) throw new IOException("Scan failed", firstFailure);
+      if (debugIt) System.out.println("scan() done, number entries: " + numSunk);
+      return numSunk;
+    }
+
+    // Keep the first unexpected exception for scan() to throw, and stop listing
+    private void recordFailure(Throwable throwable) {
+      if (failure.compareAndSet(null, throwable)) {
+        System.out.println("Scan failed: " + throwable.toString());
+      }
+    }
+
+    // Put the END markers on a queue; this is in the finally blocks so it has to get done even
+    //   if we were interrupted (it only is when scan() is over, so nobody's waiting on them then)
+    private void putEnds(BlockingQueue<ScanItem> queue, int numberOfEnds) {
+      try {
+        for (int i = 0; i < numberOfEnds; i++) queue.put(ScanItem.END);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    // Listing stage; take a directory, list it, queue it's subdirectories back here and the files on
+    //   to the attribute stage.  When the last pending directory is done every listing worker gets an END;
+    //   the counts are decremented in finally blocks so the ENDs still go out if a directory blows up
+    private void listingWorker() {
+      try {
+        ScanItem scanItem;
+        while ((scanItem = directoryQueue.take()) != ScanItem.END) {
+          try {
+            if (quotaReached.get() == false && failure.get() == null) listDirectory(scanItem);
+          } catch (RuntimeException | Error e) {
+            recordFailure(e);
+          } finally {
+            if (pendingDirectories.decrementAndGet() == 0) putEnds(directoryQueue, listingThreads);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        if (listingWorkersRunning.decrementAndGet() == 0) putEnds(attributeQueue, attributeThreads);
+      }
+    }
+
+    private void listDirectory(ScanItem directoryItem) throws InterruptedException {
+      if (couldIncludeBelow(directoryItem.path) == false) return;  // No include can match below it
+      if (isOtherFileSystem(directoryItem.path, directoryItem.basicFileAttributes, startingFileSystemId)) return;
+      String realDirectory = directoryItem.path.toString();  // Started at the real path, links aren't followed
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directoryItem.path)) {
+        Class<? extends BasicFileAttributes> attributesClass = getAttributesClass(directoryItem.path, directoryItem.basicFileAttributes);
+        for (Path entry : stream) {
+          if (quotaReached.get() || failure.get() != null) break;
+          BasicFileAttributes basicFileAttributes;
+          try {
+            basicFileAttributes = readEntryAttributes(entry, attributesClass, false);
+          } catch (IOException e) {
+            System.out.println("Exception raised with " + entry.toString());
+            e.printStackTrace();
+            continue;
+          }
+
+          if (basicFileAttributes.isDirectory()) {
+            if ((maxDepth == -1 || directoryItem.depth < maxDepth) && isPathExcluded(entry) == false) {
+              pendingDirectories.incrementAndGet();
+              directoryQueue.put(new ScanItem(entry, basicFileAttributes, directoryItem.depth + 1, null));  // It's device saves a stat
+            }
+          }
+          else if (isFileWanted(entry)) {
+            long numFound = numFilesFound.incrementAndGet();
+            if (num2Process > 0 && numFound > num2Process) {
+              quotaReached.set(true);
+              break;
+            }
+            attributeQueue.put(new ScanItem(entry, basicFileAttributes, directoryItem.depth, realDirectory));
+            if (num2Process > 0 && numFound == num2Process) quotaReached.set(true);
+          }
+        }
+      } catch (IOException | DirectoryIteratorException e) {
+        e.printStackTrace();
+      }
+    }
+
+    // Attribute stage; build the FileAttributes, pass on to checksum stage (or sink if no checksums)
+    private void attributeWorker() {
+      BlockingQueue<ScanItem> nextQueue = (checkSumThreads > 0 ? checkSumQueue : sinkQueue);
+      try {
+        ScanItem scanItem;
+        while ((scanItem = attributeQueue.take()) != ScanItem.END) {
+          try {
+            scanItem.fileAttributes = getFileAttributesForPath(scanItem.path, scanItem.basicFileAttributes, startingAbsolutePath, scanItem.realParentPath);
+            if (debugIt) System.out.println("fileAttributes: " + scanItem.fileAttributes.toString());
+            nextQueue.put(scanItem);
+          } catch (InterruptedException e) {
+            throw e;
+          } catch (Exception e) {
+            System.out.println("Exception raised with " + scanItem.path.toString());
+            e.printStackTrace();
+          } catch (Error e) {
+            recordFailure(e);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        if (attributeWorkersRunning.decrementAndGet() == 0) putEnds(nextQueue, (checkSumThreads > 0 ? checkSumThreads : 1));
+      }
+    }
+
+    // Checksum stage; getCheckSumValue() computes and keeps the checksum
+    private void checkSumWorker() {
+      try {
+        ScanItem scanItem;
+        while ((scanItem = checkSumQueue.take()) != ScanItem.END) {
+          try {
+            scanItem.fileAttributes.getCheckSumValue();
+          } catch (RuntimeException | Error e) {
+            recordFailure(e);
+            continue;
+          }
+          sinkQueue.put(scanItem);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        if (checkSumWorkersRunning.decrementAndGet() == 0) putEnds(sinkQueue, 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package com.corti.files;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors the scanners run their workers on.  This is the java 8 version, there's
+ *   a java 21 version of this class in src/main/java21 that goes into the multi-release section
+ *   of the jar (META-INF/versions/21) when you build with jdk 21 or later.  On 21+ 
+ *   newVirtualThreadExecutor gives you virtual threads, so a scan on a high latency file system
+ *   (nfs/smb) can have thousands of blocking calls in flight; here it falls back to a cached pool
+ *   of platform threads.  Check isVirtualThreadSupported() to see which one you got.
+ */
+public class ScanExecutors {
+
+  private ScanExecutors() { }
+
+  // True when newVirtualThreadExecutor really returns virtual threads
+  public static boolean isVirtualThreadSupported() {
+    return false;
+  }
+
+  // Executor with a fixed number of (daemon) platform threads named namePrefix-1, namePrefix-2...
+  public static ExecutorService newPlatformThreadExecutor(String namePrefix, int numberOfThreads) {
+    return Executors.newFixedThreadPool(numberOfThreads, new NamedThreadFactory(namePrefix));
+  }
+
+  // Executor that starts a new virtual thread for each task (java 21+), here it's a cached pool
+  public static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+    return Executors.newCachedThreadPool(new NamedThreadFactory(namePrefix));
+  }
+
+  // Names the threads, makes thread dumps readable; they're daemons so a scan that blows up doesn't
+  //   leave the jvm hanging
+  static class NamedThreadFactory implements ThreadFactory {
+    private final String namePrefix;
+    private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+    NamedThreadFactory(String namePrefix) {
+      this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
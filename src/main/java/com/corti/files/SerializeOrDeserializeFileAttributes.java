@@ -4,8 +4,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
@@ -27,6 +30,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
+import com.corti.files.compress.BlockCompressedInputStream;
+import com.corti.files.compress.BlockCompressedOutputStream;
+import com.corti.files.compress.Codec;
 import com.corti.javalogger.LoggerUtils;
 import com.corti.jsonutils.JsonUtils;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -52,14 +58,30 @@ public class SerializeOrDeserializeFileAttributes {
     }
   }
 
-  // Deserialize the file passed in to a List of FileAttributes
+  // Deserialize the file passed in to a List of FileAttributes, the file can be a serialized list or
+  //   a record file (see serializeFileAttributesRecords), either can be block compressed, or an indexed
+  //   snapshot (see serializeFileAttributesIndexed)
   public static List<FileAttributes> deserializeFileAttributesList(Path inputPath) {
     ArrayList<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>(2000);
-    try (FileInputStream fis   = new FileInputStream(inputPath.toFile());
-         ObjectInputStream ois = new ObjectInputStream(fis)) {
-
-      fileAttributesList = (ArrayList) ois.readObject();
-    } catch (IOException e) {
+    if (IndexedSnapshotReader.isIndexedSnapshot(inputPath)) {
+      try (IndexedSnapshotReader reader = new IndexedSnapshotReader(inputPath)) {
+        reader.stream().forEach(fileAttributesList::add);
+      } catch (IOException | UncheckedIOException e) {
+        e.printStackTrace();
+      }
+      return fileAttributesList;
+    }
+    try (InputStream fis = BlockCompressedInputStream.open(inputPath)) {
+      if (FileAttributesRecordReader.isRecordStream(fis)) {
+        try (FileAttributesRecordReader reader = new FileAttributesRecordReader(fis)) {
+          while (reader.hasNext()) fileAttributesList.add(reader.next());
+        }
+      }
+      else {
+        ObjectInputStream ois = new ObjectInputStream(fis);
+        fileAttributesList = (ArrayList) ois.readObject();
+      }
+    } catch (IOException | UncheckedIOException e) {
       e.printStackTrace();
     } catch (ClassNotFoundException c) {
       System.out.println("Class not found");
@@ -68,10 +90,69 @@ public class SerializeOrDeserializeFileAttributes {
     return fileAttributesList;
   }
   
-  //Serialize a FileAttributes list to the filename passed in
+  // Deserialize the file passed in to a FileAttributesTable; each FileAttributes is added to the table
+  //   as it's read and then dropped, so the whole list is never in memory
+  public static FileAttributesTable deserializeFileAttributesTable(Path inputPath) {
+    final FileAttributesTable fileAttributesTable = new FileAttributesTable();
+    if (IndexedSnapshotReader.isIndexedSnapshot(inputPath)) {
+      try (IndexedSnapshotReader reader = new IndexedSnapshotReader(inputPath)) {
+        reader.stream().forEach(fileAttributesTable::add);
+      } catch (IOException | UncheckedIOException e) {
+        e.printStackTrace();
+      }
+      fileAttributesTable.trimToSize();
+      return fileAttributesTable;
+    }
+    try (InputStream fis = BlockCompressedInputStream.open(inputPath)) {
+      if (FileAttributesRecordReader.isRecordStream(fis)) {
+        try (FileAttributesRecordReader reader = new FileAttributesRecordReader(fis)) {
+          while (reader.hasNext()) fileAttributesTable.add(reader.next());
+        }
+      }
+      else {
+        ObjectInputStream ois = new ObjectInputStream(fis) {
+          {
+            enableResolveObject(true);
+          }
+
+          @Override
+          protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof FileAttributes) {
+              fileAttributesTable.add((FileAttributes) obj);
+              return null;  // The list just gets a null
+            }
+            return obj;
+          }
+        };
+        ois.readObject();
+      }
+    } catch (IOException | UncheckedIOException e) {
+      e.printStackTrace();
+    } catch (ClassNotFoundException c) {
+      System.out.println("Class not found");
+      c.printStackTrace();
+    }
+    fileAttributesTable.trimToSize();
+    return fileAttributesTable;
+  }
+  
+  //Serialize a FileAttributes list to the filename passed in; the checksums that haven't been computed
+  //  yet are done in parallel first (see CheckSumService) rather than one at a time by writeObject
   public static boolean serializeFileAttributesList(List<FileAttributes> fileAttributesList, Path outputPath) {
+    return serializeFileAttributesList(fileAttributesList, outputPath, Codec.NONE, 0);
+  }
+
+  // Same as above but the file is block compressed with the codec (see BlockCompressedOutputStream),
+  //  level is for Codec.DEFLATE; the deserialize methods decompress on their own
+  public static boolean serializeFileAttributesList(List<FileAttributes> fileAttributesList, Path outputPath, Codec codec, int level) {
     boolean rtnValue = false;
-    try (FileOutputStream fos   = new FileOutputStream(outputPath.toFile());
+    try (CheckSumService checkSumService = new CheckSumService()) {
+      checkSumService.computeCheckSums(fileAttributesList);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return rtnValue;
+    }
+    try (OutputStream fos       = BlockCompressedOutputStream.create(outputPath, codec, level);
          ObjectOutputStream oos = new ObjectOutputStream(fos)) {
       oos.writeObject(fileAttributesList);
       rtnValue = true;
@@ -80,4 +161,47 @@ public class SerializeOrDeserializeFileAttributes {
     }
     return rtnValue;
   }  
+
+  // Same as above but writes a record file (see FileAttributesRecordWriter), it's smaller and quicker
+  //   to write and read; the deserialize methods above read either kind
+  public static boolean serializeFileAttributesRecords(List<FileAttributes> fileAttributesList, Path outputPath) {
+    return serializeFileAttributesRecords(fileAttributesList, outputPath, Codec.NONE, 0);
+  }
+
+  // Record file that's block compressed with the codec
+  public static boolean serializeFileAttributesRecords(List<FileAttributes> fileAttributesList, Path outputPath, Codec codec, int level) {
+    try (CheckSumService checkSumService = new CheckSumService()) {
+      checkSumService.computeCheckSums(fileAttributesList);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    try (FileAttributesRecordWriter writer = new FileAttributesRecordWriter(outputPath, codec, level)) {
+      for (FileAttributes fileAttributes : fileAttributesList) {
+        writer.write(fileAttributes);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+    return true;
+  }
+
+  // Sorted, indexed snapshot (see IndexedSnapshotWriter), IndexedSnapshotReader can look up a path or
+  //   a directory without reading the whole file; the list is sorted by path on the way out
+  public static boolean serializeFileAttributesIndexed(List<FileAttributes> fileAttributesList, Path outputPath, Codec codec, int level) {
+    try (CheckSumService checkSumService = new CheckSumService()) {
+      checkSumService.computeCheckSums(fileAttributesList);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    try {
+      IndexedSnapshotWriter.write(fileAttributesList, outputPath, codec, level);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+    return true;
+  }
 }
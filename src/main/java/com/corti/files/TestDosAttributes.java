@@ -30,7 +30,6 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import java.nio.file.attribute.PosixFileAttributeView;
 import java.nio.file.attribute.FileOwnerAttributeView;
 
 public class TestDosAttributes {
@@ -77,10 +76,6 @@ public class TestDosAttributes {
      
     addPathsFromPath(basePath, fileList);
     
-    // If it has more data than we want to process trim it
-    if (num2Process > 0 && fileList.size() > num2Process)  
-      fileList = fileList.subList(0, num2Process);
-  
     logger.info("Size of fileList is: " + fileList.size());    
         
     getElapsedTimeInMilliseconds(true);
@@ -88,9 +83,8 @@ public class TestDosAttributes {
     // Process each file in the list 
     for (Path thePath : fileList) {
       try {         
-        FileStore fs = Files.getFileStore(thePath);
         FileAttributes fileAttributes;
-        if (fs.supportsFileAttributeView(PosixFileAttributeView.class)) {
+        if (FileStoreCache.supportsPosix(thePath)) {  // Cached, getFileStore per file is slow
           fileAttributes = new UnixFileAttributes(thePath);
         }
         else {
@@ -170,29 +164,23 @@ public class TestDosAttributes {
     Map<String, Integer> fileNamesMapAfter        = new HashMap<String, Integer>();
     Map<String, Integer> fileNameAndPathMapAfter  = new HashMap<String, Integer>();
     Map<String, Integer> fileNameAndPathMapBefore = new HashMap<String, Integer>();
-    Map<String, Integer> checkSumsMapBefore       = new HashMap<String, Integer>();
-    Map<String, Integer> checkSumsMapAfter        = new HashMap<String, Integer>();
     
     List<ArrayList<Integer>> fileNamesListBefore = new ArrayList<ArrayList<Integer>>();
     List<ArrayList<Integer>> fileNamesListAfter = new ArrayList<ArrayList<Integer>>();  
-    List<ArrayList<Integer>> checkSumsListBefore = new ArrayList<ArrayList<Integer>>();
-    List<ArrayList<Integer>> checkSumsListAfter = new ArrayList<ArrayList<Integer>>();
     
     System.out.println("Creating arrays for compare");
     
     // Build array's to compare
     setArrays(beforeList, 
-                fileNamesMapBefore, fileNameAndPathMapBefore, checkSumsMapBefore, 
-                fileNamesListBefore, checkSumsListBefore);
+                fileNamesMapBefore, fileNameAndPathMapBefore, fileNamesListBefore);
     setArrays(afterList, 
-                fileNamesMapAfter, fileNameAndPathMapAfter, checkSumsMapAfter, 
-                fileNamesListAfter, checkSumsListAfter);  
+                fileNamesMapAfter, fileNameAndPathMapAfter, fileNamesListAfter);  
     
     System.out.println("Checking duplicate filenames");
     checkDupeNames(beforeList, fileNamesMapBefore, fileNamesListBefore);
     
     System.out.println("Checking duplicate checksums");
-    checkDupeCheckSums(beforeList, checkSumsMapBefore, checkSumsListBefore);
+    checkDupeCheckSums(beforeList);
     
   }
   
@@ -218,29 +206,20 @@ public class TestDosAttributes {
     }
   }
   
-  // Write out all the files that have duplicate checksum values
-  private void checkDupeCheckSums(List<FileAttributes> fileAttributesList,
-                                  Map<String, Integer> checkSumsMap,
-                                  List<ArrayList<Integer>> checkSumsList) {
-
-    Integer thePos;
-    // First want to see duplicate filenames
-    for (FileAttributes fileAttributes: fileAttributesList) {
-      String key2Search = fileAttributes.getCheckSumValue();
-      thePos = null;
-      if (key2Search != null) thePos = checkSumsMap.get(key2Search);
-      if (thePos != null) {
-        int arraySize = checkSumsList.get(thePos.intValue()).size();
-        if (arraySize > 1) {
-          System.out.println("File has duplicate checksums at:");
-          for (int i = 0; i < arraySize; i++) {
-            int idxPos = checkSumsList.get(thePos.intValue()).get(i);
-            System.out.println("  " + fileAttributesList.get(idxPos).getAbsolutePath());
-          }
+  // Write out all the files that have the same contents, DuplicateFinder only reads the files
+  //   that could be duplicates
+  private void checkDupeCheckSums(List<FileAttributes> fileAttributesList) {
+    try (DuplicateFinder duplicateFinder = new DuplicateFinder()) {
+      for (List<FileAttributes> duplicates : duplicateFinder.findDuplicates(fileAttributesList)) {
+        System.out.println("File has duplicate checksums at:");
+        for (FileAttributes fileAttributes : duplicates) {
+          System.out.println("  " + fileAttributes.getAbsolutePath());
         }
       }
-      else System.out.println("File not in map: " + fileAttributes.getAbsolutePath());
-    }     
+      System.out.println("Bytes read: " + duplicateFinder.getBytesRead() + " of " + duplicateFinder.getTotalBytes());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
   
   // This takes the FileAttribute list passed in and creates the following
@@ -251,25 +230,17 @@ public class TestDosAttributes {
   //                          the starting base... i.e. it's not the absolute path, it's the path
   //                          relative from the starting base.  This fileNameAndPath is used
   //                          to find the same file on another machine or path
-  //   checkSumsMap ------- this is a map of the files checksum, the value that it points to is
-  //                          the index position in checkSumsList 
   //   fileNamesList ------ This is a two dimentional array, the first dimension is the value
   //                          from fileNamesMap, the second is an array of integers, they hold
   //                          the index position of associated record in the FileAttribute list.
   //                          The reason it's a list is that there may be multiple records in the
   //                          FileAttributes list with the same filename, and I wanted to identify
   //                          all of them.
-  //   checkSumsList ------ This is also a multi dimentional array, the first pos contains the
-  //                          value from checkSumsMap, the second dimension is an array that
-  //                          has the index position within FileAttributes list of the records
-  //                          that have this checksum value.
   // --------------------------------------------------------------------------------------------
   private void setArrays(List<FileAttributes> fileAttributesList, 
                          Map<String, Integer> fileNamesMap,
                          Map<String, Integer> fileNameAndPathMap,
-                         Map<String, Integer> checkSumsMap, 
-                         List<ArrayList<Integer>> fileNamesList,
-                         List<ArrayList<Integer>> checkSumsList) {
+                         List<ArrayList<Integer>> fileNamesList) {
     for (int i = 0; i < fileAttributesList.size(); i++) {
       // Process filename first
       String key2Search = fileAttributesList.get(i).getFileName().toLowerCase();
@@ -287,20 +258,6 @@ public class TestDosAttributes {
       //   we'll use to check other systems.
       key2Search = fileAttributesList.get(i).getPathFromBaseAsUnix();
       fileNameAndPathMap.put(key2Search, Integer.valueOf(i));
-            
-      // Now process the checksum value
-      key2Search = fileAttributesList.get(i).getCheckSumValue();
-      if (key2Search != null) {
-        thePos = checkSumsMap.get(key2Search);
-        if (thePos == null) {
-          // Add new element to the fileNames array
-          checkSumsList.add(new ArrayList<Integer>());
-          thePos = checkSumsList.size()-1;
-          checkSumsMap.put(key2Search, thePos);
-        }
-        if (DEBUGIT) System.out.println("Key: " + key2Search + " ThePos: " + thePos.intValue());
-        checkSumsList.get(thePos.intValue()).add(i);          
-      }      
     }    
   }
   
@@ -308,6 +265,7 @@ public class TestDosAttributes {
   private void addPathsFromPath(Path _dirPath, List<Path> pathList) {
     try (DirectoryStream<Path> stream = Files.newDirectoryStream(_dirPath)) {
       for (Path entry : stream) {
+        if (num2Process > 0 && pathList.size() >= num2Process) return;  // Have all we want
         if (Files.isDirectory(entry)) {
           addPathsFromPath(entry,pathList);
         }
@@ -0,0 +1,227 @@
+package com.corti.files;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * PosixFileAttributes filled from one Files.readAttributes(path, "unix:...") call, that gets the
+ *   basic and posix attributes plus the inode, device, number of links, uid, gid and mode from the
+ *   one stat.  The owner and group names aren't in the list we ask for (getting them means looking up
+ *   the user/group database for every file), owner() and group() look them up the first time
+ *   they're called.
+ * If the file system doesn't have the "unix" view we fall back to reading PosixFileAttributes, the
+ *   unix only values are -1 then.
+ * readFollowingLinks(path) reads the link itself first, if it's a link it reads the target and
+ *   isFollowedLink() is true; FileAttributes uses that to decide if it needs the canonical path.
+ */
+class UnixAttributes implements PosixFileAttributes {
+  private static final String UNIX_ATTRIBUTES = "unix:size,lastModifiedTime,lastAccessTime,creationTime,"
+                                              + "isRegularFile,isDirectory,isSymbolicLink,isOther,fileKey,"
+                                              + "permissions,ino,dev,nlink,uid,gid,mode";
+  private static volatile boolean unixViewSupported = true;  // Set false the first time "unix:" fails
+
+  private final Path path;
+  private final LinkOption[] linkOptions;  // What we read with, owner() and group() use them too
+  private final long size;
+  private final FileTime lastModifiedTime;
+  private final FileTime lastAccessTime;
+  private final FileTime creationTime;
+  private final boolean isRegularFile;
+  private final boolean isDirectory;
+  private final boolean isSymbolicLink;
+  private final boolean isOther;
+  private final Object fileKey;
+  private final Set<PosixFilePermission> permissions;
+  private final long inode;
+  private final long device;
+  private final long numberOfLinks;
+  private final int uid;
+  private final int gid;
+  private final int mode;
+  private UserPrincipal owner;
+  private GroupPrincipal group;
+  private boolean isFollowedLink;
+
+  // Read the attributes (one call), options are passed on to Files.readAttributes
+  static UnixAttributes read(Path path, LinkOption... options) throws IOException {
+    if (unixViewSupported) {
+      try {
+        return new UnixAttributes(path, options, Files.readAttributes(path, UNIX_ATTRIBUTES, options));
+      } catch (UnsupportedOperationException | IllegalArgumentException e) {
+        unixViewSupported = false;
+      }
+    }
+    return new UnixAttributes(path, options, Files.readAttributes(path, PosixFileAttributes.class, options));
+  }
+
+  // Read the attributes following links; when the path is a link we read the target (two calls)
+  //   and isFollowedLink() is true
+  static UnixAttributes readFollowingLinks(Path path) throws IOException {
+    UnixAttributes unixAttributes = read(path, LinkOption.NOFOLLOW_LINKS);
+    if (unixAttributes.isSymbolicLink()) {
+      unixAttributes = read(path);
+      unixAttributes.isFollowedLink = true;
+    }
+    return unixAttributes;
+  }
+
+  @SuppressWarnings("unchecked")
+  private UnixAttributes(Path path, LinkOption[] linkOptions, Map<String, Object> attributeMap) {
+    this.path             = path;
+    this.linkOptions      = linkOptions;
+    this.size             = (Long) attributeMap.get("size");
+    this.lastModifiedTime = (FileTime) attributeMap.get("lastModifiedTime");
+    this.lastAccessTime   = (FileTime) attributeMap.get("lastAccessTime");
+    this.creationTime     = (FileTime) attributeMap.get("creationTime");
+    this.isRegularFile    = (Boolean) attributeMap.get("isRegularFile");
+    this.isDirectory      = (Boolean) attributeMap.get("isDirectory");
+    this.isSymbolicLink   = (Boolean) attributeMap.get("isSymbolicLink");
+    this.isOther          = (Boolean) attributeMap.get("isOther");
+    this.fileKey          = attributeMap.get("fileKey");
+    this.permissions      = (Set<PosixFilePermission>) attributeMap.get("permissions");
+    this.inode            = ((Number) attributeMap.get("ino")).longValue();
+    this.device           = ((Number) attributeMap.get("dev")).longValue();
+    this.numberOfLinks    = ((Number) attributeMap.get("nlink")).longValue();
+    this.uid              = ((Number) attributeMap.get("uid")).intValue();
+    this.gid              = ((Number) attributeMap.get("gid")).intValue();
+    this.mode             = ((Number) attributeMap.get("mode")).intValue();
+  }
+
+  private UnixAttributes(Path path, LinkOption[] linkOptions, PosixFileAttributes posixFileAttributes) {
+    this.path             = path;
+    this.linkOptions      = linkOptions;
+    this.size             = posixFileAttributes.size();
+    this.lastModifiedTime = posixFileAttributes.lastModifiedTime();
+    this.lastAccessTime   = posixFileAttributes.lastAccessTime();
+    this.creationTime     = posixFileAttributes.creationTime();
+    this.isRegularFile    = posixFileAttributes.isRegularFile();
+    this.isDirectory      = posixFileAttributes.isDirectory();
+    this.isSymbolicLink   = posixFileAttributes.isSymbolicLink();
+    this.isOther          = posixFileAttributes.isOther();
+    this.fileKey          = posixFileAttributes.fileKey();
+    this.permissions      = posixFileAttributes.permissions();
+    this.owner            = posixFileAttributes.owner();
+    this.group            = posixFileAttributes.group();
+    this.inode            = -1;
+    this.device           = -1;
+    this.numberOfLinks    = -1;
+    this.uid              = -1;
+    this.gid              = -1;
+    this.mode             = -1;
+  }
+
+  @Override
+  public FileTime lastModifiedTime() {
+    return lastModifiedTime;
+  }
+
+  @Override
+  public FileTime lastAccessTime() {
+    return lastAccessTime;
+  }
+
+  @Override
+  public FileTime creationTime() {
+    return creationTime;
+  }
+
+  @Override
+  public boolean isRegularFile() {
+    return isRegularFile;
+  }
+
+  @Override
+  public boolean isDirectory() {
+    return isDirectory;
+  }
+
+  @Override
+  public boolean isSymbolicLink() {
+    return isSymbolicLink;
+  }
+
+  @Override
+  public boolean isOther() {
+    return isOther;
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public Object fileKey() {
+    return fileKey;
+  }
+
+  @Override
+  public Set<PosixFilePermission> permissions() {
+    return permissions;
+  }
+
+  // Looked up the first time we're asked (null if it can't be read)
+  @Override
+  public synchronized UserPrincipal owner() {
+    if (owner == null) {
+      try {
+        owner = Files.getOwner(path, linkOptions);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return owner;
+  }
+
+  // Looked up the first time we're asked (null if it can't be read)
+  @Override
+  public synchronized GroupPrincipal group() {
+    if (group == null) {
+      try {
+        group = Files.readAttributes(path, PosixFileAttributes.class, linkOptions).group();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return group;
+  }
+
+  // These are -1 when the "unix" view wasn't available
+  long getInode() {
+    return inode;
+  }
+
+  long getDevice() {
+    return device;
+  }
+
+  long getNumberOfLinks() {
+    return numberOfLinks;
+  }
+
+  int getUid() {
+    return uid;
+  }
+
+  int getGid() {
+    return gid;
+  }
+
+  int getMode() {
+    return mode;
+  }
+
+  // True when the path is a link and these are the attributes of it's target
+  boolean isFollowedLink() {
+    return isFollowedLink;
+  }
+}
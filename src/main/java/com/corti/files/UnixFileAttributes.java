@@ -2,47 +2,132 @@ package com.corti.files;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.GroupPrincipal;
-import java.nio.file.attribute.PosixFileAttributeView;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.nio.file.attribute.UserPrincipal;
 import java.util.Set;
 
+import com.corti.files.checksum.CheckSumCache;
+
+/**
+ * FileAttributes for posix file systems.  The attributes are read with one bulk "unix:" call (see
+ *   UnixAttributes) so along with the basic and posix attributes we get the inode, device, number
+ *   of links, uid, gid and mode.  The absolute path is the canonical one (links resolved, in the
+ *   parent directories too); the walkers pass the real path of the directory they listed so the os
+ *   is only asked for it when the file's a link.
+ * When the caller passes in attributes that aren't posix ones the posix view is read the first time
+ *   the permissions, owner or group are asked for.
+ * The unix only values aren't serialized (they don't mean anything on another machine) and are -1 when
+ *   the file system doesn't have the "unix" view.
+ */
 public class UnixFileAttributes extends FileAttributes {
+  private static final long serialVersionUID = 605583057642261851L;
   private transient Set<PosixFilePermission> permissions;
   transient PosixFileAttributes posixFileAttributes;
+  private transient long inode         = -1;
+  private transient long device        = -1;
+  private transient long numberOfLinks = -1;
+  private transient int uid            = -1;
+  private transient int gid            = -1;
+  private transient int mode           = -1;
   
   public UnixFileAttributes(String fileNameAndPath) throws Exception {
-    super(fileNameAndPath);
-    init();
+    this(fileNameAndPath, UnixAttributes.readFollowingLinks(Paths.get(fileNameAndPath)));
+  }
+  
+  // For the constructors that only have the path; there's no real parent path so the absolute path is
+  //   the canonical path, same as when the attributes weren't read in bulk
+  private UnixFileAttributes(String fileNameAndPath, UnixAttributes unixAttributes) {
+    super(fileNameAndPath, unixAttributes);
+    setFromPosixFileAttributes(unixAttributes);
   }
   
   public UnixFileAttributes(Path path) throws Exception {
-    super(path);
-    init();    
+    this(path, UnixAttributes.readFollowingLinks(path));
+  }
+  
+  // Attributes already read by the caller (see FileAttributes(Path, BasicFileAttributes)), if
+  //   they're posix attributes we don't need to go back to the file system
+  public UnixFileAttributes(Path path, BasicFileAttributes basicFileAttributes) throws Exception {
+    super(path, basicFileAttributes);
+    if (basicFileAttributes instanceof PosixFileAttributes) {
+      setFromPosixFileAttributes((PosixFileAttributes) basicFileAttributes);
+    }
   }
   
   public UnixFileAttributes() throws Exception {
     super();
-    init();
   }
   
-  private void init() throws IOException {
-    if (path != null) {
-      permissions = Files.getPosixFilePermissions(path);
-      posixFileAttributes = Files.getFileAttributeView(path, PosixFileAttributeView.class)
-          .readAttributes();
+  // Read the posix view if we don't have it yet, null if there's no path or it can't be read
+  private synchronized PosixFileAttributes loadPosixFileAttributes() {
+    if (posixFileAttributes == null && path != null) {
+      try {
+        posixFileAttributes = Files.readAttributes(path, PosixFileAttributes.class);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return posixFileAttributes;
+  }
+
+  // Keep the posix attributes, when they came from the bulk read they have the unix values too
+  private void setFromPosixFileAttributes(PosixFileAttributes posixFileAttributes) {
+    this.posixFileAttributes = posixFileAttributes;
+    if (posixFileAttributes instanceof UnixAttributes) {
+      UnixAttributes unixAttributes = (UnixAttributes) posixFileAttributes;
+      inode         = unixAttributes.getInode();
+      device        = unixAttributes.getDevice();
+      numberOfLinks = unixAttributes.getNumberOfLinks();
+      uid           = unixAttributes.getUid();
+      gid           = unixAttributes.getGid();
+      mode          = unixAttributes.getMode();
     }
   }
 
+  public long getInode() {
+    return inode;
+  }
+
+  public long getDevice() {
+    return device;
+  }
+
+  public long getNumberOfLinks() {
+    return numberOfLinks;
+  }
+
+  public int getUid() {
+    return uid;
+  }
+
+  public int getGid() {
+    return gid;
+  }
+
+  public int getMode() {
+    return mode;
+  }
+
+  // The device and inode make the key good even if the file's renamed
+  @Override
+  protected CheckSumCache.Key getCheckSumCacheKey(String algorithm) {
+    return CheckSumCache.Key.of(device, inode, getPath(), getSizeInBytes(), getLastModifiedTime(), algorithm);
+  }
+
   public Set<PosixFilePermission> getPermissions() {
+    if (permissions == null && loadPosixFileAttributes() != null) {
+      permissions = posixFileAttributes.permissions();
+    }
     return permissions;
   }
 
   public PosixFileAttributes getPosixFileAttributes() {
-    return posixFileAttributes;
+    return loadPosixFileAttributes();
   }
 
   public void setPermissions(Set<PosixFilePermission> permissions) {
@@ -54,18 +139,18 @@ public class UnixFileAttributes extends FileAttributes {
   }
   
   public String getOwner() throws IOException {
-    UserPrincipal userPrincipal = posixFileAttributes.owner();
+    UserPrincipal userPrincipal = getPosixFileAttributes().owner();
     return userPrincipal.getName();
   }
   
   public String getGroup() throws IOException {
-    GroupPrincipal groupPrincipal = posixFileAttributes.group();
+    GroupPrincipal groupPrincipal = getPosixFileAttributes().group();
     return groupPrincipal.getName();
   }
 
   @Override
   public String toString() {
-    return super.toString() + " UnixFileAttributes [permissions=" + PosixFilePermissions.toString(permissions) + "]";
+    return super.toString() + " UnixFileAttributes [permissions=" + PosixFilePermissions.toString(getPermissions()) + "]";
   }
 
 }
@@ -0,0 +1,119 @@
+package com.corti.files.checksum;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * CRC32C (the Castagnoli polynomial, what iSCSI, ext4 and most storage systems use) as a
+ *   MessageDigest so it can be used anywhere CheckSum takes an algorithm name ("CRC32C").  It isn't
+ *   a cryptographic hash, it's for spotting files that changed, and it's many times faster than
+ *   SHA-256.  java.util.zip.CRC32C is java 9+, this is slicing-by-8 so it runs on 8.
+ * The digest is the 4 byte crc, most significant byte first (so the hex is the usual %08x).
+ */
+public class CRC32CMessageDigest extends MessageDigest implements Cloneable {
+  public static final String ALGORITHM = "CRC32C";
+  private static final int POLYNOMIAL = 0x82F63B78;  // Reversed Castagnoli
+  private static final int[] TABLE = buildTable();   // 8 tables of 256, table k is at k * 256
+
+  private int crc = 0xffffffff;
+
+  public CRC32CMessageDigest() {
+    super(ALGORITHM);
+  }
+
+  private static int[] buildTable() {
+    int[] table = new int[8 * 256];
+    for (int i = 0; i < 256; i++) {
+      int value = i;
+      for (int bit = 0; bit < 8; bit++) {
+        value = ((value & 1) != 0 ? (value >>> 1) ^ POLYNOMIAL : value >>> 1);
+      }
+      table[i] = value;
+    }
+    for (int k = 1; k < 8; k++) {
+      for (int i = 0; i < 256; i++) {
+        int previous = table[(k - 1) * 256 + i];
+        table[k * 256 + i] = (previous >>> 8) ^ table[previous & 0xff];
+      }
+    }
+    return table;
+  }
+
+  // Eight bytes at once, value has them little endian (the first byte is the low byte)
+  private static int update8(int crc, long value) {
+    int low  = (int) value ^ crc;
+    int high = (int) (value >>> 32);
+    return TABLE[7 * 256 + (low & 0xff)]          ^ TABLE[6 * 256 + ((low >>> 8) & 0xff)] ^
+           TABLE[5 * 256 + ((low >>> 16) & 0xff)] ^ TABLE[4 * 256 + (low >>> 24)] ^
+           TABLE[3 * 256 + (high & 0xff)]         ^ TABLE[2 * 256 + ((high >>> 8) & 0xff)] ^
+           TABLE[1 * 256 + ((high >>> 16) & 0xff)] ^ TABLE[high >>> 24];
+  }
+
+  private static int update1(int crc, int theByte) {
+    return (crc >>> 8) ^ TABLE[(crc ^ theByte) & 0xff];
+  }
+
+  @Override
+  protected void engineUpdate(byte input) {
+    crc = update1(crc, input);
+  }
+
+  @Override
+  protected void engineUpdate(byte[] input, int offset, int length) {
+    int end = offset + length;
+    int theCrc = crc;
+    for (; offset + 8 <= end; offset += 8) {
+      theCrc = update8(theCrc, getLongLittleEndian(input, offset));
+    }
+    for (; offset < end; offset++) {
+      theCrc = update1(theCrc, input[offset]);
+    }
+    crc = theCrc;
+  }
+
+  // Direct buffers (what CheckSum reads into) are read a long at a time instead of being copied
+  @Override
+  protected void engineUpdate(ByteBuffer input) {
+    if (input.hasArray()) {
+      engineUpdate(input.array(), input.arrayOffset() + input.position(), input.remaining());
+      input.position(input.limit());
+      return;
+    }
+    ByteOrder originalOrder = input.order();
+    input.order(ByteOrder.LITTLE_ENDIAN);
+    int theCrc = crc;
+    while (input.remaining() >= 8) {
+      theCrc = update8(theCrc, input.getLong());
+    }
+    while (input.hasRemaining()) {
+      theCrc = update1(theCrc, input.get());
+    }
+    crc = theCrc;
+    input.order(originalOrder);
+  }
+
+  @Override
+  protected byte[] engineDigest() {
+    int value = ~crc;
+    reset();
+    return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+  }
+
+  @Override
+  protected int engineGetDigestLength() {
+    return 4;
+  }
+
+  @Override
+  protected void engineReset() {
+    crc = 0xffffffff;
+  }
+
+  static long getLongLittleEndian(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xffL)             | (bytes[offset + 1] & 0xffL) << 8  |
+           (bytes[offset + 2] & 0xffL) << 16   | (bytes[offset + 3] & 0xffL) << 24 |
+           (bytes[offset + 4] & 0xffL) << 32   | (bytes[offset + 5] & 0xffL) << 40 |
+           (bytes[offset + 6] & 0xffL) << 48   | (bytes[offset + 7] & 0xffL) << 56;
+  }
+}
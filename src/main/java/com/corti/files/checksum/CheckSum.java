@@ -1,10 +1,20 @@
 package com.corti.files.checksum;
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import java.io.File;
 
@@ -21,8 +31,32 @@ import java.io.File;
  *   File file - similar to above but pass in file object
  *   String fileName, String algorithm - you pass filename and algorithm to use
  *   File file, String algorithm - you know what this is :) *
+ * The file is read with a FileChannel into a large direct buffer (setBufferSize, default 1MB), the
+ *   buffers are pooled so each thread reuses one rather than allocating per file.  The MessageDigest
+ *   for an algorithm is cloned from a prototype instead of looked up every time.  Files of at least
+ *   setMemoryMapThreshold bytes are memory mapped instead of read (off by default).
+ * When a CheckSumCache is set (CheckSumCache.setDefault) files that haven't changed since they were
+ *   last hashed aren't read at all.
+ * getFileDigests(path, "MD5", "SHA-256") gives the digests for several algorithms from one read of
+ *   the file, each buffer read is fed to all the MessageDigest's.
+ * Besides the java ones there are two fast non-cryptographic algorithms for change detection, CRC32C
+ *   and XXH64 (see CRC32CMessageDigest and XXHash64MessageDigest), they're several times faster than
+ *   SHA-256 so hashing keeps up with the disk.
+ * For very big files see MerkleTree, the blocks of the file are hashed in parallel.
  */
 public class CheckSum {
+  public static final String CRC32C = CRC32CMessageDigest.ALGORITHM;
+  public static final String XXH64  = XXHash64MessageDigest.ALGORITHM;
+
+  private static final int MIN_BUFFER_SIZE = 4096;
+  private static final long MAP_CHUNK_SIZE = 256L * 1024 * 1024;  // Most we map at one time
+  private static final int MAX_POOLED_BUFFERS = Runtime.getRuntime().availableProcessors() * 2;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static volatile int bufferSize = 1024 * 1024;
+  private static volatile long memoryMapThreshold = Long.MAX_VALUE;
+  private static final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+  private static final Map<String, MessageDigest> prototypeDigests = new ConcurrentHashMap<String, MessageDigest>();
 
   File file2Process;
   String algorithmName;
@@ -67,41 +101,261 @@ public class CheckSum {
   
   // Passed in a path and algorithm
   public String getFileCheckSum(Path path, String algorithm)  throws IOException, NoSuchAlgorithmException{
-    return getFileCheckSum(path.toFile(), algorithm);
+    return toHex(getFileDigest(path, algorithm));
   }  
   
   // Method to return files check sum, algorithm name should be MD5, SHA-1 or SHA-256
   public String getFileCheckSum(File file2Process, String algorithmName) throws IOException, NoSuchAlgorithmException{
-    // Get message digest
-    MessageDigest messageDigest = MessageDigest.getInstance(algorithmName);
-    
-    // Get file input stream for reading the file content
-    FileInputStream fis = new FileInputStream(file2Process);
-
-    // Create byte array to read data in chunks
-    byte[] byteArray = new byte[1024];
-    int bytesCount = 0; 
-
-    // Read file data and update in message digest
-    while ((bytesCount = fis.read(byteArray)) != -1) {
-      messageDigest.update(byteArray, 0, bytesCount);
-    };
-
-    // close the stream; We don't need it now.
-    fis.close();
-
-    // Get the hash's bytes
-    byte[] bytes = messageDigest.digest();
-
-    // This bytes[] has bytes in decimal format;
-    // Convert it to hexadecimal format
-    StringBuilder sb = new StringBuilder();
-    for(int i=0; i< bytes.length ;i++)
-    {
-      sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
+    return getFileCheckSum(file2Process.toPath(), algorithmName);
+  }
+
+  // Same as above, the key (see CheckSumCache.Key.of) saves reading the file's attributes again when
+  //   there's a CheckSumCache
+  public static String getFileCheckSumValue(Path path, String algorithm, CheckSumCache.Key key) throws NoSuchAlgorithmException, IOException {
+    CheckSumCache checkSumCache = CheckSumCache.getDefault();
+    if (checkSumCache == null) return toHex(computeFileDigest(path, algorithm));
+    return toHex(checkSumCache.getFileDigest(path, algorithm, key));
+  }
+
+  // Return the digest bytes for the file, from the CheckSumCache if there's one and it has it
+  public static byte[] getFileDigest(Path path, String algorithm) throws IOException, NoSuchAlgorithmException {
+    CheckSumCache checkSumCache = CheckSumCache.getDefault();
+    if (checkSumCache != null) return checkSumCache.getFileDigest(path, algorithm);
+    return computeFileDigest(path, algorithm);
+  }
+
+  // Same as above when you have the key for the cache (see CheckSumCache.Key.of)
+  public static byte[] getFileDigest(Path path, String algorithm, CheckSumCache.Key key) throws IOException, NoSuchAlgorithmException {
+    CheckSumCache checkSumCache = CheckSumCache.getDefault();
+    if (checkSumCache != null) return checkSumCache.getFileDigest(path, algorithm, key);
+    return computeFileDigest(path, algorithm);
+  }
+
+  // Read the file and return it's digest bytes (the cache isn't used)
+  public static byte[] computeFileDigest(Path path, String algorithm) throws IOException, NoSuchAlgorithmException {
+    MessageDigest messageDigest = getMessageDigest(algorithm);
+    readFile(path, new MessageDigest[] { messageDigest });
+    return messageDigest.digest();
+  }
+
+  // Digests for each of the algorithms from one read of the file, the map is algorithm -> digest bytes
+  //   in the order passed; from the CheckSumCache if there's one and it has them
+  public static Map<String, byte[]> getFileDigests(Path path, String... algorithms) throws IOException, NoSuchAlgorithmException {
+    CheckSumCache checkSumCache = CheckSumCache.getDefault();
+    if (checkSumCache != null && algorithms.length > 0) {
+      return checkSumCache.getFileDigests(path, CheckSumCache.Key.forFile(path, algorithms[0]), algorithms);
+    }
+    return computeFileDigests(path, algorithms);
+  }
+
+  // Same as above, the key (any algorithm, see CheckSumCache.Key.of) saves reading the file's
+  //   attributes again when there's a CheckSumCache
+  public static Map<String, byte[]> getFileDigests(Path path, CheckSumCache.Key key, String... algorithms) throws IOException, NoSuchAlgorithmException {
+    CheckSumCache checkSumCache = CheckSumCache.getDefault();
+    if (checkSumCache != null) return checkSumCache.getFileDigests(path, key, algorithms);
+    return computeFileDigests(path, algorithms);
+  }
+
+  // Read the file once and return the digest for each algorithm (the cache isn't used)
+  public static Map<String, byte[]> computeFileDigests(Path path, String... algorithms) throws IOException, NoSuchAlgorithmException {
+    Map<String, MessageDigest> messageDigests = new LinkedHashMap<String, MessageDigest>();
+    for (String algorithm : algorithms) {
+      if (messageDigests.containsKey(algorithm) == false) messageDigests.put(algorithm, getMessageDigest(algorithm));
+    }
+    Map<String, byte[]> digests = new LinkedHashMap<String, byte[]>();
+    if (messageDigests.isEmpty()) return digests;
+
+    readFile(path, messageDigests.values().toArray(new MessageDigest[messageDigests.size()]));
+    for (Map.Entry<String, MessageDigest> entry : messageDigests.entrySet()) {
+      digests.put(entry.getKey(), entry.getValue().digest());
+    }
+    return digests;
+  }
+
+  // Digest of just the first and last 'length' bytes of the file (all of it if it's no more than twice
+  //   that), it's for telling apart files of the same size without reading all of them
+  public static byte[] computeHeadAndTailDigest(Path path, String algorithm, int length) throws IOException, NoSuchAlgorithmException {
+    MessageDigest messageDigest = getMessageDigest(algorithm);
+    ByteBuffer buffer = takeBuffer();
+    try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long fileSize = fileChannel.size();
+      if (fileSize <= 2L * length) {
+        readRange(fileChannel, 0, fileSize, buffer, messageDigest);
+      }
+      else {
+        readRange(fileChannel, 0, length, buffer, messageDigest);
+        readRange(fileChannel, fileSize - length, fileSize, buffer, messageDigest);
+      }
+    } finally {
+      returnBuffer(buffer);
+    }
+    return messageDigest.digest();
+  }
+
+  // Feed bytes position up to end of the file to the digest, the channel's position isn't used so
+  //   several threads can read different ranges of it (MerkleTree does)
+  static void digestRange(FileChannel fileChannel, long position, long end, MessageDigest messageDigest) throws IOException {
+    ByteBuffer buffer = takeBuffer();
+    try {
+      readRange(fileChannel, position, end, buffer, messageDigest);
+    } finally {
+      returnBuffer(buffer);
+    }
+  }
+
+  private static void readRange(FileChannel fileChannel, long position, long end, ByteBuffer buffer,
+                                MessageDigest messageDigest) throws IOException {
+    while (position < end) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      int bytesRead = fileChannel.read(buffer, position);
+      if (bytesRead < 0) return;  // File got shorter
+      position += bytesRead;
+      buffer.flip();
+      messageDigest.update(buffer);
+    }
+  }
+
+  // Feed the file's contents to the digests
+  private static void readFile(Path path, MessageDigest[] messageDigests) throws IOException {
+    try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long fileSize = fileChannel.size();
+      if (fileSize >= memoryMapThreshold) {
+        for (long position = 0; position < fileSize; position += MAP_CHUNK_SIZE) {
+          MappedByteBuffer mappedByteBuffer = 
+              fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK_SIZE, fileSize - position));
+          update(messageDigests, mappedByteBuffer);
+        }
+      }
+      else {
+        ByteBuffer buffer = takeBuffer();
+        try {
+          while (fileChannel.read(buffer) != -1) {
+            buffer.flip();
+            update(messageDigests, buffer);
+            buffer.clear();
+          }
+        } finally {
+          returnBuffer(buffer);
+        }
+      }
+    }
+  }
+
+  // Update each digest with the bytes left in the buffer, update() moves the position to the limit
+  //   so it's put back for the next one
+  private static void update(MessageDigest[] messageDigests, ByteBuffer buffer) {
+    int position = buffer.position();
+    for (int i = 0; i < messageDigests.length; i++) {
+      if (i > 0) buffer.position(position);
+      messageDigests[i].update(buffer);
+    }
+  }
+
+  // Algorithms from the list that aren't in the map
+  static String[] getMissingAlgorithms(Map<String, byte[]> digests, String... algorithms) {
+    List<String> missing = new ArrayList<String>();
+    for (String algorithm : algorithms) {
+      if (digests.containsKey(algorithm) == false && missing.contains(algorithm) == false) missing.add(algorithm);
+    }
+    return missing.toArray(new String[missing.size()]);
+  }
+
+  // Digest for the algorithm, it's a clone of the prototype (when the provider supports clone); it
+  //   knows CRC32C and XXH64 too
+  public static MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+    MessageDigest prototype = prototypeDigests.get(algorithm);
+    if (prototype == null) {
+      prototype = newMessageDigest(algorithm);
+      prototypeDigests.put(algorithm, prototype);
+    }
+    try {
+      return (MessageDigest) prototype.clone();
+    } catch (CloneNotSupportedException e) {
+      return newMessageDigest(algorithm);
+    }
+  }
+
+  // Our own algorithms aren't registered with a security provider, the rest come from the jdk
+  private static MessageDigest newMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+    if (CRC32C.equalsIgnoreCase(algorithm)) return new CRC32CMessageDigest();
+    if (XXH64.equalsIgnoreCase(algorithm)) return new XXHash64MessageDigest();
+    return MessageDigest.getInstance(algorithm);
+  }
+
+  // Get a buffer from the pool (or a new one), it's cleared
+  private static ByteBuffer takeBuffer() {
+    ByteBuffer buffer;
+    while ((buffer = bufferPool.poll()) != null) {
+      if (buffer.capacity() == bufferSize) {
+        buffer.clear();
+        return buffer;
+      }
+      // It's the old size, drop it
+    }
+    return ByteBuffer.allocateDirect(bufferSize);
+  }
+
+  private static void returnBuffer(ByteBuffer buffer) {
+    if (buffer.capacity() == bufferSize && bufferPool.size() < MAX_POOLED_BUFFERS) bufferPool.offer(buffer);
+  }
+
+  // Bytes as a lowercase hex string
+  public static String toHex(byte[] bytes) {
+    return toHex(bytes, 0, bytes.length);
+  }
+
+  // Same as above for length bytes at offset (i.e. a digest in a column of them)
+  public static String toHex(byte[] bytes, int offset, int length) {
+    char[] hex = new char[length * 2];
+    for (int i = 0; i < length; i++) {
+      int value = bytes[offset + i];
+      hex[i * 2]     = HEX_DIGITS[(value >> 4) & 0x0f];
+      hex[i * 2 + 1] = HEX_DIGITS[value & 0x0f];
     }
+    return new String(hex);
+  }
+
+  // Back from lowercase hex to bytes, null if it isn't lowercase hex (so toHex(fromHex(s)) is always s)
+  public static byte[] fromHex(String hex) {
+    if (hex.length() == 0 || hex.length() % 2 != 0) return null;
+    byte[] bytes = new byte[hex.length() / 2];
+    return (parseHex(hex, bytes, 0) ? bytes : null);
+  }
+
+  // Parse the (even length) hex string into the bytes at offset, returns false if it isn't lowercase hex
+  public static boolean parseHex(String hex, byte[] bytes, int offset) {
+    for (int i = 0; i < hex.length(); i += 2) {
+      int high = hexValue(hex.charAt(i));
+      int low  = hexValue(hex.charAt(i + 1));
+      if (high < 0 || low < 0) return false;
+      bytes[offset + i / 2] = (byte) ((high << 4) | low);
+    }
+    return true;
+  }
+
+  private static int hexValue(char theChar) {
+    if (theChar >= '0' && theChar <= '9') return theChar - '0';
+    if (theChar >= 'a' && theChar <= 'f') return theChar - 'a' + 10;
+    return -1;
+  }
+
+  // Size of the read buffer, 1MB to 8MB is about right for big files
+  public static void setBufferSize(int bytes) {
+    if (bytes < MIN_BUFFER_SIZE) throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE);
+    bufferSize = bytes;
+  }
+
+  public static int getBufferSize() {
+    return bufferSize;
+  }
+
+  // Files of this size or bigger are memory mapped, Long.MAX_VALUE turns it off (the default)
+  public static void setMemoryMapThreshold(long bytes) {
+    memoryMapThreshold = bytes;
+  }
 
-    // return complete hash
-    return sb.toString();
+  public static long getMemoryMapThreshold() {
+    return memoryMapThreshold;
   }
 }
\ No newline at end of file
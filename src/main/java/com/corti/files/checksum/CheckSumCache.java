@@ -0,0 +1,388 @@
+package com.corti.files.checksum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Checksums we've already computed, kept on disk so the next scan doesn't have to read files that
+ *   haven't changed.  The key is the device, inode, size, modified time (nanoseconds when the os
+ *   has them) and algorithm; on a file system without inodes (windows) the absolute path is used
+ *   instead of the device and inode.
+ * Usage:
+ *   try (CheckSumCache checkSumCache = CheckSumCache.open(Paths.get("checksums.cache"))) {
+ *     CheckSumCache.setDefault(checkSumCache);   // CheckSum and FileAttributes.getCheckSumValue use it
+ *     ... scan ...
+ *   }
+ * The file is a log, each put() appends a record (length, the record, crc) so an update is either
+ *   all there or it's dropped when the file's opened (a crash part way through a write leaves a bad
+ *   tail, that's cut off).  Entries are kept in memory, the least recently used is dropped when there
+ *   are more than setMaxEntries(); compact() rewrites the file with just the live entries to a temp
+ *   file and moves it over the old one, that's done automatically when the log is mostly old records.
+ * A checksum that can't be written to the cache (disk full...) is still returned by the getFileDigest
+ *   methods, the error's just printed.
+ * All the methods are thread safe.
+ */
+public class CheckSumCache implements AutoCloseable {
+  private static final int MAGIC = 0x43534331;  // "CSC1"
+  private static final int VERSION = 1;
+  private static final int MAX_RECORD_LENGTH = 64 * 1024;
+  private static final int MIN_RECORDS_BEFORE_COMPACT = 1024;
+
+  private static volatile CheckSumCache defaultCache;
+
+  private final Path cacheFile;
+  private int maxEntries = 2000000;
+  private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<Key, byte[]>(1024, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+      return size() > maxEntries;
+    }
+  };
+  private DataOutputStream logStream;
+  private long recordsInLog;
+  private long hits;
+  private long misses;
+
+  private CheckSumCache(Path cacheFile) {
+    this.cacheFile = cacheFile;
+  }
+
+  // Open the cache (it's created if it isn't there)
+  public static CheckSumCache open(Path cacheFile) throws IOException {
+    CheckSumCache checkSumCache = new CheckSumCache(cacheFile);
+    checkSumCache.load();
+    return checkSumCache;
+  }
+
+  // The cache CheckSum and FileAttributes use, null (the default) for none
+  public static void setDefault(CheckSumCache checkSumCache) {
+    defaultCache = checkSumCache;
+  }
+
+  public static CheckSumCache getDefault() {
+    return defaultCache;
+  }
+
+  // ========================= L o o k u p s =========================
+
+  // The digest for the key, null if we don't have it
+  public synchronized byte[] get(Key key) {
+    byte[] digest = entries.get(key);
+    if (digest == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return digest.clone();
+  }
+
+  // Remember the digest, it's written to the log right away (see flush())
+  public synchronized void put(Key key, byte[] digest) throws IOException {
+    if (logStream == null) throw new IOException("Checksum cache log isn't open: " + cacheFile);
+    byte[] existing = entries.get(key);
+    if (existing != null && Arrays.equals(existing, digest)) return;
+    entries.put(key, digest.clone());
+    writeRecord(logStream, key, digest);
+    recordsInLog++;
+    if (recordsInLog > MIN_RECORDS_BEFORE_COMPACT && recordsInLog > 2L * entries.size()) compact();
+  }
+
+  // The digest for the file, from the cache when it hasn't changed, otherwise it's computed with
+  //   CheckSum and added to the cache
+  public byte[] getFileDigest(Path path, String algorithm) throws IOException, NoSuchAlgorithmException {
+    return getFileDigest(path, algorithm, Key.forFile(path, algorithm));
+  }
+
+  // Same as above when you already have the key (i.e. the attributes were read already)
+  public byte[] getFileDigest(Path path, String algorithm, Key key) throws IOException, NoSuchAlgorithmException {
+    byte[] digest = get(key);
+    if (digest == null) {
+      digest = CheckSum.computeFileDigest(path, algorithm);
+      putQuietly(key, digest);
+    }
+    return digest;
+  }
+
+  // Digests for several algorithms, the ones we don't have are computed with one read of the file;
+  //   the key can be for any of the algorithms (only the file part of it is used)
+  public Map<String, byte[]> getFileDigests(Path path, Key key, String... algorithms) throws IOException, NoSuchAlgorithmException {
+    Map<String, byte[]> digests = new LinkedHashMap<String, byte[]>();
+    for (String algorithm : algorithms) {
+      byte[] digest = get(key.withAlgorithm(algorithm));
+      if (digest != null) digests.put(algorithm, digest);
+    }
+    String[] missing = CheckSum.getMissingAlgorithms(digests, algorithms);
+    if (missing.length == 0) return digests;
+
+    Map<String, byte[]> computed = CheckSum.computeFileDigests(path, missing);
+    for (Map.Entry<String, byte[]> entry : computed.entrySet()) {
+      putQuietly(key.withAlgorithm(entry.getKey()), entry.getValue());
+    }
+    // Back in the order asked for
+    Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+    for (String algorithm : algorithms) {
+      result.put(algorithm, digests.containsKey(algorithm) ? digests.get(algorithm) : computed.get(algorithm));
+    }
+    return result;
+  }
+
+  // put() for a digest we just computed, not being able to cache it isn't a reason to lose it
+  private void putQuietly(Key key, byte[] digest) {
+    try {
+      put(key, digest);
+    } catch (IOException e) {
+      System.out.println("Checksum not cached, error writing " + cacheFile + ": " + e.getMessage());
+    }
+  }
+
+  // ========================= M a i n t e n a n c e =========================
+
+  // Most entries kept, the least recently used go first
+  public synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = Math.max(1, maxEntries);
+    while (entries.size() > this.maxEntries) {
+      entries.remove(entries.keySet().iterator().next());
+    }
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  // Make sure the records written so far are on disk
+  public synchronized void flush() throws IOException {
+    if (logStream != null) logStream.flush();
+  }
+
+  // Rewrite the file with only the live entries, the new file replaces the old one in one move so
+  //   there's always a good file there.  The log's closed while that happens (windows won't replace
+  //   an open file) and opened again after, so if the rewrite fails we keep appending to the old one
+  public synchronized void compact() throws IOException {
+    if (logStream == null) throw new IOException("Checksum cache log isn't open: " + cacheFile);
+    logStream.close();
+    logStream = null;
+    Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+    boolean moved = false;
+    try {
+      try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile.toFile())) {
+        DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 65536));
+        dataOutputStream.writeInt(MAGIC);
+        dataOutputStream.writeInt(VERSION);
+        for (Map.Entry<Key, byte[]> entry : entries.entrySet()) {
+          writeRecord(dataOutputStream, entry.getKey(), entry.getValue());
+        }
+        dataOutputStream.flush();
+        fileOutputStream.getFD().sync();
+      }
+      try {
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+      moved = true;
+      recordsInLog = entries.size();
+    } finally {
+      if (moved == false) {
+        try {
+          Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+          // Leave it, it's overwritten next time
+        }
+      }
+      openLog();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (defaultCache == this) defaultCache = null;
+    if (logStream != null) {
+      logStream.close();
+      logStream = null;
+    }
+  }
+
+  // ========================= F i l e =========================
+
+  // Read the records into memory; a bad or partial record ends the log, the file's cut off there
+  private void load() throws IOException {
+    long goodLength = 0;
+    if (Files.exists(cacheFile)) {
+      try (InputStream inputStream = Files.newInputStream(cacheFile);
+           DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(inputStream, 65536))) {
+        if (dataInputStream.readInt() != MAGIC || dataInputStream.readInt() != VERSION) {
+          throw new IOException("Not a checksum cache file: " + cacheFile);
+        }
+        goodLength = 8;
+        while (true) {
+          int recordLength = dataInputStream.readInt();
+          if (recordLength <= 0 || recordLength > MAX_RECORD_LENGTH) break;
+          byte[] record = new byte[recordLength];
+          dataInputStream.readFully(record);
+          CRC32 crc32 = new CRC32();
+          crc32.update(record, 0, recordLength);
+          if (dataInputStream.readInt() != (int) crc32.getValue()) break;
+          readRecord(record);
+          recordsInLog++;
+          goodLength += 4 + recordLength + 4;
+        }
+      } catch (EOFException e) {
+        // End of the log (maybe a partial record)
+      }
+    }
+
+    if (goodLength == 0) {
+      try (DataOutputStream dataOutputStream = new DataOutputStream(Files.newOutputStream(cacheFile))) {
+        dataOutputStream.writeInt(MAGIC);
+        dataOutputStream.writeInt(VERSION);
+      }
+    }
+    else {
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(cacheFile.toFile(), "rw")) {
+        if (randomAccessFile.length() > goodLength) randomAccessFile.setLength(goodLength);
+      }
+    }
+    openLog();
+  }
+
+  private void openLog() throws IOException {
+    logStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile.toFile(), true), 65536));
+  }
+
+  private void readRecord(byte[] record) throws IOException {
+    DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(record));
+    long device         = dataInputStream.readLong();
+    long inode          = dataInputStream.readLong();
+    long size           = dataInputStream.readLong();
+    long lastModified   = dataInputStream.readLong();
+    String algorithm    = dataInputStream.readUTF();
+    String absolutePath = dataInputStream.readUTF();
+    byte[] digest       = new byte[dataInputStream.readUnsignedShort()];
+    dataInputStream.readFully(digest);
+    entries.put(new Key(device, inode, absolutePath, size, lastModified, algorithm), digest);
+  }
+
+  private static void writeRecord(DataOutputStream dataOutputStream, Key key, byte[] digest) throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(96);
+    DataOutputStream recordStream = new DataOutputStream(byteArrayOutputStream);
+    recordStream.writeLong(key.device);
+    recordStream.writeLong(key.inode);
+    recordStream.writeLong(key.size);
+    recordStream.writeLong(key.lastModified);
+    recordStream.writeUTF(key.algorithm);
+    recordStream.writeUTF(key.absolutePath);
+    recordStream.writeShort(digest.length);
+    recordStream.write(digest);
+    byte[] record = byteArrayOutputStream.toByteArray();
+
+    CRC32 crc32 = new CRC32();
+    crc32.update(record, 0, record.length);
+    dataOutputStream.writeInt(record.length);
+    dataOutputStream.write(record);
+    dataOutputStream.writeInt((int) crc32.getValue());
+  }
+
+  // ========================= K e y =========================
+
+  // What a cached digest is for; device and inode are -1 when we don't have them, then the absolute
+  //   path is part of the key (otherwise it's "")
+  public static final class Key {
+    private final long device;
+    private final long inode;
+    private final String absolutePath;
+    private final long size;
+    private final long lastModified;  // Nanoseconds since the epoch
+    private final String algorithm;
+
+    private Key(long device, long inode, String absolutePath, long size, long lastModified, String algorithm) {
+      this.device       = device;
+      this.inode        = inode;
+      this.absolutePath = (absolutePath == null ? "" : absolutePath);
+      this.size         = size;
+      this.lastModified = lastModified;
+      this.algorithm    = algorithm;
+    }
+
+    // Key from attributes you already have, pass -1 for device and inode if you don't have them
+    public static Key of(long device, long inode, Path path, long size, FileTime lastModifiedTime, String algorithm) {
+      boolean haveInode = (device != -1 && inode != -1);
+      return new Key(haveInode ? device : -1, haveInode ? inode : -1,
+                     haveInode ? "" : path.toAbsolutePath().normalize().toString(),
+                     size, lastModifiedTime.to(TimeUnit.NANOSECONDS), algorithm);
+    }
+
+    // Key for the file, it's attributes are read (links are followed)
+    public static Key forFile(Path path, String algorithm) throws IOException {
+      try {
+        Map<String, Object> attributes = Files.readAttributes(path, "unix:dev,ino,size,lastModifiedTime");
+        return of(((Number) attributes.get("dev")).longValue(), ((Number) attributes.get("ino")).longValue(),
+                  path, (Long) attributes.get("size"), (FileTime) attributes.get("lastModifiedTime"), algorithm);
+      } catch (UnsupportedOperationException | IllegalArgumentException e) {
+        BasicFileAttributes basicFileAttributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return of(-1, -1, path, basicFileAttributes.size(), basicFileAttributes.lastModifiedTime(), algorithm);
+      }
+    }
+
+    // Same file, different algorithm
+    public Key withAlgorithm(String algorithm) {
+      if (this.algorithm.equals(algorithm)) return this;
+      return new Key(device, inode, absolutePath, size, lastModified, algorithm);
+    }
+
+    public String getAlgorithm() {
+      return algorithm;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (obj instanceof Key == false) return false;
+      Key other = (Key) obj;
+      return device == other.device && inode == other.inode && size == other.size &&
+             lastModified == other.lastModified && algorithm.equals(other.algorithm) &&
+             absolutePath.equals(other.absolutePath);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = Long.hashCode(device);
+      result = 31 * result + Long.hashCode(inode);
+      result = 31 * result + Long.hashCode(size);
+      result = 31 * result + Long.hashCode(lastModified);
+      result = 31 * result + algorithm.hashCode();
+      result = 31 * result + absolutePath.hashCode();
+      return result;
+    }
+  }
+}
@@ -0,0 +1,363 @@
+package com.corti.files.checksum;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.corti.files.ScanExecutors;
+
+/**
+ * Block hashes for a file, for the really big ones (i.e. a 200GB VM image) where hashing the whole
+ *   file as one stream keeps one core busy for minutes and only tells you "changed" or not.  The
+ *   file is cut into fixed size blocks, the blocks are hashed in parallel and combined into a Merkle
+ *   root; comparing two trees gives the byte ranges that changed (getChangedRanges()).
+ * The root is:
+ *   leaf = H(0x00 + block bytes), node = H(0x01 + left + right), an odd node at the end of a level
+ *   goes up as is; an empty file has one empty block.
+ * A Merkle "algorithm" name (getAlgorithmName("XXH64", blockSize) -> "MERKLE-67108864-XXH64") can be
+ *   used anywhere a checksum algorithm is, i.e. FileAttributes.setChecksumAlgorithm() or the
+ *   scanners' setChecksumAlgorithm(); then the file's checksum is the root and the FileAttributes
+ *   keeps the tree (FileAttributes.getMerkleTree()).
+ * Usage:
+ *   MerkleTree merkleTree = MerkleTree.compute(path, MerkleTree.getAlgorithmName(CheckSum.XXH64, MerkleTree.DEFAULT_BLOCK_SIZE));
+ *   for (MerkleTree.ByteRange byteRange : oldMerkleTree.getChangedRanges(merkleTree)) ...
+ * The blocks are hashed on a shared pool of setThreads() (default the number of cores) daemon
+ *   threads, or pass your own ExecutorService (and how many blocks to hash at once on it, by default
+ *   it's the executor's pool size).  The trees are immutable.
+ */
+public class MerkleTree {
+  public static final long DEFAULT_BLOCK_SIZE = 64L * 1024 * 1024;
+  private static final String PREFIX = "MERKLE-";
+  private static final byte LEAF = 0;
+  private static final byte NODE = 1;
+
+  private static volatile int threads = Runtime.getRuntime().availableProcessors();
+  private static ExecutorService executorService;
+
+  private final String algorithm;      // The one the blocks are hashed with (i.e. "XXH64")
+  private final long blockSize;
+  private final long size;             // Of the file
+  private final int digestLength;
+  private final byte[] blockDigests;   // numberOfBlocks * digestLength
+  private final byte[] root;
+
+  private MerkleTree(String algorithm, long blockSize, long size, int digestLength, byte[] blockDigests) throws NoSuchAlgorithmException {
+    this.algorithm    = algorithm;
+    this.blockSize    = blockSize;
+    this.size         = size;
+    this.digestLength = digestLength;
+    this.blockDigests = blockDigests;
+    this.root         = computeRoot();
+  }
+
+  // Name to use as a checksum algorithm, i.e. "MERKLE-67108864-SHA-256"
+  public static String getAlgorithmName(String algorithm, long blockSize) {
+    if (blockSize < 1) throw new IllegalArgumentException("Bad block size: " + blockSize);
+    return PREFIX + blockSize + "-" + algorithm;
+  }
+
+  // True if the checksum algorithm is a Merkle one (see getAlgorithmName)
+  public static boolean isMerkleAlgorithm(String algorithmName) {
+    return algorithmName != null && algorithmName.startsWith(PREFIX);
+  }
+
+  // Hash the file for the Merkle algorithm name, on the shared pool
+  public static MerkleTree compute(Path path, String algorithmName) throws IOException, NoSuchAlgorithmException {
+    int dash = algorithmName.indexOf('-', PREFIX.length());
+    if (isMerkleAlgorithm(algorithmName) == false || dash < 0) throw new NoSuchAlgorithmException("Not a Merkle algorithm: " + algorithmName);
+    long blockSize;
+    try {
+      blockSize = Long.parseLong(algorithmName.substring(PREFIX.length(), dash));
+    } catch (NumberFormatException e) {
+      throw new NoSuchAlgorithmException("Bad block size in: " + algorithmName);
+    }
+    return compute(path, algorithmName.substring(dash + 1), blockSize, getExecutorService());
+  }
+
+  // Hash the blocks of the file with the algorithm, the blocks are spread over the executor's threads
+  public static MerkleTree compute(Path path, String algorithm, long blockSize, ExecutorService executor) throws IOException, NoSuchAlgorithmException {
+    return compute(path, algorithm, blockSize, executor, getPoolSize(executor));
+  }
+
+  // Same as above with numberOfWorkers blocks hashed at the same time (one task each on the executor)
+  public static MerkleTree compute(Path path, String algorithm, long blockSize, ExecutorService executor,
+                                   int numberOfWorkers) throws IOException, NoSuchAlgorithmException {
+    if (blockSize < 1) throw new IllegalArgumentException("Bad block size: " + blockSize);
+    if (numberOfWorkers < 1) throw new IllegalArgumentException("Bad number of workers: " + numberOfWorkers);
+    int digestLength = getDigestLength(algorithm);
+    try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = fileChannel.size();
+      long numberOfBlocks = Math.max(1, (size + blockSize - 1) / blockSize);
+      if (numberOfBlocks * digestLength > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Block size too small for file: " + blockSize);
+      byte[] blockDigests = new byte[(int) numberOfBlocks * digestLength];
+
+      if (numberOfBlocks == 1) {
+        hashBlocks(fileChannel, algorithm, blockSize, size, digestLength, blockDigests, new AtomicInteger(0));
+      }
+      else {
+        AtomicInteger nextBlock = new AtomicInteger(0);
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        for (int i = 0; i < Math.min(numberOfWorkers, numberOfBlocks); i++) {
+          workers.add(executor.submit(() -> {
+            hashBlocks(fileChannel, algorithm, blockSize, size, digestLength, blockDigests, nextBlock);
+            return null;
+          }));
+        }
+        waitFor(workers, nextBlock, blockDigests.length / digestLength);
+      }
+      return new MerkleTree(algorithm, blockSize, size, digestLength, blockDigests);
+    }
+  }
+
+  // A worker, it takes blocks until there aren't any left
+  private static void hashBlocks(FileChannel fileChannel, String algorithm, long blockSize, long size, int digestLength,
+                                 byte[] blockDigests, AtomicInteger nextBlock) throws IOException, NoSuchAlgorithmException {
+    MessageDigest messageDigest = CheckSum.getMessageDigest(algorithm);
+    int numberOfBlocks = blockDigests.length / digestLength;
+    int block;
+    while ((block = nextBlock.getAndIncrement()) < numberOfBlocks) {
+      long start = block * blockSize;
+      messageDigest.update(LEAF);
+      CheckSum.digestRange(fileChannel, start, Math.min(size, start + blockSize), messageDigest);
+      System.arraycopy(messageDigest.digest(), 0, blockDigests, block * digestLength, digestLength);
+    }
+  }
+
+  // Wait for the workers, if one fails the rest are stopped and it's exception is thrown
+  private static void waitFor(List<Future<?>> workers, AtomicInteger nextBlock, int numberOfBlocks) throws IOException, NoSuchAlgorithmException {
+    Throwable failure = null;
+    for (Future<?> worker : workers) {
+      try {
+        worker.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        nextBlock.set(numberOfBlocks);
+        if (failure == null) failure = e;
+      } catch (ExecutionException e) {
+        nextBlock.set(numberOfBlocks);
+        if (failure == null) failure = e.getCause();
+      }
+    }
+    if (failure instanceof IOException) throw (IOException) failure;
+    if (failure instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException) failure;
+    if (failure != null) throw new IOException("Block hashing failed", failure);
+  }
+
+  private static int getDigestLength(String algorithm) throws NoSuchAlgorithmException {
+    MessageDigest messageDigest = CheckSum.getMessageDigest(algorithm);
+    int digestLength = messageDigest.getDigestLength();
+    return (digestLength > 0 ? digestLength : messageDigest.digest().length);
+  }
+
+  // Combine the levels up to the root
+  private byte[] computeRoot() throws NoSuchAlgorithmException {
+    MessageDigest messageDigest = CheckSum.getMessageDigest(algorithm);
+    int numberOfNodes = getNumberOfBlocks();
+    byte[] level = blockDigests;
+    while (numberOfNodes > 1) {
+      int numberOfParents = (numberOfNodes + 1) / 2;
+      byte[] parents = new byte[numberOfParents * digestLength];
+      for (int i = 0; i < numberOfNodes / 2; i++) {
+        messageDigest.update(NODE);
+        messageDigest.update(level, i * 2 * digestLength, 2 * digestLength);
+        System.arraycopy(messageDigest.digest(), 0, parents, i * digestLength, digestLength);
+      }
+      if (numberOfNodes % 2 != 0) {
+        System.arraycopy(level, (numberOfNodes - 1) * digestLength, parents, (numberOfParents - 1) * digestLength, digestLength);
+      }
+      level = parents;
+      numberOfNodes = numberOfParents;
+    }
+    return Arrays.copyOf(level, digestLength);
+  }
+
+  // The byte ranges where the files differ, adjacent blocks are merged into one range; blocks past
+  //   the end of the shorter file count as changed.  The trees must have the same algorithm and
+  //   block size (IllegalArgumentException if not).
+  public List<ByteRange> getChangedRanges(MerkleTree other) {
+    if (algorithm.equals(other.algorithm) == false || blockSize != other.blockSize) {
+      throw new IllegalArgumentException("Can't compare block hashes, " + getAlgorithmName() + " and " + other.getAlgorithmName());
+    }
+    List<ByteRange> changedRanges = new ArrayList<ByteRange>();
+    if (size == other.size && Arrays.equals(root, other.root)) return changedRanges;
+
+    long end = Math.max(size, other.size);
+    int numberOfBlocks = Math.max(getNumberOfBlocks(), other.getNumberOfBlocks());
+    ByteRange current = null;
+    for (int block = 0; block < numberOfBlocks; block++) {
+      if (blockMatches(other, block)) {
+        current = null;
+        continue;
+      }
+      long blockStart = block * blockSize;
+      long blockEnd   = Math.min(end, blockStart + blockSize);
+      if (current != null) {
+        current = new ByteRange(current.getStart(), blockEnd);
+        changedRanges.set(changedRanges.size() - 1, current);
+      }
+      else {
+        current = new ByteRange(blockStart, blockEnd);
+        changedRanges.add(current);
+      }
+    }
+    return changedRanges;
+  }
+
+  private boolean blockMatches(MerkleTree other, int block) {
+    if (block >= getNumberOfBlocks() || block >= other.getNumberOfBlocks()) return false;
+    int offset = block * digestLength;
+    for (int i = 0; i < digestLength; i++) {
+      if (blockDigests[offset + i] != other.blockDigests[offset + i]) return false;
+    }
+    return true;
+  }
+
+  // Digest to hash a block with (it's been given the leaf prefix), it's digest() can be compared
+  //   with getBlockDigest(); for checking blocks without building a new tree (i.e. CheckSumScrubber)
+  public MessageDigest newBlockDigest() throws NoSuchAlgorithmException {
+    MessageDigest messageDigest = CheckSum.getMessageDigest(algorithm);
+    messageDigest.update(LEAF);
+    return messageDigest;
+  }
+
+  // Getters
+  public String getAlgorithm() {
+    return algorithm;
+  }
+  public String getAlgorithmName() {  // The Merkle one, i.e. "MERKLE-67108864-XXH64"
+    return getAlgorithmName(algorithm, blockSize);
+  }
+  public long getBlockSize() {
+    return blockSize;
+  }
+  public long getSize() {
+    return size;
+  }
+  public int getNumberOfBlocks() {
+    return blockDigests.length / digestLength;
+  }
+  public byte[] getBlockDigest(int block) {
+    return Arrays.copyOfRange(blockDigests, block * digestLength, (block + 1) * digestLength);
+  }
+  public byte[] getRoot() {
+    return root.clone();
+  }
+
+  // Pool the blocks are hashed on, changing it only affects trees computed after
+  public static synchronized void setThreads(int numberOfThreads) {
+    threads = Math.max(1, numberOfThreads);
+    if (executorService != null) {
+      executorService.shutdown();
+      executorService = null;
+    }
+  }
+  public static synchronized int getThreads() {
+    return threads;
+  }
+
+  // Threads the executor runs tasks on, a cached (or virtual thread) pool gets one per core
+  private static int getPoolSize(ExecutorService executor) {
+    int poolSize = Runtime.getRuntime().availableProcessors();
+    if (executor instanceof ThreadPoolExecutor) {
+      int maximumPoolSize = ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+      if (maximumPoolSize < Integer.MAX_VALUE) poolSize = maximumPoolSize;
+    }
+    else if (executor instanceof ForkJoinPool) {
+      poolSize = ((ForkJoinPool) executor).getParallelism();
+    }
+    return poolSize;
+  }
+
+  private static synchronized ExecutorService getExecutorService() {
+    if (executorService == null) executorService = ScanExecutors.newPlatformThreadExecutor("merkle", threads);
+    return executorService;
+  }
+
+  // Write the tree, readFrom() reads it back (the root is worked out again)
+  public void writeTo(DataOutput dataOutput) throws IOException {
+    dataOutput.writeUTF(algorithm);
+    dataOutput.writeLong(blockSize);
+    dataOutput.writeLong(size);
+    dataOutput.writeInt(digestLength);
+    dataOutput.writeInt(getNumberOfBlocks());
+    dataOutput.write(blockDigests);
+  }
+
+  public static MerkleTree readFrom(DataInput dataInput) throws IOException {
+    String algorithm   = dataInput.readUTF();
+    long blockSize     = dataInput.readLong();
+    long size          = dataInput.readLong();
+    int digestLength   = dataInput.readInt();
+    int numberOfBlocks = dataInput.readInt();
+    if (blockSize < 1 || digestLength < 1 || numberOfBlocks < 1 || (long) numberOfBlocks * digestLength > Integer.MAX_VALUE - 8) {
+      throw new IOException("Bad block hashes for " + algorithm);
+    }
+    byte[] blockDigests = new byte[numberOfBlocks * digestLength];
+    dataInput.readFully(blockDigests);
+    try {
+      return new MerkleTree(algorithm, blockSize, size, digestLength, blockDigests);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException("Unknown algorithm for block hashes: " + algorithm, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getAlgorithmName() + " " + CheckSum.toHex(root) + " (" + getNumberOfBlocks() + " blocks)";
+  }
+
+  // ========================= B y t e R a n g e =========================
+
+  // Bytes start (inclusive) to end (exclusive) of a file
+  public static final class ByteRange {
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+      this.start = start;
+      this.end   = end;
+    }
+
+    public long getStart() {
+      return start;
+    }
+    public long getEnd() {
+      return end;
+    }
+    public long getLength() {
+      return end - start;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (obj instanceof ByteRange == false) return false;
+      ByteRange other = (ByteRange) obj;
+      return start == other.start && end == other.end;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(start) + Long.hashCode(end);
+    }
+
+    @Override
+    public String toString() {
+      return start + "-" + end;
+    }
+  }
+}
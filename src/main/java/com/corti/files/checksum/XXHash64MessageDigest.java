@@ -0,0 +1,179 @@
+package com.corti.files.checksum;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * xxHash64 (seed 0) as a MessageDigest, the algorithm name is "XXH64".  Like CRC32C it's for change
+ *   detection not security, it's about as fast as the disk can give us the bytes.  The input is
+ *   consumed in 32 byte stripes (four lanes of 8 bytes), a partial stripe is held until more comes
+ *   in or digest() is called.
+ * The digest is the 8 byte hash, most significant byte first (the same as the reference
+ *   implementation's canonical form, so the hex matches xxhsum -H1).
+ */
+public class XXHash64MessageDigest extends MessageDigest implements Cloneable {
+  public static final String ALGORITHM = "XXH64";
+  private static final long PRIME1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME3 = 0x165667B19E3779F9L;
+  private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+  private static final long PRIME5 = 0x27D4EB2F165667C5L;
+  private static final int STRIPE_LENGTH = 32;
+
+  private long v1, v2, v3, v4;
+  private long totalLength;
+  private byte[] pending = new byte[STRIPE_LENGTH];  // Bytes of a stripe we don't have all of yet
+  private int pendingLength;
+
+  public XXHash64MessageDigest() {
+    super(ALGORITHM);
+    engineReset();
+  }
+
+  private static long round(long accumulator, long input) {
+    accumulator += input * PRIME2;
+    accumulator  = Long.rotateLeft(accumulator, 31);
+    return accumulator * PRIME1;
+  }
+
+  private static long mergeRound(long accumulator, long value) {
+    accumulator ^= round(0, value);
+    return accumulator * PRIME1 + PRIME4;
+  }
+
+  private void stripe(long lane1, long lane2, long lane3, long lane4) {
+    v1 = round(v1, lane1);
+    v2 = round(v2, lane2);
+    v3 = round(v3, lane3);
+    v4 = round(v4, lane4);
+  }
+
+  @Override
+  protected void engineUpdate(byte input) {
+    totalLength++;
+    pending[pendingLength++] = input;
+    if (pendingLength == STRIPE_LENGTH) flushPending();
+  }
+
+  @Override
+  protected void engineUpdate(byte[] input, int offset, int length) {
+    totalLength += length;
+    int end = offset + length;
+    if (pendingLength > 0) {
+      int needed = Math.min(STRIPE_LENGTH - pendingLength, length);
+      System.arraycopy(input, offset, pending, pendingLength, needed);
+      pendingLength += needed;
+      offset        += needed;
+      if (pendingLength < STRIPE_LENGTH) return;
+      flushPending();
+    }
+    for (; offset + STRIPE_LENGTH <= end; offset += STRIPE_LENGTH) {
+      stripe(CRC32CMessageDigest.getLongLittleEndian(input, offset),
+             CRC32CMessageDigest.getLongLittleEndian(input, offset + 8),
+             CRC32CMessageDigest.getLongLittleEndian(input, offset + 16),
+             CRC32CMessageDigest.getLongLittleEndian(input, offset + 24));
+    }
+    pendingLength = end - offset;
+    System.arraycopy(input, offset, pending, 0, pendingLength);
+  }
+
+  // Direct buffers (what CheckSum reads into) are read a long at a time instead of being copied
+  @Override
+  protected void engineUpdate(ByteBuffer input) {
+    if (input.hasArray()) {
+      engineUpdate(input.array(), input.arrayOffset() + input.position(), input.remaining());
+      input.position(input.limit());
+      return;
+    }
+    while (pendingLength > 0 && input.hasRemaining()) {
+      engineUpdate(input.get());
+    }
+    ByteOrder originalOrder = input.order();
+    input.order(ByteOrder.LITTLE_ENDIAN);
+    while (input.remaining() >= STRIPE_LENGTH) {
+      stripe(input.getLong(), input.getLong(), input.getLong(), input.getLong());
+      totalLength += STRIPE_LENGTH;
+    }
+    input.order(originalOrder);
+    while (input.hasRemaining()) {
+      engineUpdate(input.get());
+    }
+  }
+
+  private void flushPending() {
+    stripe(CRC32CMessageDigest.getLongLittleEndian(pending, 0),
+           CRC32CMessageDigest.getLongLittleEndian(pending, 8),
+           CRC32CMessageDigest.getLongLittleEndian(pending, 16),
+           CRC32CMessageDigest.getLongLittleEndian(pending, 24));
+    pendingLength = 0;
+  }
+
+  @Override
+  protected byte[] engineDigest() {
+    long hash;
+    if (totalLength >= STRIPE_LENGTH) {
+      hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      hash = mergeRound(hash, v1);
+      hash = mergeRound(hash, v2);
+      hash = mergeRound(hash, v3);
+      hash = mergeRound(hash, v4);
+    }
+    else {
+      hash = v3 + PRIME5;  // v3 is the seed
+    }
+    hash += totalLength;
+
+    int offset = 0;
+    for (; offset + 8 <= pendingLength; offset += 8) {
+      hash ^= round(0, CRC32CMessageDigest.getLongLittleEndian(pending, offset));
+      hash  = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+    }
+    if (offset + 4 <= pendingLength) {
+      long value = (pending[offset] & 0xffL) | (pending[offset + 1] & 0xffL) << 8 |
+                   (pending[offset + 2] & 0xffL) << 16 | (pending[offset + 3] & 0xffL) << 24;
+      hash ^= value * PRIME1;
+      hash  = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+      offset += 4;
+    }
+    for (; offset < pendingLength; offset++) {
+      hash ^= (pending[offset] & 0xffL) * PRIME5;
+      hash  = Long.rotateLeft(hash, 11) * PRIME1;
+    }
+    hash ^= hash >>> 33;
+    hash *= PRIME2;
+    hash ^= hash >>> 29;
+    hash *= PRIME3;
+    hash ^= hash >>> 32;
+    engineReset();
+
+    byte[] digest = new byte[8];
+    for (int i = 7; i >= 0; i--) {
+      digest[i] = (byte) hash;
+      hash >>>= 8;
+    }
+    return digest;
+  }
+
+  @Override
+  protected int engineGetDigestLength() {
+    return 8;
+  }
+
+  @Override
+  protected void engineReset() {
+    v1 = PRIME1 + PRIME2;
+    v2 = PRIME2;
+    v3 = 0;
+    v4 = -PRIME1;
+    totalLength   = 0;
+    pendingLength = 0;
+  }
+
+  @Override
+  public Object clone() throws CloneNotSupportedException {
+    XXHash64MessageDigest copy = (XXHash64MessageDigest) super.clone();
+    copy.pending = pending.clone();
+    return copy;
+  }
+}
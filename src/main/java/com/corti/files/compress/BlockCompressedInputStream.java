@@ -0,0 +1,215 @@
+package com.corti.files.compress;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import com.corti.files.ScanExecutors;
+
+/**
+ * Reads what BlockCompressedOutputStream wrote.  Reading the compressed blocks off the disk is done
+ *   on the caller's thread, they're decompressed (and their crc checked) on a pool with threads > 1,
+ *   a few blocks ahead of where the caller is reading.
+ * A bad crc or a corrupt block is an IOException, so is the stream ending without the end marker.
+ * Usage:
+ *   try (InputStream inputStream = BlockCompressedInputStream.open(path)) { ... }
+ * open() works on any file, it only decompresses if the file starts with the magic number; the stream
+ *   it returns supports mark/reset so the caller can peek at what's in it.
+ */
+public class BlockCompressedInputStream extends InputStream {
+  private static volatile int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  private final DataInputStream inputStream;
+  private final Codec codec;
+  private final int blockSize;
+  private final ExecutorService executorService;  // Null when we decompress on the caller's thread
+  private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+  private final int maxPendingBlocks;
+  private byte[] currentBlock = new byte[0];
+  private int currentPosition;
+  private long blocksRead;
+  private boolean endOfBlocks;
+  private boolean isClosed;
+
+  public BlockCompressedInputStream(InputStream inputStream) throws IOException {
+    this(inputStream, threads);
+  }
+
+  // The stream is closed when we are
+  public BlockCompressedInputStream(InputStream inputStream, int numberOfThreads) throws IOException {
+    this.inputStream = new DataInputStream(inputStream);
+    try {
+      if (this.inputStream.readInt() != BlockCompressedOutputStream.MAGIC) throw new IOException("Not a block compressed stream");
+      int version = this.inputStream.readUnsignedByte();
+      if (version != BlockCompressedOutputStream.VERSION) throw new IOException("Block compressed version " + version + " isn't supported");
+      this.codec     = codecForId(this.inputStream.readUnsignedByte());  // Each block says what it used too
+      this.blockSize = this.inputStream.readInt();
+    } catch (IOException e) {
+      this.inputStream.close();
+      throw e;
+    }
+    this.executorService  = (numberOfThreads > 1 ? ScanExecutors.newPlatformThreadExecutor("decompress", numberOfThreads) : null);
+    this.maxPendingBlocks = numberOfThreads * 2;
+  }
+
+  // Open a snapshot file, decompressed if it's block compressed otherwise as is
+  public static InputStream open(Path inputPath) throws IOException {
+    BufferedInputStream fileStream = new BufferedInputStream(Files.newInputStream(inputPath), 64 * 1024);
+    try {
+      if (isBlockCompressed(fileStream) == false) return fileStream;
+      return new BufferedInputStream(new BlockCompressedInputStream(fileStream), 64 * 1024);
+    } catch (IOException e) {
+      fileStream.close();
+      throw e;
+    }
+  }
+
+  // True if the stream (it has to support mark) starts with our magic number, it's left where it was
+  public static boolean isBlockCompressed(InputStream inputStream) throws IOException {
+    inputStream.mark(4);
+    try {
+      int magic = 0;
+      for (int i = 0; i < 4; i++) {
+        int b = inputStream.read();
+        if (b < 0) return false;
+        magic = (magic << 8) | b;
+      }
+      return magic == BlockCompressedOutputStream.MAGIC;
+    } finally {
+      inputStream.reset();
+    }
+  }
+
+  // Threads used by the constructors that don't take a thread count
+  public static void setThreads(int numberOfThreads) {
+    threads = Math.max(1, numberOfThreads);
+  }
+
+  public static int getThreads() {
+    return threads;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (currentPosition == currentBlock.length && nextBlock() == false) return -1;
+    return currentBlock[currentPosition++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) return 0;
+    if (currentPosition == currentBlock.length && nextBlock() == false) return -1;
+    int toCopy = Math.min(length, currentBlock.length - currentPosition);
+    System.arraycopy(currentBlock, currentPosition, bytes, offset, toCopy);
+    currentPosition += toCopy;
+    return toCopy;
+  }
+
+  @Override
+  public int available() {
+    return currentBlock.length - currentPosition;
+  }
+
+  // The codec the writer asked for, blocks that didn't get smaller are stored
+  public Codec getCodec() {
+    return codec;
+  }
+
+  public long getBlocksRead() {
+    return blocksRead;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (isClosed) return;
+    isClosed = true;
+    for (Future<byte[]> future : pendingBlocks) future.cancel(true);
+    pendingBlocks.clear();
+    if (executorService != null) executorService.shutdownNow();
+    inputStream.close();
+  }
+
+  // Move to the next block that has something in it, false at the end
+  private boolean nextBlock() throws IOException {
+    if (isClosed) throw new IOException("Stream closed");
+    do {
+      fillPending();
+      if (pendingBlocks.isEmpty()) return false;
+      currentBlock    = waitFor(pendingBlocks.poll());
+      currentPosition = 0;
+    } while (currentBlock.length == 0);
+    return true;
+  }
+
+  // Read blocks off the stream until there's maxPendingBlocks being decompressed (one if there's no pool)
+  private void fillPending() throws IOException {
+    while (endOfBlocks == false && pendingBlocks.size() < Math.max(1, maxPendingBlocks)) {
+      final int length = inputStream.readInt();
+      if (length == 0) {
+        endOfBlocks = true;
+        break;
+      }
+      final Codec codec          = codecForId(inputStream.readUnsignedByte());
+      final int compressedLength = inputStream.readInt();
+      final int crc32            = inputStream.readInt();
+      final long blockNumber     = blocksRead++;
+      if (length < 0 || length > blockSize || compressedLength < 0 || compressedLength > Codec.maxCompressedLength(blockSize)) {
+        throw new IOException("Bad header for block " + blockNumber);
+      }
+      final byte[] compressed = new byte[compressedLength];
+      inputStream.readFully(compressed);
+      if (executorService == null) {
+        pendingBlocks.add(CompletableFuture.completedFuture(decompressBlock(codec, compressed, length, crc32, blockNumber)));
+      }
+      else {
+        pendingBlocks.add(executorService.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws IOException {
+            return decompressBlock(codec, compressed, length, crc32, blockNumber);
+          }
+        }));
+      }
+    }
+  }
+
+  private static Codec codecForId(int id) throws IOException {
+    try {
+      return Codec.forId(id);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  private static byte[] decompressBlock(Codec codec, byte[] compressed, int length, int crc32, long blockNumber) throws IOException {
+    byte[] block = new byte[length];
+    codec.decompress(compressed, compressed.length, block, length);
+    CRC32 blockCrc32 = new CRC32();
+    blockCrc32.update(block, 0, length);
+    if ((int) blockCrc32.getValue() != crc32) throw new IOException("Checksum doesn't match for block " + blockNumber);
+    return block;
+  }
+
+  private static byte[] waitFor(Future<byte[]> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted decompressing a block");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      throw new IOException("Decompressing a block failed", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package com.corti.files.compress;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import com.corti.files.ScanExecutors;
+
+/**
+ * OutputStream that compresses what's written to it in blocks (default 1MB), BlockCompressedInputStream
+ *   reads it back.  Each block is compressed on its own so the blocks can be done in parallel, both
+ *   here and when reading; with threads > 1 the blocks are compressed on a pool while the caller keeps
+ *   writing, they're still written in order.
+ * The stream is:
+ *   int MAGIC, byte VERSION, byte codec id, int block size
+ *   blocks: int uncompressed length, byte codec id, int compressed length, int crc32 of the uncompressed bytes, the bytes
+ *   int 0 (end)
+ * A block that doesn't get smaller is stored (Codec.NONE).
+ * Usage:
+ *   try (OutputStream outputStream = BlockCompressedOutputStream.create(path, Codec.LZ4, 0)) { ... }
+ * create() gives a plain buffered stream for Codec.NONE so those files are the same as before.
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+  public static final int MAGIC              = 0x46414342;  // "FACB"
+  public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+  static final byte VERSION                  = 1;
+
+  private static volatile int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  private final DataOutputStream outputStream;
+  private final Codec codec;
+  private final int level;
+  private final int blockSize;
+  private final ExecutorService executorService;  // Null when we compress on the caller's thread
+  private final Deque<Future<Block>> pendingBlocks = new ArrayDeque<Future<Block>>();
+  private final int maxPendingBlocks;
+  private byte[] currentBlock;
+  private int currentLength;
+  private long bytesIn;
+  private long bytesOut;
+  private boolean isClosed;
+
+  public BlockCompressedOutputStream(OutputStream outputStream, Codec codec, int level) throws IOException {
+    this(outputStream, codec, level, DEFAULT_BLOCK_SIZE, threads);
+  }
+
+  // The stream is closed when we are
+  public BlockCompressedOutputStream(OutputStream outputStream, Codec codec, int level, int blockSize, int numberOfThreads) throws IOException {
+    if (blockSize < 1024) throw new IllegalArgumentException("Block size has to be at least 1024");
+    this.outputStream     = new DataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024));
+    this.codec            = codec;
+    this.level            = level;
+    this.blockSize        = blockSize;
+    this.executorService  = (numberOfThreads > 1 ? ScanExecutors.newPlatformThreadExecutor("compress", numberOfThreads) : null);
+    this.maxPendingBlocks = numberOfThreads * 2;
+    this.currentBlock     = new byte[blockSize];
+    this.outputStream.writeInt(MAGIC);
+    this.outputStream.writeByte(VERSION);
+    this.outputStream.writeByte(codec.getId());
+    this.outputStream.writeInt(blockSize);
+    bytesOut = 10;
+  }
+
+  // Stream to write a snapshot file with, plain for Codec.NONE
+  public static OutputStream create(Path outputPath, Codec codec, int level) throws IOException {
+    OutputStream fileStream = Files.newOutputStream(outputPath);
+    if (codec == Codec.NONE) return new BufferedOutputStream(fileStream, 64 * 1024);
+    return new BlockCompressedOutputStream(fileStream, codec, level);
+  }
+
+  // Threads used by the constructors that don't take a thread count
+  public static void setThreads(int numberOfThreads) {
+    threads = Math.max(1, numberOfThreads);
+  }
+
+  public static int getThreads() {
+    return threads;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (isClosed) throw new IOException("Stream closed");
+    if (currentLength == blockSize) flushBlock();
+    currentBlock[currentLength++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    if (isClosed) throw new IOException("Stream closed");
+    while (length > 0) {
+      if (currentLength == blockSize) flushBlock();
+      int toCopy = Math.min(length, blockSize - currentLength);
+      System.arraycopy(bytes, offset, currentBlock, currentLength, toCopy);
+      currentLength += toCopy;
+      offset += toCopy;
+      length -= toCopy;
+    }
+  }
+
+  // Blocks are only written when they're full (or we're closed), a flush doesn't cut a block short
+  //   since that'd make the compression worse for callers that flush a lot (ObjectOutputStream)
+  @Override
+  public void flush() throws IOException {
+    outputStream.flush();
+  }
+
+  public long getBytesIn() {
+    return bytesIn;
+  }
+
+  public long getBytesOut() {
+    return bytesOut;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (isClosed) return;
+    isClosed = true;
+    try {
+      if (currentLength > 0) flushBlock();
+      while (pendingBlocks.isEmpty() == false) writeBlock(waitFor(pendingBlocks.poll()));
+      outputStream.writeInt(0);
+      bytesOut += 4;
+      outputStream.flush();
+    } finally {
+      if (executorService != null) executorService.shutdownNow();
+      outputStream.close();
+    }
+  }
+
+  // Compress the current block (or hand it to the pool) and start a new one
+  private void flushBlock() throws IOException {
+    final byte[] block  = currentBlock;
+    final int length    = currentLength;
+    bytesIn            += length;
+    currentBlock        = new byte[blockSize];  // The pool still has the old one
+    currentLength       = 0;
+    if (executorService == null) {
+      writeBlock(compressBlock(block, length));
+      return;
+    }
+    pendingBlocks.add(executorService.submit(new Callable<Block>() {
+      @Override
+      public Block call() {
+        return compressBlock(block, length);
+      }
+    }));
+    while (pendingBlocks.size() >= maxPendingBlocks || (pendingBlocks.isEmpty() == false && pendingBlocks.peek().isDone())) {
+      writeBlock(waitFor(pendingBlocks.poll()));
+    }
+  }
+
+  private Block compressBlock(byte[] block, int length) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(block, 0, length);
+    byte[] compressed = new byte[Codec.maxCompressedLength(length)];
+    int compressedLength = codec.compress(block, length, compressed, level);
+    if (compressedLength < 0 || compressedLength >= length) {
+      return new Block(length, Codec.NONE, block, length, (int) crc32.getValue());
+    }
+    return new Block(length, codec, compressed, compressedLength, (int) crc32.getValue());
+  }
+
+  private void writeBlock(Block block) throws IOException {
+    outputStream.writeInt(block.length);
+    outputStream.writeByte(block.codec.getId());
+    outputStream.writeInt(block.compressedLength);
+    outputStream.writeInt(block.crc32);
+    outputStream.write(block.bytes, 0, block.compressedLength);
+    bytesOut += 13 + block.compressedLength;
+  }
+
+  private static Block waitFor(Future<Block> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted compressing a block");
+    } catch (ExecutionException e) {
+      throw new IOException("Compressing a block failed", e.getCause());
+    }
+  }
+
+  // A compressed block ready to write
+  private static final class Block {
+    final int length;
+    final Codec codec;
+    final byte[] bytes;
+    final int compressedLength;
+    final int crc32;
+
+    Block(int length, Codec codec, byte[] bytes, int compressedLength, int crc32) {
+      this.length           = length;
+      this.codec            = codec;
+      this.bytes            = bytes;
+      this.compressedLength = compressedLength;
+      this.crc32            = crc32;
+    }
+  }
+}
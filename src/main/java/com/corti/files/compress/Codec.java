@@ -0,0 +1,119 @@
+package com.corti.files.compress;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compression used for the blocks of a BlockCompressedOutputStream, the id is what's written in
+ *   the stream so don't renumber them.
+ *   NONE    - stored as is (a block that doesn't get smaller is stored this way whatever the codec)
+ *   DEFLATE - java.util.zip Deflater (raw, no zlib header); level 1 (fastest) to 9 (smallest), 6 is the default
+ *   LZ4     - LZ4 block format (see Lz4Block), much faster than Deflate, level isn't used
+ * forName("deflate:9") or forName("lz4") is handy for command line args, getLevel(name) gives the level.
+ */
+public enum Codec {
+  NONE(0) {
+    @Override
+    public int compress(byte[] src, int length, byte[] dst, int level) {
+      return -1;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException {
+      if (srcLength != dstLength) throw new IOException("Stored block is " + srcLength + " bytes, expected " + dstLength);
+      System.arraycopy(src, 0, dst, 0, srcLength);
+    }
+  },
+  DEFLATE(1) {
+    @Override
+    public int compress(byte[] src, int length, byte[] dst, int level) {
+      Deflater deflater = new Deflater(level, true);
+      try {
+        deflater.setInput(src, 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (deflater.finished() == false && compressedLength < dst.length) {
+          compressedLength += deflater.deflate(dst, compressedLength, dst.length - compressedLength);
+        }
+        return (deflater.finished() ? compressedLength : -1);
+      } finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException {
+      Inflater inflater = new Inflater(true);
+      try {
+        inflater.setInput(src, 0, srcLength);
+        int length = 0;
+        while (length < dstLength) {
+          int inflated = inflater.inflate(dst, length, dstLength - length);
+          if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+          length += inflated;
+        }
+        if (length != dstLength) throw new IOException("Deflate block is " + length + " bytes, expected " + dstLength);
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt deflate block", e);
+      } finally {
+        inflater.end();
+      }
+    }
+  },
+  LZ4(2) {
+    @Override
+    public int compress(byte[] src, int length, byte[] dst, int level) {
+      if (dst.length < Lz4Block.maxCompressedLength(length)) return -1;
+      return Lz4Block.compress(src, length, dst);
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException {
+      Lz4Block.decompress(src, srcLength, dst, dstLength);
+    }
+  };
+
+  public static final int DEFAULT_DEFLATE_LEVEL = 6;
+
+  private final int id;
+
+  Codec(int id) {
+    this.id = id;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  // Compress src[0..length) into dst, returns the compressed length or -1 if it didn't fit
+  public abstract int compress(byte[] src, int length, byte[] dst, int level);
+
+  // Decompress src[0..srcLength) into dst[0..dstLength), IOException if it doesn't come out right
+  public abstract void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException;
+
+  // Big enough for what compress() writes for length bytes with any of the codecs
+  public static int maxCompressedLength(int length) {
+    return Lz4Block.maxCompressedLength(length);
+  }
+
+  public static Codec forId(int id) {
+    for (Codec codec : values()) {
+      if (codec.id == id) return codec;
+    }
+    throw new IllegalArgumentException("Unknown codec id " + id);
+  }
+
+  // "none", "lz4", "deflate" or "deflate:<level>" (case doesn't matter)
+  public static Codec forName(String name) {
+    int colon = name.indexOf(':');
+    return valueOf((colon < 0 ? name : name.substring(0, colon)).trim().toUpperCase());
+  }
+
+  // The level in a name like "deflate:9", DEFAULT_DEFLATE_LEVEL if there isn't one
+  public static int getLevel(String name) {
+    int colon = name.indexOf(':');
+    return (colon < 0 ? DEFAULT_DEFLATE_LEVEL : Integer.parseInt(name.substring(colon + 1).trim()));
+  }
+}
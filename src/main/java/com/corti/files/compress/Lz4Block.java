@@ -0,0 +1,159 @@
+package com.corti.files.compress;
+
+import java.io.IOException;
+
+/**
+ * LZ4 block format (no frame), it's what Codec.LZ4 uses for each block of a BlockCompressedOutputStream.
+ *   It's the greedy single hash table compressor, so it doesn't squeeze as hard as Deflate but it's
+ *   several times faster both ways; paths in a snapshot repeat a lot so it still does well.
+ * A block is a run of sequences: a token (high 4 bits literal length, low 4 bits match length - 4),
+ *   more length bytes when a length is 15 or more (255 means keep adding), the literals, then the
+ *   2 byte little endian offset of the match.  The last sequence is only literals, and the last 5
+ *   bytes are always literals (same rules as the reference implementation).
+ */
+final class Lz4Block {
+  private static final int MIN_MATCH     = 4;
+  private static final int LAST_LITERALS = 5;
+  private static final int MF_LIMIT      = 12;   // No match starts in the last 12 bytes
+  private static final int MAX_DISTANCE  = 65535;
+  private static final int HASH_LOG      = 16;
+  private static final int SKIP_TRIGGER  = 6;    // Step up the search after 2^6 misses in a row
+
+  private Lz4Block() { }
+
+  // Biggest the compressed form of length bytes can be
+  static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  // Compress src[0..length) into dst (at least maxCompressedLength(length) long), returns the
+  //   compressed length
+  static int compress(byte[] src, int length, byte[] dst) {
+    int[] hashTable = new int[1 << HASH_LOG];  // Position + 1, 0 is empty
+    int anchor  = 0;       // Start of the literals not written yet
+    int dstPos  = 0;
+    int mfLimit = length - MF_LIMIT;
+    int matchLimit = length - LAST_LITERALS;
+    int ip = 0;
+    int searchCount = 1 << SKIP_TRIGGER;
+
+    while (ip < mfLimit) {
+      int sequence = readInt(src, ip);
+      int hash = hash(sequence);
+      int ref  = hashTable[hash] - 1;
+      hashTable[hash] = ip + 1;
+      if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+        ip += (searchCount++ >>> SKIP_TRIGGER);
+        continue;
+      }
+      searchCount = 1 << SKIP_TRIGGER;
+
+      while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {  // The match may start earlier
+        ip--;
+        ref--;
+      }
+      int matchLength = MIN_MATCH;
+      while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) matchLength++;
+
+      int tokenPos = dstPos;
+      dstPos = writeSequence(src, anchor, ip - anchor, dst, dstPos);
+      dst[dstPos++] = (byte) (ip - ref);
+      dst[dstPos++] = (byte) ((ip - ref) >>> 8);
+      int matchCode = matchLength - MIN_MATCH;
+      if (matchCode >= 15) {
+        dst[tokenPos] |= 15;
+        dstPos = writeLength(matchCode - 15, dst, dstPos);
+      }
+      else {
+        dst[tokenPos] |= matchCode;
+      }
+      ip += matchLength;
+      anchor = ip;
+      if (ip - 2 >= 0 && ip - 2 < mfLimit) hashTable[hash(readInt(src, ip - 2))] = ip - 2 + 1;
+    }
+    return writeSequence(src, anchor, length - anchor, dst, dstPos);
+  }
+
+  // Decompress src[0..srcLength) into dst, it has to come out to exactly dstLength bytes
+  static void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException {
+    int ip = 0;
+    int op = 0;
+    try {
+      while (true) {
+        int token = src[ip++] & 0xFF;
+        int literalLength = token >>> 4;
+        if (literalLength == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            literalLength += b;
+          } while (b == 255);
+        }
+        if (literalLength > srcLength - ip || literalLength > dstLength - op) throw corrupt();
+        System.arraycopy(src, ip, dst, op, literalLength);
+        ip += literalLength;
+        op += literalLength;
+        if (ip == srcLength) break;  // Last sequence is only literals
+
+        int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+        ip += 2;
+        int matchLength = token & 15;
+        if (matchLength == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+        int ref = op - offset;
+        if (offset == 0 || ref < 0 || matchLength > dstLength - op) throw corrupt();
+        if (offset >= matchLength) {
+          System.arraycopy(dst, ref, dst, op, matchLength);
+          op += matchLength;
+        }
+        else {
+          for (int i = 0; i < matchLength; i++) dst[op++] = dst[ref++];  // Overlaps, it repeats
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw corrupt();
+    }
+    if (op != dstLength) throw corrupt();
+  }
+
+  // Token with the literal length (match length added by the caller) and the literals
+  private static int writeSequence(byte[] src, int start, int literalLength, byte[] dst, int dstPos) {
+    if (literalLength >= 15) {
+      dst[dstPos++] = (byte) (15 << 4);
+      dstPos = writeLength(literalLength - 15, dst, dstPos);
+    }
+    else {
+      dst[dstPos++] = (byte) (literalLength << 4);
+    }
+    System.arraycopy(src, start, dst, dstPos, literalLength);
+    return dstPos + literalLength;
+  }
+
+  private static int writeLength(int length, byte[] dst, int dstPos) {
+    while (length >= 255) {
+      dst[dstPos++] = (byte) 255;
+      length -= 255;
+    }
+    dst[dstPos++] = (byte) length;
+    return dstPos;
+  }
+
+  private static int readInt(byte[] bytes, int position) {
+    return (bytes[position] & 0xFF) | ((bytes[position + 1] & 0xFF) << 8) |
+           ((bytes[position + 2] & 0xFF) << 16) | ((bytes[position + 3] & 0xFF) << 24);
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  private static IOException corrupt() {
+    return new IOException("Corrupt LZ4 block");
+  }
+}
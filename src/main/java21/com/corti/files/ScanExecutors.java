@@ -0,0 +1,50 @@
+package com.corti.files;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Java 21 version of ScanExecutors (see the one in src/main/java), this gets compiled into the
+ *   multi-release section of the jar so when the jar is run on 21+ this class is used and
+ *   newVirtualThreadExecutor gives you a virtual thread per task.  Keep the public methods the
+ *   same as the java 8 version.
+ */
+public class ScanExecutors {
+
+  private ScanExecutors() { }
+
+  // True when newVirtualThreadExecutor really returns virtual threads
+  public static boolean isVirtualThreadSupported() {
+    return true;
+  }
+
+  // Executor with a fixed number of (daemon) platform threads named namePrefix-1, namePrefix-2...
+  public static ExecutorService newPlatformThreadExecutor(String namePrefix, int numberOfThreads) {
+    return Executors.newFixedThreadPool(numberOfThreads, new NamedThreadFactory(namePrefix));
+  }
+
+  // Executor that starts a new virtual thread for each task
+  public static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix + "-", 1).factory());
+  }
+
+  // Names the threads, makes thread dumps readable; they're daemons so a scan that blows up doesn't
+  //   leave the jvm hanging
+  static class NamedThreadFactory implements ThreadFactory {
+    private final String namePrefix;
+    private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+    NamedThreadFactory(String namePrefix) {
+      this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.corti.files.checksum.CheckSum;
+import com.corti.files.checksum.MerkleTree;
+
+class CheckSumScrubberTest {
+
+  @Test
+  void testScrubFindsBitrotAndResumes(@TempDir Path tempDir) throws Exception {
+    Path realTempDir = tempDir.toRealPath();
+    Random random = new Random(22);
+    Path rotten   = writeRandom(realTempDir.resolve("rotten.bin"), 100000, random);
+    Path good     = writeRandom(realTempDir.resolve("good.bin"), 50000, random);
+    Path image    = writeRandom(realTempDir.resolve("image.bin"), 4 * 4096, random);
+    Path changed  = writeRandom(realTempDir.resolve("changed.bin"), 1000, random);
+    Path deleted  = writeRandom(realTempDir.resolve("deleted.bin"), 1000, random);
+
+    List<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>();
+    for (Path path : Arrays.asList(rotten, good, image, changed, deleted)) {
+      FileAttributes fileAttributes = new UnixFileAttributes(path);
+      fileAttributes.setStartingBasePath(realTempDir.toString());
+      if (path == image) fileAttributes.setChecksumAlgorithm(MerkleTree.getAlgorithmName(CheckSum.XXH64, 4096));
+      fileAttributes.getCheckSumValue();
+      fileAttributesList.add(fileAttributes);
+    }
+    Path snapshot = realTempDir.resolve("snapshot.ser");
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesList(fileAttributesList, snapshot));
+
+    // Bitrot keeps the size and time, the other two were changed on purpose
+    flipByte(rotten, 70000);
+    flipByte(image, 4096 + 10);
+    flipByte(image, 2 * 4096 + 10);
+    Files.write(changed, "new contents".getBytes());
+    Files.delete(deleted);
+
+    Path checkpoint = realTempDir.resolve("scrub.checkpoint");
+    CheckSumScrubber checkSumScrubber = new CheckSumScrubber(snapshot, checkpoint);
+    Map<String, CheckSumScrubber.Mismatch> mismatches = new HashMap<String, CheckSumScrubber.Mismatch>();
+    try (Stream<CheckSumScrubber.Mismatch> stream = checkSumScrubber.scrub()) {
+      for (CheckSumScrubber.Mismatch mismatch : stream.collect(Collectors.toList())) {
+        mismatches.put(mismatch.getFileAttributes().getPath().getFileName().toString(), mismatch);
+      }
+    }
+    assertEquals(4, mismatches.size());
+    assertEquals(CheckSumScrubber.Reason.CHECKSUM, mismatches.get("rotten.bin").getReason());
+    assertEquals(CheckSum.getFileCheckSumValue(rotten, "SHA-256"), mismatches.get("rotten.bin").getActualCheckSum());
+    assertEquals(CheckSumScrubber.Reason.CHECKSUM, mismatches.get("image.bin").getReason());
+    assertEquals(Arrays.asList(new MerkleTree.ByteRange(4096, 3 * 4096)), mismatches.get("image.bin").getBadRanges());
+    assertEquals(CheckSumScrubber.Reason.MODIFIED, mismatches.get("changed.bin").getReason());
+    assertEquals(CheckSumScrubber.Reason.MISSING, mismatches.get("deleted.bin").getReason());
+    assertEquals(3, checkSumScrubber.getFilesChecked());  // Changed and deleted aren't read
+    assertEquals(100000 + 50000 + 4 * 4096, checkSumScrubber.getBytesRead());
+    assertTrue(Files.readAllLines(checkpoint).contains("nextRow=0"));  // Pass done
+
+    // Stop after the first mismatch, the next scrub starts after it
+    CheckSumScrubber first = new CheckSumScrubber(snapshot, checkpoint);
+    try (Stream<CheckSumScrubber.Mismatch> stream = first.scrub()) {
+      Optional<CheckSumScrubber.Mismatch> mismatch = stream.findFirst();
+      assertEquals("rotten.bin", mismatch.get().getFileAttributes().getPath().getFileName().toString());
+    }
+    CheckSumScrubber resumed = new CheckSumScrubber(snapshot, checkpoint);
+    try (Stream<CheckSumScrubber.Mismatch> stream = resumed.scrub()) {
+      assertEquals(1, resumed.getPosition());
+      assertEquals(3, stream.count());
+    }
+  }
+
+  @Test
+  void testBytesPerSecondBudget(@TempDir Path tempDir) throws Exception {
+    Path file = writeRandom(tempDir.resolve("data.bin"), 100000, new Random(1));
+    FileAttributes fileAttributes = new UnixFileAttributes(file);
+    fileAttributes.setStartingBasePath(tempDir.toString());
+    fileAttributes.getCheckSumValue();
+    Path snapshot = tempDir.resolve("snapshot.ser");
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesList(new ArrayList<FileAttributes>(Arrays.asList(fileAttributes)), snapshot));
+
+    CheckSumScrubber checkSumScrubber = new CheckSumScrubber(snapshot, tempDir.resolve("checkpoint"));
+    checkSumScrubber.setBytesPerSecond(400000);   // Reads of 40000 bytes, a quarter of a second for the file
+    long start = System.nanoTime();
+    try (Stream<CheckSumScrubber.Mismatch> stream = checkSumScrubber.scrub()) {
+      assertEquals(0, stream.count());
+    }
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+    assertTrue(elapsedMillis >= 200, "Took " + elapsedMillis + "ms");
+    assertEquals(100000, checkSumScrubber.getBytesRead());
+  }
+
+  private static Path writeRandom(Path path, int size, Random random) throws Exception {
+    byte[] contents = new byte[size];
+    random.nextBytes(contents);
+    return Files.write(path, contents);
+  }
+
+  // Change a byte without changing the size or modified time, like the disk did it
+  private static void flipByte(Path path, int position) throws Exception {
+    FileTime lastModifiedTime = Files.getLastModifiedTime(path);
+    byte[] contents = Files.readAllBytes(path);
+    contents[position]++;
+    Files.write(path, contents);
+    Files.setLastModifiedTime(path, lastModifiedTime);
+  }
+}
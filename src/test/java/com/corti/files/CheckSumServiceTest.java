@@ -0,0 +1,120 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.corti.files.checksum.CheckSum;
+
+class CheckSumServiceTest {
+
+  @Test
+  void testComputeCheckSums(@TempDir Path tempDir) throws Exception {
+    List<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>();
+    for (int i = 0; i < 40; i++) {
+      Path file = Files.write(tempDir.resolve("file" + i + ".txt"), ("contents of file " + i).getBytes());
+      fileAttributesList.add(new UnixFileAttributes(file));
+    }
+    fileAttributesList.add(new UnixFileAttributes(Files.createDirectory(tempDir.resolve("dir"))));
+
+    AtomicInteger completed = new AtomicInteger(0);
+    try (CheckSumService checkSumService = new CheckSumService()) {
+      checkSumService.setThreads(4);
+      checkSumService.setMaxOpenFiles(3);
+      checkSumService.setMaxOpenFilesPerFileSystem(2);
+      assertEquals(40, checkSumService.computeCheckSums(fileAttributesList, fileAttributes -> completed.incrementAndGet()));
+      assertEquals(40, completed.get());
+
+      // They're all done now
+      assertEquals(0, checkSumService.computeCheckSums(fileAttributesList));
+    }
+
+    for (FileAttributes fileAttributes : fileAttributesList) {
+      if (fileAttributes.isDirectory()) {
+        assertNull(fileAttributes.getCheckSumValueIfSet());
+      }
+      else {
+        assertEquals(CheckSum.getFileCheckSumValue(fileAttributes.getPath(), "SHA-256"), fileAttributes.getCheckSumValueIfSet());
+      }
+    }
+  }
+
+  // Table rows only have the getters, the checksums have to go into the table
+  @Test
+  void testTableRows(@TempDir Path tempDir) throws Exception {
+    FileAttributesTable fileAttributesTable = new FileAttributesTable();
+    for (int i = 0; i < 3; i++) {
+      Path file = Files.write(tempDir.resolve("file" + i + ".txt"), ("contents of file " + i).getBytes());
+      fileAttributesTable.add(new UnixFileAttributes(file));
+    }
+
+    try (CheckSumService checkSumService = new CheckSumService()) {
+      assertEquals(3, checkSumService.computeCheckSums(fileAttributesTable.asList()));
+      checkSumService.setAlgorithms("MD5");
+      assertEquals(3, checkSumService.computeCheckSums(fileAttributesTable.asList()));
+    }
+    for (int row = 0; row < fileAttributesTable.size(); row++) {
+      Path path = fileAttributesTable.get(row).getPath();
+      assertEquals(CheckSum.getFileCheckSumValue(path, "SHA-256"), fileAttributesTable.getCheckSumValue(row));
+      assertEquals(CheckSum.getFileCheckSumValue(path, "MD5"), fileAttributesTable.getCheckSumValue(row, "MD5"));
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testMoreThanOneAlgorithm(@TempDir Path tempDir) throws Exception {
+    List<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>();
+    for (int i = 0; i < 5; i++) {
+      Path file = Files.write(tempDir.resolve("file" + i + ".txt"), ("contents of file " + i).getBytes());
+      FileAttributes fileAttributes = new UnixFileAttributes(file);
+      fileAttributes.setStartingBasePath(tempDir.toString());
+      fileAttributesList.add(fileAttributes);
+    }
+    fileAttributesList.get(0).getCheckSumValue();  // Has SHA-256 already, just needs MD5
+
+    try (CheckSumService checkSumService = new CheckSumService()) {
+      checkSumService.setAlgorithms("SHA-256", "MD5");
+      assertEquals(5, checkSumService.computeCheckSums(fileAttributesList));
+      assertEquals(0, checkSumService.computeCheckSums(fileAttributesList));
+    }
+    for (FileAttributes fileAttributes : fileAttributesList) {
+      assertEquals(CheckSum.getFileCheckSumValue(fileAttributes.getPath(), "SHA-256"), fileAttributes.getCheckSumValueIfSet());
+      assertEquals(CheckSum.getFileCheckSumValue(fileAttributes.getPath(), "MD5"), fileAttributes.getCheckSumValueIfSet("MD5"));
+      assertEquals(1, fileAttributes.getOtherCheckSumValues().size());
+    }
+    assertEquals(CheckSum.getFileCheckSumValue(fileAttributesList.get(1).getPath(), "SHA-1"),
+                 fileAttributesList.get(1).getCheckSumValue("SHA-1"));
+
+    // The other checksums are serialized, and kept by the table
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)) {
+      objectOutputStream.writeObject(new ArrayList<FileAttributes>(fileAttributesList));
+    }
+    List<FileAttributes> deserialized;
+    try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      deserialized = (List<FileAttributes>) objectInputStream.readObject();
+    }
+    FileAttributesTable fileAttributesTable = new FileAttributesTable();
+    fileAttributesTable.addAll(deserialized);
+    for (int i = 0; i < fileAttributesList.size(); i++) {
+      FileAttributes original = fileAttributesList.get(i);
+      assertEquals(original.getOtherCheckSumValues(), deserialized.get(i).getOtherCheckSumValues());
+      assertEquals(original.getOtherCheckSumValues(), fileAttributesTable.get(i).getOtherCheckSumValues());
+      assertEquals(original.getOtherCheckSumValues(), fileAttributesTable.materialize(i).getOtherCheckSumValues());
+      assertEquals(original.getCheckSumValue("MD5"), fileAttributesTable.get(i).getCheckSumValue("MD5"));
+    }
+    fileAttributesTable.get(2).setCheckSumValue("MD5", null);
+    assertNull(fileAttributesTable.getCheckSumValue(2, "MD5"));
+  }
+}
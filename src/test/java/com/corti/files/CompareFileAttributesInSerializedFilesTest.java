@@ -2,10 +2,19 @@ package com.corti.files;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.corti.files.checksum.CheckSum;
+import com.corti.files.checksum.MerkleTree;
 
 class CompareFileAttributesInSerializedFilesTest {
 
@@ -25,4 +34,83 @@ class CompareFileAttributesInSerializedFilesTest {
     }
   }
 
+  @Test
+  void testChecksumAlgorithmsMustMatch(@TempDir Path tempDir) throws Exception {
+    Path file = Files.write(tempDir.resolve("file.txt"), "some contents".getBytes());
+    List<FileAttributes> fastList = new ArrayList<FileAttributes>();
+    FileAttributes fast = new UnixFileAttributes(file);
+    fast.setStartingBasePath(tempDir.toString());
+    fast.setChecksumAlgorithm(CheckSum.XXH64);
+    fastList.add(fast);
+    Path fastFile = tempDir.resolve("fast.ser");
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesList(fastList, fastFile));
+
+    // The algorithm comes back with the snapshot
+    FileAttributes deserialized = SerializeOrDeserializeFileAttributes.deserializeFileAttributesList(fastFile).get(0);
+    assertEquals(CheckSum.XXH64, deserialized.getChecksumAlgorithm());
+    assertEquals(CheckSum.getFileCheckSumValue(file, CheckSum.XXH64), deserialized.getCheckSumValueIfSet());
+    FileAttributesTable fileAttributesTable = SerializeOrDeserializeFileAttributes.deserializeFileAttributesTable(fastFile);
+    assertEquals(CheckSum.XXH64, fileAttributesTable.get(0).getChecksumAlgorithm());
+    assertEquals(CheckSum.XXH64, fileAttributesTable.materialize(0).getChecksumAlgorithm());
+
+    CompareFileAttributesInSerializedFiles compare = new CompareFileAttributesInSerializedFiles(fastFile, fastFile);
+    FileAttributes sha256 = new UnixFileAttributes(file);
+    sha256.setStartingBasePath(tempDir.toString());
+    List<FileAttributes> sha256List = new ArrayList<FileAttributes>();
+    sha256List.add(sha256);
+    assertThrows(IllegalStateException.class, () -> compare.compArrays(fileAttributesTable.asList(), sha256List,
+        new ArrayList<Integer>(), new ArrayList<Integer>(), new ArrayList<CompareAttributes>()));
+
+    // Once the second one has an XXH64 checksum too they can be compared
+    sha256.computeCheckSumValues(CheckSum.XXH64);
+    List<CompareAttributes> changed = new ArrayList<CompareAttributes>();
+    compare.compArrays(fileAttributesTable.asList(), sha256List, new ArrayList<Integer>(), new ArrayList<Integer>(), changed);
+    assertEquals(0, changed.size());
+    assertEquals("SHA-256", sha256.getChecksumAlgorithm());
+
+    // Switching the algorithm keeps the checksum we had
+    String sha256Value = sha256.getCheckSumValue();
+    sha256.setChecksumAlgorithm(CheckSum.XXH64);
+    assertEquals(CheckSum.getFileCheckSumValue(file, CheckSum.XXH64), sha256.getCheckSumValueIfSet());
+    assertEquals(sha256Value, sha256.getCheckSumValueIfSet("SHA-256"));
+  }
+
+  @Test
+  void testChangedRangesFromBlockHashes(@TempDir Path tempDir) throws Exception {
+    byte[] contents = new byte[5 * 1024];
+    new Random(5).nextBytes(contents);
+    Path file = Files.write(tempDir.resolve("image.bin"), contents);
+    String algorithm = MerkleTree.getAlgorithmName(CheckSum.XXH64, 1024);
+
+    FileAttributes before = new UnixFileAttributes(file);
+    before.setStartingBasePath(tempDir.toString());
+    before.setChecksumAlgorithm(algorithm);
+    assertEquals(CheckSum.toHex(MerkleTree.compute(file, algorithm).getRoot()), before.getCheckSumValue());
+    assertEquals(5, before.getMerkleTree().getNumberOfBlocks());
+    Path snapshot = tempDir.resolve("before.ser");
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesList(Arrays.asList(before), snapshot));
+
+    contents[3000]++;
+    Files.write(file, contents);
+    FileAttributes after = new UnixFileAttributes(file);
+    after.setStartingBasePath(tempDir.toString());
+    after.setChecksumAlgorithm(algorithm);
+
+    // The tree comes back with the snapshot, and through a table
+    FileAttributesTable fileAttributesTable = SerializeOrDeserializeFileAttributes.deserializeFileAttributesTable(snapshot);
+    assertEquals(5, fileAttributesTable.getMerkleTree(0).getNumberOfBlocks());
+    List<CompareAttributes> changed = new ArrayList<CompareAttributes>();
+    new CompareFileAttributesInSerializedFiles(snapshot, snapshot).compArrays(fileAttributesTable.asList(), Arrays.asList(after),
+        new ArrayList<Integer>(), new ArrayList<Integer>(), changed);
+    assertEquals(1, changed.size());
+    assertEquals(ComparisonType.CHECKSUM, changed.get(0).deltaType);
+    assertEquals(Arrays.asList(new MerkleTree.ByteRange(2048, 3072)), changed.get(0).changedRanges);
+    assertNotNull(fileAttributesTable.materialize(0).getMerkleTree());
+
+    // Without block hashes we only know it changed
+    after.setChecksumAlgorithm(CheckSum.XXH64);
+    assertNull(after.getMerkleTree());
+    assertNull(CompareFileAttributesInSerializedFiles.getChangedRanges(fileAttributesTable.get(0), after));
+  }
+
 }
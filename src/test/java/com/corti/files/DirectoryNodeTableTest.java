@@ -0,0 +1,34 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class DirectoryNodeTableTest {
+
+  @Test
+  void testPathsComeBackTheSame() {
+    DirectoryNodeTable directoryNodeTable = new DirectoryNodeTable();
+    String[] paths = { "/home/dev/FileUtils/src/main/", "/home/dev/FileUtils/src/test/", "/home/dev/other/src/main/",
+                       "/", "C:\\seanduff\\workspace\\", "C:\\seanduff\\", "relative/dir", "", "/home/dev/FileUtils/src/main/" };
+    int[] ids = new int[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      ids[i] = directoryNodeTable.getId(paths[i]);
+      assertEquals(paths[i], directoryNodeTable.getPath(ids[i]));
+    }
+    assertEquals(ids[0], ids[8]);
+    assertEquals(DirectoryNodeTable.NO_NODE, directoryNodeTable.getId(null));
+    assertNull(directoryNodeTable.getPath(DirectoryNodeTable.NO_NODE));
+
+    // The shared part of the paths is only there once
+    int main = ids[0];
+    assertEquals("main/", directoryNodeTable.getName(main));
+    int src = directoryNodeTable.getParentId(main);
+    assertEquals(src, directoryNodeTable.getParentId(ids[1]));
+    assertEquals("/home/dev/FileUtils/src/", directoryNodeTable.getPath(src));
+    assertEquals("C:\\seanduff\\", directoryNodeTable.getPath(directoryNodeTable.getParentId(ids[4])));
+    assertEquals(ids[5], directoryNodeTable.getParentId(ids[4]));
+    assertEquals(16, directoryNodeTable.size());
+    assertEquals(14, directoryNodeTable.getNameCount());  // The second src/ and main/ are the same names
+  }
+}
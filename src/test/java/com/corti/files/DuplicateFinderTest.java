@@ -0,0 +1,78 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DuplicateFinderTest {
+
+  @Test
+  void testFindDuplicates(@TempDir Path tempDir) throws Exception {
+    Random random = new Random(3);
+    byte[] big = new byte[100000];
+    random.nextBytes(big);
+    byte[] bigMiddleChanged = big.clone();
+    bigMiddleChanged[50000]++;                // Same head and tail, only the full checksum tells
+    byte[] bigHeadChanged = big.clone();
+    bigHeadChanged[0]++;                      // Dropped by the partial hash
+
+    List<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>();
+    fileAttributesList.add(newFile(tempDir, "big1", big));
+    fileAttributesList.add(newFile(tempDir, "big2", big));
+    fileAttributesList.add(newFile(tempDir, "bigMiddle", bigMiddleChanged));
+    fileAttributesList.add(newFile(tempDir, "bigHead", bigHeadChanged));
+    fileAttributesList.add(newFile(tempDir, "small1", "small".getBytes()));
+    fileAttributesList.add(newFile(tempDir, "small2", "small".getBytes()));
+    fileAttributesList.add(newFile(tempDir, "small3", "smalL".getBytes()));
+    fileAttributesList.add(newFile(tempDir, "unique", "not the same size as anything".getBytes()));
+    fileAttributesList.add(newFile(tempDir, "empty1", new byte[0]));
+    fileAttributesList.add(newFile(tempDir, "empty2", new byte[0]));
+    fileAttributesList.add(new UnixFileAttributes(Files.createDirectory(tempDir.resolve("dir"))));
+
+    try (DuplicateFinder duplicateFinder = new DuplicateFinder()) {
+      duplicateFinder.setPartialHashBytes(4096);
+      duplicateFinder.setThreads(2);
+      List<List<FileAttributes>> duplicates = duplicateFinder.findDuplicates(fileAttributesList);
+
+      assertEquals(2, duplicates.size());
+      assertEquals(new HashSet<String>(Arrays.asList("big1", "big2")), getNames(duplicates.get(0)));  // Biggest first
+      assertEquals(new HashSet<String>(Arrays.asList("small1", "small2")), getNames(duplicates.get(1)));
+
+      assertEquals(7, duplicateFinder.getFilesAfterSize());
+      assertEquals(6, duplicateFinder.getFilesAfterPartialHash());  // bigHead is gone
+      assertEquals(4 * 100000L + 3 * 5 + 29, duplicateFinder.getTotalBytes());
+      // Partial hash of the 4 big files then all of the 3 big and 3 small ones left
+      assertEquals(4 * 8192L + 3 * 100000L + 3 * 5, duplicateFinder.getBytesRead());
+      assertNull(fileAttributesList.get(3).getCheckSumValueIfSet());
+
+      // The second time only bigHead doesn't have a checksum, so just that size is partial hashed again
+      assertEquals(2, duplicateFinder.findDuplicates(fileAttributesList).size());
+      assertEquals(4 * 8192L, duplicateFinder.getBytesRead());
+
+      duplicateFinder.setMinSize(0);
+      assertEquals(3, duplicateFinder.findDuplicates(fileAttributesList).size());
+    }
+  }
+
+  private static FileAttributes newFile(Path directory, String name, byte[] contents) throws Exception {
+    return new UnixFileAttributes(Files.write(directory.resolve(name), contents));
+  }
+
+  private static Set<String> getNames(List<FileAttributes> group) {
+    Set<String> names = new HashSet<String>();
+    for (FileAttributes fileAttributes : group) {
+      names.add(fileAttributes.getPath().getFileName().toString());
+    }
+    return names;
+  }
+}
@@ -0,0 +1,128 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.corti.files.checksum.CheckSum;
+import com.corti.files.checksum.MerkleTree;
+
+class FileAttributesRecordWriterTest {
+  static boolean notFileAttributesInitialized;
+
+  // Not a FileAttributes, the reader mustn't create (or initialize) it
+  static class NotFileAttributes {
+    static {
+      notFileAttributesInitialized = true;
+    }
+  }
+
+  @Test
+  void testClassRecordMustBeFileAttributes(@TempDir Path tempDir) throws Exception {
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream recordOutput = new DataOutputStream(record);
+    recordOutput.writeByte(FileAttributesRecordWriter.CLASS_RECORD);
+    recordOutput.writeUTF(NotFileAttributes.class.getName());
+    recordOutput.writeLong(0);
+
+    ByteArrayOutputStream file = new ByteArrayOutputStream();
+    DataOutputStream fileOutput = new DataOutputStream(file);
+    fileOutput.writeInt(FileAttributesRecordWriter.MAGIC);
+    fileOutput.writeShort(FileAttributesRecordWriter.VERSION);
+    fileOutput.writeInt(record.size());
+    record.writeTo(fileOutput);
+    fileOutput.writeInt(FileAttributesRecordWriter.END_OF_RECORDS);
+    Path doctored = Files.write(tempDir.resolve("doctored.farr"), file.toByteArray());
+
+    try (FileAttributesRecordReader reader = new FileAttributesRecordReader(doctored)) {
+      UncheckedIOException thrown = assertThrows(UncheckedIOException.class, () -> reader.hasNext());
+      assertTrue(thrown.getCause().getMessage().startsWith("Can't read record 0"), thrown.getCause().getMessage());
+    }
+    assertFalse(notFileAttributesInitialized);
+  }
+
+  @Test
+  void testRecordsRoundTrip(@TempDir Path tempDir) throws Exception {
+    Path realTempDir = tempDir.toRealPath();
+    byte[] contents = new byte[3 * 4096 + 7];
+    new Random(23).nextBytes(contents);
+    Path image = Files.write(realTempDir.resolve("image.bin"), contents);
+    Path text  = Files.write(realTempDir.resolve("notes.txt"), "some notes".getBytes());
+    Path dir   = Files.createDirectory(realTempDir.resolve("dir"));
+
+    List<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>();
+    FileAttributes imageAttributes = new UnixFileAttributes(image);
+    imageAttributes.setChecksumAlgorithm(MerkleTree.getAlgorithmName(CheckSum.XXH64, 4096));
+    imageAttributes.setCheckSumValue("MD5", CheckSum.getFileCheckSumValue(image, "MD5"));
+    fileAttributesList.add(imageAttributes);
+    DosFileAttributes textAttributes = new DosFileAttributes(text);
+    textAttributes.setHiddenFile(true);
+    textAttributes.setArchiveFlag(true);
+    fileAttributesList.add(textAttributes);
+    fileAttributesList.add(new UnixFileAttributes(dir));
+    for (FileAttributes fileAttributes : fileAttributesList) fileAttributes.setStartingBasePath(realTempDir.toString());
+
+    Path snapshot = realTempDir.resolve("snapshot.far");
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesRecords(fileAttributesList, snapshot));
+    assertTrue(FileAttributesRecordReader.isRecordFile(snapshot));
+
+    List<FileAttributes> readBack = new ArrayList<FileAttributes>();
+    try (FileAttributesRecordReader reader = new FileAttributesRecordReader(snapshot)) {
+      while (reader.hasNext()) readBack.add(reader.next());
+      assertTrue(reader.isComplete());
+      assertEquals(3, reader.getRecordsRead());
+    }
+    assertEquals(3, readBack.size());
+    for (int i = 0; i < readBack.size(); i++) {
+      FileAttributes expected = fileAttributesList.get(i);
+      FileAttributes actual   = readBack.get(i);
+      assertEquals(expected.getClass(), actual.getClass());
+      assertEquals(expected.getPath(), actual.getPath());
+      assertEquals(expected.getAbsolutePath(), actual.getAbsolutePath());
+      assertEquals(expected.getAbsoluteParentPath(), actual.getAbsoluteParentPath());
+      assertEquals(expected.getStartingBasePath(), actual.getStartingBasePath());
+      assertEquals(expected.getFileExtension(), actual.getFileExtension());
+      assertEquals(expected.getLastModifiedTime().toMillis(), actual.getLastModifiedTime().toMillis());  // Millis, same as writeObject
+      assertEquals(expected.getSizeInBytes(), actual.getSizeInBytes());
+      assertEquals(expected.isDirectory(), actual.isDirectory());
+      assertEquals(expected.getChecksumAlgorithm(), actual.getChecksumAlgorithm());
+      assertEquals(expected.getCheckSumValueIfSet(), actual.getCheckSumValueIfSet());
+      assertEquals(expected.getOtherCheckSumValues(), actual.getOtherCheckSumValues());
+    }
+    assertNull(readBack.get(2).getCheckSumValueIfSet());
+    assertEquals(4, readBack.get(0).getMerkleTree().getNumberOfBlocks());
+    assertTrue(((DosFileAttributes) readBack.get(1)).isHiddenFile());
+    assertTrue(((DosFileAttributes) readBack.get(1)).isArchiveFlag());
+    assertFalse(((DosFileAttributes) readBack.get(1)).isSystemFile());
+
+    // The deserialize methods pick the format, a table row is written as its real object
+    FileAttributesTable fileAttributesTable = SerializeOrDeserializeFileAttributes.deserializeFileAttributesTable(snapshot);
+    assertEquals(3, fileAttributesTable.size());
+    Path fromTable = realTempDir.resolve("fromTable.far");
+    try (FileAttributesRecordWriter writer = new FileAttributesRecordWriter(fromTable)) {
+      fileAttributesTable.asList().forEach(writer);
+    }
+    assertArrayEquals(Files.readAllBytes(snapshot), Files.readAllBytes(fromTable));
+    assertEquals(readBack.get(0).getCheckSumValue(),
+                 SerializeOrDeserializeFileAttributes.deserializeFileAttributesList(fromTable).get(0).getCheckSumValue());
+
+    // A writer that didn't finish, the whole records are still there
+    byte[] written = Files.readAllBytes(snapshot);
+    Path truncated = Files.write(realTempDir.resolve("truncated.far"), Arrays.copyOf(written, written.length - 10));
+    try (FileAttributesRecordReader reader = new FileAttributesRecordReader(truncated)) {
+      assertEquals(2, reader.stream().count());
+      assertFalse(reader.isComplete());
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileAttributesTableTest {
+  static boolean notFileAttributesInitialized;
+
+  // Not a FileAttributes, materialize mustn't create (or initialize) it
+  static class NotFileAttributes {
+    static {
+      notFileAttributesInitialized = true;
+    }
+  }
+
+  @Test
+  void testTableMatchesDeserializedList(@TempDir Path tempDir) throws Exception {
+    Path realTempDir = tempDir.toRealPath();
+    Files.createDirectories(realTempDir.resolve("src/main"));
+    Files.write(realTempDir.resolve("src/main/One.java"), "class One {}".getBytes());
+    Files.write(realTempDir.resolve("src/main/two.txt"), "two".getBytes());
+    Files.write(realTempDir.resolve("src/README"), "readme".getBytes());
+    Files.write(realTempDir.resolve("src/main/.hidden"), new byte[0]);
+
+    List<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>();
+    for (Path directory : new Path[] { realTempDir.resolve("src"), realTempDir.resolve("src/main") }) {
+      fileAttributesList.addAll(new GetFileAttributesForDirectory(directory, realTempDir).getFilesAttributes());
+    }
+    assertEquals(4, fileAttributesList.size());
+
+    Path serializedFile = realTempDir.resolve("list.ser");
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesList(fileAttributesList, serializedFile));
+    List<FileAttributes> deserialized = SerializeOrDeserializeFileAttributes.deserializeFileAttributesList(serializedFile);
+    FileAttributesTable fileAttributesTable = SerializeOrDeserializeFileAttributes.deserializeFileAttributesTable(serializedFile);
+    List<FileAttributes> rows = fileAttributesTable.asList();
+    assertEquals(deserialized.size(), rows.size());
+
+    for (int i = 0; i < rows.size(); i++) {
+      FileAttributes expected = deserialized.get(i);
+      FileAttributes row = rows.get(i);
+      assertEquals(expected.getPath(), row.getPath());
+      assertEquals(expected.getFileName(), row.getFileName());
+      assertEquals(expected.getAbsolutePath(), row.getAbsolutePath());
+      assertEquals(expected.getAbsoluteParentPath(), row.getAbsoluteParentPath());
+      assertEquals(expected.getFileExtension(), row.getFileExtension());
+      assertEquals(expected.getPathFromBaseAsUnix(), row.getPathFromBaseAsUnix());
+      assertEquals(expected.getLastModifiedTime(), row.getLastModifiedTime());
+      assertEquals(expected.getSizeInBytes(), row.getSizeInBytes());
+      assertEquals(expected.isDirectory(), row.isDirectory());
+      assertEquals(expected.isRegularFile(), row.isRegularFile());
+      assertEquals(expected.getCheckSumValue(), row.getCheckSumValue());
+      assertEquals(expected.getClassName(), row.getClassName());
+      assertEquals(expected.toString(), fileAttributesTable.materialize(i).toString());
+      if (expected.isRegularFile()) assertEquals(32, fileAttributesTable.getCheckSumBytes(i).length);
+    }
+
+    // Serializing the table gives back the same file
+    Path tableFile = realTempDir.resolve("table.ser");
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesList(rows, tableFile));
+    assertArrayEquals(Files.readAllBytes(serializedFile), Files.readAllBytes(tableFile));
+
+    // Compare works on the views, nothing's different
+    List<Integer> inFirstNotSecond = new ArrayList<Integer>();
+    List<Integer> inSecondNotFirst = new ArrayList<Integer>();
+    List<CompareAttributes> inBothButDiff = new ArrayList<CompareAttributes>();
+    new CompareFileAttributesInSerializedFiles(serializedFile, tableFile)
+        .compArrays(deserialized, rows, inFirstNotSecond, inSecondNotFirst, inBothButDiff);
+    assertTrue(inFirstNotSecond.isEmpty());
+    assertTrue(inSecondNotFirst.isEmpty());
+    assertTrue(inBothButDiff.isEmpty());
+  }
+
+  @Test
+  void testOddValuesAndUpdates(@TempDir Path tempDir) throws Exception {
+    Path file = Files.write(tempDir.toRealPath().resolve("data.bin"), "data".getBytes());
+    FileAttributes odd = new UnixFileAttributes(file);
+    odd.setStartingBasePath(file.getParent().toString());
+    odd.setAbsolutePath("/somewhere/else/data.bin");
+    odd.setCheckSumValue("NOT-HEX");
+    FileAttributes noChecksum = new UnixFileAttributes(file);
+    noChecksum.setStartingBasePath("");
+
+    FileAttributesTable fileAttributesTable = new FileAttributesTable(1);
+    fileAttributesTable.add(odd);
+    for (int i = 0; i < 100; i++) {
+      fileAttributesTable.add(noChecksum);  // Makes the table grow
+    }
+    assertEquals(101, fileAttributesTable.size());
+    assertEquals("/somewhere/else/data.bin", fileAttributesTable.getAbsolutePath(0));
+    assertEquals(file.toString(), fileAttributesTable.getPathString(0));
+    assertEquals("NOT-HEX", fileAttributesTable.getCheckSumValue(0));
+    assertNull(fileAttributesTable.getCheckSumBytes(0));
+    assertNull(fileAttributesTable.getCheckSumValue(50));
+    assertEquals(file.toString(), fileAttributesTable.getAbsolutePath(50));
+
+    FileAttributes row = fileAttributesTable.get(50);
+    row.setCheckSumValue("00ff");
+    row.setStartingBasePath(file.getParent().toString());
+    assertEquals("00ff", row.getCheckSumValue());
+    assertArrayEquals(new byte[] { 0, (byte) 0xff }, fileAttributesTable.getCheckSumBytes(50));
+    assertEquals("data.bin", row.getPathFromBaseAsUnix());
+    assertThrows(UnsupportedOperationException.class, () -> row.setSizeInBytes(1));
+    assertThrows(IndexOutOfBoundsException.class, () -> fileAttributesTable.get(101));
+
+    // Adding rows from another table
+    FileAttributesTable copy = new FileAttributesTable();
+    copy.addAll(fileAttributesTable.asList());
+    assertEquals(fileAttributesTable.get(0).toString(), copy.get(0).toString());
+    assertEquals("00ff", copy.getCheckSumValue(50));
+    assertTrue(copy.materialize(0) instanceof UnixFileAttributes);
+  }
+
+  @Test
+  void testMaterializeOnlyCreatesFileAttributes(@TempDir Path tempDir) throws Exception {
+    Path file = Files.write(tempDir.toRealPath().resolve("data.bin"), "data".getBytes());
+    FileAttributes fileAttributes = new UnixFileAttributes(file);
+    fileAttributes.className = NotFileAttributes.class.getName();  // i.e. what a doctored .ser file has
+    FileAttributesTable fileAttributesTable = new FileAttributesTable();
+    fileAttributesTable.add(fileAttributes);
+
+    assertThrows(IllegalStateException.class, () -> fileAttributesTable.materialize(0));
+    assertFalse(notFileAttributesInitialized);
+  }
+}
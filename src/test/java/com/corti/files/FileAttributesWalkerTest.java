@@ -0,0 +1,159 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileAttributesWalkerTest {
+
+  @Test
+  void testWalkMatchesPathConstructor(@TempDir Path tempDir) throws Exception {
+    Path srcDir = Files.createDirectories(tempDir.resolve("proj").resolve("src"));
+    Files.write(srcDir.resolve("Main.java"), "class Main {}".getBytes());
+    Files.write(tempDir.resolve("proj").resolve("readme.md"), "# readme".getBytes());
+    Files.createDirectories(tempDir.resolve("proj").resolve("target"));
+    Files.write(tempDir.resolve("proj").resolve("target").resolve("Main.class"), "xx".getBytes());
+
+    FileAttributesWalker walker = new FileAttributesWalker(tempDir);
+    walker.setPaths2Exclude("glob:**/target");
+    List<FileAttributes> walked = walker.getFilesAttributes();
+
+    List<String> names = walked.stream().map(FileAttributes::getPathFromBaseAsUnix).collect(Collectors.toList());
+    Collections.sort(names);
+    assertEquals(2, names.size());
+    assertEquals("proj/readme.md", names.get(0));
+    assertEquals("proj/src/Main.java", names.get(1));
+
+    // Attributes from the walk should be the same as reading the file directly
+    for (FileAttributes fromWalk : walked) {
+      FileAttributes fromPath = (fromWalk instanceof UnixFileAttributes ? new UnixFileAttributes(fromWalk.getPath())
+                                                                        : new DosFileAttributes(fromWalk.getPath()));
+      assertEquals(fromPath.getAbsolutePath(), fromWalk.getAbsolutePath());
+      assertEquals(fromPath.getAbsoluteParentPath(), fromWalk.getAbsoluteParentPath());
+      assertEquals(fromPath.getFileExtension(), fromWalk.getFileExtension());
+      assertEquals(fromPath.getSizeInBytes(), fromWalk.getSizeInBytes());
+      assertEquals(fromPath.getLastModifiedTime(), fromWalk.getLastModifiedTime());
+    }
+
+    // Depth 0 is only the starting directory
+    walker.setMaxDepth(0);
+    assertEquals(0, walker.getFilesAttributes().size());
+  }
+
+  @Test
+  void testStayOnFileSystem(@TempDir Path tempDir) throws Exception {
+    Files.createDirectories(tempDir.resolve("a").resolve("b"));
+    Files.write(tempDir.resolve("a").resolve("b").resolve("file.txt"), "text".getBytes());
+
+    // Everything's on the one file system so we get the same files
+    FileAttributesWalker walker = new FileAttributesWalker(tempDir);
+    walker.setStayOnFileSystem(true);
+    assertEquals(1, walker.getFilesAttributes().size());
+
+    // The cached answer is the same as asking the file store
+    Path file = tempDir.resolve("a").resolve("b").resolve("file.txt");
+    boolean expected = Files.getFileStore(file).supportsFileAttributeView(PosixFileAttributeView.class);
+    assertEquals(expected, FileStoreCache.supportsPosix(file));
+    assertEquals(expected, FileStoreCache.supportsPosix(file));
+    assertEquals(FileStoreCache.getFileSystemId(tempDir), FileStoreCache.getFileSystemId(file));
+
+    // The walkers pass the attributes they read for a directory, the device in them is the same id
+    Object startingFileSystemId = walker.getStartingFileSystemId(tempDir);
+    BasicFileAttributes directoryAttributes = walker.readEntryAttributes(tempDir.resolve("a"), walker.getAttributesClass(tempDir), false);
+    assertFalse(walker.isOtherFileSystem(tempDir.resolve("a"), directoryAttributes, startingFileSystemId));
+    assertEquals(walker.getAttributesClass(tempDir), walker.getAttributesClass(tempDir.resolve("a"), directoryAttributes));
+
+    // /proc is it's own file system on linux
+    Path proc = Paths.get("/proc");
+    if (Files.isDirectory(proc) && Files.getFileStore(proc).equals(Files.getFileStore(tempDir)) == false) {
+      assertNotEquals(FileStoreCache.getFileSystemId(tempDir), FileStoreCache.getFileSystemId(proc));
+      assertTrue(walker.isOtherFileSystem(proc, startingFileSystemId));
+      BasicFileAttributes procAttributes = walker.readEntryAttributes(proc, walker.getAttributesClass(tempDir), false);
+      assertTrue(walker.isOtherFileSystem(proc, procAttributes, startingFileSystemId));
+    }
+  }
+
+  @Test
+  void testNum2ProcessStopsTheWalk(@TempDir Path tempDir) throws Exception {
+    // 10 directories with 5 files and 10 subdirectories (5 files each)
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 10; j++) {
+        Path aDir = Files.createDirectories(tempDir.resolve("dir" + i).resolve("sub" + j));
+        for (int k = 0; k < 5; k++) {
+          Files.write(aDir.resolve("file" + k + ".txt"), "text".getBytes());
+          Files.write(aDir.getParent().resolve("file" + k + ".txt"), "text".getBytes());
+        }
+      }
+    }
+
+    // couldIncludeBelow is asked right before a directory is listed
+    final List<Path> listed = new ArrayList<Path>();
+    FileAttributesWalker walker = new FileAttributesWalker(tempDir) {
+      @Override
+      protected boolean couldIncludeBelow(Path directory) {
+        listed.add(directory);
+        return super.couldIncludeBelow(directory);
+      }
+    };
+    walker.setNum2Process(7);
+
+    // Depth first: the start, a dir? (5 files) and one of it's subdirectories (2 more)
+    assertEquals(7, walker.getFilesAttributes().size());
+    assertEquals(3, listed.size(), "Listed: " + listed);
+
+    // The iterator is breadth first: the start then two dir? (5 + 2)
+    listed.clear();
+    int count = 0;
+    try (FileAttributesIterator iterator = walker.iterateFileAttributes(tempDir, tempDir)) {
+      while (iterator.hasNext()) {
+        iterator.next();
+        count++;
+      }
+    }
+    assertEquals(7, count);
+    assertEquals(3, listed.size(), "Listed: " + listed);
+  }
+
+  @Test
+  void testFilesUnderLinkedDirectoriesAreUnderTheTarget(@TempDir Path tempDir) throws Exception {
+    Path realTempDir = tempDir.toRealPath();
+    Path realDir = Files.createDirectories(realTempDir.resolve("real"));
+    Files.write(realDir.resolve("f.txt"), "text".getBytes());
+    Path top = Files.createDirectories(realTempDir.resolve("top"));
+    try {
+      Files.createSymbolicLink(top.resolve("link"), realDir);
+    } catch (UnsupportedOperationException | IOException e) {
+      return;  // Can't make links here (windows without the privilege)
+    }
+    String expected = realDir.resolve("f.txt").toString();
+
+    // The iterator follows directory links, the file is recorded under the target like getCanonicalPath() does
+    Set<String> iterated = new TreeSet<String>();
+    try (FileAttributesIterator iterator = new FileAttributesWalker(top).iterateFileAttributes(top, top)) {
+      while (iterator.hasNext()) iterated.add(iterator.next().getAbsolutePath());
+    }
+    assertEquals(Collections.singleton(expected), iterated);
+
+    // Listing the link directory itself
+    List<FileAttributes> listed = new GetFileAttributesForDirectory(top.resolve("link"), top).getFilesAttributes();
+    assertEquals(1, listed.size());
+    assertEquals(expected, listed.get(0).getAbsolutePath());
+    assertEquals(realDir.toString() + File.separator, listed.get(0).getAbsoluteParentPath());
+  }
+
+}
@@ -1,13 +1,18 @@
 package com.corti.files;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import com.corti.files.GetDirectoriesFromPath;
 
@@ -147,4 +152,86 @@ class GetDirectoriesFromPathTest {
     }
   }
 
+  @Test
+  void testParallelWalkMatchesSequential(@TempDir Path tempDir) throws Exception {
+    // Build a small tree: 3 top level directories, each with 4 children, each with 2 children
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int k = 0; k < 2; k++) {
+          Files.createDirectories(tempDir.resolve("dir" + i).resolve("sub" + j).resolve("leaf" + k));
+        }
+      }
+    }
+    Files.createDirectories(tempDir.resolve("dir0").resolve("target").resolve("classes"));
+    
+    GetDirectoriesFromPath sequential = new GetDirectoriesFromPath(tempDir);
+    sequential.setMaxDepth(2);
+    sequential.runIt();
+    
+    GetDirectoriesFromPath parallel = new GetDirectoriesFromPath(tempDir);
+    parallel.setMaxDepth(2);
+    parallel.setParallelWalk(true);
+    parallel.setParallelism(4);
+    parallel.runIt();
+    
+    // 1 starting dir + 3 + 12 (the leaf's are below max depth and target is excluded by default)
+    assertEquals(16, sequential.getFiles().size());
+    assertEquals(new HashSet<Path>(sequential.getFiles()), new HashSet<Path>(parallel.getFiles()));
+    assertEquals(tempDir, parallel.getFiles().get(0));
+  }
+
+  @Test
+  void testNum2ProcessStopsTheWalk(@TempDir Path tempDir) throws Exception {
+    // 10 directories with 10 subdirectories each
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 10; j++) {
+        Files.createDirectories(tempDir.resolve("dir" + i).resolve("sub" + j));
+      }
+    }
+
+    for (boolean parallelWalk : new boolean[] { false, true }) {
+      Queue<Path> listed = new ConcurrentLinkedQueue<Path>();
+      GetDirectoriesFromPath me = newListingRecorder(tempDir, listed);
+      me.setParallelWalk(parallelWalk);
+      me.setNum2Process(5);
+      me.runIt();
+      // The starting directory and 4 below it, nothing past the first listing
+      assertEquals(5, me.getFiles().size(), "Parallel: " + parallelWalk);
+      assertEquals(tempDir, me.getFiles().get(0));
+      assertEquals(1, listed.size(), "Parallel: " + parallelWalk + " listed: " + listed);
+    }
+
+    // Sequential is breadth first: the start (11 with it's children), dir? (21), then 4 more from the next one
+    Queue<Path> listed = new ConcurrentLinkedQueue<Path>();
+    GetDirectoriesFromPath me = newListingRecorder(tempDir, listed);
+    me.setNum2Process(25);
+    me.runIt();
+    assertEquals(25, me.getFiles().size());
+    assertEquals(3, listed.size(), "Listed: " + listed);
+
+    // Parallel tasks race for the quota but the list is still exactly num2Process; it's reached
+    //   listing the second dir?, which tasks were already going by then varies but it's nowhere
+    //   near the 111 directories there are
+    listed = new ConcurrentLinkedQueue<Path>();
+    me = newListingRecorder(tempDir, listed);
+    me.setParallelWalk(true);
+    me.setParallelism(4);
+    me.setNum2Process(25);
+    me.runIt();
+    assertEquals(25, me.getFiles().size());
+    assertEquals(tempDir, me.getFiles().get(0));
+    assertTrue(listed.size() >= 3 && listed.size() <= 30, "Listed: " + listed);
+  }
+
+  // Keeps the directories that get listed, couldIncludeBelow is asked right before a directory is listed
+  private static GetDirectoriesFromPath newListingRecorder(Path startingPath, final Queue<Path> listed) {
+    return new GetDirectoriesFromPath(startingPath) {
+      @Override
+      protected boolean couldIncludeBelow(Path directory) {
+        listed.add(directory);
+        return super.couldIncludeBelow(directory);
+      }
+    };
+  }
+
 }
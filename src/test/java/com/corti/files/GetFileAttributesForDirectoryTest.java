@@ -1,13 +1,19 @@
 package com.corti.files;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import com.corti.files.GetDirectoriesFromPath;
 
@@ -54,4 +60,63 @@ class GetFileAttributesForDirectoryTest {
     }
   }
 
+  @Test
+  void testStreamFileAttributes(@TempDir Path tempDir) throws Exception {
+    for (int i = 0; i < 3; i++) {
+      Path aDir = Files.createDirectories(tempDir.resolve("dir" + i).resolve("src"));
+      Files.write(aDir.resolve("Test" + i + ".java"), ("class Test" + i + " {}").getBytes());
+      Files.write(aDir.resolve("notes" + i + ".txt"), "notes".getBytes());
+    }
+    Files.createDirectories(tempDir.resolve("dir0").resolve("skipMe"));
+    Files.write(tempDir.resolve("dir0").resolve("skipMe").resolve("Skipped.java"), "skip".getBytes());
+    
+    GetDirectoriesFromPath me = new GetDirectoriesFromPath(tempDir);
+    me.setPaths2Include("glob:**.java");
+    me.setPaths2Exclude("glob:**/skipMe");
+    try (Stream<FileAttributes> stream = me.streamFileAttributes()) {
+      List<String> names = stream.map(FileAttributes::getPathFromBaseAsUnix).sorted().collect(Collectors.toList());
+      assertEquals(3, names.size());
+      assertEquals("dir0/src/Test0.java", names.get(0));
+    }
+    
+    // Limit is applied as we go
+    me.setNum2Process(2);
+    try (Stream<FileAttributes> stream = me.streamFileAttributes()) {
+      assertEquals(2, stream.count());
+    }
+    
+    // Directory version only looks at the one directory
+    GetFileAttributesForDirectory forDirectory = 
+        new GetFileAttributesForDirectory(tempDir.resolve("dir1").resolve("src"), tempDir);
+    try (Stream<FileAttributes> stream = forDirectory.streamFilesAttributes()) {
+      assertEquals(2, stream.count());
+    }
+  }
+
+  @Test
+  void testNum2ProcessStopsReadingTheDirectory(@TempDir Path tempDir) throws Exception {
+    for (int i = 0; i < 20; i++) {
+      Files.write(tempDir.resolve("file" + i + ".txt"), ("contents " + i).getBytes());
+    }
+
+    final List<Path> read = new ArrayList<Path>();
+    GetFileAttributesForDirectory forDirectory = new GetFileAttributesForDirectory(tempDir, tempDir) {
+      @Override
+      protected BasicFileAttributes readEntryAttributes(Path entry, Class<? extends BasicFileAttributes> attributesClass,
+                                                        boolean followLinks) throws IOException {
+        read.add(entry);
+        return super.readEntryAttributes(entry, attributesClass, followLinks);
+      }
+    };
+    forDirectory.setNum2Process(5);
+    assertEquals(5, forDirectory.getFilesAttributes().size());
+    assertEquals(5, read.size());  // The rest of the directory isn't read
+
+    read.clear();
+    try (Stream<FileAttributes> stream = forDirectory.streamFilesAttributes()) {
+      assertEquals(5, stream.count());
+    }
+    assertEquals(5, read.size());
+  }
+
 }
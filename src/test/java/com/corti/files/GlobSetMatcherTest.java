@@ -0,0 +1,149 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GlobSetMatcherTest {
+
+  private static final List<String> GLOBS = Arrays.asList(
+      "glob:**/target*", "glob:**/workspace/.metadata*", "glob:**.{java,properties,gitignore}",
+      "glob:/home/*/src", "glob:**/FileUtils**", "glob:**/[a-c]?x/**", "glob:**/[!a-y]*.txt",
+      "glob:**/dir\\{1\\}", "glob:**/{a,bd,c?}/end", "glob:**/*.{,bak}",
+      // Classes: '^' is a character, '\\' isn't an escape, leading/trailing '-'
+      "glob:/c/[^b]", "glob:/c/[\\]", "glob:/c/[\\]]", "glob:/c/[!-a]", "glob:/c/[a-]x", "glob:/c/[+-0]y", "glob:/c/[a\\-c]z");
+
+  private static final List<String> PATHS = Arrays.asList(
+      "/home/dev/target", "/home/dev/targets", "/home/dev/target/x", "/home/dev/workspace/.metadata",
+      "/home/dev/workspace/.metadata.plugins", "/x/Test.java", "/x/y.properties", "/x/.gitignore",
+      "/home/dev/src", "/home/dev/more/src", "/home/dev/FileUtils", "/home/dev/FileUtils/src",
+      "/q/abx/z", "/q/dbx/z", "/q/zed.txt", "/q/abc.txt", "/q/dir{1}", "/q/dir1", "/q/a/end",
+      "/q/bd/end", "/q/bx/end", "/q/x.", "/q/x.bak", "/q/x.baz", "/", "/q/cz/end",
+      "/c/b", "/c/^", "/c/c", "/c/\\", "/c/\\]", "/c/]", "/c/-", "/c/a", "/c/-x", "/c/ax", "/c/bx", "/c/+y", "/c/0y",
+      "/c/.y", "/c/^z", "/c/\\z", "/c/bz", "/c/dz");
+
+  @Test
+  void testSameAnswersAsPathMatchers() {
+    FileSystem fileSystem = FileSystems.getDefault();
+    GlobSetMatcher globSetMatcher = new GlobSetMatcher(GLOBS, false, '/');
+    assertEquals(GLOBS.size(), globSetMatcher.size());
+    for (String pathName : PATHS) {
+      Path path = Paths.get(pathName);
+      boolean expected = false;
+      for (String glob : GLOBS) {
+        PathMatcher pathMatcher = fileSystem.getPathMatcher(glob);
+        if (pathMatcher.matches(path)) expected = true;
+      }
+      assertEquals(expected, globSetMatcher.matches(path), "Path: " + pathName);
+    }
+  }
+
+  @Test
+  void testEachGlobOnItsOwn() {
+    FileSystem fileSystem = FileSystems.getDefault();
+    for (String glob : GLOBS) {
+      GlobSetMatcher globSetMatcher = new GlobSetMatcher(Collections.singletonList(glob), false, '/');
+      PathMatcher pathMatcher = fileSystem.getPathMatcher(glob);
+      for (String pathName : PATHS) {
+        Path path = Paths.get(pathName);
+        assertEquals(pathMatcher.matches(path), globSetMatcher.matches(path), "Glob: " + glob + " path: " + pathName);
+      }
+    }
+  }
+
+  @Test
+  void testIgnoreCaseAndRegex() {
+    List<String> patterns = new ArrayList<String>();
+    patterns.add("glob:**/FileUtils/**");
+    patterns.add("regex:.*/BUILD-[0-9]+");
+    GlobSetMatcher globSetMatcher = new GlobSetMatcher(patterns, true, '/');
+    assertTrue(globSetMatcher.matches("/home/dev/fileutils/src"));
+    assertTrue(globSetMatcher.matches("/HOME/DEV/FILEUTILS/SRC"));
+    assertTrue(globSetMatcher.matches("/out/build-42"));
+    assertFalse(globSetMatcher.matches("/home/dev/fileutil/src"));
+    assertTrue(globSetMatcher.matches("/home/\u00c9T\u00c9/FileUtils/x"));
+
+    GlobSetMatcher caseSensitive = new GlobSetMatcher(patterns, false, '/');
+    assertFalse(caseSensitive.matches("/home/dev/fileutils/src"));
+    assertFalse(caseSensitive.matches("/out/build-42"));
+
+    assertThrows(IllegalArgumentException.class, () -> new GlobSetMatcher(Arrays.asList("glob:[abc"), false, '/'));
+    assertThrows(IllegalArgumentException.class, () -> new GlobSetMatcher(Arrays.asList("glob:{a,{b}}"), false, '/'));
+    assertThrows(IllegalArgumentException.class, () -> new GlobSetMatcher(Arrays.asList("foo:*"), false, '/'));
+    // The jdk rejects these too
+    for (String glob : Arrays.asList("glob:/a/[]a]", "glob:/a/[!]", "glob:/a/[^-a]", "glob:/a/[a-c-e]", "glob:/a/[a-\\]", "glob:/a/[a/b]")) {
+      assertThrows(IllegalArgumentException.class, () -> FileSystems.getDefault().getPathMatcher(glob), glob);
+      assertThrows(IllegalArgumentException.class, () -> new GlobSetMatcher(Arrays.asList(glob), false, '/'), glob);
+    }
+  }
+
+  @Test
+  void testCouldMatchBelow() {
+    GlobSetMatcher globSetMatcher = new GlobSetMatcher(Arrays.asList("glob:/data/projects/*/src/**", "glob:/data/{logs,tmp}/*.log"), false, '/');
+    assertTrue(globSetMatcher.couldMatchBelow("/"));
+    assertTrue(globSetMatcher.couldMatchBelow("/data"));
+    assertTrue(globSetMatcher.couldMatchBelow("/data/projects"));
+    assertTrue(globSetMatcher.couldMatchBelow("/data/projects/FileUtils"));
+    assertTrue(globSetMatcher.couldMatchBelow("/data/projects/FileUtils/src/main"));
+    assertTrue(globSetMatcher.couldMatchBelow("/data/logs"));
+    assertFalse(globSetMatcher.couldMatchBelow("/data/logs/old"));
+    assertFalse(globSetMatcher.couldMatchBelow("/data/projects/FileUtils/docs"));
+    assertFalse(globSetMatcher.couldMatchBelow("/data/other"));
+    assertFalse(globSetMatcher.couldMatchBelow("/home"));
+
+    // Can't tell with regex so it's always true
+    GlobSetMatcher withRegex = new GlobSetMatcher(Arrays.asList("glob:/data/*", "regex:/x/.*"), false, '/');
+    assertTrue(withRegex.couldMatchBelow("/home"));
+  }
+
+  @Test
+  void testIncludePrunesWalk(@TempDir Path tempDir) throws Exception {
+    Path realTempDir = tempDir.toRealPath();
+    Files.createDirectories(realTempDir.resolve("projects/a/src/main"));
+    Files.createDirectories(realTempDir.resolve("projects/b/src/test"));
+    Files.createDirectories(realTempDir.resolve("projects/a/docs/x"));
+    Files.createDirectories(realTempDir.resolve("other/deep/src/y"));
+
+    GetDirectoriesFromPath me = new GetDirectoriesFromPath(realTempDir);
+    me.setPaths2Include("glob:" + realTempDir.toString() + "/projects/*/src/**");
+    assertTrue(me.couldIncludeBelow(realTempDir.resolve("projects/a")));
+    assertFalse(me.couldIncludeBelow(realTempDir.resolve("projects/a/docs")));
+    assertFalse(me.couldIncludeBelow(realTempDir.resolve("other")));
+    me.runIt();
+    List<Path> expected = Arrays.asList(realTempDir.resolve("projects/a/src/main"), realTempDir.resolve("projects/b/src/test"));
+    List<Path> found = new ArrayList<Path>(me.getFiles());
+    Collections.sort(found);
+    assertEquals(expected, found);
+  }
+
+  @Test
+  void testManyPatternsThroughCommon() {
+    GetDirectoriesFromPath me = new GetDirectoriesFromPath(Paths.get("/"));
+    me.setPathMatcherIgnoreCase(true);
+    for (int i = 0; i < 250; i++) {
+      me.setPaths2Exclude("glob:**/Exclude" + i + "/**");
+    }
+    me.setPaths2Exclude("glob:**/target*");
+    assertTrue(me.isPathExcluded(Paths.get("/home/dev/EXCLUDE123/x")));
+    assertTrue(me.isPathExcluded(Paths.get("/home/dev/proj/Target")));
+    assertFalse(me.isPathExcluded(Paths.get("/home/dev/exclude250/x")));
+
+    // Adding after the matcher was built is picked up
+    me.setPaths2Exclude("glob:**/exclude250/**");
+    assertTrue(me.isPathExcluded(Paths.get("/home/dev/exclude250/x")));
+    me.clearPaths2Exclude();
+    assertFalse(me.isPathExcluded(Paths.get("/home/dev/proj/target")));
+  }
+}
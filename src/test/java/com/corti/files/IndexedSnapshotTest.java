@@ -0,0 +1,96 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.corti.files.checksum.CheckSum;
+import com.corti.files.compress.Codec;
+
+class IndexedSnapshotTest {
+
+  @Test
+  void testLookups(@TempDir Path tempDir) throws Exception {
+    Path realTempDir = tempDir.toRealPath();
+    Path base = Files.createDirectory(realTempDir.resolve("base"));
+    List<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>();
+    // b-c and bc sort next to b, they mustn't show up under it
+    for (String directory : Arrays.asList("a", "a/b", "a/b-c", "a/bc", "a/b/deeper")) {
+      fileAttributesList.add(newAttributes(base, Files.createDirectory(base.resolve(directory))));
+    }
+    for (int i = 0; i < 400; i++) {
+      String directory = (i % 4 == 0 ? "a/b" : i % 4 == 1 ? "a/b-c" : i % 4 == 2 ? "a/bc" : "a/b/deeper");
+      Path file = Files.write(base.resolve(directory).resolve(String.format("file%04d.txt", i)), ("contents of " + i).getBytes());
+      fileAttributesList.add(newAttributes(base, file));
+    }
+    Collections.sort(fileAttributesList, new Comparator<FileAttributes>() {
+      @Override
+      public int compare(FileAttributes a, FileAttributes b) {
+        return IndexedSnapshotWriter.getKey(a).compareTo(IndexedSnapshotWriter.getKey(b));
+      }
+    });
+
+    Path snapshot = realTempDir.resolve("snapshot.fasi");
+    try (IndexedSnapshotWriter writer = new IndexedSnapshotWriter(snapshot, Codec.LZ4, 0)) {
+      writer.setBlockSize(2048);
+      for (FileAttributes fileAttributes : fileAttributesList) writer.write(fileAttributes);
+      assertThrows(IllegalArgumentException.class, () -> writer.write(fileAttributesList.get(0)));
+    }
+
+    try (IndexedSnapshotReader reader = new IndexedSnapshotReader(snapshot)) {
+      assertEquals(405, reader.getNumberOfRecords());
+      assertTrue(reader.getNumberOfBlocks() > 20, "Blocks: " + reader.getNumberOfBlocks());
+
+      FileAttributes found = reader.get("a/bc/file0006.txt");
+      assertEquals(base.resolve("a/bc/file0006.txt").toString(), found.getAbsolutePath());
+      assertEquals("contents of 6".length(), found.getSizeInBytes());
+      assertEquals(CheckSum.getFileCheckSumValue(base.resolve("a/bc/file0006.txt"), "SHA-256"), found.getCheckSumValue());
+      // Footer, a few index entries and one block, not the file
+      assertTrue(reader.getBytesRead() < 2 * 2048 + 1024, "Read " + reader.getBytesRead() + " of " + Files.size(snapshot));
+
+      assertNull(reader.get("a/bc/file0007.txt"));
+      assertNull(reader.get("0"));
+      assertNull(reader.get("z"));
+      assertTrue(reader.get("a/b").isDirectory());
+
+      List<String> underB = reader.getDirectory("a/b/").stream().map(IndexedSnapshotWriter::getKey).collect(Collectors.toList());
+      assertEquals(1 + 1 + 100 + 100, underB.size());   // a/b, a/b/deeper and the files in both
+      assertEquals("a/b", underB.get(0));
+      for (String key : underB.subList(1, underB.size())) assertTrue(key.startsWith("a/b/"), key);
+      assertEquals(100, reader.getDirectory("a/b-c").size() - 1);
+      assertEquals(405, reader.getDirectory("").size());
+
+      List<String> streamed = reader.stream().map(IndexedSnapshotWriter::getKey).collect(Collectors.toList());
+      assertEquals(fileAttributesList.stream().map(IndexedSnapshotWriter::getKey).collect(Collectors.toList()), streamed);
+    }
+
+    // The deserialize methods read it too, serializeFileAttributesIndexed sorts for you
+    Collections.reverse(fileAttributesList);
+    Path fromList = realTempDir.resolve("fromList.fasi");
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesIndexed(fileAttributesList, fromList, Codec.DEFLATE, 6));
+    assertEquals(405, SerializeOrDeserializeFileAttributes.deserializeFileAttributesList(fromList).size());
+    assertEquals("a", SerializeOrDeserializeFileAttributes.deserializeFileAttributesTable(fromList).asList().get(0).getPathFromBaseAsUnix());
+
+    // No footer, the writer didn't finish
+    byte[] written = Files.readAllBytes(snapshot);
+    Path truncated = Files.write(realTempDir.resolve("truncated.fasi"), Arrays.copyOf(written, written.length - 8));
+    assertThrows(IOException.class, () -> new IndexedSnapshotReader(truncated));
+  }
+
+  private static FileAttributes newAttributes(Path base, Path path) throws Exception {
+    FileAttributes fileAttributes = new UnixFileAttributes(path);
+    fileAttributes.setStartingBasePath(base.toString());
+    return fileAttributes;
+  }
+}
@@ -0,0 +1,86 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+class PipelinedFileScannerTest {
+
+  @Test
+  void testScanMatchesWalker(@TempDir Path tempDir) throws Exception {
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 5; j++) {
+        Path aDir = Files.createDirectories(tempDir.resolve("dir" + i).resolve("sub" + j));
+        for (int k = 0; k < 4; k++) {
+          Files.write(aDir.resolve("file" + k + ".txt"), ("contents " + i + j + k).getBytes());
+        }
+      }
+    }
+
+    Set<String> fromWalker = new HashSet<String>();
+    for (FileAttributes fileAttributes : new FileAttributesWalker(tempDir).getFilesAttributes()) {
+      fromWalker.add(fileAttributes.getPathFromBaseAsUnix());
+    }
+
+    PipelinedFileScanner scanner = new PipelinedFileScanner(tempDir);
+    scanner.setListingThreads(3);
+    scanner.setAttributeThreads(2);
+    scanner.setCheckSumThreads(2);
+    scanner.setQueueCapacity(8);  // Small so the stages have to wait on each other
+    List<FileAttributes> scanned = new ArrayList<FileAttributes>();
+    long numberScanned = scanner.scan(scanned::add);
+
+    assertEquals(100, numberScanned);
+    Set<String> fromScanner = new HashSet<String>();
+    for (FileAttributes fileAttributes : scanned) {
+      fromScanner.add(fileAttributes.getPathFromBaseAsUnix());
+      assertNotNull(fileAttributes.checkSumBytes);  // Filled in by the checksum stage
+    }
+    assertEquals(fromWalker, fromScanner);
+
+    // Limit stops the listing
+    scanner.setNum2Process(7);
+    scanner.setCheckSumThreads(0);
+    assertEquals(7, scanner.scan(fileAttributes -> { }));
+  }
+
+  @Test
+  @Timeout(60)  // Used to hang forever
+  void testListingFailureIsThrown(@TempDir Path tempDir) throws Exception {
+    for (String directory : new String[] { "a", "b", "bad", "c" }) {
+      Path aDir = Files.createDirectories(tempDir.resolve(directory).resolve("sub"));
+      for (int k = 0; k < 20; k++) {
+        Files.write(aDir.resolve("file" + k + ".txt"), ("contents " + directory + k).getBytes());
+      }
+    }
+
+    for (int checkSumThreads = 0; checkSumThreads < 2; checkSumThreads++) {
+      PipelinedFileScanner scanner = new PipelinedFileScanner(tempDir) {
+        @Override
+        protected boolean couldIncludeBelow(Path directory) {
+          if (directory.getFileName().toString().equals("bad")) throw new SecurityException("Not allowed: " + directory);
+          return super.couldIncludeBelow(directory);
+        }
+      };
+      scanner.setListingThreads(3);
+      scanner.setCheckSumThreads(checkSumThreads);
+      scanner.setQueueCapacity(4);
+      List<FileAttributes> scanned = new ArrayList<FileAttributes>();
+      SecurityException thrown = assertThrows(SecurityException.class, () -> scanner.scan(scanned::add));
+      assertTrue(thrown.getMessage().contains("bad"), thrown.getMessage());
+      for (FileAttributes fileAttributes : scanned) {
+        assertFalse(fileAttributes.getPathFromBaseAsUnix().startsWith("bad/"), fileAttributes.getPathFromBaseAsUnix());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+package com.corti.files;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Times the pipelined scanner on platform threads and on virtual threads with the same number of
+ *   attribute workers, so the only difference is the kind of thread.  Local disks are too fast to
+ *   show anything so each FileAttributes build sleeps to act like a round trip to a file server.
+ * It's a program, not a unit test (it's with the tests so it isn't in the jar, surefire doesn't run
+ *   it); the virtual thread version of ScanExecutors is only loaded from the multi-release jar on
+ *   java 21+ (from target/classes you get the java 8 one), so run it against the jar:
+ *   java -cp target/FileUtils-0.0.1-SNAPSHOT.jar:target/test-classes com.corti.files.ScanExecutorsBenchmark [directory [threads [latencyMillis]]]
+ * Without a directory it makes a tree of 1000 small files in a temp directory (deleted after).
+ */
+public class ScanExecutorsBenchmark {
+
+  // Scanner that acts like every attribute read is a round trip to a file server
+  private static class HighLatencyScanner extends PipelinedFileScanner {
+    private final int latencyMillis;
+
+    HighLatencyScanner(Path startingPath, int latencyMillis) {
+      super(startingPath);
+      this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    protected FileAttributes getFileAttributesForPath(Path thePath, BasicFileAttributes basicFileAttributes,
+                                                      String startingAbsolutePath) throws Exception {
+      Thread.sleep(latencyMillis);
+      return super.getFileAttributesForPath(thePath, basicFileAttributes, startingAbsolutePath);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int numberOfThreads = (args.length > 1 ? Integer.parseInt(args[1]) : 64);
+    int latencyMillis   = (args.length > 2 ? Integer.parseInt(args[2]) : 2);
+    Path directory      = (args.length > 0 ? Paths.get(args[0]) : makeTree());
+    try {
+      System.out.println("java " + System.getProperty("java.version") + ", " +
+                         (ScanExecutors.isVirtualThreadSupported() ? "virtual threads" : "no virtual threads (java 8 ScanExecutors, run the jar on 21+)") +
+                         ", " + numberOfThreads + " attribute threads, " + latencyMillis + " ms latency");
+      run(directory, false, numberOfThreads, latencyMillis);  // Warm up
+      for (int i = 0; i < 3; i++) {
+        run(directory, false, numberOfThreads, latencyMillis);
+        run(directory, true, numberOfThreads, latencyMillis);
+      }
+    } finally {
+      if (args.length == 0) deleteTree(directory);
+    }
+  }
+
+  private static void run(Path directory, boolean useVirtualThreads, int numberOfThreads, int latencyMillis) throws Exception {
+    HighLatencyScanner scanner = new HighLatencyScanner(directory, latencyMillis);
+    scanner.setUseVirtualThreads(useVirtualThreads);
+    scanner.setAttributeThreads(numberOfThreads);
+    long startTime = System.nanoTime();
+    long count     = scanner.scan(fileAttributes -> { });
+    long millis    = (System.nanoTime() - startTime) / 1000000;
+    System.out.println((useVirtualThreads ? "  virtual:  " : "  platform: ") + count + " files in " + millis + " ms");
+  }
+
+  private static Path makeTree() throws IOException {
+    Path tempDir = Files.createTempDirectory("scanbenchmark");
+    for (int i = 0; i < 20; i++) {
+      Path aDir = Files.createDirectories(tempDir.resolve("dir" + i));
+      for (int j = 0; j < 50; j++) {
+        Files.write(aDir.resolve("file" + j + ".dat"), new byte[] { (byte) i, (byte) j });
+      }
+    }
+    return tempDir;
+  }
+
+  private static void deleteTree(Path directory) throws IOException {
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,88 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.Test;
+
+class ScanExecutorsTest {
+  private static final String JAVA21_CLASS = "META-INF/versions/21/com/corti/files/ScanExecutors";
+
+  @Test
+  void testPlatformThreads() throws Exception {
+    ExecutorService executor = ScanExecutors.newPlatformThreadExecutor("test", 2);
+    try {
+      Thread thread = executor.submit(Thread::currentThread).get();
+      assertEquals("test-1", thread.getName());
+      assertTrue(thread.isDaemon());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // The java 21 ScanExecutors (src/main/java21) has to give virtual threads.  Surefire runs from
+  //   target/classes where the jvm won't pick the META-INF/versions/21 class, so we load it ourselves
+  @Test
+  void testVirtualThreadsOnJava21() throws Exception {
+    String specificationVersion = System.getProperty("java.specification.version");
+    if (specificationVersion.startsWith("1.") || Integer.parseInt(specificationVersion) < 21) return;
+
+    Class<?> scanExecutors = ScanExecutors.class;
+    if (ScanExecutors.isVirtualThreadSupported() == false) {  // Not running from the multi-release jar
+      if (ScanExecutors.class.getClassLoader().getResource(JAVA21_CLASS + ".class") == null) {
+        System.out.println("No " + JAVA21_CLASS + ".class, it's only compiled by the java21-multi-release profile");
+        return;
+      }
+      scanExecutors = new Java21ClassLoader().loadClass(ScanExecutors.class.getName());
+    }
+    assertEquals(true, scanExecutors.getMethod("isVirtualThreadSupported").invoke(null));
+
+    ExecutorService executor = (ExecutorService) scanExecutors.getMethod("newVirtualThreadExecutor", String.class).invoke(null, "test");
+    try {
+      Thread thread = executor.submit(Thread::currentThread).get();
+      Method isVirtual = Thread.class.getMethod("isVirtual");
+      assertEquals(true, isVirtual.invoke(thread));
+      assertEquals("test-1", thread.getName());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // Defines ScanExecutors (and it's nested classes) from the META-INF/versions/21 class files, the
+  //   rest comes from the parent
+  private static class Java21ClassLoader extends ClassLoader {
+    Java21ClassLoader() {
+      super(ScanExecutors.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (name.equals(ScanExecutors.class.getName()) == false && name.startsWith(ScanExecutors.class.getName() + "$") == false) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> loaded = findLoadedClass(name);
+        if (loaded == null) {
+          String resource = "META-INF/versions/21/" + name.replace('.', '/') + ".class";
+          try (InputStream inputStream = getParent().getResourceAsStream(resource)) {
+            if (inputStream == null) throw new ClassNotFoundException(resource);
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int length; (length = inputStream.read(buffer)) > 0; ) byteArrayOutputStream.write(buffer, 0, length);
+            byte[] bytes = byteArrayOutputStream.toByteArray();
+            loaded = defineClass(name, bytes, 0, bytes.length);
+          } catch (IOException e) {
+            throw new ClassNotFoundException(resource, e);
+          }
+        }
+        if (resolve) resolveClass(loaded);
+        return loaded;
+      }
+    }
+  }
+}
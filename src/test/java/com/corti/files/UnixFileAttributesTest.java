@@ -0,0 +1,137 @@
+package com.corti.files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+
+import com.corti.files.checksum.CheckSum;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UnixFileAttributesTest {
+
+  @Test
+  void testBulkReadAndLinks(@TempDir Path tempDir) throws Exception {
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("unix") == false) return;
+
+    Path realTempDir = tempDir.toRealPath();
+    Path file = Files.write(realTempDir.resolve("data.txt"), "some data".getBytes());
+    UnixFileAttributes unixFileAttributes = new UnixFileAttributes(file);
+
+    PosixFileAttributes posixFileAttributes = Files.readAttributes(file, PosixFileAttributes.class);
+    assertEquals(posixFileAttributes.size(), unixFileAttributes.getSizeInBytes());
+    assertEquals(posixFileAttributes.lastModifiedTime(), unixFileAttributes.getLastModifiedTime());
+    assertEquals(posixFileAttributes.permissions(), unixFileAttributes.getPermissions());
+    assertEquals(posixFileAttributes.owner().getName(), unixFileAttributes.getOwner());
+    assertEquals(posixFileAttributes.group().getName(), unixFileAttributes.getGroup());
+    assertEquals(((Number) Files.getAttribute(file, "unix:ino")).longValue(), unixFileAttributes.getInode());
+    assertEquals(((Number) Files.getAttribute(file, "unix:dev")).longValue(), unixFileAttributes.getDevice());
+    assertEquals(1, unixFileAttributes.getNumberOfLinks());
+    assertEquals(((Number) Files.getAttribute(file, "unix:uid")).intValue(), unixFileAttributes.getUid());
+    assertEquals(file.toString(), unixFileAttributes.getAbsolutePath());
+    assertEquals("txt", unixFileAttributes.getFileExtension());
+
+    // A link is resolved to the file it points to
+    Path link = Files.createSymbolicLink(realTempDir.resolve("link.txt"), file);
+    UnixFileAttributes linkAttributes = new UnixFileAttributes(link.toString());
+    assertEquals(file.toString(), linkAttributes.getAbsolutePath());
+    assertEquals(unixFileAttributes.getInode(), linkAttributes.getInode());
+    assertFalse(linkAttributes.isSymbolicLink());
+
+    // Paths with . and .. are cleaned up
+    Path dotted = realTempDir.resolve("sub").resolve("..").resolve(".").resolve("data.txt");
+    Files.createDirectories(realTempDir.resolve("sub"));
+    assertEquals(file.toString(), new UnixFileAttributes(dotted).getAbsolutePath());
+  }
+
+  @Test
+  void testLinkedParentIsResolved(@TempDir Path tempDir) throws Exception {
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("unix") == false) return;
+
+    Path realTempDir = tempDir.toRealPath();
+    Path realDir = Files.createDirectories(realTempDir.resolve("real"));
+    Path file = Files.write(realDir.resolve("f"), "some data".getBytes());
+    Path linkedFile = Files.createSymbolicLink(realTempDir.resolve("link"), realDir).resolve("f");
+
+    // The path only constructors give the canonical path like they always did
+    assertEquals(file.toString(), new UnixFileAttributes(linkedFile).getAbsolutePath());
+    assertEquals(file.toString(), new UnixFileAttributes(linkedFile.toString()).getAbsolutePath());
+    assertEquals(realDir.toString() + "/", new UnixFileAttributes(linkedFile).getAbsoluteParentPath());
+    assertEquals(linkedFile, new UnixFileAttributes(linkedFile).getPath());
+  }
+
+  @Test
+  void testLazyFieldsSerializeTheSame(@TempDir Path tempDir) throws Exception {
+    Path realTempDir = tempDir.toRealPath();
+    Path file = Files.write(realTempDir.resolve("data.txt"), "some data".getBytes());
+
+    // One has everything asked for before it's written, the other has nothing asked for
+    UnixFileAttributes eager = new UnixFileAttributes(file, UnixAttributes.read(file));
+    eager.setStartingBasePath(realTempDir.toString());
+    assertEquals(realTempDir.toString() + "/", eager.getAbsoluteParentPath());
+    assertEquals("txt", eager.getFileExtension());
+    assertEquals("data.txt", eager.getPathFromBaseAsUnix());
+    assertFalse(eager.hasException());
+
+    UnixFileAttributes lazy = new UnixFileAttributes(file, Files.readAttributes(file, java.nio.file.attribute.BasicFileAttributes.class));
+    lazy.setStartingBasePath(realTempDir.toString());
+    byte[] lazyBytes = serialize(lazy);
+    assertArrayEquals(serialize(eager), lazyBytes);
+
+    try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(lazyBytes))) {
+      FileAttributes copy = (FileAttributes) objectInputStream.readObject();
+      assertEquals(file.toString(), copy.getAbsolutePath());
+      assertEquals(realTempDir.toString() + "/", copy.getAbsoluteParentPath());
+      assertEquals("txt", copy.getFileExtension());
+      assertEquals(eager.getCheckSumValue(), copy.getCheckSumValue());
+    }
+
+    // Permissions are read when first asked for if the caller didn't pass the posix attributes
+    assertEquals(Files.getPosixFilePermissions(file), lazy.getPermissions());
+  }
+
+  @Test
+  void testCheckSumKeptAsBytes(@TempDir Path tempDir) throws Exception {
+    Path realTempDir = tempDir.toRealPath();
+    Path file = Files.write(realTempDir.resolve("data.txt"), "some data".getBytes());
+    UnixFileAttributes unixFileAttributes = new UnixFileAttributes(file);
+    unixFileAttributes.setStartingBasePath(realTempDir.toString());
+
+    byte[] digest = CheckSum.computeFileDigest(file, "SHA-256");
+    assertArrayEquals(digest, unixFileAttributes.getCheckSumBytes());
+    assertNull(unixFileAttributes.checkSumValue);  // No hex until it's asked for
+    assertEquals(CheckSum.toHex(digest), unixFileAttributes.getCheckSumValue());
+    unixFileAttributes.getCheckSumBytes()[0]++;    // It's a copy
+    assertArrayEquals(digest, unixFileAttributes.getCheckSumBytes());
+
+    // The serialized form has the hex, it comes back as the bytes
+    try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(serialize(unixFileAttributes)))) {
+      FileAttributes copy = (FileAttributes) objectInputStream.readObject();
+      assertArrayEquals(digest, copy.getCheckSumBytesIfSet());
+      assertEquals(CheckSum.toHex(digest), copy.getCheckSumValue());
+    }
+
+    // A value that isn't lowercase hex stays a string
+    unixFileAttributes.setCheckSumValue("ABCD");
+    assertNull(unixFileAttributes.getCheckSumBytes());
+    assertEquals("ABCD", unixFileAttributes.getCheckSumValue());
+    assertNull(CheckSum.fromHex("abc"));
+    assertArrayEquals(new byte[] { (byte) 0xab, (byte) 0xcd }, CheckSum.fromHex("abcd"));
+  }
+
+  private static byte[] serialize(FileAttributes fileAttributes) throws Exception {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+      objectOutputStream.writeObject(fileAttributes);
+    }
+    return byteArrayOutputStream.toByteArray();
+  }
+}
@@ -0,0 +1,87 @@
+package com.corti.files.checksum;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CheckSumCacheTest {
+
+  @Test
+  void testHitsMissesAndReopen(@TempDir Path tempDir) throws Exception {
+    Path cacheFile = tempDir.resolve("checksums.cache");
+    Path file = Files.write(tempDir.resolve("data.txt"), "some data".getBytes());
+    byte[] expected = CheckSum.computeFileDigest(file, "SHA-256");
+
+    try (CheckSumCache checkSumCache = CheckSumCache.open(cacheFile)) {
+      CheckSumCache.setDefault(checkSumCache);
+      assertArrayEquals(expected, CheckSum.getFileDigest(file, "SHA-256"));
+      assertEquals(1, checkSumCache.getMisses());
+      assertEquals(CheckSum.toHex(expected), CheckSum.getFileCheckSumValue(file, "SHA-256"));
+      assertEquals(1, checkSumCache.getHits());
+      CheckSum.getFileDigest(file, "MD5");  // Different algorithm is a different entry
+      assertEquals(2, checkSumCache.size());
+    }
+    assertNull(CheckSumCache.getDefault());
+
+    // Still there after it's opened again, a partial record at the end is dropped
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(cacheFile.toFile(), "rw")) {
+      randomAccessFile.seek(randomAccessFile.length());
+      randomAccessFile.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+    }
+    try (CheckSumCache checkSumCache = CheckSumCache.open(cacheFile)) {
+      assertEquals(2, checkSumCache.size());
+      assertArrayEquals(expected, checkSumCache.get(CheckSumCache.Key.forFile(file, "SHA-256")));
+
+      // Changing the file changes the key
+      Files.write(file, "other data".getBytes());
+      Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5000));
+      assertNull(checkSumCache.get(CheckSumCache.Key.forFile(file, "SHA-256")));
+      assertArrayEquals(CheckSum.computeFileDigest(file, "SHA-256"), checkSumCache.getFileDigest(file, "SHA-256"));
+      assertEquals(3, checkSumCache.size());
+
+      // Cap and compact
+      checkSumCache.setMaxEntries(1);
+      assertEquals(1, checkSumCache.size());
+      checkSumCache.compact();
+    }
+    try (CheckSumCache checkSumCache = CheckSumCache.open(cacheFile)) {
+      assertEquals(1, checkSumCache.size());
+      assertArrayEquals(CheckSum.computeFileDigest(file, "SHA-256"), checkSumCache.get(CheckSumCache.Key.forFile(file, "SHA-256")));
+    }
+    assertFalse(Files.exists(tempDir.resolve("checksums.cache.tmp")));
+  }
+
+  @Test
+  void testWriteFailuresDontLoseChecksums(@TempDir Path tempDir) throws Exception {
+    Path cacheFile = tempDir.resolve("checksums.cache");
+    Path file1 = Files.write(tempDir.resolve("data1.txt"), "some data".getBytes());
+    Path file2 = Files.write(tempDir.resolve("data2.txt"), "more data".getBytes());
+    // A directory where the temp file goes, so compact() can't write it
+    Files.write(Files.createDirectory(tempDir.resolve("checksums.cache.tmp")).resolve("x"), new byte[1]);
+
+    CheckSumCache checkSumCache = CheckSumCache.open(cacheFile);
+    checkSumCache.getFileDigest(file1, "SHA-256");
+    assertThrows(IOException.class, () -> checkSumCache.compact());
+    // The log was opened again, puts still go to it
+    assertArrayEquals(CheckSum.computeFileDigest(file2, "SHA-256"), checkSumCache.getFileDigest(file2, "SHA-256"));
+    checkSumCache.close();
+
+    // After it's closed put() throws (not a NullPointerException) but getFileDigest still gives the checksum
+    CheckSumCache.Key key = CheckSumCache.Key.forFile(file1, "MD5");
+    assertThrows(IOException.class, () -> checkSumCache.put(key, new byte[16]));
+    assertArrayEquals(CheckSum.computeFileDigest(file1, "MD5"), checkSumCache.getFileDigest(file1, "MD5", key));
+    checkSumCache.flush();
+
+    try (CheckSumCache reopened = CheckSumCache.open(cacheFile)) {
+      assertEquals(2, reopened.size());
+      assertArrayEquals(CheckSum.computeFileDigest(file2, "SHA-256"), reopened.get(CheckSumCache.Key.forFile(file2, "SHA-256")));
+    }
+  }
+}
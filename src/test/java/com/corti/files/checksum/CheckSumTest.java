@@ -3,8 +3,17 @@ package com.corti.files.checksum;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 class CheckSumTest {
   
@@ -41,4 +50,123 @@ class CheckSumTest {
   
     assertEquals(true, true);
   }
+
+  @Test
+  public void testChannelAndMappedReadsMatchDigest(@TempDir Path tempDir) throws Exception {
+    int originalBufferSize = CheckSum.getBufferSize();
+    long originalThreshold = CheckSum.getMemoryMapThreshold();
+    try {
+      CheckSum.setBufferSize(4096);
+      Random random = new Random(42);
+      for (int fileSize : new int[] { 0, 1, 4095, 4096, 4097, 100000 }) {
+        byte[] data = new byte[fileSize];
+        random.nextBytes(data);
+        Path file = Files.write(tempDir.resolve("file" + fileSize), data);
+        for (String algorithm : new String[] { "MD5", "SHA-256" }) {
+          byte[] expected = MessageDigest.getInstance(algorithm).digest(data);
+          CheckSum.setMemoryMapThreshold(Long.MAX_VALUE);
+          assertArrayEquals(expected, CheckSum.getFileDigest(file, algorithm));
+          assertEquals(CheckSum.toHex(expected), CheckSum.getFileCheckSumValue(file, algorithm));
+          CheckSum.setMemoryMapThreshold(1);
+          assertArrayEquals(expected, CheckSum.getFileDigest(file, algorithm));
+        }
+      }
+      assertEquals("00ff10", CheckSum.toHex(new byte[] { 0, (byte) 0xff, 0x10 }));
+      assertThrows(IllegalArgumentException.class, () -> CheckSum.setBufferSize(10));
+    } finally {
+      CheckSum.setBufferSize(originalBufferSize);
+      CheckSum.setMemoryMapThreshold(originalThreshold);
+    }
+  }
+
+  @Test
+  public void testFastAlgorithms(@TempDir Path tempDir) throws Exception {
+    // Published check values
+    assertEquals("e3069283", CheckSum.toHex(new CRC32CMessageDigest().digest("123456789".getBytes("US-ASCII"))));
+    assertEquals("00000000", CheckSum.toHex(new CRC32CMessageDigest().digest(new byte[0])));
+    assertEquals("ef46db3751d8e999", CheckSum.toHex(new XXHash64MessageDigest().digest(new byte[0])));
+    assertEquals("44bc2cf5ad770999", CheckSum.toHex(new XXHash64MessageDigest().digest("abc".getBytes("US-ASCII"))));
+    assertEquals("fbcea83c8a378bf1", CheckSum.toHex(new XXHash64MessageDigest().digest(
+        "Nobody inspects the spammish repetition".getBytes("US-ASCII"))));
+
+    // Same digest however the bytes are fed in (arrays, direct buffers, a byte at a time, a clone part way)
+    int originalBufferSize = CheckSum.getBufferSize();
+    long originalThreshold = CheckSum.getMemoryMapThreshold();
+    try {
+      CheckSum.setBufferSize(4096);
+      Random random = new Random(11);
+      for (int fileSize : new int[] { 1, 3, 31, 32, 33, 4097, 70001 }) {
+        byte[] data = new byte[fileSize];
+        random.nextBytes(data);
+        Path file = Files.write(tempDir.resolve("file" + fileSize), data);
+        for (String algorithm : new String[] { CheckSum.CRC32C, CheckSum.XXH64 }) {
+          byte[] expected = CheckSum.getMessageDigest(algorithm).digest(data);
+
+          MessageDigest byBytes = CheckSum.getMessageDigest(algorithm);
+          for (byte theByte : data) byBytes.update(theByte);
+          assertArrayEquals(expected, byBytes.digest());
+
+          MessageDigest byDirectBuffer = CheckSum.getMessageDigest(algorithm);
+          int half = fileSize / 2 + 1;
+          byDirectBuffer.update(data, 0, Math.min(5, fileSize));
+          ByteBuffer direct = ByteBuffer.allocateDirect(fileSize);
+          direct.put(data).flip().position(Math.min(5, fileSize));
+          byDirectBuffer.update(direct);
+          assertArrayEquals(expected, byDirectBuffer.digest());
+
+          MessageDigest partWay = CheckSum.getMessageDigest(algorithm);
+          partWay.update(data, 0, half > fileSize ? fileSize : half);
+          MessageDigest copy = (MessageDigest) partWay.clone();
+          if (half < fileSize) {
+            partWay.update(data, half, fileSize - half);
+            copy.update(data, half, fileSize - half);
+          }
+          assertArrayEquals(expected, partWay.digest());
+          assertArrayEquals(expected, copy.digest());
+
+          CheckSum.setMemoryMapThreshold(Long.MAX_VALUE);
+          assertArrayEquals(expected, CheckSum.getFileDigest(file, algorithm));
+          CheckSum.setMemoryMapThreshold(1);
+          assertArrayEquals(expected, CheckSum.getFileDigest(file, algorithm));
+        }
+      }
+    } finally {
+      CheckSum.setBufferSize(originalBufferSize);
+      CheckSum.setMemoryMapThreshold(originalThreshold);
+    }
+  }
+
+  @Test
+  public void testMultipleDigestsFromOneRead(@TempDir Path tempDir) throws Exception {
+    int originalBufferSize = CheckSum.getBufferSize();
+    long originalThreshold = CheckSum.getMemoryMapThreshold();
+    try {
+      CheckSum.setBufferSize(4096);
+      byte[] data = new byte[50000];
+      new Random(7).nextBytes(data);
+      Path file = Files.write(tempDir.resolve("file"), data);
+      for (long threshold : new long[] { Long.MAX_VALUE, 1 }) {
+        CheckSum.setMemoryMapThreshold(threshold);
+        Map<String, byte[]> digests = CheckSum.getFileDigests(file, "MD5", "SHA-256", "SHA-1", "MD5");
+        assertEquals(Arrays.asList("MD5", "SHA-256", "SHA-1"), new ArrayList<String>(digests.keySet()));
+        for (String algorithm : digests.keySet()) {
+          assertArrayEquals(MessageDigest.getInstance(algorithm).digest(data), digests.get(algorithm));
+        }
+      }
+
+      // With a cache only the algorithms it doesn't have are computed
+      try (CheckSumCache checkSumCache = CheckSumCache.open(tempDir.resolve("checksums.cache"))) {
+        CheckSumCache.Key key = CheckSumCache.Key.forFile(file, "MD5");
+        checkSumCache.put(key, new byte[] { 1, 2, 3 });
+        Map<String, byte[]> digests = checkSumCache.getFileDigests(file, key, "SHA-256", "MD5");
+        assertEquals(Arrays.asList("SHA-256", "MD5"), new ArrayList<String>(digests.keySet()));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, digests.get("MD5"));
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), digests.get("SHA-256"));
+        assertArrayEquals(digests.get("SHA-256"), checkSumCache.get(key.withAlgorithm("SHA-256")));
+      }
+    } finally {
+      CheckSum.setBufferSize(originalBufferSize);
+      CheckSum.setMemoryMapThreshold(originalThreshold);
+    }
+  }
 }
@@ -0,0 +1,83 @@
+package com.corti.files.checksum;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MerkleTreeTest {
+
+  @Test
+  public void testRootAndChangedRanges(@TempDir Path tempDir) throws Exception {
+    byte[] contents = new byte[10 * 4096 + 100];
+    new Random(21).nextBytes(contents);
+    Path file = Files.write(tempDir.resolve("image.bin"), contents);
+
+    ExecutorService executorService = Executors.newFixedThreadPool(3);
+    try {
+      MerkleTree merkleTree = MerkleTree.compute(file, "SHA-256", 4096, executorService);
+      assertEquals(11, merkleTree.getNumberOfBlocks());
+      assertEquals(contents.length, merkleTree.getSize());
+
+      // Leaf is H(0 + block), the root is the same however many threads hashed it
+      MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+      sha256.update((byte) 0);
+      sha256.update(contents, 4096, 4096);
+      assertArrayEquals(sha256.digest(), merkleTree.getBlockDigest(1));
+      String algorithmName = MerkleTree.getAlgorithmName("SHA-256", 4096);
+      assertEquals("MERKLE-4096-SHA-256", algorithmName);
+      assertArrayEquals(merkleTree.getRoot(), MerkleTree.compute(file, algorithmName).getRoot());
+
+      // Two blocks next to each other change, then the file gets longer
+      contents[2 * 4096 + 5]++;
+      contents[3 * 4096]++;
+      MerkleTree changed = MerkleTree.compute(Files.write(tempDir.resolve("changed.bin"), contents), "SHA-256", 4096, executorService);
+      assertFalse(Arrays.equals(merkleTree.getRoot(), changed.getRoot()));
+      assertEquals(Arrays.asList(new MerkleTree.ByteRange(2 * 4096, 4 * 4096)), merkleTree.getChangedRanges(changed));
+
+      byte[] longer = Arrays.copyOf(contents, contents.length + 5000);
+      MerkleTree grown = MerkleTree.compute(Files.write(tempDir.resolve("longer.bin"), longer), "SHA-256", 4096, executorService);
+      assertEquals(Arrays.asList(new MerkleTree.ByteRange(10 * 4096, longer.length)), changed.getChangedRanges(grown));
+      assertEquals(Collections.emptyList(), changed.getChangedRanges(changed));
+
+      MerkleTree otherBlockSize = MerkleTree.compute(file, "SHA-256", 8192, executorService);
+      assertThrows(IllegalArgumentException.class, () -> merkleTree.getChangedRanges(otherBlockSize));
+
+      // An empty file is one empty block
+      MerkleTree empty = MerkleTree.compute(Files.write(tempDir.resolve("empty.bin"), new byte[0]), CheckSum.XXH64, 4096, executorService);
+      assertEquals(1, empty.getNumberOfBlocks());
+      assertEquals(CheckSum.toHex(CheckSum.getMessageDigest(CheckSum.XXH64).digest(new byte[] { 0 })), CheckSum.toHex(empty.getRoot()));
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  // A worker (task) for each of the executor's threads, or as many as we ask for
+  @Test
+  public void testNumberOfWorkers(@TempDir Path tempDir) throws Exception {
+    byte[] contents = new byte[10 * 4096];
+    new Random(21).nextBytes(contents);
+    Path file = Files.write(tempDir.resolve("image.bin"), contents);
+
+    ThreadPoolExecutor executorService = (ThreadPoolExecutor) Executors.newFixedThreadPool(3);
+    try {
+      MerkleTree merkleTree = MerkleTree.compute(file, "SHA-256", 4096, executorService);
+      assertEquals(3, executorService.getTaskCount());
+      assertArrayEquals(merkleTree.getRoot(), MerkleTree.compute(file, "SHA-256", 4096, executorService, 5).getRoot());
+      assertEquals(3 + 5, executorService.getTaskCount());
+      assertThrows(IllegalArgumentException.class, () -> MerkleTree.compute(file, "SHA-256", 4096, executorService, 0));
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+}
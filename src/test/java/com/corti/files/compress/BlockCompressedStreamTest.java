@@ -0,0 +1,123 @@
+package com.corti.files.compress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.corti.files.FileAttributes;
+import com.corti.files.SerializeOrDeserializeFileAttributes;
+import com.corti.files.UnixFileAttributes;
+
+public class BlockCompressedStreamTest {
+
+  @Test
+  public void testCodecsRoundTrip() throws Exception {
+    // Paths like a snapshot has, some random bytes and a long run
+    StringBuilder paths = new StringBuilder();
+    Random random = new Random(24);
+    for (int i = 0; i < 3000; i++) paths.append("/home/user/projects/fileutils/src/main/java/File").append(random.nextInt(500)).append(".java\n");
+    byte[] text = paths.toString().getBytes("UTF-8");
+    byte[] noise = new byte[20000];
+    random.nextBytes(noise);
+    byte[] data = concat(text, noise, new byte[30000], "tail".getBytes("UTF-8"));
+
+    for (Codec codec : Codec.values()) {
+      for (int threads : new int[] { 1, 3 }) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (BlockCompressedOutputStream outputStream = new BlockCompressedOutputStream(compressed, codec, 6, 16 * 1024, threads)) {
+          outputStream.write(data, 0, 1000);
+          outputStream.write(data[1000]);
+          outputStream.write(data, 1001, data.length - 1001);
+        }
+        byte[] compressedBytes = compressed.toByteArray();
+        if (codec != Codec.NONE) assertTrue(compressedBytes.length < data.length / 2, codec + " " + compressedBytes.length);
+        try (BlockCompressedInputStream inputStream = new BlockCompressedInputStream(new ByteArrayInputStream(compressedBytes), threads)) {
+          assertArrayEquals(data, readAll(inputStream));
+          assertEquals(codec, inputStream.getCodec());
+          assertEquals((data.length + 16 * 1024 - 1) / (16 * 1024), inputStream.getBlocksRead());
+        }
+      }
+    }
+
+    // Lz4 edge cases, nothing to find and overlapping matches
+    for (byte[] block : Arrays.asList(new byte[0], "a".getBytes(), "abcabcabcabcabcabcabcabcabc".getBytes(), new byte[100000], noise)) {
+      byte[] compressed = new byte[Lz4Block.maxCompressedLength(block.length)];
+      int length = Lz4Block.compress(block, block.length, compressed);
+      byte[] decompressed = new byte[block.length];
+      Lz4Block.decompress(compressed, length, decompressed, block.length);
+      assertArrayEquals(block, decompressed);
+    }
+    assertEquals(Codec.DEFLATE, Codec.forName("Deflate:9"));
+    assertEquals(9, Codec.getLevel("deflate:9"));
+  }
+
+  @Test
+  public void testCorruptBlock() throws Exception {
+    byte[] data = new byte[50000];
+    Arrays.fill(data, (byte) 'x');
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (BlockCompressedOutputStream outputStream = new BlockCompressedOutputStream(compressed, Codec.LZ4, 0, 16 * 1024, 1)) {
+      outputStream.write(data);
+    }
+    byte[] compressedBytes = compressed.toByteArray();
+    compressedBytes[compressedBytes.length - 6]++;    // A literal in the last block, the crc catches it
+    try (BlockCompressedInputStream inputStream = new BlockCompressedInputStream(new ByteArrayInputStream(compressedBytes), 2)) {
+      assertThrows(IOException.class, () -> readAll(inputStream));
+    }
+    byte[] truncated = Arrays.copyOf(compressed.toByteArray(), compressedBytes.length - 4);  // No end marker
+    try (BlockCompressedInputStream inputStream = new BlockCompressedInputStream(new ByteArrayInputStream(truncated), 1)) {
+      assertThrows(IOException.class, () -> readAll(inputStream));
+    }
+  }
+
+  @Test
+  public void testCompressedSnapshots(@TempDir Path tempDir) throws Exception {
+    List<FileAttributes> fileAttributesList = new ArrayList<FileAttributes>();
+    for (int i = 0; i < 50; i++) {
+      FileAttributes fileAttributes = new UnixFileAttributes(Files.write(tempDir.resolve("file" + i + ".txt"), ("contents " + i).getBytes()));
+      fileAttributes.setStartingBasePath(tempDir.toString());
+      fileAttributesList.add(fileAttributes);
+    }
+    Path plain   = tempDir.resolve("plain.ser");
+    Path deflate = tempDir.resolve("deflate.ser");
+    Path lz4     = tempDir.resolve("lz4.far");
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesList(fileAttributesList, plain));
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesList(fileAttributesList, deflate, Codec.DEFLATE, 9));
+    assertTrue(SerializeOrDeserializeFileAttributes.serializeFileAttributesRecords(fileAttributesList, lz4, Codec.LZ4, 0));
+    assertTrue(Files.size(deflate) < Files.size(plain) / 2);
+
+    for (Path snapshot : Arrays.asList(plain, deflate, lz4)) {
+      List<FileAttributes> readBack = SerializeOrDeserializeFileAttributes.deserializeFileAttributesList(snapshot);
+      assertEquals(50, readBack.size());
+      assertEquals(fileAttributesList.get(49).getAbsolutePath(), readBack.get(49).getAbsolutePath());
+      assertEquals(fileAttributesList.get(49).getCheckSumValue(), readBack.get(49).getCheckSumValue());
+      assertEquals(50, SerializeOrDeserializeFileAttributes.deserializeFileAttributesTable(snapshot).size());
+    }
+  }
+
+  private static byte[] readAll(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[7000];
+    int length;
+    while ((length = inputStream.read(buffer)) >= 0) bytes.write(buffer, 0, length);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] concat(byte[]... arrays) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (byte[] array : arrays) bytes.write(array, 0, array.length);
+    return bytes.toByteArray();
+  }
+}